@@ -36,7 +36,7 @@ public class ChatActivity extends AppCompatActivity {
 
         // Get IP from Intent
         String ip = getIntent().getStringExtra("server_ip");
-        connectionManager = new ConnectionManager(ip != null ? ip : "192.168.1.5");
+        connectionManager = ConnectionManager.getInstance(this, ip);
 
         repository = new ChatRepository(this);
         messages = repository.loadMessages();
@@ -1,9 +1,6 @@
 package com.prajwal.myfirstapp.connectivity;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.util.Base64;
-import android.util.Log;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -14,7 +11,8 @@ import java.net.SocketTimeoutException;
 public class BackgroundServices {
 
     private boolean isPreviewOn = false;
-    private final int DISCOVERY_PORT = 37020;
+    private volatile PreviewReceiver previewReceiver;
+    private ServerDiscovery.PresenceListener presenceListener;
     private final int STATUS_PORT = 37021;
     private final int PREVIEW_PORT = 37022;
 
@@ -35,34 +33,25 @@ public class BackgroundServices {
 
     public void setPreviewEnabled(boolean enabled) {
         this.isPreviewOn = enabled;
+        PreviewReceiver receiver = previewReceiver;
+        if (receiver != null) receiver.setEnabled(enabled);
     }
 
+    /**
+     * Report every server announcement (LAPTOP_SERVER_ACTIVE) and discovery
+     * reply. Shares the discovery socket with scans (see {@link ServerDiscovery}).
+     */
     public void startAutoDiscovery(DiscoveryCallback callback) {
-        new Thread(() -> {
-            try {
-                DatagramSocket socket = new DatagramSocket(null);
-                socket.setReuseAddress(true); // Allow port sharing
-                socket.bind(new java.net.InetSocketAddress(DISCOVERY_PORT));
-                byte[] inBuf = new byte[1024];
+        stopAutoDiscovery();
+        presenceListener = ip -> {
+            if (callback != null) callback.onServerFound();
+        };
+        ServerDiscovery.getInstance().addPresenceListener(presenceListener);
+    }
 
-                while (true) {
-                    try {
-                        DatagramPacket inPacket = new DatagramPacket(inBuf, inBuf.length);
-                        socket.receive(inPacket);
-                        String reply = new String(inPacket.getData(), 0, inPacket.getLength()).trim();
-                        if (reply.equals("LAPTOP_IP_FOUND") || reply.equals("LAPTOP_SERVER_ACTIVE")) {
-                            if (callback != null) {
-                                callback.onServerFound();
-                            }
-                        }
-                    } catch (Exception e) {
-                        // Ignore timeouts
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
+    public void stopAutoDiscovery() {
+        if (presenceListener != null) ServerDiscovery.getInstance().removePresenceListener(presenceListener);
+        presenceListener = null;
     }
 //public void startAutoDiscovery(DiscoveryCallback callback) {
 //    new Thread(() -> {
@@ -130,32 +119,29 @@ public class BackgroundServices {
         }).start();
     }
 
+    /**
+     * Start the screen preview receiver (see {@link PreviewReceiver}).
+     * The callback runs on the main thread with a reused bitmap. Calling it
+     * again while running does nothing.
+     */
     public void startPreviewListener(PreviewCallback callback) {
-        new Thread(() -> {
-            try {
-                DatagramSocket socket = new DatagramSocket(PREVIEW_PORT);
-                byte[] buf = new byte[64000];
-                while (true) {
-                    DatagramPacket packet = new DatagramPacket(buf, buf.length);
-                    socket.receive(packet);
-                    if (isPreviewOn) {
-                        String rawData = new String(packet.getData(), 0, packet.getLength());
-                        if (rawData.startsWith("IMG:")) {
-                            try {
-                                byte[] imageBytes = Base64.decode(rawData.substring(4), Base64.DEFAULT);
-                                Bitmap decodedImage = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-                                if (decodedImage != null && callback != null) {
-                                    callback.onImageReceived(decodedImage);
-                                }
-                            } catch (Exception e) {
-                                Log.e("Preview", "Decode Error", e);
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
+        startPreviewListener(callback, null);
+    }
+
+    /** @param keyframeRequest asks the PC for a full frame after loss (may be null) */
+    public synchronized void startPreviewListener(PreviewCallback callback, Runnable keyframeRequest) {
+        if (previewReceiver != null && previewReceiver.isRunning()) return;
+        previewReceiver = new PreviewReceiver(PREVIEW_PORT,
+                bitmap -> { if (callback != null) callback.onImageReceived(bitmap); },
+                keyframeRequest);
+        previewReceiver.setEnabled(isPreviewOn);
+        previewReceiver.start();
+    }
+
+    public synchronized void stopPreviewListener() {
+        if (previewReceiver != null) {
+            previewReceiver.stop();
+            previewReceiver = null;
+        }
     }
 }
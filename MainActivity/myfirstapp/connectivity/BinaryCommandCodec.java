@@ -0,0 +1,326 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Compact binary framing ("wire v2") for the high-frequency command set.
+ *
+ * The text protocol turns a 20-byte MOUSE_MOVE into ~130 bytes
+ * (Base64(IV + AES-CBC) | timestamp | 64-char hex HMAC). Wire v2 sends
+ * the same command in ~24 bytes. It is only used after the server has
+ * acknowledged it during performHandshake; everything else, and every
+ * command outside the hot set, still goes over the text protocol.
+ *
+ * Packet layout (all integers big-endian):
+ *
+ *   [0]      MAGIC 0xB1       — never a valid first byte of a text packet
+ *   [1]      VERSION 0x02
+ *   [2]      opcode           — see OP_* below
+ *   [3..6]   session id       — random per channel, u32
+ *   [7..10]  timestamp        — sender's Unix time in seconds, u32
+ *   [11..]   sequence number  — unsigned LEB128 varint, strictly increasing
+ *   [..]     payload          — opcode-specific, AES-CTR encrypted when enabled
+ *   [-8..]   MAC              — HMAC-SHA256(header + payload)[0..8]
+ *
+ * Payload encodings:
+ *   MOUSE_MOVE           zigzag varint dx*16, dy*16   (1/16 px fixed point; the
+ *                        rounding error is carried into the next move)
+ *   MOUSE_MOVE_RELATIVE  zigzag varint dx, dy
+ *   MOUSE_SCROLL         zigzag varint ticks
+ *   KEY                  varint length + UTF-8 key name
+ *   no-argument commands empty payload
+ *
+ * AES-CTR counter block: session(4) | seq(8) | block counter(4, from 0).
+ * Session + seq never repeat under one key, so the keystream is never reused.
+ * The receiver must reject any seq ≤ the last accepted seq for that session,
+ * and any packet whose timestamp is more than {@link #MAX_CLOCK_SKEW_SEC}
+ * from its own clock. The seq check alone forgets everything when the
+ * receiver restarts; the timestamp, covered by the MAC like the session id,
+ * keeps a captured packet from being replayed to it after that.
+ * (v1 had no timestamp; v2 is the same layout with it added.)
+ *
+ * Not thread-safe: one codec per sending thread, or synchronise externally.
+ * Golden vectors for the server live in app/src/test/resources/wire_v2_golden_vectors.txt.
+ */
+public class BinaryCommandCodec {
+
+    public static final int VERSION = 2;
+    public static final byte MAGIC = (byte) 0xB1;
+    public static final int MAC_LEN = 8;
+    /** Upper bound of an encoded hot-set packet (KEY names are short). */
+    public static final int MAX_PACKET = 128;
+    /** Packets stamped further than this from the receiver's clock are rejected. */
+    public static final long MAX_CLOCK_SKEW_SEC = 30;
+
+    // ─── Opcodes ─────────────────────────────────────────────────
+    public static final int OP_MOUSE_MOVE          = 0x01;
+    public static final int OP_MOUSE_MOVE_RELATIVE = 0x02;
+    public static final int OP_MOUSE_SCROLL        = 0x03;
+    public static final int OP_MOUSE_CLICK         = 0x04;
+    public static final int OP_MOUSE_RIGHT_CLICK   = 0x05;
+    public static final int OP_MOUSE_LEFT_DOWN     = 0x06;
+    public static final int OP_KEY                 = 0x10;
+    public static final int OP_MEDIA_PLAY_PAUSE    = 0x20;
+    public static final int OP_MEDIA_NEXT          = 0x21;
+    public static final int OP_MEDIA_PREV          = 0x22;
+    public static final int OP_VOL_UP              = 0x23;
+    public static final int OP_VOL_DOWN            = 0x24;
+    public static final int OP_MUTE_TOGGLE         = 0x25;
+
+    private static final int HEADER_FIXED = 11;  // magic + version + opcode + session + timestamp
+    private static final float MOVE_SCALE = 16f;
+
+    private static final Map<String, Integer> NO_ARG_OPS = new HashMap<>();
+    private static final String[] NO_ARG_NAMES = new String[256];
+    static {
+        registerNoArg("MOUSE_CLICK", OP_MOUSE_CLICK);
+        registerNoArg("MOUSE_RIGHT_CLICK", OP_MOUSE_RIGHT_CLICK);
+        registerNoArg("MOUSE_LEFT_DOWN", OP_MOUSE_LEFT_DOWN);
+        registerNoArg("MEDIA_PLAY_PAUSE", OP_MEDIA_PLAY_PAUSE);
+        registerNoArg("MEDIA_NEXT", OP_MEDIA_NEXT);
+        registerNoArg("MEDIA_PREV", OP_MEDIA_PREV);
+        registerNoArg("VOL_UP", OP_VOL_UP);
+        registerNoArg("VOL_DOWN", OP_VOL_DOWN);
+        registerNoArg("MUTE_TOGGLE", OP_MUTE_TOGGLE);
+    }
+
+    private static void registerNoArg(String name, int op) {
+        NO_ARG_OPS.put(name, op);
+        NO_ARG_NAMES[op] = name;
+    }
+
+    private final SecretKeySpec aesKey;
+    private final Mac mac;
+    private final Cipher ctr;
+    private final int sessionId;
+    private final boolean encrypt;
+
+    private long nextSeq = 1;
+    private long lastAcceptedSeq = 0;   // decoder-side replay window
+    private float moveRemX, moveRemY;   // MOUSE_MOVE rounding error, 1/16 px
+
+    private final byte[] payload = new byte[MAX_PACKET];
+    private final byte[] macOut = new byte[32];
+    private final byte[] counter = new byte[16];
+
+    public BinaryCommandCodec(byte[] aesKey, byte[] hmacKey, int sessionId, boolean encrypt)
+            throws Exception {
+        this.aesKey = new SecretKeySpec(aesKey, "AES");
+        this.mac = Mac.getInstance("HmacSHA256");
+        this.mac.init(new SecretKeySpec(hmacKey, "HmacSHA256"));
+        this.ctr = Cipher.getInstance("AES/CTR/NoPadding");
+        this.sessionId = sessionId;
+        this.encrypt = encrypt;
+    }
+
+    public int getSessionId() { return sessionId; }
+
+    /** Force the next sequence number (golden vectors / tests). */
+    void setNextSeq(long seq) { this.nextSeq = seq; }
+
+    // ─── Encoding ────────────────────────────────────────────────
+
+    /**
+     * Encode {@code command} into {@code out}. Returns the packet length, or
+     * -1 if the command is not in the hot set and must use the text protocol.
+     */
+    public int encode(String command, byte[] out) throws Exception {
+        return encode(command, out, System.currentTimeMillis() / 1000L);
+    }
+
+    /** {@link #encode(String, byte[])} stamped with {@code nowSec} (golden vectors / tests). */
+    int encode(String command, byte[] out, long nowSec) throws Exception {
+        int op;
+        int plen = 0;
+        Integer noArg = NO_ARG_OPS.get(command);
+        if (noArg != null) {
+            op = noArg;
+        } else if (command.startsWith("MOUSE_MOVE_RELATIVE:")) {
+            String[] p = command.substring(20).split(":");
+            if (p.length != 2) return -1;
+            op = OP_MOUSE_MOVE_RELATIVE;
+            plen = writeVarint(zigzag(Integer.parseInt(p[0].trim())), payload, plen);
+            plen = writeVarint(zigzag(Integer.parseInt(p[1].trim())), payload, plen);
+        } else if (command.startsWith("MOUSE_MOVE:")) {
+            String[] p = command.substring(11).split(",");
+            if (p.length != 2) return -1;
+            float sx = Float.parseFloat(p[0]) * MOVE_SCALE + moveRemX;
+            float sy = Float.parseFloat(p[1]) * MOVE_SCALE + moveRemY;
+            int qx = Math.round(sx);
+            int qy = Math.round(sy);
+            op = OP_MOUSE_MOVE;
+            plen = writeVarint(zigzag(qx), payload, plen);
+            plen = writeVarint(zigzag(qy), payload, plen);
+            // Slow drags of less than 1/32 px per frame must still add up
+            moveRemX = sx - qx;
+            moveRemY = sy - qy;
+        } else if (command.startsWith("MOUSE_SCROLL:")) {
+            op = OP_MOUSE_SCROLL;
+            plen = writeVarint(zigzag(Integer.parseInt(command.substring(13).trim())), payload, plen);
+        } else if (command.startsWith("KEY:")) {
+            byte[] key = command.substring(4).getBytes(StandardCharsets.UTF_8);
+            if (key.length > MAX_PACKET - 32) return -1;
+            op = OP_KEY;
+            plen = writeVarint(key.length, payload, plen);
+            System.arraycopy(key, 0, payload, plen, key.length);
+            plen += key.length;
+        } else {
+            return -1;
+        }
+
+        long seq = nextSeq++;
+        int pos = 0;
+        out[pos++] = MAGIC;
+        out[pos++] = VERSION;
+        out[pos++] = (byte) op;
+        pos = writeInt(sessionId, out, pos);
+        pos = writeInt((int) nowSec, out, pos);
+        pos = writeVarint(seq, out, pos);
+
+        if (encrypt && plen > 0) {
+            ctr.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(counterBlock(seq)));
+            pos += ctr.doFinal(payload, 0, plen, out, pos);
+        } else {
+            System.arraycopy(payload, 0, out, pos, plen);
+            pos += plen;
+        }
+
+        mac.update(out, 0, pos);
+        mac.doFinal(macOut, 0);
+        System.arraycopy(macOut, 0, out, pos, MAC_LEN);
+        return pos + MAC_LEN;
+    }
+
+    // ─── Decoding ────────────────────────────────────────────────
+
+    /**
+     * Verify and decode one packet back into its text command.
+     * Throws IllegalArgumentException on a bad magic/version/MAC, a foreign
+     * session, a stale timestamp, or a replayed sequence number.
+     */
+    public String decode(byte[] in, int off, int len) throws Exception {
+        return decode(in, off, len, System.currentTimeMillis() / 1000L);
+    }
+
+    /** {@link #decode(byte[], int, int)} against the clock {@code nowSec} (tests). */
+    String decode(byte[] in, int off, int len, long nowSec) throws Exception {
+        if (len < HEADER_FIXED + 1 + MAC_LEN || in[off] != MAGIC) {
+            throw new IllegalArgumentException("Not a wire v2 packet");
+        }
+        if (in[off + 1] != VERSION) {
+            throw new IllegalArgumentException("Unsupported wire version " + in[off + 1]);
+        }
+        int end = off + len - MAC_LEN;
+        mac.update(in, off, end - off);
+        mac.doFinal(macOut, 0);
+        if (!MessageDigest.isEqual(copy(macOut, 0, MAC_LEN), copy(in, end, MAC_LEN))) {
+            throw new IllegalArgumentException("Bad MAC");
+        }
+
+        int op = in[off + 2] & 0xff;
+        int session = readInt(in, off + 3);
+        if (session != sessionId) throw new IllegalArgumentException("Foreign session");
+        long stamp = readInt(in, off + 7) & 0xFFFFFFFFL;
+        if (Math.abs(stamp - nowSec) > MAX_CLOCK_SKEW_SEC) {
+            throw new IllegalArgumentException("Stale packet (" + (nowSec - stamp) + "s)");
+        }
+
+        int[] cursor = {off + HEADER_FIXED};
+        long seq = readVarint(in, cursor);
+        if (seq <= lastAcceptedSeq) throw new IllegalArgumentException("Replayed seq " + seq);
+        lastAcceptedSeq = seq;
+
+        int plen = end - cursor[0];
+        byte[] body = copy(in, cursor[0], plen);
+        if (encrypt && plen > 0) {
+            ctr.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(counterBlock(seq)));
+            body = ctr.doFinal(body);
+        }
+
+        int[] p = {0};
+        switch (op) {
+            case OP_MOUSE_MOVE: {
+                float dx = unzigzag(readVarint(body, p)) / MOVE_SCALE;
+                float dy = unzigzag(readVarint(body, p)) / MOVE_SCALE;
+                return "MOUSE_MOVE:" + dx + "," + dy;
+            }
+            case OP_MOUSE_MOVE_RELATIVE: {
+                long dx = unzigzag(readVarint(body, p));
+                long dy = unzigzag(readVarint(body, p));
+                return "MOUSE_MOVE_RELATIVE:" + dx + ":" + dy;
+            }
+            case OP_MOUSE_SCROLL:
+                return "MOUSE_SCROLL:" + unzigzag(readVarint(body, p));
+            case OP_KEY: {
+                int n = (int) readVarint(body, p);
+                return "KEY:" + new String(body, p[0], n, StandardCharsets.UTF_8);
+            }
+            default:
+                if (NO_ARG_NAMES[op] != null) return NO_ARG_NAMES[op];
+                throw new IllegalArgumentException("Unknown opcode " + op);
+        }
+    }
+
+    // ─── Primitive encoders ──────────────────────────────────────
+
+    private byte[] counterBlock(long seq) {
+        writeInt(sessionId, counter, 0);
+        for (int i = 0; i < 8; i++) counter[4 + i] = (byte) (seq >>> (56 - 8 * i));
+        counter[12] = counter[13] = counter[14] = counter[15] = 0;
+        return counter;
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static int writeVarint(long v, byte[] out, int pos) {
+        while ((v & ~0x7FL) != 0) {
+            out[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+    static long readVarint(byte[] in, int[] cursor) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in[cursor[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    private static int writeInt(int v, byte[] out, int pos) {
+        out[pos++] = (byte) (v >>> 24);
+        out[pos++] = (byte) (v >>> 16);
+        out[pos++] = (byte) (v >>> 8);
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static int readInt(byte[] in, int pos) {
+        return (in[pos] & 0xff) << 24 | (in[pos + 1] & 0xff) << 16
+                | (in[pos + 2] & 0xff) << 8 | (in[pos + 3] & 0xff);
+    }
+
+    private static byte[] copy(byte[] src, int off, int len) {
+        byte[] out = new byte[len];
+        System.arraycopy(src, off, out, 0, len);
+        return out;
+    }
+}
@@ -0,0 +1,237 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Table-driven dispatcher for text commands of the form {@code NAME} or
+ * {@code NAME:args}.
+ *
+ * Routes are looked up by the name before the first ':' in an
+ * open-addressing table, hashing and comparing the command's characters
+ * in place, so dispatch allocates nothing. Handlers get the whole command
+ * and the offset of its arguments and only substring what they use.
+ *
+ * Each route names where its handler runs:
+ *   INLINE  on the calling (socket) thread — only for cheap, non-blocking work
+ *   MAIN    on the main-thread executor
+ *   WORKER  on the worker executor — anything that may block or take a while
+ *           (TTS, notifications, sync merges). A single-threaded worker
+ *           keeps those commands in arrival order.
+ *
+ * Every route counts calls and errors and keeps a log2 latency histogram
+ * (time spent in the handler, in microseconds). Thread-safe once all
+ * routes are registered; register before the first dispatch.
+ */
+public class CommandRouter {
+
+    public interface Handler {
+        /**
+         * @param command   the full command
+         * @param argOffset index just past the ':' (== length when there are no args)
+         */
+        void handle(String command, int argOffset) throws Exception;
+    }
+
+    public enum Mode { INLINE, MAIN, WORKER }
+
+    /** Latency buckets: [0] < 2 µs, [i] < 2^(i+1) µs, last is everything above. */
+    public static final int HISTOGRAM_BUCKETS = 20;
+
+    /** Counters and latency histogram for one route. */
+    public static final class Route {
+        public final String name;
+        public final Mode mode;
+        final Handler handler;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong totalMicros = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+        Route(String name, Mode mode, Handler handler) {
+            this.name = name;
+            this.mode = mode;
+            this.handler = handler;
+        }
+
+        public long getCalls()    { return calls.get(); }
+        public long getErrors()   { return errors.get(); }
+        public long getRejected() { return rejected.get(); }
+        public long getBucket(int i) { return histogram.get(i); }
+
+        /** Upper bound (µs) of the bucket holding the given quantile, e.g. 0.99. */
+        public long percentileMicros(double q) {
+            long total = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) total += histogram.get(i);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total), seen = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= rank) return 1L << (i + 1);
+            }
+            return 1L << HISTOGRAM_BUCKETS;
+        }
+    }
+
+    /** Receives handler failures (e.g. to log them); may be null. */
+    public interface ErrorListener {
+        void onError(String command, Exception e);
+    }
+
+    private Route[] table = new Route[64];
+    private int size;
+    private final Executor mainExecutor;
+    private final Executor workerExecutor;
+    private ErrorListener errorListener;
+    private final AtomicLong unknown = new AtomicLong();
+
+    public CommandRouter(Executor mainExecutor, Executor workerExecutor) {
+        this.mainExecutor = mainExecutor;
+        this.workerExecutor = workerExecutor;
+    }
+
+    public void setErrorListener(ErrorListener listener) {
+        this.errorListener = listener;
+    }
+
+    public CommandRouter register(String name, Mode mode, Handler handler) {
+        if (name.indexOf(':') >= 0) throw new IllegalArgumentException("Route name contains ':' " + name);
+        if (size * 2 >= table.length) grow();
+        insert(table, new Route(name, mode, handler));
+        size++;
+        return this;
+    }
+
+    /**
+     * Dispatch {@code command}. Returns false if no route matches (the
+     * command is counted as unknown).
+     */
+    public boolean dispatch(String command) {
+        int colon = command.indexOf(':');
+        int nameEnd = colon < 0 ? command.length() : colon;
+        Route route = find(command, nameEnd);
+        if (route == null) {
+            unknown.incrementAndGet();
+            return false;
+        }
+        int argOffset = colon < 0 ? command.length() : colon + 1;
+        switch (route.mode) {
+            case MAIN:
+                submit(mainExecutor, route, command, argOffset);
+                break;
+            case WORKER:
+                submit(workerExecutor, route, command, argOffset);
+                break;
+            default:
+                run(route, command, argOffset);
+        }
+        return true;
+    }
+
+    public long getUnknownCount() {
+        return unknown.get();
+    }
+
+    /** Route for {@code name}, or null. */
+    public Route getRoute(String name) {
+        return find(name, name.length());
+    }
+
+    public List<Route> getRoutes() {
+        List<Route> out = new ArrayList<>(size);
+        for (Route r : table) if (r != null) out.add(r);
+        return out;
+    }
+
+    /** One line per route that has been used: calls, errors, p50/p99 latency. */
+    public String dumpStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Route r : getRoutes()) {
+            long calls = r.calls.get();
+            if (calls == 0 && r.rejected.get() == 0) continue;
+            sb.append(String.format(Locale.US, "%-22s %-6s calls=%d err=%d rej=%d avg=%dus p50<%dus p99<%dus%n",
+                    r.name, r.mode, calls, r.errors.get(), r.rejected.get(),
+                    calls == 0 ? 0 : r.totalMicros.get() / calls,
+                    r.percentileMicros(0.5), r.percentileMicros(0.99)));
+        }
+        sb.append("unknown=").append(unknown.get());
+        return sb.toString();
+    }
+
+    // ─── Execution ──────────────────────────────────────────────
+
+    private void submit(Executor executor, Route route, String command, int argOffset) {
+        try {
+            executor.execute(() -> run(route, command, argOffset));
+        } catch (RejectedExecutionException e) {
+            route.rejected.incrementAndGet();   // worker backlog full or shut down
+        }
+    }
+
+    private void run(Route route, String command, int argOffset) {
+        long start = System.nanoTime();
+        try {
+            route.handler.handle(command, argOffset);
+        } catch (Exception e) {
+            route.errors.incrementAndGet();
+            ErrorListener l = errorListener;
+            if (l != null) l.onError(command, e);
+        } finally {
+            long micros = (System.nanoTime() - start) / 1000;
+            route.calls.incrementAndGet();
+            route.totalMicros.addAndGet(micros);
+            route.histogram.incrementAndGet(bucket(micros));
+        }
+    }
+
+    static int bucket(long micros) {
+        if (micros < 2) return 0;
+        int b = 63 - Long.numberOfLeadingZeros(micros);   // floor(log2)
+        return Math.min(b, HISTOGRAM_BUCKETS - 1);
+    }
+
+    // ─── Open-addressing table ──────────────────────────────────
+
+    private Route find(String s, int len) {
+        Route[] t = table;
+        int mask = t.length - 1;
+        for (int i = hash(s, len) & mask; ; i = (i + 1) & mask) {
+            Route r = t[i];
+            if (r == null) return null;
+            if (r.name.length() == len && s.regionMatches(0, r.name, 0, len)) return r;
+        }
+    }
+
+    private static void insert(Route[] t, Route route) {
+        int mask = t.length - 1;
+        for (int i = hash(route.name, route.name.length()) & mask; ; i = (i + 1) & mask) {
+            if (t[i] == null) {
+                t[i] = route;
+                return;
+            }
+            if (t[i].name.equals(route.name)) throw new IllegalArgumentException("Duplicate route " + route.name);
+        }
+    }
+
+    private void grow() {
+        Route[] bigger = new Route[table.length * 2];
+        for (Route r : table) if (r != null) insert(bigger, r);
+        table = bigger;
+    }
+
+    /** FNV-1a over the first {@code len} chars, folded for the power-of-two table. */
+    private static int hash(String s, int len) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < len; i++) {
+            h ^= s.charAt(i);
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
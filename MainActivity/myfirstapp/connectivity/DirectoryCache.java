@@ -0,0 +1,74 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recently viewed PC directories, keyed by path and tagged with the
+ * directory's mtime so a listing can be revalidated instead of re-fetched.
+ *
+ * Least recently used directories are evicted once the cached listings
+ * together hold more than {@code maxEntries} entries. A single listing
+ * larger than that is not cached at all. Thread-safe.
+ */
+public class DirectoryCache<T> {
+
+    public static final class Snapshot<T> {
+        public final long mtime;
+        public final List<T> entries;
+
+        Snapshot(long mtime, List<T> entries) {
+            this.mtime = mtime;
+            this.entries = entries;
+        }
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, Snapshot<T>> map = new LinkedHashMap<>(16, 0.75f, true);
+    private int size;
+
+    public DirectoryCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /** Cached listing for {@code path}, or null. Marks it recently used. */
+    public synchronized Snapshot<T> get(String path) {
+        return map.get(path);
+    }
+
+    public synchronized void put(String path, long mtime, List<T> entries) {
+        remove(path);
+        if (entries.size() > maxEntries) return;
+        map.put(path, new Snapshot<>(mtime, Collections.unmodifiableList(new ArrayList<>(entries))));
+        size += entries.size();
+        Iterator<Map.Entry<String, Snapshot<T>>> it = map.entrySet().iterator();
+        while (size > maxEntries && it.hasNext()) {
+            size -= it.next().getValue().entries.size();
+            it.remove();
+        }
+    }
+
+    public synchronized void remove(String path) {
+        Snapshot<T> old = map.remove(path);
+        if (old != null) size -= old.entries.size();
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    /** Number of cached directories. */
+    public synchronized int getDirectoryCount() {
+        return map.size();
+    }
+
+    /** Entries across all cached directories. */
+    public synchronized int getEntryCount() {
+        return size;
+    }
+}
@@ -0,0 +1,373 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Paged listing of a directory on the PC over the {@link ControlSession}.
+ *
+ * Request (signed, to the command port):
+ *
+ *   LIST_DIR:&lt;offset&gt;|&lt;limit&gt;|&lt;ifMtime&gt;|&lt;path&gt;
+ *
+ * Reply, JSON lines — one header line, then one line per entry:
+ *
+ *   DIR_PAGE:{"path":…,"mtime":…,"total":…,"offset":…}
+ *   {"n":name,"t":"FOLDER"|"FILE","p":path,"s":size,"m":mtime}
+ *   …
+ *
+ * The server sorts the directory once per mtime, so an offset is a stable
+ * cursor as long as the header mtime does not change; every page carries
+ * exactly {@code min(limit, total - offset)} entries. When {@code ifMtime}
+ * equals the directory's mtime the server answers with the header
+ * {@code {"path":…,"mtime":…,"unchanged":true}} and no entries.
+ *
+ * Pages are {@link #PAGE_ENTRIES} entries (a few KB, well inside one
+ * datagram). After the first page gives the total, up to {@link #WINDOW}
+ * further pages are requested at once; pages are handed to the listener
+ * in order as they complete, so a large directory fills the list while it
+ * is still arriving. A page that times out is requested again up to
+ * {@link #MAX_RETRIES} times. If the directory changes mid-listing
+ * (header mtime differs) the listing starts over; requests belong to a
+ * generation of the listing, and replies to an earlier generation — or
+ * any page still carrying an abandoned mtime — are dropped, so a late page
+ * of the old directory is never taken for the new first page.
+ *
+ * Finished listings go into a shared {@link DirectoryCache}; revisiting a
+ * directory shows the cached entries at once and only asks the server
+ * whether the mtime is still the same.
+ *
+ * Listener calls run on the delivery executor, in order.
+ */
+public class DirectoryListing {
+
+    private static final String TAG = "DirectoryListing";
+
+    public static final int PROTOCOL_VERSION = 1;
+    static final int PAGE_ENTRIES = 64;
+    static final int WINDOW = 8;
+    static final int MAX_RETRIES = 2;
+    private static final int MAX_RESTARTS = 2;
+    private static final long PAGE_TIMEOUT_MS = 3000;
+    private static final String REQUEST = "LIST_DIR:";
+    private static final String REPLY_PREFIX = "DIR_PAGE:";
+    public static final String TYPE_FOLDER = "FOLDER";
+
+    private static final DirectoryCache<Entry> CACHE = new DirectoryCache<>(50_000);
+
+    public static final class Entry {
+        public final String name;
+        public final String type;
+        public final String path;
+        public final long size;
+        public final long mtime;
+
+        public Entry(String name, String type, String path, long size, long mtime) {
+            this.name = name;
+            this.type = type;
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        public boolean isFolder() {
+            return TYPE_FOLDER.equals(type);
+        }
+    }
+
+    public interface Listener {
+        /** A cached listing of {@code path}, shown while it is revalidated. */
+        void onCached(String path, List<Entry> entries);
+        /** A fresh listing begins; replaces anything shown so far. */
+        void onStart(String path, String displayPath, int total);
+        /** The next entries in order; {@code loaded} counts all delivered so far. */
+        void onEntries(String path, List<Entry> entries, int loaded, int total);
+        /** Listing complete; {@code unchanged} if the cached listing was still current. */
+        void onComplete(String path, boolean unchanged);
+        /** The server did not answer (or does not support LIST_DIR). */
+        void onError(String path);
+    }
+
+    /** One reply, parsed: the header fields and the entries that followed it. */
+    static final class Page {
+        final String path;
+        final long mtime;
+        final int total;
+        final int offset;
+        final boolean unchanged;
+        final List<Entry> entries;
+
+        Page(String path, long mtime, int total, int offset, boolean unchanged, List<Entry> entries) {
+            this.path = path;
+            this.mtime = mtime;
+            this.total = total;
+            this.offset = offset;
+            this.unchanged = unchanged;
+            this.entries = entries;
+        }
+    }
+
+    /** Sends one LIST_DIR request; the {@link ControlSession} in the app. */
+    interface Transport {
+        void request(String command, PageCallback callback);
+    }
+
+    interface PageCallback {
+        void onPage(Page page);
+        /** No reply, or one that could not be parsed. */
+        void onLost();
+    }
+
+    private final Transport transport;
+    private final Executor delivery;
+    private Load current;
+
+    public DirectoryListing(String host, int port, Executor delivery) {
+        this(sessionTransport(host, port), delivery);
+    }
+
+    /** Listing over {@code transport}; used directly by tests. */
+    DirectoryListing(Transport transport, Executor delivery) {
+        this.transport = transport;
+        this.delivery = delivery;
+    }
+
+    /** Start listing {@code path}, cancelling the previous listing. */
+    public synchronized void load(String path, Listener listener) {
+        if (current != null) current.cancelled = true;
+        current = new Load(path, listener);
+        current.start();
+    }
+
+    public synchronized void cancel() {
+        if (current != null) current.cancelled = true;
+        current = null;
+    }
+
+    /** Drop every cached listing, e.g. after files were changed from the phone. */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    // ─── Wire format ────────────────────────────────────────────
+
+    private static Transport sessionTransport(String host, int port) {
+        ControlSession session = ControlSession.getInstance();
+        return (command, callback) -> session.request(host, port, command, true, REPLY_PREFIX, PAGE_TIMEOUT_MS,
+                new ControlSession.ResponseCallback() {
+                    @Override public void onResponse(String reply, long rttMs) {
+                        Page page = parse(reply);
+                        if (page != null) callback.onPage(page);
+                        else callback.onLost();
+                    }
+                    @Override public void onTimeout() {
+                        callback.onLost();
+                    }
+                });
+    }
+
+    /** A DIR_PAGE reply, or null if it is malformed. */
+    private static Page parse(String reply) {
+        String[] lines = reply.substring(REPLY_PREFIX.length()).split("\n");
+        try {
+            JSONObject header = new JSONObject(lines[0]);
+            List<Entry> entries = new ArrayList<>(Math.max(0, lines.length - 1));
+            for (int i = 1; i < lines.length; i++) {
+                if (lines[i].isEmpty()) continue;
+                JSONObject o = new JSONObject(lines[i]);
+                entries.add(new Entry(o.getString("n"), o.optString("t", "FILE"), o.getString("p"),
+                        o.optLong("s", 0), o.optLong("m", 0)));
+            }
+            return new Page(header.optString("path", null), header.optLong("mtime", 0),
+                    header.optInt("total", entries.size()), header.optInt("offset", 0),
+                    header.optBoolean("unchanged", false), entries);
+        } catch (Exception e) {
+            Log.w(TAG, "Bad DIR_PAGE reply: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ─── One listing ────────────────────────────────────────────
+
+    private final class Load {
+        final String path;
+        final Listener listener;
+        volatile boolean cancelled;
+
+        // Guarded by this
+        DirectoryCache.Snapshot<Entry> cached;
+        int generation;                   // bumped by restart(); older replies are dropped
+        final List<Long> abandoned = new ArrayList<>();   // mtimes given up on by restart()
+        long mtime = -1;                  // -1 until the first page arrives
+        int total;
+        List<Entry>[] pages;
+        int[] retries;
+        long[] requestedAt;               // nanoTime of each page's latest request
+        int nextToRequest;                // page index
+        int nextToDeliver;
+        int inFlight;                     // of the current generation
+        int restarts;
+        int firstPageRetries;
+        boolean done;
+        final List<Entry> all = new ArrayList<>();
+
+        Load(String path, Listener listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        synchronized void start() {
+            cached = CACHE.get(path);
+            if (cached != null) {
+                List<Entry> entries = cached.entries;
+                deliver(() -> listener.onCached(path, entries));
+            }
+            requestPage(0, cached != null ? cached.mtime : -1);
+        }
+
+        private void requestPage(int page, long ifMtime) {
+            inFlight++;
+            int gen = generation;
+            long sentAt = System.nanoTime();
+            if (requestedAt != null) requestedAt[page] = sentAt;
+            String cmd = REQUEST + page * PAGE_ENTRIES + "|" + PAGE_ENTRIES + "|" + ifMtime + "|" + path;
+            transport.request(cmd, new PageCallback() {
+                @Override public void onPage(Page reply) {
+                    onReply(gen, sentAt, reply);
+                }
+                @Override public void onLost() {
+                    onPageLost(gen, sentAt);
+                }
+            });
+        }
+
+        // Replies are handled by the offset in their header, not by the request
+        // that matched them: without request ids concurrent pages may cross.
+        synchronized void onReply(int gen, long sentAt, Page reply) {
+            if (gen != generation) return;    // a request from before the last restart
+            if (cancelled || done) {
+                inFlight--;
+                return;
+            }
+            if (abandoned.contains(reply.mtime) || (reply.unchanged && restarts > 0)) {
+                // An old reply that crossed with this request; this one's own answer is lost
+                onPageLost(gen, sentAt);
+                return;
+            }
+            inFlight--;
+
+            if (reply.unchanged) {
+                if (cached != null && mtime < 0) finish(true);
+                return;
+            }
+            if (mtime < 0) {
+                mtime = reply.mtime;
+                total = reply.total;
+                int pageCount = (total + PAGE_ENTRIES - 1) / PAGE_ENTRIES;
+                @SuppressWarnings("unchecked")
+                List<Entry>[] p = new List[pageCount];
+                pages = p;
+                retries = new int[pageCount];
+                requestedAt = new long[pageCount];
+                nextToRequest = 1;
+                int t = total;
+                String displayPath = reply.path != null ? reply.path : path;
+                deliver(() -> listener.onStart(path, displayPath, t));
+            } else if (reply.mtime != mtime) {
+                restart();
+                return;
+            }
+
+            int page = reply.offset / PAGE_ENTRIES;
+            if (page < pages.length && pages[page] == null) pages[page] = reply.entries;
+            deliverReady();
+            fillWindow();
+        }
+
+        /**
+         * A request sent at {@code sentAt} went unanswered. Without request ids
+         * the reply that did come may have been another page's, so every page
+         * still missing whose latest request is no newer than that one is lost.
+         */
+        synchronized void onPageLost(int gen, long sentAt) {
+            if (gen != generation) return;
+            inFlight--;
+            if (cancelled || done) return;
+            if (pages == null) {
+                if (inFlight > 0) return;                     // another first-page request is pending
+                if (++firstPageRetries > MAX_RETRIES) {
+                    // No server, or one without LIST_DIR
+                    done = true;
+                    deliver(() -> listener.onError(path));
+                    return;
+                }
+                requestPage(0, cached != null && restarts == 0 ? cached.mtime : -1);
+                return;
+            }
+            for (int page = nextToDeliver; page < nextToRequest; page++) {
+                if (pages[page] != null || requestedAt[page] - sentAt > 0) continue;
+                if (++retries[page] > MAX_RETRIES) {
+                    done = true;
+                    Log.w(TAG, "Giving up on " + path + " at page " + page);
+                    deliver(() -> listener.onError(path));
+                    return;
+                }
+                requestPage(page, -1);
+            }
+        }
+
+        private void fillWindow() {
+            while (inFlight < WINDOW && nextToRequest < pages.length) {
+                requestPage(nextToRequest++, -1);
+            }
+        }
+
+        private void deliverReady() {
+            while (nextToDeliver < pages.length && pages[nextToDeliver] != null) {
+                List<Entry> chunk = pages[nextToDeliver];
+                pages[nextToDeliver++] = Collections.emptyList();    // keep the slot filled, free the list
+                all.addAll(chunk);
+                int loaded = all.size(), t = total;
+                deliver(() -> listener.onEntries(path, chunk, loaded, t));
+            }
+            if (nextToDeliver == pages.length) finish(false);
+        }
+
+        private void restart() {
+            if (++restarts > MAX_RESTARTS) {
+                done = true;
+                deliver(() -> listener.onError(path));
+                return;
+            }
+            Log.i(TAG, path + " changed while listing, starting over");
+            abandoned.add(mtime);
+            generation++;
+            inFlight = 0;
+            mtime = -1;
+            pages = null;
+            requestedAt = null;
+            all.clear();
+            nextToDeliver = 0;
+            firstPageRetries = 0;
+            requestPage(0, -1);
+        }
+
+        private void finish(boolean unchanged) {
+            done = true;
+            if (!unchanged) CACHE.put(path, mtime, all);
+            deliver(() -> listener.onComplete(path, unchanged));
+        }
+
+        private void deliver(Runnable r) {
+            delivery.execute(() -> {
+                if (!cancelled) r.run();
+            });
+        }
+    }
+}
@@ -3,7 +3,6 @@ package com.prajwal.myfirstapp.connectivity;
 
 import com.prajwal.myfirstapp.R;
 import com.prajwal.myfirstapp.core.MainActivity;
-import com.prajwal.myfirstapp.core.SecurityUtils;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -30,10 +29,6 @@ import android.widget.Toast;
 
 import androidx.core.app.NotificationCompat;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-
 /**
  * Dynamic Bar Service — Creates a floating "Dynamic Island" style overlay
  * that sits on top of all apps. Provides quick access to:
@@ -545,33 +540,8 @@ public class DynamicBarService extends Service {
             return;
         }
 
-        new Thread(() -> {
-            try {
-                String timestamp = String.valueOf(System.currentTimeMillis() / 1000L);
-                String processedCommand = command;
-
-                // Encrypt if enabled
-                if (SecurityUtils.USE_ENCRYPTION) {
-                    processedCommand = SecurityUtils.encryptAES(command);
-                }
-
-                // Sign the packet
-                String messageToSign = processedCommand + "|" + timestamp;
-                String signature = SecurityUtils.calculateHMAC(messageToSign);
-                String finalPacket = messageToSign + "|" + signature;
-
-                // Send via UDP
-                DatagramSocket udpSocket = new DatagramSocket();
-                InetAddress serverAddr = InetAddress.getByName(laptopIp);
-                byte[] buf = finalPacket.getBytes();
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, serverAddr, PORT_COMMAND);
-                udpSocket.send(packet);
-                udpSocket.close();
-
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
+        // Signed (and encrypted if enabled) packet over the shared control session
+        ControlSession.getInstance().send(laptopIp, PORT_COMMAND, command, true);
     }
 
     // ═══════════════════════════════════════════════════
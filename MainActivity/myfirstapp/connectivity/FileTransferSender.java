@@ -0,0 +1,401 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.prajwal.myfirstapp.connectivity.FileTransferProtocol.*;
+
+/**
+ * Sends one file with the v2 transfer protocol (see {@link FileTransferProtocol}).
+ *
+ * Chunks are pulled from a shared queue by 1..N stream workers, each with its
+ * own connection and read buffer. A chunk counts as sent only once the
+ * receiver has verified its SHA-256 and acknowledged it; anything in flight
+ * when a connection drops goes back on the queue and the worker reconnects
+ * with backoff. The OPEN reply on every (re)connect tells the sender which
+ * chunks the receiver already holds, so nothing acknowledged is sent twice.
+ *
+ * Every round ends with a FINISH carrying the SHA-256 of the whole source,
+ * which the receiver checks against the assembled file before keeping it.
+ *
+ * {@link #run()} blocks until the receiver confirms the complete file, or
+ * throws once retries are exhausted or {@link #cancel()} is called. The
+ * source must support positional reads (a FileChannel); no Android types,
+ * so it can be exercised over loopback in unit tests.
+ */
+public class FileTransferSender {
+
+    public interface Listener {
+        /** From worker threads, at most every {@link #PROGRESS_INTERVAL_MS}. */
+        void onProgress(long bytesDone, long totalBytes, long bytesPerSecond);
+    }
+
+    static final long PROGRESS_INTERVAL_MS = 250;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 15000;
+    private static final int SOCKET_BUFFER = 512 * 1024;
+    private static final int MAX_RECONNECTS = 6;
+    private static final long MAX_BACKOFF_MS = 8000;
+    private static final int MAX_CHECKSUM_RETRIES = 3;
+    private static final int MAX_ROUNDS = 3;
+
+    private final String host;
+    private final int port;
+    private final FileChannel source;
+    private final Open header;
+    private final int streams;
+    private final Listener listener;
+
+    private final ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<>();
+    private byte[] acked;
+    private final int[] checksumFailures;
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final AtomicLong bytesSentThisRun = new AtomicLong();
+    private final AtomicLong chunksSent = new AtomicLong();
+    private long startedAt;
+    private volatile long lastProgressAt;
+    private volatile boolean cancelled = false;
+    private byte[] fileSha;
+    private final List<Socket> openSockets = new ArrayList<>();
+
+    /**
+     * @param streams parallel connections to use; clamped to
+     *                [1, {@link FileTransferProtocol#MAX_STREAMS}] and to the chunk count
+     */
+    public FileTransferSender(String host, int port, FileChannel source, String transferId,
+                              String name, long size, int chunkSize, int streams, Listener listener) {
+        this.host = host;
+        this.port = port;
+        this.source = source;
+        this.header = new Open(transferId, name, size, chunkSize, 0);
+        int chunks = chunkCount(size, chunkSize);
+        if (chunks < 0) throw new IllegalArgumentException("File too large for chunk size");
+        this.streams = Math.max(1, Math.min(Math.min(streams, MAX_STREAMS), Math.max(1, chunks)));
+        this.listener = listener;
+        this.acked = newBitmap(chunks);
+        this.checksumFailures = new int[chunks];
+    }
+
+    public void cancel() {
+        cancelled = true;
+        synchronized (openSockets) {
+            for (Socket s : openSockets) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /** Chunks actually put on the wire by this sender (resumed chunks excluded). */
+    public long getChunksSent() { return chunksSent.get(); }
+
+    // ─── Run ─────────────────────────────────────────────────────
+
+    public void run() throws IOException {
+        startedAt = System.currentTimeMillis();
+        int chunks = header.chunkCount();
+        IOException lastError = null;
+
+        for (int round = 0; ; round++) {
+            // A fresh OPEN is the authoritative list of what the receiver holds
+            // (it may have lost unflushed chunks if it restarted meanwhile);
+            // it also follows the last round, so that round's chunks get a FINISH
+            try (Connection c = connectWithRetry()) {
+                resetAcked(c.resume);
+                if (countAcked() == chunks && finish(c)) {
+                    reportProgress(true);
+                    return;
+                }
+            }
+            if (round == MAX_ROUNDS) break;
+            pending.clear();
+            for (int i = 0; i < chunks; i++) if (!isAcked(i)) pending.add(i);
+
+            IOException error = runWorkers();
+            if (error != null) lastError = error;
+            checkCancelled();
+        }
+        throw lastError != null ? lastError : new IOException("Transfer incomplete");
+    }
+
+    private IOException runWorkers() throws IOException {
+        int n = Math.min(streams, pending.size());
+        final IOException[] errors = new IOException[n];
+        Thread[] threads = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            final int stream = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    workerLoop(stream);
+                } catch (IOException e) {
+                    errors[stream] = e;
+                }
+            }, "FileTransfer-" + i);
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+        for (IOException e : errors) if (e != null) return e;
+        return null;
+    }
+
+    private void workerLoop(int stream) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(header.chunkSize);
+        MessageDigest digest = newDigest();
+        int failures = 0;
+        Connection c = null;
+        try {
+            while (!cancelled) {
+                Integer index = pending.poll();
+                if (index == null) return;
+                if (isAcked(index)) continue;
+                try {
+                    if (c == null) {
+                        c = connect(stream);
+                        applyResume(c.resume);
+                        if (isAcked(index)) continue;
+                    }
+                    sendChunk(c, index, buffer, digest);
+                    failures = 0;
+                } catch (IOException e) {
+                    pending.add(index);
+                    closeQuietly(c);
+                    c = null;
+                    checkCancelled();
+                    if (++failures > MAX_RECONNECTS) throw e;
+                    backoff(failures);
+                }
+            }
+        } finally {
+            closeQuietly(c);
+        }
+    }
+
+    private void sendChunk(Connection c, int index, ByteBuffer buffer, MessageDigest digest)
+            throws IOException {
+        int length = chunkLength(header.size, header.chunkSize, index);
+        long position = (long) index * header.chunkSize;
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Source shorter than declared size");
+            }
+        }
+        byte[] data = buffer.array();
+        digest.reset();
+        digest.update(data, 0, length);
+        byte[] sha = digest.digest();
+
+        c.out.writeByte(FRAME_CHUNK);
+        c.out.writeInt(index);
+        c.out.writeInt(length);
+        c.out.write(sha);
+        c.out.write(data, 0, length);
+        c.out.flush();
+        chunksSent.incrementAndGet();
+        bytesSentThisRun.addAndGet(length);
+
+        int status = c.in.readUnsignedByte();
+        int ackIndex = c.in.readInt();
+        if (ackIndex != index) throw new IOException("Ack for chunk " + ackIndex + ", expected " + index);
+        if (status == STATUS_OK) {
+            markAcked(index, length);
+            reportProgress(false);
+        } else if (status == STATUS_BAD_CHECKSUM && bumpChecksumFailures(index) <= MAX_CHECKSUM_RETRIES) {
+            pending.add(index); // corrupted in transit; the connection itself is fine
+        } else {
+            throw new IOException("Receiver rejected chunk " + index + " (status " + status + ")");
+        }
+    }
+
+    /**
+     * True once the receiver has stored the complete file; false if it still
+     * lacks chunks, or threw its copy away because the whole-file digest
+     * did not match (the next round then sends everything again).
+     */
+    private boolean finish(Connection c) throws IOException {
+        byte[] sha = fileSha();
+        c.out.writeByte(FRAME_FINISH);
+        c.out.write(sha);
+        c.out.flush();
+        int status = c.in.readUnsignedByte();
+        c.in.readInt(); // missing chunk count
+        if (status == STATUS_INCOMPLETE) return false;
+        if (status == STATUS_BAD_CHECKSUM) {
+            fileSha = null; // the source may have changed underneath us
+            return false;
+        }
+        if (status != STATUS_OK) throw new IOException("Receiver could not complete transfer (status " + status + ")");
+        return true;
+    }
+
+    /** SHA-256 of the whole source, read once front to back. */
+    private byte[] fileSha() throws IOException {
+        if (fileSha != null) return fileSha;
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+        long position = 0;
+        while (position < header.size) {
+            checkCancelled();
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), header.size - position));
+            int n = source.read(buffer, position);
+            if (n < 0) throw new IOException("Source shorter than declared size");
+            digest.update(buffer.array(), 0, n);
+            position += n;
+        }
+        fileSha = digest.digest();
+        return fileSha;
+    }
+
+    // ─── Connections ─────────────────────────────────────────────
+
+    private static final class Connection implements AutoCloseable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        byte[] resume;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        }
+
+        @Override
+        public void close() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private Connection connect(int stream) throws IOException {
+        checkCancelled();
+        Socket socket = new Socket();
+        synchronized (openSockets) { openSockets.add(socket); }
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSendBufferSize(SOCKET_BUFFER);
+            socket.setReceiveBufferSize(64 * 1024);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            Connection c = new Connection(socket);
+            new Open(header.transferId, header.name, header.size, header.chunkSize, stream).write(c.out);
+            c.out.flush();
+
+            int status = c.in.readUnsignedByte();
+            int chunks = c.in.readInt();
+            if (status != STATUS_OK) throw new IOException("Receiver refused transfer (status " + status + ")");
+            if (chunks != header.chunkCount()) throw new IOException("Chunk count mismatch");
+            c.resume = new byte[acked.length];
+            c.in.readFully(c.resume);
+            return c;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private Connection connectWithRetry() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return connect(0);
+            } catch (IOException e) {
+                checkCancelled();
+                if (attempt > MAX_RECONNECTS) throw e;
+                backoff(attempt);
+            }
+        }
+    }
+
+    private void closeQuietly(Connection c) {
+        if (c != null) closeQuietly(c.socket);
+    }
+
+    private void closeQuietly(Socket s) {
+        synchronized (openSockets) { openSockets.remove(s); }
+        try { s.close(); } catch (IOException ignored) {}
+    }
+
+    private void backoff(int attempt) throws IOException {
+        long delay = Math.min(MAX_BACKOFF_MS, 250L << Math.min(attempt, 10));
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        checkCancelled();
+    }
+
+    private void checkCancelled() throws IOException {
+        if (cancelled) throw new IOException("Transfer cancelled");
+    }
+
+    // ─── Acknowledgement state ───────────────────────────────────
+
+    private synchronized boolean isAcked(int index) {
+        return FileTransferProtocol.isSet(acked, index);
+    }
+
+    private synchronized void markAcked(int index, int length) {
+        if (FileTransferProtocol.isSet(acked, index)) return;
+        FileTransferProtocol.set(acked, index);
+        bytesDone.addAndGet(length);
+    }
+
+    /** Adopt the receiver's bitmap as the complete picture of what it holds. */
+    private synchronized void resetAcked(byte[] bitmap) {
+        acked = newBitmap(header.chunkCount());
+        bytesDone.set(0);
+        applyResume(bitmap);
+    }
+
+    /** Merge the receiver's bitmap (chunks it already holds). */
+    private synchronized void applyResume(byte[] bitmap) {
+        int chunks = header.chunkCount();
+        for (int i = 0; i < chunks; i++) {
+            if (FileTransferProtocol.isSet(bitmap, i)) {
+                markAcked(i, chunkLength(header.size, header.chunkSize, i));
+            }
+        }
+    }
+
+    private synchronized int countAcked() {
+        int count = 0;
+        for (int i = 0; i < header.chunkCount(); i++) if (FileTransferProtocol.isSet(acked, i)) count++;
+        return count;
+    }
+
+    private synchronized int bumpChecksumFailures(int index) {
+        return ++checksumFailures[index];
+    }
+
+    private void reportProgress(boolean force) {
+        if (listener == null) return;
+        long now = System.currentTimeMillis();
+        if (!force && now - lastProgressAt < PROGRESS_INTERVAL_MS) return;
+        lastProgressAt = now;
+        long elapsed = Math.max(1, now - startedAt);
+        long rate = bytesSentThisRun.get() * 1000 / elapsed;
+        listener.onProgress(bytesDone.get(), header.size, rate);
+    }
+}
@@ -4,18 +4,17 @@ import android.app.Notification;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
 import android.util.Log;
 
-import org.json.JSONObject;
-
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Notification Mirror Service — captures phone notifications and
@@ -24,7 +23,13 @@ import java.util.Map;
  * Protocol:
  *   Phone → PC:  NOTIF_MIRROR:<JSON>
  *   Phone → PC:  NOTIF_DISMISSED:<key>
+ *   Phone → PC:  NOTIF_BATCH:[…] / NOTIF_ICON:<id>|<pkg>|<png>   (protocol 2)
  *   PC → Phone:  NOTIF_DISMISS:<key>   (handled in ReverseCommandListener)
+ *   PC → Phone:  NOTIF_PROTOCOL:<version>   (handshake ack)
+ *
+ * Posts and removals go through a {@link NotificationPipeline}, which
+ * debounces updates per key, drops unchanged content, batches bursts and
+ * holds everything back while the PC is unreachable.
  *
  * Requires user to grant Notification Access in:
  *   Settings → Apps & Notifications → Special Access → Notification Access
@@ -37,12 +42,39 @@ public class NotifMirrorService extends NotificationListenerService {
     // Static reference so ReverseCommandListener can call dismissNotification()
     private static NotifMirrorService instance;
 
-    // Rate limiting: track last notification time per package
-    private final Map<String, Long> lastNotifTime = new HashMap<>();
-    private static final long RATE_LIMIT_MS = 500;
+    private static final int ICON_SIZE_PX = 48;
 
     // Server IP (set from MainActivity when connection is established)
-    private static String serverIp = null;
+    private static volatile String serverIp = null;
+
+    private static final ScheduledExecutorService pipelineExecutor =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "NotifPipeline");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private static final NotificationPipeline pipeline = new NotificationPipeline(
+            new NotificationPipeline.Transport() {
+                @Override public boolean isReachable() {
+                    String ip = serverIp;
+                    return ip != null && ControlSession.getInstance().getTracker(ip).isReachable();
+                }
+                @Override public void probe() {
+                    String ip = serverIp;
+                    if (ip == null) return;
+                    ControlSession.getInstance().ping(ip, PC_COMMAND_PORT, new ControlSession.ResponseCallback() {
+                        @Override public void onResponse(String reply, long rttMs) { NotifMirrorService.pipeline.kick(); }
+                        @Override public void onTimeout() { }
+                    });
+                }
+                @Override public void send(String packet) {
+                    String ip = serverIp;
+                    if (ip != null) ControlSession.getInstance().send(ip, PC_COMMAND_PORT, packet, false);
+                }
+            },
+            NotifMirrorService::loadIcon,
+            pipelineExecutor);
 
     @Override
     public void onCreate() {
@@ -75,10 +107,27 @@ public class NotifMirrorService extends NotificationListenerService {
     // ─── CALLED FROM MAINACTIVITY ──────────────────────────────
 
     public static void setServerIp(String ip) {
+        if (ip != null && !ip.equals(serverIp)) pipeline.reset();
         serverIp = ip;
         Log.i(TAG, "Server IP set to: " + ip);
     }
 
+    /**
+     * The PC answered the handshake with the notification protocol it speaks
+     * (ConnectionManager sends the handshake, and resets the pipeline through
+     * {@link #setServerIp} first whenever the server changes). Batching stays
+     * off for servers that never answer.
+     */
+    public static void onProtocolAck(int version) {
+        int agreed = Math.min(version, NotificationPipeline.PROTOCOL_VERSION);
+        pipeline.setProtocolVersion(agreed);
+        Log.i(TAG, "Notification protocol " + agreed);
+    }
+
+    public static String getPipelineStats() {
+        return pipeline.getStats();
+    }
+
     // ─── NOTIFICATION POSTED ───────────────────────────────────
 
     @Override
@@ -93,12 +142,6 @@ public class NotifMirrorService extends NotificationListenerService {
         // Filter out ongoing/non-clearable notifications (e.g. music players, foreground services)
         if (!sbn.isClearable()) return;
 
-        // Rate limit per package
-        long now = System.currentTimeMillis();
-        Long lastTime = lastNotifTime.get(pkg);
-        if (lastTime != null && (now - lastTime) < RATE_LIMIT_MS) return;
-        lastNotifTime.put(pkg, now);
-
         try {
             Notification notification = sbn.getNotification();
             Bundle extras = notification.extras;
@@ -113,20 +156,8 @@ public class NotifMirrorService extends NotificationListenerService {
             // Skip empty notifications
             if (title.isEmpty() && body.isEmpty()) return;
 
-            String key = sbn.getKey();
-
-            // Build JSON payload
-            JSONObject json = new JSONObject();
-            json.put("key", key);
-            json.put("title", title);
-            json.put("body", body);
-            json.put("pkg", pkg);
-            json.put("time", now);
-
-            String message = "NOTIF_MIRROR:" + json.toString();
-
-            sendToPC(message);
-            Log.i(TAG, "Mirrored: [" + pkg + "] " + title);
+            // Debounced, de-duplicated and batched by the pipeline
+            pipeline.post(sbn.getKey(), pkg, title, body, System.currentTimeMillis());
 
         } catch (Exception e) {
             Log.e(TAG, "Error mirroring notification: " + e.getMessage());
@@ -143,9 +174,7 @@ public class NotifMirrorService extends NotificationListenerService {
         if (pkg.equals(getPackageName())) return;
 
         try {
-            String key = sbn.getKey();
-            sendToPC("NOTIF_DISMISSED:" + key);
-            Log.i(TAG, "Notification dismissed on phone: " + key);
+            pipeline.remove(sbn.getKey());
         } catch (Exception e) {
             Log.e(TAG, "Error sending dismiss: " + e.getMessage());
         }
@@ -176,22 +205,25 @@ public class NotifMirrorService extends NotificationListenerService {
         return instance != null;
     }
 
-    // ─── SEND TO PC ────────────────────────────────────────────
+    // ─── APP ICONS ─────────────────────────────────────────────
 
-    private void sendToPC(String message) {
-        if (serverIp == null) return;
-
-        new Thread(() -> {
-            try {
-                DatagramSocket socket = new DatagramSocket();
-                byte[] buf = message.getBytes("UTF-8");
-                InetAddress address = InetAddress.getByName(serverIp);
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, address, PC_COMMAND_PORT);
-                socket.send(packet);
-                socket.close();
-            } catch (Exception e) {
-                Log.e(TAG, "Send to PC error: " + e.getMessage());
-            }
-        }).start();
+    /** Small PNG of an app's icon; called once per package by the pipeline. */
+    private static byte[] loadIcon(String pkg) {
+        NotifMirrorService service = instance;
+        if (service == null) return null;
+        try {
+            Drawable d = service.getPackageManager().getApplicationIcon(pkg);
+            Bitmap bmp = Bitmap.createBitmap(ICON_SIZE_PX, ICON_SIZE_PX, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bmp);
+            d.setBounds(0, 0, ICON_SIZE_PX, ICON_SIZE_PX);
+            d.draw(canvas);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bmp.compress(Bitmap.CompressFormat.PNG, 100, out);
+            bmp.recycle();
+            return out.toByteArray();
+        } catch (Exception e) {
+            Log.w(TAG, "No icon for " + pkg + ": " + e.getMessage());
+            return null;
+        }
     }
 }
@@ -0,0 +1,399 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import com.prajwal.myfirstapp.core.SecurityUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debounces, de-duplicates and batches mirrored notifications on their
+ * way to the PC (see {@link NotifMirrorService}).
+ *
+ *   - Updates are coalesced per notification key: a key is sent
+ *     {@link #DEBOUNCE_MS} after its last update, but at most
+ *     {@link #MAX_DELAY_MS} after its first, so a progress notification
+ *     updating many times a second reaches the PC about once a second.
+ *   - A post whose content (package, title, body) hashes the same as the
+ *     last one sent for that key is dropped. Removing a notification that
+ *     never reached the PC cancels it outright.
+ *   - Everything due at once goes out together. With protocol 2 (the PC
+ *     answered NOTIF_PROTOCOL:2 to the handshake) that is one packet
+ *     {@code NOTIF_BATCH:[{"op":"post",…,"icon":id},{"op":"remove","key":…}]}
+ *     of at most {@link #MAX_BATCH_BYTES}, and each app icon is sent once
+ *     as {@code NOTIF_ICON:<id>|<pkg>|<base64 png>} before the first
+ *     notification that refers to it. Protocol 1 keeps the legacy
+ *     NOTIF_MIRROR:&lt;json&gt; / NOTIF_DISMISSED:&lt;key&gt; packets.
+ *   - While the PC is unreachable nothing is sent; pending keys keep
+ *     coalescing, the PC is probed every {@link #PROBE_INTERVAL_MS}, and
+ *     beyond {@link #MAX_PENDING} keys the oldest pending one is dropped.
+ *
+ * Thread-safe. With an executor the pipeline drains itself; without one
+ * the caller drives {@link #drain}.
+ */
+public class NotificationPipeline {
+
+    public static final int PROTOCOL_VERSION = 2;
+    static final long DEBOUNCE_MS = 300;
+    static final long MAX_DELAY_MS = 1000;
+    static final int MAX_PENDING = 128;
+    static final int MAX_BATCH_BYTES = 8000;
+    static final long PROBE_INTERVAL_MS = 2000;
+    private static final int MAX_SENT_KEYS = 512;
+    private static final int MAX_ICONS = 64;
+
+    public interface Transport {
+        boolean isReachable();
+        /** Check reachability again; call {@link #kick} once the PC answers. */
+        void probe();
+        void send(String packet);
+    }
+
+    /** PNG bytes of a package's icon, or null. */
+    public interface IconSource {
+        byte[] load(String pkg);
+    }
+
+    private static final class Event {
+        final String key;
+        String pkg, title, body;
+        long time, hash;
+        boolean removed;
+        final long firstAt;
+        long lastAt;
+
+        Event(String key, long now) {
+            this.key = key;
+            this.firstAt = now;
+            this.lastAt = now;
+        }
+
+        long dueAt() {
+            return removed ? lastAt : Math.min(lastAt + DEBOUNCE_MS, firstAt + MAX_DELAY_MS);
+        }
+    }
+
+    private static final class Icon {
+        final String id, base64;
+
+        Icon(String id, String base64) {
+            this.id = id;
+            this.base64 = base64;
+        }
+    }
+
+    private final Transport transport;
+    private final IconSource icons;
+    private final ScheduledExecutorService executor;
+
+    private final LinkedHashMap<String, Event> pending = new LinkedHashMap<>();   // first seen first
+    private final LinkedHashMap<String, Long> sentHash = new LinkedHashMap<String, Long>(64, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Long> e) { return size() > MAX_SENT_KEYS; }
+    };
+    private final LinkedHashMap<String, Icon> iconCache = new LinkedHashMap<String, Icon>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<String, Icon> e) { return size() > MAX_ICONS; }
+    };
+    private final Set<String> iconsSent = new HashSet<>();
+    private int protocolVersion = 1;
+    private long lastProbeAt = Long.MIN_VALUE / 2;
+    private ScheduledFuture<?> scheduled;
+    private long scheduledAt;
+
+    // ─── Stats ──────────────────────────────────────────────────
+    private long posted, coalesced, duplicates, dropped, packets;
+
+    public NotificationPipeline(Transport transport, IconSource icons, ScheduledExecutorService executor) {
+        this.transport = transport;
+        this.icons = icons;
+        this.executor = executor;
+    }
+
+    // ─── Input ──────────────────────────────────────────────────
+
+    public void post(String key, String pkg, String title, String body, long time) {
+        if (title == null) title = "";
+        if (body == null) body = "";
+        synchronized (this) {
+            posted++;
+            long now = now();
+            long hash = hash(pkg, title, body);
+            Event e = pending.get(key);
+            if (e == null) {
+                Long last = sentHash.get(key);
+                if (last != null && last == hash) {
+                    duplicates++;
+                    return;
+                }
+                e = new Event(key, now);
+                makeRoom();
+                pending.put(key, e);
+            } else {
+                coalesced++;
+                e.lastAt = now;
+            }
+            e.removed = false;
+            e.pkg = pkg;
+            e.title = title;
+            e.body = body;
+            e.time = time;
+            e.hash = hash;
+        }
+        kick();
+    }
+
+    public void remove(String key) {
+        synchronized (this) {
+            Event e = pending.get(key);
+            if (!sentHash.containsKey(key)) {
+                if (e != null) pending.remove(key);       // never reached the PC
+                return;
+            }
+            sentHash.remove(key);
+            if (e == null) {
+                e = new Event(key, now());
+                makeRoom();
+                pending.put(key, e);
+            }
+            e.removed = true;
+            e.lastAt = now();
+        }
+        kick();
+    }
+
+    /** The PC acknowledged a protocol version; it may have lost its icon cache, so icons go again. */
+    public synchronized void setProtocolVersion(int version) {
+        protocolVersion = version;
+        iconsSent.clear();
+    }
+
+    /** A different PC: forget what the previous one was sent. */
+    public synchronized void reset() {
+        protocolVersion = 1;
+        iconsSent.clear();
+        sentHash.clear();
+    }
+
+    public synchronized String getStats() {
+        return "posted=" + posted + " coalesced=" + coalesced + " duplicates=" + duplicates
+                + " dropped=" + dropped + " packets=" + packets + " pending=" + pending.size();
+    }
+
+    private void makeRoom() {
+        if (pending.size() < MAX_PENDING) return;
+        Iterator<Event> it = pending.values().iterator();
+        it.next();
+        it.remove();
+        dropped++;
+    }
+
+    // ─── Draining ───────────────────────────────────────────────
+
+    /** Schedule a drain for the earliest due key. */
+    public void kick() {
+        if (executor == null) return;
+        long delay = drainDelay(now());
+        if (delay >= 0) schedule(delay);
+    }
+
+    private synchronized void schedule(long delay) {
+        long at = now() + delay;
+        if (scheduled != null && scheduledAt <= at) return;
+        if (scheduled != null) scheduled.cancel(false);
+        scheduledAt = at;
+        scheduled = executor.schedule(() -> {
+            synchronized (this) {
+                scheduled = null;
+            }
+            long next = drain(now());
+            if (next >= 0) schedule(next);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized long drainDelay(long now) {
+        long next = Long.MAX_VALUE;
+        for (Event e : pending.values()) next = Math.min(next, e.dueAt());
+        if (next == Long.MAX_VALUE) return -1;
+        return Math.max(0, next - now);
+    }
+
+    /**
+     * Send every key that is due at {@code now}. Returns the delay until
+     * the next key is due (or the next probe), or -1 if nothing is pending.
+     */
+    public long drain(long now) {
+        List<Event> due = new ArrayList<>();
+        boolean probe = false;
+        synchronized (this) {
+            long next = Long.MAX_VALUE;
+            for (Event e : pending.values()) next = Math.min(next, e.dueAt());
+            if (next == Long.MAX_VALUE) return -1;
+            if (next > now) return next - now;
+            if (!transport.isReachable()) {
+                // Backpressure: hold everything; keys keep coalescing, overflow drops the oldest
+                if (now - lastProbeAt >= PROBE_INTERVAL_MS) {
+                    lastProbeAt = now;
+                    probe = true;
+                } else {
+                    return lastProbeAt + PROBE_INTERVAL_MS - now;
+                }
+            } else {
+                for (Iterator<Event> it = pending.values().iterator(); it.hasNext(); ) {
+                    Event e = it.next();
+                    if (e.dueAt() > now) continue;
+                    it.remove();
+                    if (!e.removed) {
+                        Long last = sentHash.get(e.key);
+                        if (last != null && last == e.hash) {       // changed and changed back
+                            duplicates++;
+                            continue;
+                        }
+                        sentHash.put(e.key, e.hash);
+                    }
+                    due.add(e);
+                }
+            }
+        }
+        if (probe) {
+            transport.probe();
+            return PROBE_INTERVAL_MS;
+        }
+        if (protocolVersion() >= 2) sendBatched(due);
+        else sendLegacy(due);
+        return drainDelay(now);
+    }
+
+    private synchronized int protocolVersion() {
+        return protocolVersion;
+    }
+
+    private void sendLegacy(List<Event> due) {
+        for (Event e : due) {
+            if (e.removed) {
+                send("NOTIF_DISMISSED:" + e.key);
+            } else {
+                StringBuilder sb = new StringBuilder("NOTIF_MIRROR:{");
+                field(sb, "key", e.key).append(',');
+                field(sb, "title", e.title).append(',');
+                field(sb, "body", e.body).append(',');
+                field(sb, "pkg", e.pkg).append(",\"time\":").append(e.time).append('}');
+                send(sb.toString());
+            }
+        }
+    }
+
+    private void sendBatched(List<Event> due) {
+        StringBuilder batch = new StringBuilder();
+        StringBuilder item = new StringBuilder();
+        for (Event e : due) {
+            item.setLength(0);
+            item.append('{');
+            if (e.removed) {
+                field(item, "op", "remove").append(',');
+                field(item, "key", e.key);
+            } else {
+                String iconId = ensureIcon(e.pkg);
+                field(item, "op", "post").append(',');
+                field(item, "key", e.key).append(',');
+                field(item, "pkg", e.pkg).append(',');
+                field(item, "title", e.title).append(',');
+                field(item, "body", e.body).append(",\"time\":").append(e.time);
+                if (iconId != null) field(item.append(','), "icon", iconId);
+            }
+            item.append('}');
+            if (batch.length() > 0 && batch.length() + item.length() + 2 > MAX_BATCH_BYTES) {
+                send(batch.append(']').toString());
+                batch.setLength(0);
+            }
+            batch.append(batch.length() == 0 ? "NOTIF_BATCH:[" : ",").append(item);
+        }
+        if (batch.length() > 0) send(batch.append(']').toString());
+    }
+
+    /** Icon id for {@code pkg}, sending the icon first if this PC has not had it yet. */
+    private String ensureIcon(String pkg) {
+        if (icons == null) return null;
+        Icon icon;
+        synchronized (this) {
+            icon = iconCache.get(pkg);
+        }
+        if (icon == null) {
+            byte[] png = icons.load(pkg);
+            if (png == null) return null;
+            icon = new Icon(Long.toHexString(fnv64(png)), SecurityUtils.base64(png));
+            synchronized (this) {
+                iconCache.put(pkg, icon);
+            }
+        }
+        boolean first;
+        synchronized (this) {
+            first = iconsSent.add(icon.id);
+        }
+        if (first) send("NOTIF_ICON:" + icon.id + "|" + pkg + "|" + icon.base64);
+        return icon.id;
+    }
+
+    private void send(String packet) {
+        synchronized (this) {
+            packets++;
+        }
+        transport.send(packet);
+    }
+
+    // ─── Helpers ────────────────────────────────────────────────
+
+    private static StringBuilder field(StringBuilder sb, String name, String value) {
+        sb.append('"').append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    static long hash(String pkg, String title, String body) {
+        long h = 0xcbf29ce484222325L;
+        h = fnv64(h, pkg);
+        h = fnv64(h, "\u0000");
+        h = fnv64(h, title);
+        h = fnv64(h, "\u0000");
+        return fnv64(h, body);
+    }
+
+    private static long fnv64(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long fnv64(byte[] b) {
+        long h = 0xcbf29ce484222325L;
+        for (byte x : b) {
+            h ^= x & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Monotonic ms; tests override it. */
+    long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
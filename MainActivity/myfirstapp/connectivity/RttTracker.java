@@ -0,0 +1,91 @@
+package com.prajwal.myfirstapp.connectivity;
+
+/**
+ * Round-trip time and reachability of the PC server, fed by every
+ * request/response on the {@link ControlSession} (keepalive pings,
+ * reachability checks, file list requests …).
+ *
+ * Smoothed RTT and variance follow RFC 6298 (alpha 1/8, beta 1/4); the
+ * retransmission timeout derived from them is what pings wait for. Loss is
+ * an exponentially weighted rate of timed-out requests. The server counts
+ * as unreachable after {@link #LOSSES_TO_UNREACHABLE} timeouts in a row.
+ *
+ * Thread-safe.
+ */
+public class RttTracker {
+
+    static final int LOSSES_TO_UNREACHABLE = 2;
+    static final long MIN_RTO_MS = 300;
+    static final long MAX_RTO_MS = 2000;
+    static final long INITIAL_RTO_MS = 500;
+    private static final double LOSS_WEIGHT = 0.1;
+
+    private long samples;
+    private double srtt = -1;
+    private double rttvar;
+    private long minRtt = Long.MAX_VALUE;
+    private long lastRtt = -1;
+    private double lossRate;
+    private int consecutiveLosses = LOSSES_TO_UNREACHABLE;   // unknown until the first answer
+    private long lastSuccessMs;
+
+    public synchronized void onSample(long rttMs, long nowMs) {
+        if (rttMs < 0) rttMs = 0;
+        if (srtt < 0) {
+            srtt = rttMs;
+            rttvar = rttMs / 2.0;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rttMs);
+            srtt = 0.875 * srtt + 0.125 * rttMs;
+        }
+        samples++;
+        lastRtt = rttMs;
+        minRtt = Math.min(minRtt, rttMs);
+        lossRate *= 1 - LOSS_WEIGHT;
+        consecutiveLosses = 0;
+        lastSuccessMs = nowMs;
+    }
+
+    public synchronized void onLoss() {
+        lossRate = lossRate * (1 - LOSS_WEIGHT) + LOSS_WEIGHT;
+        if (consecutiveLosses < Integer.MAX_VALUE) consecutiveLosses++;
+    }
+
+    /** Forget everything, e.g. when switching to another server. */
+    public synchronized void reset() {
+        samples = 0;
+        srtt = -1;
+        rttvar = 0;
+        minRtt = Long.MAX_VALUE;
+        lastRtt = -1;
+        lossRate = 0;
+        consecutiveLosses = LOSSES_TO_UNREACHABLE;
+        lastSuccessMs = 0;
+    }
+
+    public synchronized boolean isReachable() {
+        return consecutiveLosses < LOSSES_TO_UNREACHABLE;
+    }
+
+    /** How long to wait for an answer before counting a loss. */
+    public synchronized long getTimeoutMs() {
+        if (srtt < 0) return INITIAL_RTO_MS;
+        long rto = (long) Math.ceil(srtt + Math.max(10, 4 * rttvar));
+        return Math.max(MIN_RTO_MS, Math.min(MAX_RTO_MS, rto));
+    }
+
+    /** Smoothed RTT in ms, or -1 before the first sample. */
+    public synchronized long getSmoothedRttMs() { return srtt < 0 ? -1 : Math.round(srtt); }
+    public synchronized long getRttVarianceMs() { return Math.round(rttvar); }
+    public synchronized long getMinRttMs()      { return minRtt == Long.MAX_VALUE ? -1 : minRtt; }
+    public synchronized long getLastRttMs()     { return lastRtt; }
+    public synchronized long getSampleCount()   { return samples; }
+    public synchronized double getLossRate()    { return lossRate; }
+    public synchronized long getLastSuccessMs() { return lastSuccessMs; }
+
+    @Override
+    public synchronized String toString() {
+        return "rtt=" + getSmoothedRttMs() + "±" + getRttVarianceMs() + "ms min=" + getMinRttMs()
+                + " loss=" + Math.round(lossRate * 100) + "% " + (isReachable() ? "up" : "down");
+    }
+}
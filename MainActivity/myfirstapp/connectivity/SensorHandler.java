@@ -12,13 +12,19 @@ public class SensorHandler implements SensorEventListener {
     private Sensor gyroSensor;
     private ConnectionManager connectionManager;
     private float sensitivity = 15.0f; // Adjust this to change speed
+    // Sensitivity was tuned per SENSOR_DELAY_UI sample (~60 ms); moves are now
+    // scaled by the real sample interval so speed is independent of the rate
+    private static final float REFERENCE_SAMPLE_S = 0.06f;
+    private final MotionAggregator motionAggregator;
+    private long lastEventNanos = 0;
 
 
     public void start() {
         // Safety: check if the sensor actually exists on this phone
         if (sensorManager != null && gyroSensor != null) {
-            sensorManager.registerListener(this, gyroSensor, SensorManager.SENSOR_DELAY_UI);
-            // Note: Used SENSOR_DELAY_UI (slower) to prevent network lag
+            lastEventNanos = 0;
+            sensorManager.registerListener(this, gyroSensor, SensorManager.SENSOR_DELAY_GAME);
+            // SENSOR_DELAY_GAME is safe now: samples are coalesced into one packet per frame
         } else {
             Log.e("LaserMode", "Gyroscope not found on this device!");
         }
@@ -26,10 +32,12 @@ public class SensorHandler implements SensorEventListener {
 
     public void stop() {
         sensorManager.unregisterListener(this);
+        motionAggregator.flush();
     }
 
     public SensorHandler(Context context, ConnectionManager connectionManager) {
         this.connectionManager = connectionManager;
+        this.motionAggregator = new MotionAggregator(connectionManager);
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         gyroSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
     }
@@ -42,11 +50,14 @@ public class SensorHandler implements SensorEventListener {
             float axisX = event.values[0];
             float axisY = event.values[1];
 
+            float dt = lastEventNanos == 0 ? REFERENCE_SAMPLE_S
+                    : Math.min((event.timestamp - lastEventNanos) / 1e9f, 4 * REFERENCE_SAMPLE_S);
+            lastEventNanos = event.timestamp;
+
             if (Math.abs(axisX) > 0.1 || Math.abs(axisY) > 0.1) {
-                // We send a specific "GYRO" command to the laptop
-                int moveX = (int) (-axisY * sensitivity);
-                int moveY = (int) (-axisX * sensitivity);
-                connectionManager.sendCommand("MOUSE_MOVE_RELATIVE:" + moveX + ":" + moveY);
+                // Summed into a single MOUSE_MOVE_RELATIVE per frame
+                float scale = sensitivity * dt / REFERENCE_SAMPLE_S;
+                motionAggregator.addRelativeMove(-axisY * scale, -axisX * scale);
             }
         }
     }
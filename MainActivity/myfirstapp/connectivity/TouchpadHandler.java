@@ -14,6 +14,7 @@ public class TouchpadHandler implements View.OnTouchListener {
     private final GestureDetector doubleTapDetector;
     private final View touchPadView;
     private final CompoundButton modeSwitch; // To check if we are in gesture mode
+    private final MotionAggregator motionAggregator; // frame-paced move/scroll batching
     
     private float lastX = 0, lastY = 0;
     private float startX, startY;
@@ -24,6 +25,7 @@ public class TouchpadHandler implements View.OnTouchListener {
         this.touchPadView = touchPadView;
         this.modeSwitch = modeSwitch;
         this.connectionManager = connectionManager;
+        this.motionAggregator = new MotionAggregator(connectionManager);
 
         this.doubleTapDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
             @Override
@@ -34,6 +36,7 @@ public class TouchpadHandler implements View.OnTouchListener {
 
             @Override
             public void onLongPress(MotionEvent e) {
+                motionAggregator.flush();
                 connectionManager.sendCommand("MOUSE_LEFT_DOWN");
                 touchPadView.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
             }
@@ -49,6 +52,7 @@ public class TouchpadHandler implements View.OnTouchListener {
 
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
+                motionAggregator.reset();
                 startX = x; startY = y; lastX = x; lastY = y;
                 isMoving = false;
                 if (pointerCount == 1) {
@@ -63,21 +67,21 @@ public class TouchpadHandler implements View.OnTouchListener {
                 
                 if (Math.abs(x - startX) > 5 || Math.abs(y - startY) > 5) isMoving = true;
                 
+                // Deltas are summed by the aggregator and sent once per frame
                 if (pointerCount == 2) {
                     // 2-finger scroll
-                    if (Math.abs(dy) > 10) {
-                        connectionManager.sendCommand("MOUSE_SCROLL:" + (dy > 0 ? "1" : "-1"));
-                    }
+                    motionAggregator.addScroll(dy);
                 } else if (pointerCount == 1) {
                     if (!modeSwitch.isChecked()) {
                         // Mouse Mode
-                        connectionManager.sendCommand("MOUSE_MOVE:" + dx + "," + dy);
+                        motionAggregator.addMove(dx, dy);
                     } else {
-                        // Gesture Mode
-                        if (Math.abs(dy) > 5) {
-                            // Also scroll in gesture mode if strictly vertical? 
-                            // (Preserving original logic: "if (Math.abs(dy) > 5) sendCommand("MOUSE_SCROLL:" ...")" was inside else block)
-                            connectionManager.sendCommand("MOUSE_SCROLL:" + (dy > 0 ? "1" : "-1"));
+                        // Gesture Mode — also scrolls, and records every batched
+                        // historical sample so the path keeps its full resolution
+                        motionAggregator.addScroll(dy);
+                        for (int h = 0; h < event.getHistorySize(); h++) {
+                            gesturePath.append("|").append(event.getHistoricalX(h))
+                                    .append(",").append(event.getHistoricalY(h));
                         }
                         gesturePath.append("|").append(x).append(",").append(y);
                     }
@@ -86,12 +90,17 @@ public class TouchpadHandler implements View.OnTouchListener {
                 break;
                 
             case MotionEvent.ACTION_UP:
+                motionAggregator.flush();
                 if (modeSwitch.isChecked() && pointerCount == 1) {
                     connectionManager.sendCommand("GESTURE:" + gesturePath.toString());
                 } else if (!isMoving && pointerCount == 1) {
                     connectionManager.sendCommand("MOUSE_CLICK");
                 }
                 break;
+
+            case MotionEvent.ACTION_CANCEL:
+                motionAggregator.reset();
+                break;
         }
         return true;
     }
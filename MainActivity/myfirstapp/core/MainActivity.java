@@ -14,6 +14,7 @@ import com.prajwal.myfirstapp.connectivity.NotifMirrorService;
 import com.prajwal.myfirstapp.connectivity.QRPairingManager;
 import com.prajwal.myfirstapp.connectivity.ReverseCommandListener;
 import com.prajwal.myfirstapp.connectivity.SensorHandler;
+import com.prajwal.myfirstapp.connectivity.ServerDiscovery;
 import com.prajwal.myfirstapp.connectivity.TouchpadHandler;
 import com.prajwal.myfirstapp.hub.HubFileRepository;
 import com.prajwal.myfirstapp.hub.LaptopHubActivity;
@@ -130,7 +131,7 @@ public class MainActivity extends AppCompatActivity {
         // --- Core Components Init ---
         // Use paired IP if available, else default
         String initialIp = qrPairingManager.isPaired() ? qrPairingManager.getServerIp() : "10.190.76.54";
-        connectionManager = new ConnectionManager(initialIp);
+        connectionManager = ConnectionManager.getInstance(this, initialIp);
         backgroundServices = new BackgroundServices();
 
         // --- Reverse Command Listener (PC → Phone) ---
@@ -357,9 +358,8 @@ public class MainActivity extends AppCompatActivity {
         backgroundServices.startStatusListener((battery, plugged) -> {
             runOnUiThread(() -> tvBattery.setText("PC Battery: " + battery + (plugged ? " ⚡" : "")));
         });
-        backgroundServices.startPreviewListener((bitmap) -> {
-            runOnUiThread(() -> ivPreview.setImageBitmap(bitmap));
-        });
+        backgroundServices.startPreviewListener(ivPreview::setImageBitmap,
+                () -> connectionManager.sendCommand("PREVIEW_KEYFRAME"));
 
         // Don't start connection monitor automatically - wait for server selection
         // startConnectionMonitor();
@@ -367,6 +367,21 @@ public class MainActivity extends AppCompatActivity {
         // Show initial status
         tvStatus.setText("Not Connected");
         tvStatus.setTextColor(Color.parseColor("#EF5350")); // Red for not connected
+
+        // Not paired but used a server before: reconnect to it (or whichever server answers)
+        if (!serverSelected && ServerDiscovery.getLastServer(this) != null) {
+            ServerDiscovery.getInstance().reconnect(this, new ServerDiscovery.Listener() {
+                @Override
+                public void onServerFound(String ip) {
+                    runOnUiThread(() -> {
+                        if (!serverSelected) selectServer(ip);
+                    });
+                }
+
+                @Override
+                public void onFinished(java.util.List<String> servers) { }
+            });
+        }
         // file reciver
         // connectionManager.startFileReceiver(this);
 
@@ -709,34 +724,45 @@ public class MainActivity extends AppCompatActivity {
         progress.setCancelable(false);
         progress.show();
 
-        connectionManager.discoverServers(servers -> {
-            runOnUiThread(() -> {
-                progress.dismiss();
+        connectionManager.discoverServers(this, new ServerDiscovery.Listener() {
+            private int found;
 
-                if (servers.isEmpty()) {
-                    // No servers found - show manual IP entry
-                    new AlertDialog.Builder(this)
-                            .setTitle("No Servers Found")
-                            .setMessage("No servers detected. Enter IP manually?")
-                            .setPositiveButton("Manual Entry", (d, w) -> showManualIPDialog())
-                            .setNeutralButton("Scan QR Code", (d, w) -> startQRScan())
-                            .setNegativeButton("Cancel", null)
-                            .show();
-                } else {
-                    // Show list of discovered servers
-                    String[] serverArray = servers.toArray(new String[0]);
-
-                    AlertDialog.Builder builder = new AlertDialog.Builder(this);
-                    builder.setTitle("Select Server (" + servers.size() + " found)");
-                    builder.setItems(serverArray, (dialog, which) -> {
-                        String selectedIP = serverArray[which];
-                        selectServer(selectedIP);
-                    });
-                    builder.setNeutralButton("Scan QR", (d, w) -> startQRScan());
-                    builder.setNegativeButton("Cancel", null);
-                    builder.show();
-                }
-            });
+            @Override
+            public void onServerFound(String ip) {
+                int n = ++found;
+                runOnUiThread(() -> progress.setMessage("Discovering servers... (" + n + " found)"));
+            }
+
+            @Override
+            public void onFinished(java.util.List<String> servers) {
+                runOnUiThread(() -> {
+                    progress.dismiss();
+
+                    if (servers.isEmpty()) {
+                        // No servers found - show manual IP entry
+                        new AlertDialog.Builder(MainActivity.this)
+                                .setTitle("No Servers Found")
+                                .setMessage("No servers detected. Enter IP manually?")
+                                .setPositiveButton("Manual Entry", (d, w) -> showManualIPDialog())
+                                .setNeutralButton("Scan QR Code", (d, w) -> startQRScan())
+                                .setNegativeButton("Cancel", null)
+                                .show();
+                    } else {
+                        // Show list of discovered servers
+                        String[] serverArray = servers.toArray(new String[0]);
+
+                        AlertDialog.Builder builder = new AlertDialog.Builder(MainActivity.this);
+                        builder.setTitle("Select Server (" + servers.size() + " found)");
+                        builder.setItems(serverArray, (dialog, which) -> {
+                            String selectedIP = serverArray[which];
+                            selectServer(selectedIP);
+                        });
+                        builder.setNeutralButton("Scan QR", (d, w) -> startQRScan());
+                        builder.setNegativeButton("Cancel", null);
+                        builder.show();
+                    }
+                });
+            }
         });
     }
 
@@ -757,21 +783,23 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void selectServer(String ipAddress) {
-        connectionManager.setLaptopIp(ipAddress);
-        serverSelected = true;
-
-        connectionManager.wakeUpWatchdog();
-
-        // Start/restart reverse command listener for this server
+        // Listener and notification mirroring first: switching the server
+        // sends the handshake, and its acks (NOTIF_PROTOCOL, SESSION, …)
+        // must find the new listener and must not be undone by a reset.
         if (reverseCommandListener != null) {
             reverseCommandListener.stop();
         }
         reverseCommandListener = new ReverseCommandListener(this, ipAddress);
         reverseCommandListener.start();
-
-        // Set server IP for notification mirroring
         NotifMirrorService.setServerIp(ipAddress);
 
+        connectionManager.setLaptopIp(ipAddress);
+        serverSelected = true;
+        ServerDiscovery.getInstance().stopReconnect();
+        ServerDiscovery.rememberServer(this, ipAddress);
+
+        connectionManager.wakeUpWatchdog();
+
         // Start monitoring now that server is selected
         if (!isServerCurrentlyRunning) {
             backgroundServices.startAutoDiscovery(() -> lastServerHeartbeat = System.currentTimeMillis());
@@ -801,6 +829,8 @@ public class MainActivity extends AppCompatActivity {
             String ip = qrPairingManager.getServerIp();
             String hostname = qrPairingManager.getHostname();
             selectServer(ip);
+            // Only commands signed with the new key from now on
+            reverseCommandListener.setRequireAuthentication(true);
             Toast.makeText(this, "Paired with " + hostname + " (" + ip + ")",
                     Toast.LENGTH_LONG).show();
 
@@ -1399,7 +1429,7 @@ public class MainActivity extends AppCompatActivity {
             TextView mediaVaultSummary = findViewById(R.id.tvPersonalVaultSubtitle);
             if (mediaVaultSummary != null) {
                 if (mediaVault.isPinSetup()) {
-                    int totalFiles = mediaVault.getAllFiles().size();
+                    int totalFiles = mediaVault.getFileCount();
                     if (totalFiles > 0) {
                         mediaVaultSummary.setText("🔒 " + totalFiles + " encrypted file" + (totalFiles == 1 ? "" : "s"));
                     } else {
@@ -1681,6 +1711,11 @@ public class MainActivity extends AppCompatActivity {
         if (reverseCommandListener != null) {
             reverseCommandListener.stop();
         }
+        if (backgroundServices != null) {
+            backgroundServices.stopPreviewListener();
+            backgroundServices.stopAutoDiscovery();
+        }
+        ServerDiscovery.getInstance().stopReconnect();
     }
 
     // ═══ HOME CARD SUBTITLES ═══
@@ -1752,7 +1787,7 @@ public class MainActivity extends AppCompatActivity {
             TextView tvVault = findViewById(R.id.tvPersonalVaultSubtitle);
             if (tvVault != null) {
                 if (mediaVault.isPinSetup()) {
-                    int totalFiles = mediaVault.getAllFiles().size();
+                    int totalFiles = mediaVault.getFileCount();
                     if (totalFiles > 0) {
                         tvVault.setText(totalFiles + " encrypted file" + (totalFiles == 1 ? "" : "s"));
                     } else {
@@ -3,6 +3,7 @@ package com.prajwal.myfirstapp.hub;
 
 import com.prajwal.myfirstapp.R;
 import com.prajwal.myfirstapp.connectivity.ConnectionManager;
+import com.prajwal.myfirstapp.connectivity.DirectoryListing;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -34,6 +35,7 @@ public class FileManagerActivity extends AppCompatActivity {
     private TextView txtPath;
     private String currentPath = "ROOT";
     private ConnectionManager connectionManager; // Assuming you pass IP via Intent
+    private DirectoryListing listing;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -41,7 +43,8 @@ public class FileManagerActivity extends AppCompatActivity {
         setContentView(R.layout.activity_file_manager);
 
         String ip = getIntent().getStringExtra("server_ip");
-        connectionManager = new ConnectionManager(ip);
+        connectionManager = ConnectionManager.getInstance(this, ip);
+        listing = connectionManager.newDirectoryListing(this::runOnUiThread);
 
         txtPath = findViewById(R.id.txtCurrentPath);
         recyclerView = findViewById(R.id.recyclerFiles);
@@ -67,9 +70,54 @@ public class FileManagerActivity extends AppCompatActivity {
         loadDirectory("ROOT");
     }
 
+    @Override
+    protected void onDestroy() {
+        listing.cancel();
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(fileReceiver);
+        super.onDestroy();
+    }
+
     private void loadDirectory(String path) {
-        connectionManager.sendCommand("GET_FILES:" + path);
-        // Show loading?
+        // Cached folders show at once; fresh listings stream in page by page
+        listing.load(path, listingListener);
+    }
+
+    private final DirectoryListing.Listener listingListener = new DirectoryListing.Listener() {
+        @Override
+        public void onCached(String path, List<DirectoryListing.Entry> entries) {
+            currentPath = path;
+            txtPath.setText(path);
+            adapter.setFiles(toItems(entries));
+        }
+
+        @Override
+        public void onStart(String path, String displayPath, int total) {
+            currentPath = displayPath;
+            txtPath.setText(displayPath);
+            adapter.setFiles(new ArrayList<>(total));
+        }
+
+        @Override
+        public void onEntries(String path, List<DirectoryListing.Entry> entries, int loaded, int total) {
+            adapter.addFiles(toItems(entries));
+            if (loaded < total) txtPath.setText(currentPath + "  (" + loaded + "/" + total + ")");
+            else txtPath.setText(currentPath);
+        }
+
+        @Override
+        public void onComplete(String path, boolean unchanged) { }
+
+        @Override
+        public void onError(String path) {
+            // Server without paged listings: fall back to the single GET_FILES reply
+            connectionManager.sendCommand("GET_FILES:" + path);
+        }
+    };
+
+    private static List<FileItem> toItems(List<DirectoryListing.Entry> entries) {
+        List<FileItem> items = new ArrayList<>(entries.size());
+        for (DirectoryListing.Entry e : entries) items.add(new FileItem(e.name, e.type, e.path));
+        return items;
     }
 
     private final BroadcastReceiver fileReceiver = new BroadcastReceiver() {
@@ -124,6 +172,12 @@ public class FileManagerActivity extends AppCompatActivity {
             notifyDataSetChanged();
         }
 
+        void addFiles(List<FileItem> more) {
+            int start = files.size();
+            files.addAll(more);
+            notifyItemRangeInserted(start, more.size());
+        }
+
         @NonNull
         @Override
         public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
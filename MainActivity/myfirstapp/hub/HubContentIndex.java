@@ -0,0 +1,558 @@
+package com.prajwal.myfirstapp.hub;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Positional inverted index over extracted Smart File Hub content.
+ *
+ * Terms map to posting lists of (file id → sorted token positions), which is
+ * enough for prefix queries (a TreeMap range over the term dictionary) and
+ * phrase queries (position arithmetic across the postings of each term).
+ *
+ * On disk the index is a snapshot ({@code content.idx}) plus an append-only
+ * journal ({@code content.log}) of CRC-checked add/remove records, so indexing
+ * one file costs one small append rather than rewriting the whole index. The
+ * journal is replayed on load — a torn tail is truncated — and folded into a
+ * fresh snapshot once it outgrows the snapshot (and at least
+ * {@link #COMPACT_THRESHOLD_BYTES}).
+ *
+ * All methods are synchronized; writes happen on the indexer's background
+ * thread, queries on whatever thread the search runs on.
+ */
+public class HubContentIndex {
+
+    private static final String TAG = "HubContentIndex";
+    private static final String DIR_NAME = "hub_index";
+    private static final String SNAPSHOT_NAME = "content.idx";
+    private static final String JOURNAL_NAME = "content.log";
+    private static final int SNAPSHOT_MAGIC = 0x48434931; // "HCI1"
+    private static final int MAX_TERM_LENGTH = 64;
+    static final int MAX_PREFIX_EXPANSION = 256;
+    private static final long COMPACT_THRESHOLD_BYTES = 1024 * 1024;
+    private static final byte OP_ADD = 'a';
+    private static final byte OP_REMOVE = 'r';
+
+    private static HubContentIndex instance;
+
+    private final File dir;
+    private final File snapshotFile;
+    private final File journalFile;
+
+    /** term → (file id → sorted positions) */
+    private final TreeMap<String, Map<String, int[]>> postings = new TreeMap<>();
+    /** file id → indexed document (content hash + distinct terms, for removal) */
+    private final Map<String, Doc> docs = new HashMap<>();
+
+    private DataOutputStream journal;
+    private long journalBytes;
+    private boolean loaded = false;
+
+    private static final class Doc {
+        final String hash;
+        final String[] terms;
+        Doc(String hash, String[] terms) {
+            this.hash = hash;
+            this.terms = terms;
+        }
+    }
+
+    private HubContentIndex(Context context) {
+        this(new File(context.getApplicationContext().getFilesDir(), DIR_NAME));
+    }
+
+    /** Index stored in {@code dir}; used directly by tests. */
+    HubContentIndex(File dir) {
+        this.dir = dir;
+        this.snapshotFile = new File(dir, SNAPSHOT_NAME);
+        this.journalFile = new File(dir, JOURNAL_NAME);
+    }
+
+    public static synchronized HubContentIndex getInstance(Context context) {
+        if (instance == null) instance = new HubContentIndex(context);
+        return instance;
+    }
+
+    // ─── Updates ──────────────────────────────────────────────────────────────
+
+    /**
+     * Index {@code content} for {@code fileId}, replacing any earlier entry.
+     * Returns false without touching the index if {@code hash} matches what
+     * is already indexed for that file.
+     */
+    public synchronized boolean put(String fileId, String hash, String content) {
+        ensureLoaded();
+        Doc existing = docs.get(fileId);
+        if (existing != null && existing.hash.equals(hash)) return false;
+        List<String> tokens = tokenize(content);
+        if (existing != null) unindex(fileId, existing);
+        index(fileId, hash, tokens);
+        appendRecord(OP_ADD, fileId, hash, tokens);
+        return true;
+    }
+
+    public synchronized void remove(String fileId) {
+        ensureLoaded();
+        Doc existing = docs.remove(fileId);
+        if (existing == null) return;
+        unindex(fileId, existing);
+        appendRecord(OP_REMOVE, fileId, "", Collections.<String>emptyList());
+    }
+
+    /** Drop entries for files that are no longer tracked by the repository. */
+    public synchronized void retainAll(Set<String> fileIds) {
+        ensureLoaded();
+        for (String id : new ArrayList<>(docs.keySet())) {
+            if (!fileIds.contains(id)) remove(id);
+        }
+    }
+
+    public synchronized boolean contains(String fileId) {
+        ensureLoaded();
+        return docs.containsKey(fileId);
+    }
+
+    public synchronized String getHash(String fileId) {
+        ensureLoaded();
+        Doc doc = docs.get(fileId);
+        return doc != null ? doc.hash : null;
+    }
+
+    public synchronized int getDocumentCount() {
+        ensureLoaded();
+        return docs.size();
+    }
+
+    public synchronized int getTermCount() {
+        ensureLoaded();
+        return postings.size();
+    }
+
+    // ─── Queries ──────────────────────────────────────────────────────────────
+
+    /**
+     * Ids of files whose content matches {@code query}.
+     *
+     *   • {@code "exact phrase"}  — quoted: every word must appear in sequence
+     *   • {@code word}            — single word: prefix match ("inv" → invoice)
+     *   • {@code two words}       — phrase, with the last word as a prefix so
+     *                               results keep up while the user is typing
+     */
+    public synchronized Set<String> search(String query) {
+        if (query == null) return Collections.emptySet();
+        String q = query.trim();
+        boolean quoted = q.length() >= 2 && q.startsWith("\"") && q.endsWith("\"");
+        List<String> terms = tokenize(quoted ? q.substring(1, q.length() - 1) : q);
+        if (terms.isEmpty()) return Collections.emptySet();
+        if (terms.size() == 1 && !quoted) return prefixQuery(terms.get(0));
+        return phraseQuery(terms, !quoted);
+    }
+
+    /** Ids of files containing any term that starts with {@code prefix}. */
+    public synchronized Set<String> prefixQuery(String prefix) {
+        ensureLoaded();
+        Set<String> result = new HashSet<>();
+        for (Map<String, int[]> list : prefixRange(prefix).values()) result.addAll(list.keySet());
+        return result;
+    }
+
+    /**
+     * Ids of files containing {@code terms} at consecutive positions. When
+     * {@code lastIsPrefix} is set the final term matches any indexed term it
+     * is a prefix of.
+     */
+    public synchronized Set<String> phraseQuery(List<String> terms, boolean lastIsPrefix) {
+        ensureLoaded();
+        int n = terms.size();
+        List<Map<String, int[]>> lists = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Map<String, int[]> list = (i == n - 1 && lastIsPrefix)
+                    ? mergePrefix(terms.get(i))
+                    : postings.get(terms.get(i));
+            if (list == null || list.isEmpty()) return Collections.emptySet();
+            lists.add(list);
+        }
+
+        // Drive the intersection from the rarest term
+        Map<String, int[]> smallest = lists.get(0);
+        for (Map<String, int[]> list : lists) if (list.size() < smallest.size()) smallest = list;
+
+        Set<String> result = new HashSet<>();
+        candidates:
+        for (String fileId : smallest.keySet()) {
+            int[][] positions = new int[n][];
+            for (int i = 0; i < n; i++) {
+                positions[i] = lists.get(i).get(fileId);
+                if (positions[i] == null) continue candidates;
+            }
+            if (hasPhraseAt(positions)) result.add(fileId);
+        }
+        return result;
+    }
+
+    private static boolean hasPhraseAt(int[][] positions) {
+        for (int start : positions[0]) {
+            boolean match = true;
+            for (int i = 1; i < positions.length && match; i++) {
+                match = Arrays.binarySearch(positions[i], start + i) >= 0;
+            }
+            if (match) return true;
+        }
+        return false;
+    }
+
+    private SortedMap<String, Map<String, int[]>> prefixRange(String prefix) {
+        return postings.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * Union of the postings of every term starting with {@code prefix}. Past
+     * {@link #MAX_PREFIX_EXPANSION} terms only the prefix itself and the
+     * completions found in the most files are merged.
+     */
+    private Map<String, int[]> mergePrefix(String prefix) {
+        SortedMap<String, Map<String, int[]>> range = prefixRange(prefix);
+        if (range.size() == 1) return range.values().iterator().next();
+        Collection<Map<String, int[]>> lists = range.values();
+        if (range.size() > MAX_PREFIX_EXPANSION) {
+            // Keep the most common completions
+            List<Map<String, int[]>> ranked = new ArrayList<>(lists);
+            Collections.sort(ranked, (a, b) -> Integer.compare(b.size(), a.size()));
+            Map<String, int[]> exact = postings.get(prefix);
+            if (exact != null) {
+                ranked.remove(exact);
+                ranked.add(0, exact);
+            }
+            lists = ranked.subList(0, MAX_PREFIX_EXPANSION);
+        }
+        Map<String, int[]> merged = new HashMap<>();
+        for (Map<String, int[]> list : lists) {
+            for (Map.Entry<String, int[]> e : list.entrySet()) {
+                int[] prev = merged.get(e.getKey());
+                merged.put(e.getKey(), prev == null ? e.getValue() : union(prev, e.getValue()));
+            }
+        }
+        return merged;
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] out = new int[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        Arrays.sort(out);
+        return out; // positions of distinct terms never collide
+    }
+
+    // ─── Tokenizer ────────────────────────────────────────────────────────────
+
+    /** Lower-cased runs of letters/digits; over-long runs are cut to {@link #MAX_TERM_LENGTH}. */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) return tokens;
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < len && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > start) {
+                String term = text.substring(start, Math.min(i, start + MAX_TERM_LENGTH));
+                tokens.add(term.toLowerCase(Locale.ROOT));
+            }
+        }
+        return tokens;
+    }
+
+    // ─── In-memory postings ───────────────────────────────────────────────────
+
+    private void index(String fileId, String hash, List<String> tokens) {
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int pos = 0; pos < tokens.size(); pos++) {
+            String term = tokens.get(pos);
+            List<Integer> list = positions.get(term);
+            if (list == null) positions.put(term, list = new ArrayList<>());
+            list.add(pos);
+        }
+        for (Map.Entry<String, List<Integer>> e : positions.entrySet()) {
+            List<Integer> list = e.getValue();
+            int[] arr = new int[list.size()];
+            for (int k = 0; k < arr.length; k++) arr[k] = list.get(k);
+            postingsFor(e.getKey()).put(fileId, arr);
+        }
+        docs.put(fileId, new Doc(hash, positions.keySet().toArray(new String[0])));
+    }
+
+    private void unindex(String fileId, Doc doc) {
+        for (String term : doc.terms) {
+            Map<String, int[]> list = postings.get(term);
+            if (list == null) continue;
+            list.remove(fileId);
+            if (list.isEmpty()) postings.remove(term);
+        }
+    }
+
+    private Map<String, int[]> postingsFor(String term) {
+        Map<String, int[]> list = postings.get(term);
+        if (list == null) {
+            list = new HashMap<>(4);
+            postings.put(term, list);
+        }
+        return list;
+    }
+
+    // ─── Persistence ──────────────────────────────────────────────────────────
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + dir);
+            return;
+        }
+        if (snapshotFile.exists()) {
+            try {
+                readSnapshot();
+            } catch (Exception e) {
+                // Unreadable snapshot: start empty, files get re-indexed on the next pass
+                Log.e(TAG, "readSnapshot", e);
+                postings.clear();
+                docs.clear();
+            }
+        }
+        replayJournal();
+        openJournal();
+        if (shouldCompact()) compact();
+    }
+
+    /** Compact once the journal outgrows both the threshold and the snapshot itself. */
+    private boolean shouldCompact() {
+        return journalBytes > Math.max(COMPACT_THRESHOLD_BYTES, snapshotFile.length());
+    }
+
+    /**
+     * Snapshot layout:
+     *   magic, docCount, { fileId, hash }*, termCount,
+     *   { term, postingCount, { docOrdinal, posCount, delta-encoded positions }* }*
+     * Ordinals and positions are varints.
+     */
+    private void readSnapshot() throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Bad snapshot magic");
+            int docCount = in.readInt();
+            String[] ids = new String[docCount];
+            String[] hashes = new String[docCount];
+            Map<String, List<String>> termsByDoc = new HashMap<>();
+            for (int d = 0; d < docCount; d++) {
+                ids[d] = in.readUTF();
+                hashes[d] = in.readUTF();
+                termsByDoc.put(ids[d], new ArrayList<>());
+            }
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                int postingCount = readVarInt(in);
+                Map<String, int[]> list = new HashMap<>(Math.max(4, postingCount * 2));
+                for (int p = 0; p < postingCount; p++) {
+                    String fileId = ids[readVarInt(in)];
+                    int[] positions = new int[readVarInt(in)];
+                    int pos = 0;
+                    for (int k = 0; k < positions.length; k++) positions[k] = pos += readVarInt(in);
+                    list.put(fileId, positions);
+                    termsByDoc.get(fileId).add(term);
+                }
+                postings.put(term, list);
+            }
+            for (int d = 0; d < docCount; d++) {
+                List<String> terms = termsByDoc.get(ids[d]);
+                docs.put(ids[d], new Doc(hashes[d], terms.toArray(new String[0])));
+            }
+        }
+    }
+
+    private void writeSnapshot(File target) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(target)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(docs.size());
+            Map<String, Integer> ordinals = new HashMap<>();
+            for (Map.Entry<String, Doc> e : docs.entrySet()) {
+                ordinals.put(e.getKey(), ordinals.size());
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue().hash);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Map<String, int[]>> e : postings.entrySet()) {
+                out.writeUTF(e.getKey());
+                writeVarInt(out, e.getValue().size());
+                for (Map.Entry<String, int[]> p : e.getValue().entrySet()) {
+                    writeVarInt(out, ordinals.get(p.getKey()));
+                    int[] positions = p.getValue();
+                    writeVarInt(out, positions.length);
+                    int prev = 0;
+                    for (int pos : positions) {
+                        writeVarInt(out, pos - prev);
+                        prev = pos;
+                    }
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /** Fold the journal into a fresh snapshot (write-then-rename) and start a new journal. */
+    private void compact() {
+        File tmp = new File(dir, SNAPSHOT_NAME + ".tmp");
+        try {
+            writeSnapshot(tmp);
+            closeJournal();
+            if (!tmp.renameTo(snapshotFile)) throw new IOException("rename failed");
+            if (!journalFile.delete() && journalFile.exists()) {
+                Log.w(TAG, "compact: journal not deleted");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "compact", e);
+            tmp.delete();
+        }
+        openJournal();
+    }
+
+    /**
+     * Journal record: [int payloadLength][int crc32][payload], payload =
+     * op, fileId, hash, tokenCount, tokens (in document order).
+     */
+    private void appendRecord(byte op, String fileId, String hash, List<String> tokens) {
+        if (journal == null) return;
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(buf);
+            payload.writeByte(op);
+            payload.writeUTF(fileId);
+            payload.writeUTF(hash);
+            writeVarInt(payload, tokens.size());
+            for (String token : tokens) payload.writeUTF(token);
+            payload.flush();
+            byte[] bytes = buf.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            journal.writeInt(bytes.length);
+            journal.writeInt((int) crc.getValue());
+            journal.write(bytes);
+            journal.flush();
+            journalBytes += 8 + bytes.length;
+        } catch (IOException e) {
+            Log.e(TAG, "appendRecord", e);
+        }
+        if (shouldCompact()) compact();
+    }
+
+    private void replayJournal() {
+        if (!journalFile.exists()) return;
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                int expectedCrc = in.readInt();
+                if (length < 0 || length > journalFile.length()) break;
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 0, length);
+                if ((int) crc.getValue() != expectedCrc) break;
+                applyRecord(bytes);
+                good += 8 + length;
+            }
+        } catch (IOException e) {
+            // Torn tail from an interrupted append — everything before it is intact
+            Log.w(TAG, "replayJournal stopped at " + good, e);
+        }
+        if (good < journalFile.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(good);
+            } catch (IOException e) {
+                Log.e(TAG, "truncate journal", e);
+            }
+        }
+    }
+
+    private void applyRecord(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(bytes));
+        byte op = in.readByte();
+        String fileId = in.readUTF();
+        String hash = in.readUTF();
+        Doc existing = docs.remove(fileId);
+        if (existing != null) unindex(fileId, existing);
+        if (op != OP_ADD) return;
+        int count = readVarInt(in);
+        List<String> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) tokens.add(in.readUTF());
+        index(fileId, hash, tokens);
+    }
+
+    private void openJournal() {
+        try {
+            journal = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(journalFile, true)));
+            journalBytes = journalFile.length();
+        } catch (IOException e) {
+            Log.e(TAG, "openJournal", e);
+            journal = null;
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) return;
+        try { journal.close(); } catch (IOException ignored) {}
+        journal = null;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
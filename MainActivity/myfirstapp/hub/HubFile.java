@@ -57,8 +57,8 @@ public class HubFile {
     public int accessCount;
 
     // ── Advanced intelligence fields ──────────────────────────────────────────
-    /** Full-text content extracted from PDF/text/code files for content-aware search. */
-    public String contentIndex;
+    /** SHA-1 of the text last extracted into {@link HubContentIndex}, or null. */
+    public String contentHash;
     /** JSON string with EXIF metadata for image files (camera, GPS, ISO, aperture, etc.). */
     public String exifJson;
     /** IDs of linked notes from the Notes feature. */
@@ -189,7 +189,7 @@ public class HubFile {
             o.put("updatedAt", updatedAt);
             o.put("accessCount", accessCount);
             // Advanced intelligence fields
-            o.put("contentIndex", contentIndex != null ? contentIndex : "");
+            o.put("contentHash", contentHash != null ? contentHash : "");
             o.put("exifJson", exifJson != null ? exifJson : "");
             JSONArray linkedArr = new JSONArray();
             if (linkedNoteIds != null) for (String nid : linkedNoteIds) linkedArr.put(nid);
@@ -254,7 +254,9 @@ public class HubFile {
             f.updatedAt = o.optLong("updatedAt", System.currentTimeMillis());
             f.accessCount = o.optInt("accessCount", 0);
             // Advanced intelligence fields
-            f.contentIndex = o.optString("contentIndex", "");
+            // Legacy "contentIndex" text is dropped; the indexer rebuilds it into HubContentIndex
+            f.contentHash = o.optString("contentHash", "");
+            if (f.contentHash.isEmpty()) f.contentHash = null;
             f.exifJson = o.optString("exifJson", "");
             f.linkedNoteIds = new ArrayList<>();
             JSONArray linkedArr = o.optJSONArray("linkedNoteIds");
@@ -25,7 +25,7 @@ public class LaptopHubActivity extends AppCompatActivity {
         serverIp = getIntent().getStringExtra("server_ip");
         isConnected = getIntent().getBooleanExtra("is_connected", false);
         if (serverIp == null) serverIp = "";
-        connectionManager = new ConnectionManager(serverIp);
+        connectionManager = ConnectionManager.getInstance(this, serverIp);
 
         // Back button
         findViewById(R.id.btnLaptopHubBack).setOnClickListener(v -> finish());
@@ -57,6 +57,9 @@ public class SmartFileHubActivity extends AppCompatActivity {
     private static final int REQUEST_MANAGE_STORAGE = 5003;
 
     private HubFileRepository repo;
+    /** Storage access granted: scan, and watch in live mode, while resumed. */
+    private boolean scanEnabled = false;
+    private boolean resumed = false;
 
     // Views
     private DrawerLayout drawerLayout;
@@ -115,7 +118,17 @@ public class SmartFileHubActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
+        resumed = true;
         refreshData();
+        if (scanEnabled) startScanning();
+    }
+
+    @Override
+    protected void onPause() {
+        resumed = false;
+        // No observers in the background; the scan on resume catches up from mtimes
+        repo.getScanner().stopLiveMode();
+        super.onPause();
     }
 
     // ─── Storage Permission Handling ──────────────────────────────────────────
@@ -153,6 +166,13 @@ public class SmartFileHubActivity extends AppCompatActivity {
     }
 
     private void triggerScan() {
+        scanEnabled = true;
+        if (resumed) startScanning(); // otherwise onResume does it
+    }
+
+    private void startScanning() {
+        // Live mode keeps later scans down to the directories that changed
+        repo.getScanner().startLiveMode(this::refreshData);
         repo.scanForNewFiles(this::refreshData);
     }
 
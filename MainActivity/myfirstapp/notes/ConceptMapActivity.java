@@ -156,7 +156,14 @@ public class ConceptMapActivity extends AppCompatActivity {
             }
         }
 
-        // If no explicit relations, find notes with same category
+        // If no explicit relations, notes sharing keywords with it
+        if (relatedNotes.isEmpty()) {
+            for (Note n : noteRepository.findSimilarNotes(centerNote, 10)) {
+                if (!n.isTrashed) relatedNotes.add(n);
+            }
+        }
+
+        // Then notes with same category
         if (relatedNotes.isEmpty() && centerNote.category != null) {
             for (Note n : allNotes) {
                 if (!n.id.equals(centerNote.id) && centerNote.category.equals(n.category)) {
@@ -109,6 +109,36 @@ public class Note {
         updatePlainTextPreview();
     }
 
+    /** Field-by-field copy (lists copied too), for handing a snapshot to a background writer. */
+    public Note copy() {
+        Note c = new Note();
+        c.id = id;
+        c.title = title;
+        c.body = body;
+        c.plainTextPreview = plainTextPreview;
+        c.colorHex = colorHex;
+        c.category = category;
+        c.tags = tags != null ? new ArrayList<>(tags) : null;
+        c.isPinned = isPinned;
+        c.isLocked = isLocked;
+        c.isArchived = isArchived;
+        c.isTrashed = isTrashed;
+        c.reminderDateTime = reminderDateTime;
+        c.createdAt = createdAt;
+        c.updatedAt = updatedAt;
+        c.deletedAt = deletedAt;
+        c.folderId = folderId;
+        c.linkedCalendarEventId = linkedCalendarEventId;
+        c.linkedExpenseId = linkedExpenseId;
+        c.blocksJson = blocksJson;
+        c.relatedNoteIds = relatedNoteIds != null ? new ArrayList<>(relatedNoteIds) : null;
+        c.propertiesJson = propertiesJson;
+        c.isFavourited = isFavourited;
+        c.contextJson = contextJson;
+        c.contentLoaded = contentLoaded;
+        return c;
+    }
+
     // ─── Preview Generation ──────────────────────────────────────
 
     public void updatePlainTextPreview() {
@@ -257,6 +287,60 @@ public class Note {
         }
     }
 
+    // ─── Summary / Content Split (NoteStore) ─────────────────────
+
+    /**
+     * False while only the summary is loaded: body, blocksJson, propertiesJson
+     * and contextJson are null until {@link NoteRepository#loadContent} reads them.
+     */
+    boolean contentLoaded = true;
+
+    /** Everything except the content fields — what the note list needs. */
+    JSONObject toSummaryJson() {
+        JSONObject json = toJson();
+        json.remove("body");
+        json.remove("blocksJson");
+        json.remove("propertiesJson");
+        json.remove("contextJson");
+        return json;
+    }
+
+    JSONObject toContentJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("body", body != null ? body : "");
+            json.put("blocksJson", blocksJson != null ? blocksJson : "");
+            json.put("propertiesJson", propertiesJson != null ? propertiesJson : "");
+            json.put("contextJson", contextJson != null ? contextJson : "");
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    static Note fromSummaryJson(JSONObject json) {
+        Note note = fromJson(json);
+        if (note == null) return null;
+        note.body = null;
+        note.blocksJson = null;
+        note.propertiesJson = null;
+        note.contextJson = null;
+        note.contentLoaded = false;
+        return note;
+    }
+
+    /** Fill in the content fields; {@code json} null means the note has no stored content. */
+    void applyContentJson(JSONObject json) {
+        body = json != null ? json.optString("body", "") : "";
+        blocksJson = json != null ? json.optString("blocksJson", "") : "";
+        if (blocksJson.isEmpty()) blocksJson = null;
+        propertiesJson = json != null ? json.optString("propertiesJson", "") : "";
+        if (propertiesJson.isEmpty()) propertiesJson = null;
+        contextJson = json != null ? json.optString("contextJson", "") : "";
+        if (contextJson.isEmpty()) contextJson = null;
+        contentLoaded = true;
+    }
+
     // ─── Search Matching ─────────────────────────────────────────
 
     public boolean matchesSearch(String query) {
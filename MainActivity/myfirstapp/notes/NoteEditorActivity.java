@@ -30,6 +30,7 @@ import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.text.Editable;
 import android.text.InputType;
+import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.TextWatcher;
 import android.text.style.BackgroundColorSpan;
@@ -69,6 +70,9 @@ import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * ═══════════════════════════════════════════════════════════════════════════════════════
@@ -170,6 +174,20 @@ public class NoteEditorActivity extends AppCompatActivity
     private Handler autoSaveHandler;
     private Runnable autoSaveRunnable;
 
+    // ═══ Incremental save ═══
+    // Derived block data is kept per block; disk writes and version snapshots
+    // run on one background thread, a queued write being replaced by a newer one.
+    private EditorBlockCache blockCache;
+    private Set<String> savedMentionTitles;
+    private final ExecutorService saveWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "NoteEditorSave");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Object pendingWriteLock = new Object();
+    private Note pendingWrite;
+    private boolean pendingVersion;
+
     // ═══ Undo / Redo (block-snapshot) ═══
     private final LinkedList<String> undoStack = new LinkedList<>();
     private final LinkedList<String> redoStack = new LinkedList<>();
@@ -222,6 +240,7 @@ public class NoteEditorActivity extends AppCompatActivity
         templatesManager = new NoteTemplatesManager(this);
         relationsManager = new NoteRelationsManager(this);
         crossFeatureManager = new NotesCrossFeatureManager(this);
+        blockCache = new EditorBlockCache(relationsManager);
 
         // Parse intent
         Intent intent = getIntent();
@@ -292,6 +311,7 @@ public class NoteEditorActivity extends AppCompatActivity
         if (autoSaveHandler != null && autoSaveRunnable != null) {
             autoSaveHandler.removeCallbacks(autoSaveRunnable);
         }
+        saveWriter.shutdown();   // finishes the queued write first
     }
 
     @Override
@@ -523,8 +543,7 @@ public class NoteEditorActivity extends AppCompatActivity
         autoSaveHandler = new Handler(Looper.getMainLooper());
         autoSaveRunnable = () -> {
             if (hasUnsavedChanges && currentNote != null) {
-                saveNote(false);
-                versionManager.saveVersion(currentNote);
+                saveNote(false, true);
             }
             autoSaveHandler.postDelayed(autoSaveRunnable, AUTO_SAVE_INTERVAL);
         };
@@ -624,42 +643,51 @@ public class NoteEditorActivity extends AppCompatActivity
     }
 
     private void saveNote(boolean finish) {
+        saveNote(finish, false);
+    }
+
+    /**
+     * Bring currentNote up to date from the blocks and queue it for writing.
+     * Only blocks changed since the last save are re-serialized (see
+     * EditorBlockCache); the disk write, search indexing and the optional
+     * version snapshot happen on the save thread.
+     */
+    private void saveNote(boolean finish, boolean withVersion) {
         if (currentNote == null) return;
 
         String title = etTitle.getText().toString().trim();
-        String bodyPlain = getBlocksPlainText();
+        blockCache.refresh(blocks);
 
         // Skip saving truly empty notes
-        if (title.isEmpty() && bodyPlain.isEmpty() && blocks.size() <= 1) {
+        if (title.isEmpty() && blockCache.getCharCount() == 0 && blocks.size() <= 1) {
             if (finish) super.onBackPressed();
             return;
         }
         if (title.isEmpty()) title = "Untitled";
 
         currentNote.title = title;
-        currentNote.body = bodyPlain;                               // plain text for search/cards
-        currentNote.blocksJson = ContentBlock.toJsonArray(blocks).toString();  // full block data
-        currentNote.plainTextPreview = getPlainTextPreview(bodyPlain);
+        currentNote.body = blockCache.buildPlainText();             // plain text for search/cards
+        currentNote.blocksJson = blockCache.buildBlocksJson();      // full block data
+        currentNote.plainTextPreview = getPlainTextPreview(blockCache.buildPlainTextPrefix(1000));
         currentNote.updatedAt = System.currentTimeMillis();
 
-        // Update mention tracking
-        relationsManager.resolveBlockMentions(blocks, noteRepository);
+        // Update mention tracking when the set of mentioned titles changed
+        Set<String> mentionTitles = blockCache.getMentionTitles();
+        if (!mentionTitles.equals(savedMentionTitles)) {
+            relationsManager.updateMentions(currentNote.id,
+                    relationsManager.resolveMentionTitles(mentionTitles, noteRepository));
+            savedMentionTitles = mentionTitles;
+        }
 
         // Duplicate-note warning (first save only)
         if (isNewNote && !currentNote.title.isEmpty()) {
-            List<Note> all = noteRepository.getAllNotes();
-            Note similar = SmartNotesHelper.findSimilarNote(currentNote.title, all);
-            if (similar != null && !similar.id.equals(currentNote.id)) {
-                showDuplicateWarning(similar);
-            }
+            Note similar = noteRepository.findSimilarNote(currentNote.title, currentNote.id);
+            if (similar != null) showDuplicateWarning(similar);
         }
 
-        if (isNewNote) {
-            noteRepository.addNote(currentNote);
-            isNewNote = false;
-        } else {
-            noteRepository.updateNote(currentNote);
-        }
+        noteRepository.putNoteInMemory(currentNote);
+        isNewNote = false;
+        queueWrite(currentNote.copy(), withVersion);
 
         if (!smartFeaturesShown && !isNewNote) {
             showSmartSuggestions();
@@ -675,17 +703,45 @@ public class NoteEditorActivity extends AppCompatActivity
         }
     }
 
+    private void queueWrite(Note snapshot, boolean withVersion) {
+        synchronized (pendingWriteLock) {
+            boolean idle = pendingWrite == null;
+            pendingWrite = snapshot;
+            pendingVersion |= withVersion;
+            if (!idle) return;   // the queued task will pick up this newer snapshot
+        }
+        try {
+            saveWriter.execute(this::drainWrite);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            drainWrite();        // after onDestroy: write inline rather than lose it
+        }
+    }
+
+    /** Save thread: write the newest queued snapshot. */
+    private void drainWrite() {
+        Note note;
+        boolean withVersion;
+        synchronized (pendingWriteLock) {
+            note = pendingWrite;
+            withVersion = pendingVersion;
+            pendingWrite = null;
+            pendingVersion = false;
+        }
+        if (note == null) return;
+        noteRepository.persistNote(note);
+        if (withVersion) versionManager.saveVersion(note);
+    }
+
     /** Gather plain text from every block for search index & preview. */
     private String getBlocksPlainText() {
-        StringBuilder sb = new StringBuilder();
-        for (ContentBlock b : blocks) {
-            String t = b.getPlainText();
-            if (t != null && !t.isEmpty()) {
-                if (sb.length() > 0) sb.append("\n");
-                sb.append(t);
-            }
-        }
-        return sb.toString();
+        blockCache.refresh(blocks);
+        return blockCache.buildPlainText();
+    }
+
+    /** All blocks as a JSON array string, reusing the JSON of unchanged blocks. */
+    private String getBlocksJson() {
+        blockCache.refresh(blocks);
+        return blockCache.buildBlocksJson();
     }
 
     private String getPlainTextPreview(String body) {
@@ -721,6 +777,7 @@ public class NoteEditorActivity extends AppCompatActivity
     @Override
     public void onBlockChanged(int position, ContentBlock block) {
         hasUnsavedChanges = true;
+        blockCache.markDirty(block);
         updateStats();
         tvLastSaved.setText(LABEL_EDITING);
         tvLastSaved.setTextColor(Color.parseColor("#F59E0B"));
@@ -871,6 +928,7 @@ public class NoteEditorActivity extends AppCompatActivity
     @Override
     public void onToggleExpanded(int position, ContentBlock block, boolean expanded) {
         block.setCollapsed(!expanded);
+        blockCache.markDirty(block);     // collapsing leaves updatedAt alone
         blockEditorAdapter.notifyItemChanged(position);
         hasUnsavedChanges = true;
     }
@@ -878,6 +936,7 @@ public class NoteEditorActivity extends AppCompatActivity
     @Override
     public void onChecklistToggled(int position, ContentBlock block, boolean checked) {
         block.setChecked(checked);
+        blockCache.markDirty(block);
         hasUnsavedChanges = true;
     }
 
@@ -1088,7 +1147,7 @@ public class NoteEditorActivity extends AppCompatActivity
     // ═══════════════════════════════════════════════════════════════════════════════
 
     private void pushUndoSnapshot() {
-        String snap = ContentBlock.toJsonArray(blocks).toString();
+        String snap = getBlocksJson();
         undoStack.push(snap);
         if (undoStack.size() > MAX_UNDO_STACK) undoStack.removeLast();
         redoStack.clear();
@@ -1100,7 +1159,7 @@ public class NoteEditorActivity extends AppCompatActivity
             Toast.makeText(this, "Nothing to undo", Toast.LENGTH_SHORT).show();
             return;
         }
-        redoStack.push(ContentBlock.toJsonArray(blocks).toString());
+        redoStack.push(getBlocksJson());
         restoreBlockSnapshot(undoStack.pop());
         updateUndoRedoButtons();
     }
@@ -1110,7 +1169,7 @@ public class NoteEditorActivity extends AppCompatActivity
             Toast.makeText(this, "Nothing to redo", Toast.LENGTH_SHORT).show();
             return;
         }
-        undoStack.push(ContentBlock.toJsonArray(blocks).toString());
+        undoStack.push(getBlocksJson());
         restoreBlockSnapshot(redoStack.pop());
         updateUndoRedoButtons();
     }
@@ -1203,9 +1262,9 @@ public class NoteEditorActivity extends AppCompatActivity
     }
 
     private void updateStats() {
-        String body = getBlocksPlainText();
-        int charCount = body.length();
-        int wordCount = body.trim().isEmpty() ? 0 : body.trim().split("\\s+").length;
+        blockCache.refresh(blocks);
+        int charCount = blockCache.getCharCount();
+        int wordCount = blockCache.getWordCount();
         int readMin   = Math.max(1, wordCount / 200);
 
         tvCharCount.setText(charCount + " chars");
@@ -1607,10 +1666,52 @@ public class NoteEditorActivity extends AppCompatActivity
                 .setTitle("Version Preview")
                 .setMessage(version.title + "\n\n" + preview)
                 .setPositiveButton("Restore", (d, w) -> restoreVersion(version))
+                .setNeutralButton("Changes", (d, w) -> showVersionChanges(version))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    /** What changed between {@code version} and the note as it is in the editor now. */
+    private void showVersionChanges(NoteVersionManager.NoteVersion version) {
+        NoteVersionManager.NoteVersion now = new NoteVersionManager.NoteVersion();
+        now.title = etTitle.getText().toString().trim();
+        now.body = getBlocksPlainText();
+        now.blocksJson = getBlocksJson();
+        NoteVersionManager.VersionDiff diff = versionManager.calculateDiff(version, now);
+
+        SpannableStringBuilder sb = new SpannableStringBuilder();
+        int added = Color.parseColor("#22C55E"), removed = Color.parseColor("#EF4444"), same = Color.parseColor("#94A3B8");
+        for (TextDiff.Span span : diff.spans) {
+            if (span.type == TextDiff.EQUAL) {
+                // Unchanged runs collapse to a marker
+                appendDiffLine(sb, span.oldCount == 1 ? "  " + diff.oldUnits.get(span.oldStart)
+                        : "  … " + span.oldCount + (diff.blockLevel ? " unchanged blocks" : " unchanged lines"), same, false);
+                continue;
+            }
+            for (int i = 0; i < span.oldCount; i++) {
+                appendDiffLine(sb, "− " + diff.oldUnits.get(span.oldStart + i), removed, true);
+            }
+            for (int i = 0; i < span.newCount; i++) {
+                appendDiffLine(sb, "+ " + diff.newUnits.get(span.newStart + i), added, false);
+            }
+        }
+        if (sb.length() > 8000) sb.delete(8000, sb.length()).append("…");
+
+        new AlertDialog.Builder(this, R.style.DarkAlertDialog)
+                .setTitle("Changes (" + diff.getSummary() + ")")
+                .setMessage(sb)
+                .setPositiveButton("Restore", (d, w) -> restoreVersion(version))
+                .setNegativeButton("Close", null)
+                .show();
+    }
+
+    private static void appendDiffLine(SpannableStringBuilder sb, String line, int color, boolean strike) {
+        int start = sb.length();
+        sb.append(line).append('\n');
+        sb.setSpan(new ForegroundColorSpan(color), start, sb.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        if (strike) sb.setSpan(new StrikethroughSpan(), start, sb.length() - 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
     private void restoreVersion(NoteVersionManager.NoteVersion version) {
         pushUndoSnapshot();
         etTitle.setText(version.title);
@@ -1905,7 +2006,7 @@ public class NoteEditorActivity extends AppCompatActivity
                 // Save both blocks JSON and plain text fallback
                 String blocksJson = null;
                 try {
-                    blocksJson = ContentBlock.toJsonArray(blocks).toString();
+                    blocksJson = getBlocksJson();
                 } catch (Exception e) {
                     Log.w(TAG, "Failed to serialize blocks for template", e);
                 }
@@ -0,0 +1,520 @@
+package com.prajwal.myfirstapp.notes;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk version history for {@link NoteVersionManager}: one file per note
+ * holding its versions newest first as a reverse-delta chain.
+ *
+ * The newest version is always stored whole. Each older one is stored as
+ * a delta that rebuilds it from the next newer version — copy runs of that
+ * version's lines (or blocks) plus the lines it did not have — so a file
+ * grows with the size of the edits, not the size of the note. Every
+ * {@link #KEYFRAME_INTERVAL}th version is kept whole, so rebuilding any one
+ * version applies at most KEYFRAME_INTERVAL - 1 deltas.
+ *
+ * File format (rewritten whole, write-then-rename):
+ *   ["NVH2"][int count] then per version
+ *     [long timestamp][int wordCount][byte kind][string title]
+ *     kind FULL:  [seq body][seq blocks]         seq  = [int n or -1 for null] n strings
+ *     kind DELTA: [ops body][ops blocks]         ops  = [int n or -1 for null] n ops
+ *                 op = [byte COPY][int from][int count] | [byte INSERT][int n] n strings
+ *   then [CRC32 of everything before it]
+ *
+ * A version's content is its body split into lines and its blocks JSON
+ * split into top-level array elements; both split exactly, so joining them
+ * back gives the original strings.
+ *
+ * One instance per directory; thread-safe.
+ */
+class NoteHistoryStore {
+
+    private static final String TAG = "NoteHistoryStore";
+    private static final int MAGIC = 0x4E564832; // "NVH2"
+    static final int KEYFRAME_INTERVAL = 8;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    private static final byte OP_COPY = 0;
+    private static final byte OP_INSERT = 1;
+    private static final int HEAD_CACHE_SIZE = 16;
+    private static final String NOT_ARRAY = "\u0000";
+
+    private final File dir;
+    // Newest version of recently saved notes, so an unchanged autosave costs no I/O
+    private final Map<String, NoteVersionManager.NoteVersion> heads =
+            new LinkedHashMap<String, NoteVersionManager.NoteVersion>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, NoteVersionManager.NoteVersion> e) {
+                    return size() > HEAD_CACHE_SIZE;
+                }
+            };
+
+    NoteHistoryStore(File dir) {
+        this.dir = dir;
+    }
+
+    /** One stored version: whole content, or ops against the next newer version. */
+    private static final class Entry {
+        long timestamp;
+        int wordCount;
+        byte kind;
+        String title;
+        List<String> body, blocks;           // FULL
+        List<Object> bodyOps, blockOps;       // DELTA: int[]{from, count} or List<String>
+        boolean bodyNull, blocksNull;         // DELTA: the version had no body / blocks
+    }
+
+    // ─── Public API ──────────────────────────────────────────────
+
+    /** Newest version, or null if the note has no history. */
+    synchronized NoteVersionManager.NoteVersion readHead(String noteId) {
+        NoteVersionManager.NoteVersion head = heads.get(noteId);
+        if (head != null) return head;
+        List<Entry> entries = load(noteId);
+        if (entries.isEmpty()) return null;
+        head = toVersion(noteId, entries.get(0), entries.get(0).body, entries.get(0).blocks);
+        heads.put(noteId, head);
+        return head;
+    }
+
+    /** All versions, newest first. */
+    synchronized List<NoteVersionManager.NoteVersion> readAll(String noteId) {
+        List<Entry> entries = load(noteId);
+        List<NoteVersionManager.NoteVersion> out = new ArrayList<>(entries.size());
+        List<String> body = null, blocks = null;
+        for (Entry e : entries) {
+            if (e.kind == FULL) {
+                body = e.body;
+                blocks = e.blocks;
+            } else {
+                body = e.bodyNull ? null : apply(e.bodyOps, body);
+                blocks = e.blocksNull ? null : apply(e.blockOps, blocks);
+            }
+            out.add(toVersion(noteId, e, body, blocks));
+        }
+        return out;
+    }
+
+    /** Version {@code index} (0 = newest), rebuilt from the nearest whole version; null if out of range. */
+    synchronized NoteVersionManager.NoteVersion read(String noteId, int index) {
+        List<Entry> entries = load(noteId);
+        if (index < 0 || index >= entries.size()) return null;
+        int start = index;
+        while (entries.get(start).kind != FULL) start--;
+        List<String> body = entries.get(start).body, blocks = entries.get(start).blocks;
+        for (int i = start + 1; i <= index; i++) {
+            Entry e = entries.get(i);
+            body = e.bodyNull ? null : apply(e.bodyOps, body);
+            blocks = e.blocksNull ? null : apply(e.blockOps, blocks);
+        }
+        return toVersion(noteId, entries.get(index), body, blocks);
+    }
+
+    synchronized int count(String noteId) {
+        return load(noteId).size();
+    }
+
+    /**
+     * Add {@code version} as the newest, turning the previous newest into a
+     * delta, and drop versions beyond {@code maxVersions}. Returns false if
+     * nothing was written.
+     */
+    synchronized boolean push(NoteVersionManager.NoteVersion version, int maxVersions) {
+        List<Entry> entries = load(version.noteId);
+        Entry head = fullEntry(version);
+        if (!entries.isEmpty()) {
+            Entry previous = entries.get(0);
+            int run = 0;
+            while (run + 1 < entries.size() && entries.get(run + 1).kind == DELTA) run++;
+            // Keep a whole version at least every KEYFRAME_INTERVAL entries
+            if (run < KEYFRAME_INTERVAL - 1) entries.set(0, deltaEntry(previous, head));
+        }
+        entries.add(0, head);
+        while (entries.size() > maxVersions) entries.remove(entries.size() - 1);
+        if (!save(version.noteId, entries)) return false;
+        heads.put(version.noteId, version);
+        return true;
+    }
+
+    /** Replace a note's whole history (newest first); an empty list deletes it. */
+    synchronized boolean writeAll(String noteId, List<NoteVersionManager.NoteVersion> versions) {
+        heads.remove(noteId);
+        if (versions.isEmpty()) {
+            delete(noteId);
+            return true;
+        }
+        List<Entry> entries = new ArrayList<>(versions.size());
+        Entry newer = null;
+        for (int i = 0; i < versions.size(); i++) {
+            Entry full = fullEntry(versions.get(i));
+            entries.add(newer == null || i % KEYFRAME_INTERVAL == 0 ? full : deltaEntry(full, newer));
+            newer = full;
+        }
+        return save(noteId, entries);
+    }
+
+    synchronized void delete(String noteId) {
+        heads.remove(noteId);
+        fileFor(noteId).delete();
+    }
+
+    /** Ids of every note with a history file. */
+    synchronized List<String> noteIds() {
+        List<String> ids = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) return ids;
+        for (File f : files) {
+            String id = idFor(f.getName());
+            if (id != null) ids.add(id);
+        }
+        return ids;
+    }
+
+    synchronized long getSizeBytes(String noteId) {
+        return fileFor(noteId).length();
+    }
+
+    // ─── Content Units ───────────────────────────────────────────
+
+    /** Lines of a body, each but the last keeping its '\n'; null for null. */
+    static List<String> splitLines(String body) {
+        if (body == null) return null;
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < body.length(); i++) {
+            if (body.charAt(i) == '\n') {
+                lines.add(body.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < body.length() || lines.isEmpty()) lines.add(body.substring(start));
+        return lines;
+    }
+
+    /**
+     * Top-level elements of a JSON array, as the exact substrings between
+     * the commas. Anything that is not an array becomes one unit marked
+     * with {@link #NOT_ARRAY}.
+     */
+    static List<String> splitBlocks(String blocksJson) {
+        if (blocksJson == null) return null;
+        List<String> items = new ArrayList<>();
+        String s = blocksJson;
+        if (s.length() < 2 || s.charAt(0) != '[' || s.charAt(s.length() - 1) != ']') {
+            items.add(NOT_ARRAY + s);
+            return items;
+        }
+        int depth = 0, start = 1;
+        boolean inString = false;
+        for (int i = 1; i < s.length() - 1; i++) {
+            char c = s.charAt(i);
+            if (inString) {
+                if (c == '\\') i++;
+                else if (c == '"') inString = false;
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                items.add(s.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (start < s.length() - 1) items.add(s.substring(start, s.length() - 1));
+        return items;
+    }
+
+    static String joinBlocks(List<String> items) {
+        if (items == null) return null;
+        if (items.size() == 1 && items.get(0).startsWith(NOT_ARRAY)) return items.get(0).substring(1);
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(items.get(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String joinLines(List<String> lines) {
+        if (lines == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) sb.append(line);
+        return sb.toString();
+    }
+
+    // ─── Deltas ──────────────────────────────────────────────────
+
+    private static Entry fullEntry(NoteVersionManager.NoteVersion v) {
+        Entry e = new Entry();
+        e.timestamp = v.timestamp;
+        e.wordCount = v.wordCount;
+        e.kind = FULL;
+        e.title = v.title;
+        e.body = splitLines(v.body);
+        e.blocks = splitBlocks(v.blocksJson);
+        return e;
+    }
+
+    /** {@code older} as a delta against {@code newer}. */
+    private static Entry deltaEntry(Entry older, Entry newer) {
+        Entry e = new Entry();
+        e.timestamp = older.timestamp;
+        e.wordCount = older.wordCount;
+        e.kind = DELTA;
+        e.title = older.title;
+        e.bodyNull = older.body == null;
+        e.blocksNull = older.blocks == null;
+        if (!e.bodyNull) e.bodyOps = ops(newer.body, older.body);
+        if (!e.blocksNull) e.blockOps = ops(newer.blocks, older.blocks);
+        return e;
+    }
+
+    /** Ops that rebuild {@code target} from {@code base}. */
+    private static List<Object> ops(List<String> base, List<String> target) {
+        if (base == null) base = Collections.emptyList();
+        List<Object> ops = new ArrayList<>();
+        for (TextDiff.Span span : TextDiff.diff(base, target)) {
+            if (span.type == TextDiff.EQUAL) {
+                ops.add(new int[]{span.oldStart, span.oldCount});
+            } else if (span.newCount > 0) {
+                ops.add(new ArrayList<>(target.subList(span.newStart, span.newStart + span.newCount)));
+            }
+        }
+        return ops;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> apply(List<Object> ops, List<String> base) {
+        List<String> out = new ArrayList<>();
+        for (Object op : ops) {
+            if (op instanceof int[]) {
+                int[] copy = (int[]) op;
+                out.addAll(base.subList(copy[0], copy[0] + copy[1]));
+            } else {
+                out.addAll((List<String>) op);
+            }
+        }
+        return out;
+    }
+
+    private static NoteVersionManager.NoteVersion toVersion(String noteId, Entry e,
+                                                            List<String> body, List<String> blocks) {
+        NoteVersionManager.NoteVersion v = new NoteVersionManager.NoteVersion();
+        v.noteId = noteId;
+        v.title = e.title;
+        v.body = joinLines(body);
+        v.blocksJson = joinBlocks(blocks);
+        v.timestamp = e.timestamp;
+        v.wordCount = e.wordCount;
+        return v;
+    }
+
+    // ─── File I/O ────────────────────────────────────────────────
+
+    private File fileFor(String noteId) {
+        return new File(dir, NoteStore.fileNameFor(noteId) + ".ver");
+    }
+
+    private static String idFor(String fileName) {
+        if (!fileName.endsWith(".ver")) return null;
+        String name = fileName.substring(0, fileName.length() - 4);
+        if (!name.startsWith("=")) return name;
+        byte[] bytes = new byte[(name.length() - 1) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(name.substring(1 + 2 * i, 3 + 2 * i), 16);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<Entry> load(String noteId) {
+        File f = fileFor(noteId);
+        List<Entry> entries = new ArrayList<>();
+        if (!f.exists()) return entries;
+        try {
+            byte[] data = readFully(f);
+            if (data.length < 12) throw new IOException("Truncated");
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - 4);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.skipBytes(data.length - 4);
+            if ((int) crc.getValue() != in.readInt()) throw new IOException("Checksum mismatch");
+
+            in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4));
+            if (in.readInt() != MAGIC) throw new IOException("Bad header");
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry e = new Entry();
+                e.timestamp = in.readLong();
+                e.wordCount = in.readInt();
+                e.kind = in.readByte();
+                e.title = readString(in);
+                if (e.kind == FULL) {
+                    e.body = readSeq(in);
+                    e.blocks = readSeq(in);
+                } else {
+                    e.bodyOps = readOps(in);
+                    e.bodyNull = e.bodyOps == null;
+                    e.blockOps = readOps(in);
+                    e.blocksNull = e.blockOps == null;
+                }
+                entries.add(e);
+            }
+            if (!entries.isEmpty() && entries.get(0).kind != FULL) throw new IOException("No whole newest version");
+            return entries;
+        } catch (IOException | RuntimeException e) {
+            // Set it aside rather than building on a broken chain
+            Log.e(TAG, "Unreadable history for " + noteId + ", starting over", e);
+            f.renameTo(new File(f.getPath() + ".bad"));
+            return new ArrayList<>();
+        }
+    }
+
+    private boolean save(String noteId, List<Entry> entries) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + dir);
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeLong(e.timestamp);
+                out.writeInt(e.wordCount);
+                out.writeByte(e.kind);
+                writeString(out, e.title);
+                if (e.kind == FULL) {
+                    writeSeq(out, e.body);
+                    writeSeq(out, e.blocks);
+                } else {
+                    writeOps(out, e.bodyNull ? null : e.bodyOps);
+                    writeOps(out, e.blocksNull ? null : e.blockOps);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            return false;   // in-memory stream; not reached
+        }
+
+        File target = fileFor(noteId);
+        File tmp = new File(dir, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            bytes.writeTo(out);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Write history failed: " + noteId, e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(target)) {
+            Log.e(TAG, "Rename history failed: " + noteId);
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static byte[] readFully(File f) throws IOException {
+        try (FileInputStream in = new FileInputStream(f)) {
+            byte[] data = new byte[(int) f.length()];
+            int off = 0;
+            while (off < data.length) {
+                int r = in.read(data, off, data.length - off);
+                if (r < 0) break;
+                off += r;
+            }
+            return off == data.length ? data : Arrays.copyOf(data, off);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) return null;
+        if (len > in.available()) throw new IOException("Bad string length " + len);
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void writeSeq(DataOutputStream out, List<String> seq) throws IOException {
+        out.writeInt(seq == null ? -1 : seq.size());
+        if (seq != null) for (String s : seq) writeString(out, s);
+    }
+
+    private static List<String> readSeq(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        if (n > in.available()) throw new IOException("Bad count " + n);
+        List<String> seq = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) seq.add(readString(in));
+        return seq;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeOps(DataOutputStream out, List<Object> ops) throws IOException {
+        out.writeInt(ops == null ? -1 : ops.size());
+        if (ops == null) return;
+        for (Object op : ops) {
+            if (op instanceof int[]) {
+                out.writeByte(OP_COPY);
+                out.writeInt(((int[]) op)[0]);
+                out.writeInt(((int[]) op)[1]);
+            } else {
+                out.writeByte(OP_INSERT);
+                writeSeq(out, (List<String>) op);
+            }
+        }
+    }
+
+    private static List<Object> readOps(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        if (n > in.available()) throw new IOException("Bad op count " + n);
+        List<Object> ops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            byte type = in.readByte();
+            if (type == OP_COPY) {
+                ops.add(new int[]{in.readInt(), in.readInt()});
+            } else if (type == OP_INSERT) {
+                List<String> lines = readSeq(in);
+                if (lines == null) throw new IOException("Null insert");
+                ops.add(lines);
+            } else {
+                throw new IOException("Bad op " + type);
+            }
+        }
+        return ops;
+    }
+}
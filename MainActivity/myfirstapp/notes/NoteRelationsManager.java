@@ -8,8 +8,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -123,20 +125,12 @@ public class NoteRelationsManager {
 
     // ═══ Mention Resolution ═══
 
-    /** Find note IDs matching a partial title (for @mention autocomplete) */
+    /**
+     * Notes with a title word starting with {@code partialTitle} (for
+     * @mention autocomplete), from the repository's title index.
+     */
     public List<Note> findMatchingNotes(String partialTitle, NoteRepository repository) {
-        List<Note> all = repository.getAllNotes();
-        List<Note> matches = new ArrayList<>();
-        String query = partialTitle.toLowerCase().trim();
-
-        for (Note note : all) {
-            String title = note.title;
-            if (title != null && title.toLowerCase().contains(query)) {
-                matches.add(note);
-                if (matches.size() >= 10) break; // Limit results
-            }
-        }
-        return matches;
+        return repository.findNotesByTitlePrefix(partialTitle, 10); // Limit results
     }
 
     /** Extract @mentions from block text content */
@@ -175,18 +169,26 @@ public class NoteRelationsManager {
             List<String> mentionTitles = extractMentions(text);
 
             for (String title : mentionTitles) {
-                List<Note> matches = findMatchingNotes(title, repository);
-                for (Note match : matches) {
-                    if (match.title.equalsIgnoreCase(title)) {
-                        mentionedIds.add(match.id);
-                        break;
-                    }
-                }
+                Note match = repository.findNoteByTitle(title);
+                if (match != null) mentionedIds.add(match.id);
             }
         }
         return new ArrayList<>(mentionedIds);
     }
 
+    /**
+     * Resolve already-extracted mention titles to note IDs (case-insensitive
+     * exact title match) through the repository's title index.
+     */
+    public List<String> resolveMentionTitles(Collection<String> titles, NoteRepository repository) {
+        Set<String> mentionedIds = new LinkedHashSet<>();
+        for (String title : titles) {
+            Note match = repository.findNoteByTitle(title);
+            if (match != null) mentionedIds.add(match.id);
+        }
+        return new ArrayList<>(mentionedIds);
+    }
+
     // ═══ Cleanup ═══
 
     /** Remove all relations and mentions for a deleted note */
@@ -2,23 +2,51 @@ package com.prajwal.myfirstapp.notes;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.text.TextUtils;
 import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Repository for notes data — handles persistence, CRUD, filtering,
  * search, tag management, and migration from the old tree-based format.
+ *
+ * Notes live in a {@link NoteStore}. Only summaries (everything except
+ * body, blocks, properties and context) are loaded at construction; notes
+ * returned by list queries have null content fields until passed to
+ * {@link #loadContent}. {@link #getNoteById} always returns a note with its
+ * content. A change writes only the note that changed: its summary, plus
+ * its content when that was loaded.
+ *
+ * Searches go through a shared {@link NoteSearchIndex}, loaded from disk
+ * (and reconciled with the notes) in the background on first use, updated
+ * as notes change and saved a few seconds after the last change. Until it
+ * is loaded, searches scan the notes as before.
  */
 public class NoteRepository {
 
@@ -31,17 +59,47 @@ public class NoteRepository {
     private static final String OLD_PREFS_NAME = "notes_prefs";
     private static final String OLD_NOTES_KEY = "notes_json";
     private static final String MIGRATION_DONE_KEY = "migration_v2_done";
+    private static final String STORE_DIR = "notes_store";
+    private static final String SEARCH_INDEX_FILE = "search.idx";
+    private static final long SEARCH_SAVE_DELAY_MS = 5000;
     private static final long TRASH_RETENTION_MS = 30L * 24 * 60 * 60 * 1000; // 30 days
 
+    // Shared by every repository instance so all of them see each other's writes
+    private static NoteStore sharedStore;
+    private static File storeDir;
+
+    private static final ScheduledExecutorService searchExecutor =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "NoteSearchIndex");
+                t.setDaemon(true);
+                return t;
+            });
+    private static volatile NoteSearchIndex searchIndex;     // null until loaded
+    private static boolean searchIndexRequested;
+    private static ScheduledFuture<?> searchSave;
+
     private final Context context;
+    private final NoteStore store;
     private ArrayList<Note> notes;
+    private volatile NoteSimilarityIndex<Note> similarityIndex;    // built on first lookup
 
     public NoteRepository(Context context) {
         this.context = context;
+        this.store = getStore(context);
         this.notes = new ArrayList<>();
+        migrateLegacyBlobIfNeeded();
         loadNotes();
         migrateOldNotesIfNeeded();
         purgeExpiredTrash();
+        requestSearchIndex();
+    }
+
+    private static synchronized NoteStore getStore(Context context) {
+        if (sharedStore == null) {
+            storeDir = new File(context.getFilesDir(), STORE_DIR);
+            sharedStore = new NoteStore(storeDir);
+        }
+        return sharedStore;
     }
 
     private SharedPreferences getPrefs() {
@@ -52,31 +110,130 @@ public class NoteRepository {
 
     private void loadNotes() {
         notes.clear();
-        String json = getPrefs().getString(NOTES_KEY, "[]");
-        try {
-            JSONArray array = new JSONArray(json);
-            for (int i = 0; i < array.length(); i++) {
-                Note note = Note.fromJson(array.getJSONObject(i));
+        // The index is in insertion order; newest first here, as addNote() keeps it
+        List<String> summaries = new ArrayList<>(store.readSummaries().values());
+        for (ListIterator<String> it = summaries.listIterator(summaries.size()); it.hasPrevious(); ) {
+            try {
+                Note note = Note.fromSummaryJson(new JSONObject(it.previous()));
                 if (note != null) notes.add(note);
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to load note summary: " + e.getMessage());
             }
+        }
+    }
+
+    private void saveNotes(Collection<Note> changed) {
+        writeNotes(changed);
+        trackSimilarity(changed);
+    }
+
+    /** Write whole notes: content (where loaded) first, then the summaries in one append. */
+    private void writeNotes(Collection<Note> changed) {
+        LinkedHashMap<String, String> summaries = new LinkedHashMap<>();
+        for (Note note : changed) {
+            if (note.contentLoaded) store.writeContent(note.id, note.toContentJson().toString());
+            summaries.put(note.id, note.toSummaryJson().toString());
+        }
+        store.putSummaries(summaries);
+        indexNotes(changed);
+    }
+
+    private void saveNote(Note note) {
+        saveNotes(Collections.singletonList(note));
+    }
+
+    /** Write only the summary — for flag, colour, category and tag changes. */
+    private void saveSummary(Note note) {
+        saveSummaries(Collections.singletonList(note));
+    }
+
+    private void saveSummaries(Collection<Note> changed) {
+        LinkedHashMap<String, String> summaries = new LinkedHashMap<>();
+        for (Note note : changed) summaries.put(note.id, note.toSummaryJson().toString());
+        store.putSummaries(summaries);
+        indexNotes(changed);
+        trackSimilarity(changed);
+    }
+
+    private void deleteNotes(Collection<String> ids) {
+        store.delete(ids);
+        NoteSimilarityIndex<Note> similarity = similarityIndex;
+        if (similarity != null) for (String id : ids) similarity.remove(id);
+        NoteSearchIndex index = searchIndex;
+        if (index == null || ids.isEmpty()) return;
+        for (String id : ids) index.remove(id);
+        scheduleSearchSave();
+    }
+
+    /**
+     * Read a note's body, blocks, properties and context if only its summary
+     * is loaded. Returns the same note.
+     */
+    public Note loadContent(Note note) {
+        if (note == null || note.contentLoaded) return note;
+        note.applyContentJson(readContentJson(note.id));
+        return note;
+    }
+
+    private JSONObject readContentJson(String id) {
+        return readContentJson(store, id);
+    }
+
+    private static JSONObject readContentJson(NoteStore store, String id) {
+        String json = store.readContent(id);
+        if (json == null) return null;
+        try {
+            return new JSONObject(json);
         } catch (JSONException e) {
-            Log.e(TAG, "Failed to load notes: " + e.getMessage());
+            Log.e(TAG, "Failed to read content of " + id + ": " + e.getMessage());
+            return null;
         }
     }
 
-    private void saveNotes() {
-        JSONArray array = new JSONArray();
-        for (Note note : notes) {
-            array.put(note.toJson());
+    /** Body for searching; read without keeping it when only the summary is loaded. */
+    private String searchableBody(Note note) {
+        if (note.contentLoaded) return note.body;
+        JSONObject content = readContentJson(note.id);
+        return content != null ? content.optString("body", "") : null;
+    }
+
+    /** Bytes used on disk by all notes. */
+    public long getStorageBytes() {
+        return store.getSizeBytes();
+    }
+
+    /**
+     * One-time move from the single SharedPreferences JSON blob to the
+     * NoteStore. Notes already in the index are newer and are kept; the
+     * blob is removed only once every note from it has been written.
+     */
+    private void migrateLegacyBlobIfNeeded() {
+        String json = getPrefs().getString(NOTES_KEY, null);
+        if (json == null) return;
+        Map<String, String> existing = store.readSummaries();
+        LinkedHashMap<String, String> summaries = new LinkedHashMap<>();
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = array.length() - 1; i >= 0; i--) {     // oldest first, see loadNotes()
+                Note note = Note.fromJson(array.getJSONObject(i));
+                if (note == null || existing.containsKey(note.id)) continue;
+                if (!store.writeContent(note.id, note.toContentJson().toString())) return;   // retried next launch
+                summaries.put(note.id, note.toSummaryJson().toString());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Legacy notes unreadable, kept as " + NOTES_KEY + "_unreadable: " + e.getMessage());
+            getPrefs().edit().putString(NOTES_KEY + "_unreadable", json).apply();
         }
-        getPrefs().edit().putString(NOTES_KEY, array.toString()).apply();
+        if (!store.putSummaries(summaries)) return;
+        getPrefs().edit().remove(NOTES_KEY).apply();
+        Log.i(TAG, "Migrated " + summaries.size() + " notes to per-note storage");
     }
 
     // ─── CRUD Operations ─────────────────────────────────────────
 
     public void addNote(Note note) {
         notes.add(0, note);
-        saveNotes();
+        saveNote(note);
     }
 
     public void updateNote(Note note) {
@@ -87,10 +244,44 @@ public class NoteRepository {
                 break;
             }
         }
-        saveNotes();
+        saveNote(note);
+    }
+
+    /**
+     * The in-memory half of {@link #addNote} / {@link #updateNote}, for a
+     * caller that writes the note itself with {@link #persistNote} off the
+     * main thread (the editor's autosave).
+     */
+    public void putNoteInMemory(Note note) {
+        for (int i = 0; i < notes.size(); i++) {
+            if (notes.get(i).id.equals(note.id)) {
+                notes.set(i, note);
+                trackSimilarity(Collections.singletonList(note));
+                return;
+            }
+        }
+        notes.add(0, note);
+        trackSimilarity(Collections.singletonList(note));
     }
 
+    /**
+     * Write a note to disk and the search index. Safe on a background
+     * thread as long as nothing mutates {@code note} meanwhile — pass a
+     * {@link Note#copy()}.
+     */
+    public void persistNote(Note note) {
+        writeNotes(Collections.singletonList(note));      // the copy stays out of the similarity index
+    }
+
+    /** The note with its content loaded, or null. */
     public Note getNoteById(String id) {
+        for (Note note : notes) {
+            if (note.id.equals(id)) return loadContent(note);
+        }
+        return null;
+    }
+
+    private Note findNote(String id) {
         for (Note note : notes) {
             if (note.id.equals(id)) return note;
         }
@@ -99,117 +290,123 @@ public class NoteRepository {
 
     public void deleteNotePermanently(String id) {
         notes.removeIf(n -> n.id.equals(id));
-        saveNotes();
+        deleteNotes(Collections.singletonList(id));
     }
 
     // ─── Pin / Archive / Trash ───────────────────────────────────
 
     public void togglePin(String noteId) {
-        Note note = getNoteById(noteId);
+        Note note = findNote(noteId);
         if (note != null) {
             note.isPinned = !note.isPinned;
             note.updatedAt = System.currentTimeMillis();
-            saveNotes();
+            saveSummary(note);
         }
     }
 
     public void archiveNote(String noteId) {
-        Note note = getNoteById(noteId);
+        Note note = findNote(noteId);
         if (note != null) {
             note.isArchived = true;
             note.isPinned = false;
             note.updatedAt = System.currentTimeMillis();
-            saveNotes();
+            saveSummary(note);
         }
     }
 
     public void unarchiveNote(String noteId) {
-        Note note = getNoteById(noteId);
+        Note note = findNote(noteId);
         if (note != null) {
             note.isArchived = false;
             note.updatedAt = System.currentTimeMillis();
-            saveNotes();
+            saveSummary(note);
         }
     }
 
     public void trashNote(String noteId) {
-        Note note = getNoteById(noteId);
+        Note note = findNote(noteId);
         if (note != null) {
             note.isTrashed = true;
             note.isPinned = false;
             note.isArchived = false;
             note.deletedAt = System.currentTimeMillis();
             note.updatedAt = System.currentTimeMillis();
-            saveNotes();
+            saveSummary(note);
         }
     }
 
     public void restoreFromTrash(String noteId) {
-        Note note = getNoteById(noteId);
+        Note note = findNote(noteId);
         if (note != null) {
             note.isTrashed = false;
             note.deletedAt = 0;
             note.updatedAt = System.currentTimeMillis();
-            saveNotes();
+            saveSummary(note);
         }
     }
 
     public void toggleLock(String noteId) {
-        Note note = getNoteById(noteId);
+        Note note = findNote(noteId);
         if (note != null) {
             note.isLocked = !note.isLocked;
             note.updatedAt = System.currentTimeMillis();
-            saveNotes();
+            saveSummary(note);
         }
     }
 
     public void setNoteColor(String noteId, String colorHex) {
-        Note note = getNoteById(noteId);
+        Note note = findNote(noteId);
         if (note != null) {
             note.colorHex = colorHex;
             note.updatedAt = System.currentTimeMillis();
-            saveNotes();
+            saveSummary(note);
         }
     }
 
     public void setNoteCategory(String noteId, String category) {
-        Note note = getNoteById(noteId);
+        Note note = findNote(noteId);
         if (note != null) {
             note.category = category;
             note.updatedAt = System.currentTimeMillis();
-            saveNotes();
+            saveSummary(note);
         }
     }
 
     // ─── Batch Operations ────────────────────────────────────────
 
     public void batchPin(List<String> noteIds, boolean pin) {
+        List<Note> changed = new ArrayList<>();
         for (String id : noteIds) {
-            Note note = getNoteById(id);
+            Note note = findNote(id);
             if (note != null) {
+                changed.add(note);
                 note.isPinned = pin;
                 note.updatedAt = System.currentTimeMillis();
             }
         }
-        saveNotes();
+        saveSummaries(changed);
     }
 
     public void batchArchive(List<String> noteIds) {
+        List<Note> changed = new ArrayList<>();
         for (String id : noteIds) {
-            Note note = getNoteById(id);
+            Note note = findNote(id);
             if (note != null) {
+                changed.add(note);
                 note.isArchived = true;
                 note.isPinned = false;
                 note.updatedAt = System.currentTimeMillis();
             }
         }
-        saveNotes();
+        saveSummaries(changed);
     }
 
     public void batchTrash(List<String> noteIds) {
+        List<Note> changed = new ArrayList<>();
         for (String id : noteIds) {
-            Note note = getNoteById(id);
+            Note note = findNote(id);
             if (note != null) {
+                changed.add(note);
                 note.isTrashed = true;
                 note.isPinned = false;
                 note.isArchived = false;
@@ -217,29 +414,33 @@ public class NoteRepository {
                 note.updatedAt = System.currentTimeMillis();
             }
         }
-        saveNotes();
+        saveSummaries(changed);
     }
 
     public void batchSetColor(List<String> noteIds, String colorHex) {
+        List<Note> changed = new ArrayList<>();
         for (String id : noteIds) {
-            Note note = getNoteById(id);
+            Note note = findNote(id);
             if (note != null) {
+                changed.add(note);
                 note.colorHex = colorHex;
                 note.updatedAt = System.currentTimeMillis();
             }
         }
-        saveNotes();
+        saveSummaries(changed);
     }
 
     public void batchSetCategory(List<String> noteIds, String category) {
+        List<Note> changed = new ArrayList<>();
         for (String id : noteIds) {
-            Note note = getNoteById(id);
+            Note note = findNote(id);
             if (note != null) {
+                changed.add(note);
                 note.category = category;
                 note.updatedAt = System.currentTimeMillis();
             }
         }
-        saveNotes();
+        saveSummaries(changed);
     }
 
     // ─── Query — Active Notes ────────────────────────────────────
@@ -292,21 +493,23 @@ public class NoteRepository {
     }
 
     public void emptyTrash() {
+        List<String> ids = new ArrayList<>();
+        for (Note n : notes) if (n.isTrashed) ids.add(n.id);
         notes.removeIf(n -> n.isTrashed);
-        saveNotes();
+        deleteNotes(ids);
     }
 
     private void purgeExpiredTrash() {
         long now = System.currentTimeMillis();
-        boolean changed = false;
+        List<String> expired = new ArrayList<>();
         for (int i = notes.size() - 1; i >= 0; i--) {
             Note n = notes.get(i);
             if (n.isTrashed && n.deletedAt > 0 && (now - n.deletedAt) > TRASH_RETENTION_MS) {
                 notes.remove(i);
-                changed = true;
+                expired.add(n.id);
             }
         }
-        if (changed) saveNotes();
+        if (!expired.isEmpty()) deleteNotes(expired);
     }
 
     // ─── Enhanced Search ─────────────────────────────────────────
@@ -360,6 +563,20 @@ public class NoteRepository {
         if (query == null || query.trim().isEmpty()) {
             return results;
         }
+
+        NoteSearchIndex index = searchIndex;
+        if (index != null) {
+            // Ranked: each note in the group of the field that matched best, best first
+            for (Map.Entry<Note, NoteSearchIndex.Hit> e : rank(index, query, null, Integer.MAX_VALUE).entrySet()) {
+                switch (e.getValue().field) {
+                    case NoteSearchIndex.FIELD_TITLE: results.titleMatches.add(e.getKey()); break;
+                    case NoteSearchIndex.FIELD_TAGS: results.tagMatches.add(e.getKey()); break;
+                    case NoteSearchIndex.FIELD_CATEGORY: results.categoryMatches.add(e.getKey()); break;
+                    default: results.contentMatches.add(e.getKey());
+                }
+            }
+            return results;
+        }
         
         String lowerQuery = query.toLowerCase().trim();
         
@@ -372,9 +589,13 @@ public class NoteRepository {
                 continue; // Don't add to multiple groups
             }
             
-            // Check content match
-            if ((note.body != null && note.body.toLowerCase().contains(lowerQuery)) ||
-                (note.plainTextPreview != null && note.plainTextPreview.toLowerCase().contains(lowerQuery))) {
+            // Check content match (preview first; the body may have to be read)
+            if (note.plainTextPreview != null && note.plainTextPreview.toLowerCase().contains(lowerQuery)) {
+                results.contentMatches.add(note);
+                continue;
+            }
+            String body = searchableBody(note);
+            if (body != null && body.toLowerCase().contains(lowerQuery)) {
                 results.contentMatches.add(note);
                 continue;
             }
@@ -426,12 +647,17 @@ public class NoteRepository {
 
     // ─── Filtering ───────────────────────────────────────────────
 
+    /** Active notes in {@code categoryFilter}; with a query, best match first. */
     public ArrayList<Note> filterNotes(String categoryFilter, String searchQuery) {
+        NoteSearchIndex index = searchIndex;
+        if (index != null && searchQuery != null && !searchQuery.trim().isEmpty()) {
+            return new ArrayList<>(rank(index, searchQuery, categoryFilter, Integer.MAX_VALUE).keySet());
+        }
         ArrayList<Note> result = new ArrayList<>();
         for (Note n : notes) {
             if (n.isTrashed || n.isArchived) continue;
             if (!n.matchesFilter(categoryFilter)) continue;
-            if (searchQuery != null && !searchQuery.isEmpty() && !n.matchesSearch(searchQuery)) continue;
+            if (searchQuery != null && !searchQuery.isEmpty() && !matchesSearch(n, searchQuery)) continue;
             result.add(n);
         }
         sortNotes(result);
@@ -454,6 +680,29 @@ public class NoteRepository {
         return result;
     }
 
+    /** Index hits that are active notes of this repository in {@code categoryFilter}, best first. */
+    private LinkedHashMap<Note, NoteSearchIndex.Hit> rank(NoteSearchIndex index, String query,
+                                                         String categoryFilter, int limit) {
+        Map<String, Note> byId = new HashMap<>();
+        for (Note n : notes) byId.put(n.id, n);
+        LinkedHashMap<Note, NoteSearchIndex.Hit> out = new LinkedHashMap<>();
+        for (NoteSearchIndex.Hit hit : index.search(query, byId.size())) {
+            Note n = byId.get(hit.noteId);
+            if (n == null || n.isTrashed || n.isArchived || !n.matchesFilter(categoryFilter)) continue;
+            out.put(n, hit);
+            if (out.size() >= limit) break;
+        }
+        return out;
+    }
+
+    /** {@link Note#matchesSearch}, also looking at the body of summary-only notes. */
+    private boolean matchesSearch(Note n, String query) {
+        if (n.matchesSearch(query)) return true;
+        if (n.contentLoaded) return false;
+        String body = searchableBody(n);
+        return body != null && body.toLowerCase().contains(query.toLowerCase());
+    }
+
     private void sortNotes(ArrayList<Note> list) {
         Collections.sort(list, (a, b) -> {
             if (a.isPinned != b.isPinned) return a.isPinned ? -1 : 1;
@@ -489,25 +738,28 @@ public class NoteRepository {
 
     public void renameTag(String oldName, String newName) {
         if (oldName == null || newName == null || oldName.equals(newName)) return;
+        List<Note> changed = new ArrayList<>();
         for (Note n : notes) {
             if (n.tags != null) {
                 for (int i = 0; i < n.tags.size(); i++) {
                     if (n.tags.get(i).equals(oldName)) {
                         n.tags.set(i, newName);
+                        if (!changed.contains(n)) changed.add(n);
                     }
                 }
             }
         }
-        saveNotes();
+        saveSummaries(changed);
     }
 
     public void deleteTag(String tagName) {
+        List<Note> changed = new ArrayList<>();
         for (Note n : notes) {
-            if (n.tags != null) {
-                n.tags.remove(tagName);
+            if (n.tags != null && n.tags.remove(tagName)) {
+                changed.add(n);
             }
         }
-        saveNotes();
+        saveSummaries(changed);
     }
 
     // ─── Category Operations ─────────────────────────────────────
@@ -632,11 +884,12 @@ public class NoteRepository {
         try {
             JSONObject oldTree = new JSONObject(oldJson);
             JSONArray items = oldTree.optJSONArray("items");
+            int before = notes.size();
             if (items != null) {
                 migrateItems(items, "Personal");
             }
-            saveNotes();
-            Log.i(TAG, "Migrated " + notes.size() + " notes from old format");
+            saveNotes(new ArrayList<>(notes.subList(before, notes.size())));
+            Log.i(TAG, "Migrated " + (notes.size() - before) + " notes from old format");
         } catch (JSONException e) {
             Log.e(TAG, "Migration failed: " + e.getMessage());
         }
@@ -693,21 +946,297 @@ public class NoteRepository {
         }
     }
 
+    // ─── Search Index ────────────────────────────────────────────
+
+    /** A ranked search result with a snippet of the field that matched best. */
+    public static class SearchHit {
+        public final Note note;
+        public final float score;
+        public final int field;              // NoteSearchIndex.FIELD_*
+        public final String snippet;
+        public final int highlightStart;     // range in snippet; -1 if none
+        public final int highlightEnd;
+
+        SearchHit(Note note, float score, int field, String snippet, int highlightStart, int highlightEnd) {
+            this.note = note;
+            this.score = score;
+            this.field = field;
+            this.snippet = snippet;
+            this.highlightStart = highlightStart;
+            this.highlightEnd = highlightEnd;
+        }
+    }
+
+    /**
+     * Best {@code limit} active notes in {@code categoryFilter} for
+     * {@code query}, with snippets for highlighting; locked notes get no body
+     * snippet. Unranked, preview snippets only, while the index loads.
+     */
+    public List<SearchHit> search(String query, String categoryFilter, int limit) {
+        List<SearchHit> out = new ArrayList<>();
+        if (query == null || query.trim().isEmpty()) return out;
+        NoteSearchIndex index = searchIndex;
+        if (index == null) {
+            for (Note n : filterNotes(categoryFilter, query)) {
+                if (out.size() >= limit) break;
+                out.add(new SearchHit(n, 0, NoteSearchIndex.FIELD_BODY, n.plainTextPreview, -1, -1));
+            }
+            return out;
+        }
+        for (Map.Entry<Note, NoteSearchIndex.Hit> e : rank(index, query, categoryFilter, limit).entrySet()) {
+            Note note = e.getKey();
+            NoteSearchIndex.Hit hit = e.getValue();
+            String text;
+            switch (hit.field) {
+                case NoteSearchIndex.FIELD_TITLE: text = note.title; break;
+                case NoteSearchIndex.FIELD_TAGS: text = note.tags != null ? TextUtils.join(", ", note.tags) : ""; break;
+                case NoteSearchIndex.FIELD_CATEGORY: text = note.category; break;
+                default:
+                    if (note.isLocked) text = "";
+                    else if (note.contentLoaded) text = searchBodyText(note.body, note.blocksJson);
+                    else text = searchBodyText(store, note.id);
+            }
+            out.add(snippet(note, hit, text != null ? text : ""));
+        }
+        return out;
+    }
+
+    private static SearchHit snippet(Note note, NoteSearchIndex.Hit hit, String text) {
+        int[] range = NoteSearchIndex.locate(text, hit.term);
+        if (range == null) {
+            String head = text.length() > 120 ? text.substring(0, 120) + "…" : text;
+            return new SearchHit(note, hit.score, hit.field, head, -1, -1);
+        }
+        int from = Math.max(0, range[0] - 40);
+        while (from > 0 && from < range[0] && !Character.isWhitespace(text.charAt(from - 1))) from++;
+        int to = Math.min(text.length(), range[1] + 80);
+        String prefix = from > 0 ? "…" : "";
+        String snippet = prefix + text.substring(from, to).replace('\n', ' ') + (to < text.length() ? "…" : "");
+        int start = range[0] - from + prefix.length();
+        return new SearchHit(note, hit.score, hit.field, snippet, start, start + range[1] - range[0]);
+    }
+
+    /** Plain text of a note's body as indexed: the body without markup, then the text of its blocks. */
+    static String searchBodyText(String body, String blocksJson) {
+        StringBuilder sb = new StringBuilder();
+        if (body != null) sb.append(body.replaceAll("<[^>]*>", " ")).append('\n');
+        if (blocksJson != null) {
+            for (ContentBlock block : ContentBlock.fromJsonArray(blocksJson)) {
+                sb.append(block.getPlainText()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String searchBodyText(NoteStore store, String id) {
+        JSONObject content = readContentJson(store, id);
+        if (content == null) return "";
+        String blocks = content.optString("blocksJson", "");
+        return searchBodyText(content.optString("body", ""), blocks.isEmpty() ? null : blocks);
+    }
+
+    /**
+     * Changes whenever an indexed field may have: title, tags, category, or
+     * the content file (rewritten on every content change).
+     */
+    private static long searchSignature(Note note, NoteStore store) {
+        long h = 1125899906842597L;
+        h = 31 * h + (note.title != null ? note.title.hashCode() : 0);
+        h = 31 * h + (note.category != null ? note.category.hashCode() : 0);
+        h = 31 * h + (note.tags != null ? note.tags.hashCode() : 0);
+        h = 31 * h + store.getContentStamp(note.id);
+        return h != 0 ? h : 1;
+    }
+
+    private void indexNotes(Collection<Note> changed) {
+        NoteSearchIndex index = searchIndex;
+        if (index == null) return;     // the loader reconciles once it is done
+        boolean any = false;
+        for (Note note : changed) any |= indexNote(index, store, note, note.contentLoaded);
+        if (any) scheduleSearchSave();
+    }
+
+    /** Bring one note up to date in the index; returns true if anything changed. */
+    private static boolean indexNote(NoteSearchIndex index, NoteStore store, Note note, boolean useLoadedContent) {
+        if (note.isTrashed) {
+            if (index.getSignature(note.id) == 0) return false;
+            index.remove(note.id);
+            return true;
+        }
+        long sig = searchSignature(note, store);
+        if (index.getSignature(note.id) == sig) return false;
+        String body = useLoadedContent ? searchBodyText(note.body, note.blocksJson) : searchBodyText(store, note.id);
+        index.put(note.id, sig, note.title, note.tags, note.category, body);
+        return true;
+    }
+
+    /** Make the index match the stored notes; returns true if anything changed. */
+    private static boolean reconcile(NoteSearchIndex index, NoteStore store) {
+        boolean changed = false;
+        Set<String> gone = index.getNoteIds();
+        for (String summary : store.readSummaries().values()) {
+            Note note;
+            try {
+                note = Note.fromSummaryJson(new JSONObject(summary));
+            } catch (JSONException e) {
+                continue;
+            }
+            if (note == null) continue;
+            gone.remove(note.id);
+            changed |= indexNote(index, store, note, false);
+        }
+        for (String id : gone) index.remove(id);
+        return changed || !gone.isEmpty();
+    }
+
+    private static synchronized void requestSearchIndex() {
+        if (searchIndexRequested) return;
+        searchIndexRequested = true;
+        NoteStore store = sharedStore;
+        File file = new File(storeDir, SEARCH_INDEX_FILE);
+        searchExecutor.execute(() -> {
+            long start = System.currentTimeMillis();
+            NoteSearchIndex index = null;
+            if (file.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+                    index = NoteSearchIndex.readFrom(in);
+                } catch (IOException e) {
+                    Log.w(TAG, "Search index unreadable, rebuilding: " + e.getMessage());
+                }
+            }
+            if (index == null) index = new NoteSearchIndex();
+            boolean changed = reconcile(index, store);
+            searchIndex = index;
+            changed |= reconcile(index, store);      // changes made while it was loading
+            if (changed) scheduleSearchSave();
+            Log.i(TAG, "Search index ready: " + index.size() + " notes in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        });
+    }
+
+    private static synchronized void scheduleSearchSave() {
+        if (searchSave != null && !searchSave.isDone()) return;
+        searchSave = searchExecutor.schedule(NoteRepository::saveSearchIndex, SEARCH_SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Write-then-rename, like the note store. */
+    private static void saveSearchIndex() {
+        NoteSearchIndex index = searchIndex;
+        if (index == null) return;
+        File file = new File(storeDir, SEARCH_INDEX_FILE);
+        File tmp = new File(storeDir, SEARCH_INDEX_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            index.writeTo(data);
+            data.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Saving search index failed", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Renaming search index failed");
+            tmp.delete();
+        }
+    }
+
+    // ─── Title & Similarity Lookups ──────────────────────────────
+    //
+    // Mention autocomplete, mention resolution, duplicate detection and the
+    // concept map's similar notes go through a NoteSimilarityIndex over this
+    // repository's notes instead of scanning them. It is built on the first
+    // lookup and then follows every in-memory change (add, update, flag, delete).
+
+    /**
+     * Notes with a title word starting with {@code prefix}, titles that
+     * start with it first — for @mention autocomplete.
+     */
+    public List<Note> findNotesByTitlePrefix(String prefix, int limit) {
+        return similarity().titlePrefixMatches(prefix, limit);
+    }
+
+    /** A note titled {@code title} (ignoring case), or null. */
+    public Note findNoteByTitle(String title) {
+        return similarity().exactTitle(title);
+    }
+
+    /**
+     * A note other than {@code excludeId} whose title is a near-duplicate of
+     * {@code title} (word Jaccard above 0.7), or null.
+     */
+    public Note findSimilarNote(String title, String excludeId) {
+        if (title == null) return null;
+        return similarity().similarTitle(title, excludeId, 0.7);
+    }
+
+    /** Notes sharing at least two keywords with {@code note}, most shared first. */
+    public List<Note> findSimilarNotes(Note note, int maxResults) {
+        return similarity().similarByKeywords(similarityText(note), note.id, 2, maxResults);
+    }
+
+    private NoteSimilarityIndex<Note> similarity() {
+        NoteSimilarityIndex<Note> index = similarityIndex;
+        if (index != null) return index;
+        index = new NoteSimilarityIndex<>();
+        for (Note note : notes) index.put(note.id, note, note.title, similarityText(note));
+        similarityIndex = index;
+        return index;
+    }
+
+    private void trackSimilarity(Collection<Note> changed) {
+        NoteSimilarityIndex<Note> index = similarityIndex;
+        if (index == null) return;
+        for (Note note : changed) index.put(note.id, note, note.title, similarityText(note));
+    }
+
+    /** What a note's keywords are taken from: its title and preview. */
+    private static String similarityText(Note note) {
+        return (note.title != null ? note.title : "") + " "
+                + (note.plainTextPreview != null ? note.plainTextPreview : "");
+    }
+
     // ─── Sync Support ────────────────────────────────────────────
 
+    /** Every note, summaries only (see {@link #loadContent}). */
     public ArrayList<Note> getAllNotes() {
         return new ArrayList<>(notes);
     }
 
     public void replaceAllNotes(ArrayList<Note> newNotes) {
         this.notes = new ArrayList<>(newNotes);
-        saveNotes();
+        similarityIndex = null;
+        LinkedHashMap<String, String> summaries = new LinkedHashMap<>();
+        for (int i = notes.size() - 1; i >= 0; i--) {      // oldest first, see loadNotes()
+            Note note = notes.get(i);
+            if (note.contentLoaded) store.writeContent(note.id, note.toContentJson().toString());
+            summaries.put(note.id, note.toSummaryJson().toString());
+        }
+        store.replaceAll(summaries);
+        if (searchIndex != null) searchExecutor.execute(() -> {
+            if (reconcile(searchIndex, store)) scheduleSearchSave();
+        });
     }
 
+    /** Full notes, content included, without keeping the content loaded. */
     public String exportToJson() {
         JSONArray array = new JSONArray();
         for (Note note : notes) {
-            array.put(note.toJson());
+            if (note.contentLoaded) {
+                array.put(note.toJson());
+                continue;
+            }
+            JSONObject json = note.toSummaryJson();
+            JSONObject content = readContentJson(note.id);
+            try {
+                json.put("body", content != null ? content.optString("body", "") : "");
+                json.put("blocksJson", content != null ? content.optString("blocksJson", "") : "");
+                json.put("propertiesJson", content != null ? content.optString("propertiesJson", "") : "");
+                json.put("contextJson", content != null ? content.optString("contextJson", "") : "");
+            } catch (JSONException e) {
+                Log.e(TAG, "Export of " + note.id + " failed: " + e.getMessage());
+            }
+            array.put(json);
         }
         return array.toString();
     }
@@ -715,23 +1244,26 @@ public class NoteRepository {
     public void importFromJson(String jsonStr) {
         try {
             JSONArray array = new JSONArray(jsonStr);
+            List<Note> changed = new ArrayList<>();
             for (int i = 0; i < array.length(); i++) {
                 Note note = Note.fromJson(array.getJSONObject(i));
                 if (note != null) {
                     // Check for duplicate IDs
-                    Note existing = getNoteById(note.id);
+                    Note existing = findNote(note.id);
                     if (existing != null) {
                         // Keep the newer version
                         if (note.updatedAt > existing.updatedAt) {
                             notes.remove(existing);
                             notes.add(note);
+                            changed.add(note);
                         }
                     } else {
                         notes.add(note);
+                        changed.add(note);
                     }
                 }
             }
-            saveNotes();
+            saveNotes(changed);
         } catch (JSONException e) {
             Log.e(TAG, "Import failed: " + e.getMessage());
         }
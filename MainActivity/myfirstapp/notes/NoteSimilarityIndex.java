@@ -0,0 +1,311 @@
+package com.prajwal.myfirstapp.notes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory title and keyword lookups over the notes, kept up to date one
+ * note at a time so none of them scans every note:
+ *
+ *  - Title prefixes, for @mention autocomplete. Every word-start suffix of
+ *    a lower-cased title ("weekly plan", "plan") is a key in a sorted map,
+ *    so a prefix is a range of keys: O(log n + matches).
+ *  - Exact titles (case-insensitive), for resolving @mentions.
+ *  - Near-duplicate titles and similar notes, via MinHash signatures of the
+ *    title's word set and of the note's keywords, split into LSH bands. A
+ *    query only looks at notes sharing a band with it and then checks them
+ *    exactly — title word Jaccard, shared keyword count — so results are
+ *    the same as a full scan except for pairs too dissimilar to be likely
+ *    to share a band (see the band sizes below).
+ *
+ * {@code T} is whatever the caller wants back for an id (the repository
+ * uses its {@link Note} objects). Thread-safe; every method locks the index.
+ */
+final class NoteSimilarityIndex<T> {
+
+    /** Most frequent words of the keyword text that take part (see {@link SmartNotesHelper#extractKeywords}). */
+    static final int MAX_KEYWORDS = 15;
+
+    // Title duplicates need Jaccard > 0.7: 16 bands of 2 rows find such a
+    // pair with p > 0.9999 while pairs under ~0.2 rarely become candidates.
+    private static final int TITLE_BANDS = 16;
+    private static final int TITLE_ROWS = 2;
+    // Similar notes need only 2 shared keywords out of up to 15 each
+    // (Jaccard ~0.07), so keyword bands are single rows: p ~ 0.9 there.
+    private static final int KEYWORD_BANDS = 32;
+    private static final int KEYWORD_ROWS = 1;
+
+    private static final class Entry<T> {
+        T value;
+        String title;                  // lower-cased, trimmed
+        List<String> titleKeys;        // word-start suffixes of title
+        Set<String> titleWords;
+        Set<String> keywords;
+    }
+
+    private final Map<String, Entry<T>> entries = new HashMap<>();
+    private final TreeMap<String, Set<String>> prefixes = new TreeMap<>();
+    private final Map<String, Set<String>> exactTitles = new HashMap<>();
+    private final Lsh titleLsh = new Lsh(TITLE_BANDS, TITLE_ROWS);
+    private final Lsh keywordLsh = new Lsh(KEYWORD_BANDS, KEYWORD_ROWS);
+
+    /** Add or replace a note: its title and the text its keywords come from. */
+    synchronized void put(String id, T value, String title, String keywordText) {
+        Entry<T> old = entries.get(id);
+        String normalized = normalize(title);
+        Set<String> keywords = new HashSet<>(SmartNotesHelper.extractKeywords(keywordText, MAX_KEYWORDS));
+        if (old != null && old.title.equals(normalized) && old.keywords.equals(keywords)) {
+            old.value = value;
+            return;
+        }
+        remove(id);
+
+        Entry<T> e = new Entry<>();
+        e.value = value;
+        e.title = normalized;
+        e.titleKeys = titleKeys(normalized);
+        e.titleWords = SmartNotesHelper.titleWords(title);
+        e.keywords = keywords;
+        entries.put(id, e);
+
+        for (String key : e.titleKeys) addTo(prefixes, key, id);
+        if (!normalized.isEmpty()) addTo(exactTitles, normalized, id);
+        titleLsh.put(id, e.titleWords);
+        keywordLsh.put(id, e.keywords);
+    }
+
+    synchronized void remove(String id) {
+        Entry<T> e = entries.remove(id);
+        if (e == null) return;
+        for (String key : e.titleKeys) removeFrom(prefixes, key, id);
+        removeFrom(exactTitles, e.title, id);
+        titleLsh.remove(id);
+        keywordLsh.remove(id);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        prefixes.clear();
+        exactTitles.clear();
+        titleLsh.clear();
+        keywordLsh.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Notes with a title word starting with {@code prefix} (which may span
+     * words: "weekly pl"), titles starting with it first, at most {@code limit}.
+     */
+    synchronized List<T> titlePrefixMatches(String prefix, int limit) {
+        List<T> out = new ArrayList<>();
+        String p = normalize(prefix);
+        if (p.isEmpty() || limit <= 0) return out;
+        Set<String> starts = new LinkedHashSet<>();
+        Set<String> inside = new LinkedHashSet<>();
+        for (Map.Entry<String, Set<String>> range : prefixes.subMap(p, true, p + Character.MAX_VALUE, false).entrySet()) {
+            for (String id : range.getValue()) {
+                if (entries.get(id).title.startsWith(p)) starts.add(id);
+                else inside.add(id);
+            }
+            if (starts.size() >= limit) break;
+        }
+        for (String id : starts) {
+            if (out.size() >= limit) return out;
+            out.add(entries.get(id).value);
+        }
+        for (String id : inside) {
+            if (out.size() >= limit) break;
+            out.add(entries.get(id).value);
+        }
+        return out;
+    }
+
+    /** A note titled exactly {@code title}, ignoring case and surrounding space, or null. */
+    synchronized T exactTitle(String title) {
+        Set<String> ids = exactTitles.get(normalize(title));
+        return ids == null || ids.isEmpty() ? null : entries.get(ids.iterator().next()).value;
+    }
+
+    /**
+     * A note other than {@code excludeId} whose title shares more than
+     * {@code threshold} of its words (Jaccard) with {@code title}; the
+     * closest one if several do. Null if none.
+     */
+    synchronized T similarTitle(String title, String excludeId, double threshold) {
+        Set<String> words = SmartNotesHelper.titleWords(title);
+        T best = null;
+        double bestScore = threshold;
+        for (String id : titleLsh.candidates(words)) {
+            if (id.equals(excludeId)) continue;
+            double score = jaccard(words, entries.get(id).titleWords);
+            if (score > bestScore) {
+                bestScore = score;
+                best = entries.get(id).value;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Notes other than {@code excludeId} sharing at least {@code minShared}
+     * keywords with {@code keywordText}, most shared first.
+     */
+    synchronized List<T> similarByKeywords(String keywordText, String excludeId, int minShared, int maxResults) {
+        Set<String> keywords = new HashSet<>(SmartNotesHelper.extractKeywords(keywordText, MAX_KEYWORDS));
+        List<String> ids = new ArrayList<>();
+        final Map<String, Integer> shared = new HashMap<>();
+        for (String id : keywordLsh.candidates(keywords)) {
+            if (id.equals(excludeId)) continue;
+            int overlap = 0;
+            for (String kw : entries.get(id).keywords) if (keywords.contains(kw)) overlap++;
+            if (overlap >= minShared) {
+                ids.add(id);
+                shared.put(id, overlap);
+            }
+        }
+        Collections.sort(ids, (a, b) -> shared.get(b) - shared.get(a));
+        List<T> out = new ArrayList<>();
+        for (int i = 0; i < Math.min(maxResults, ids.size()); i++) out.add(entries.get(ids.get(i)).value);
+        return out;
+    }
+
+    // ─── Helpers ─────────────────────────────────────────────────
+
+    private static String normalize(String title) {
+        return title == null ? "" : title.toLowerCase().trim();
+    }
+
+    /** The title and every suffix of it that starts a word. */
+    private static List<String> titleKeys(String title) {
+        List<String> keys = new ArrayList<>();
+        if (title.isEmpty()) return keys;
+        keys.add(title);
+        for (int i = 1; i < title.length(); i++) {
+            if (!Character.isLetterOrDigit(title.charAt(i - 1)) && Character.isLetterOrDigit(title.charAt(i))) {
+                keys.add(title.substring(i));
+            }
+        }
+        return keys;
+    }
+
+    private static void addTo(Map<String, Set<String>> map, String key, String id) {
+        Set<String> ids = map.get(key);
+        if (ids == null) {
+            ids = new LinkedHashSet<>(2);
+            map.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void removeFrom(Map<String, Set<String>> map, String key, String id) {
+        Set<String> ids = map.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) map.remove(key);
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) return 0.0;
+        int common = 0;
+        for (String s : a) if (b.contains(s)) common++;
+        return (double) common / (a.size() + b.size() - common);
+    }
+
+    /**
+     * MinHash signatures cut into bands; ids whose signatures agree on a
+     * whole band share that band's bucket. Empty sets are not indexed.
+     */
+    private static final class Lsh {
+        private final int bands;
+        private final int rows;
+        private final long[] seeds;
+        private final Map<String, long[]> bandKeys = new HashMap<>();
+        private final Map<Long, Set<String>> buckets = new HashMap<>();
+
+        Lsh(int bands, int rows) {
+            this.bands = bands;
+            this.rows = rows;
+            seeds = new long[bands * rows];
+            for (int i = 0; i < seeds.length; i++) seeds[i] = mix(0x9E3779B97F4A7C15L * (i + 1));
+        }
+
+        void put(String id, Set<String> shingles) {
+            remove(id);
+            if (shingles.isEmpty()) return;
+            long[] keys = keys(shingles);
+            bandKeys.put(id, keys);
+            for (long key : keys) {
+                Set<String> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new HashSet<>(2);
+                    buckets.put(key, bucket);
+                }
+                bucket.add(id);
+            }
+        }
+
+        void remove(String id) {
+            long[] keys = bandKeys.remove(id);
+            if (keys == null) return;
+            for (long key : keys) {
+                Set<String> bucket = buckets.get(key);
+                if (bucket == null) continue;
+                bucket.remove(id);
+                if (bucket.isEmpty()) buckets.remove(key);
+            }
+        }
+
+        void clear() {
+            bandKeys.clear();
+            buckets.clear();
+        }
+
+        Set<String> candidates(Set<String> shingles) {
+            Set<String> out = new HashSet<>();
+            if (shingles.isEmpty()) return out;
+            for (long key : keys(shingles)) {
+                Set<String> bucket = buckets.get(key);
+                if (bucket != null) out.addAll(bucket);
+            }
+            return out;
+        }
+
+        /** One key per band: the band number mixed with that band's minimum hashes. */
+        private long[] keys(Set<String> shingles) {
+            long[] min = new long[seeds.length];
+            Arrays.fill(min, Long.MAX_VALUE);
+            for (String s : shingles) {
+                long h = mix(s.hashCode());
+                for (int i = 0; i < seeds.length; i++) {
+                    long v = mix(h ^ seeds[i]);
+                    if (v < min[i]) min[i] = v;
+                }
+            }
+            long[] keys = new long[bands];
+            for (int b = 0; b < bands; b++) {
+                long key = b + 1;
+                for (int r = 0; r < rows; r++) key = mix(key * 31 + min[b * rows + r]);
+                keys[b] = key;
+            }
+            return keys;
+        }
+    }
+
+    /** SplitMix64 finalizer. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,369 @@
+package com.prajwal.myfirstapp.notes;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk storage for {@link NoteRepository}: a small summary index that is
+ * loaded eagerly, plus one content file per note that is read on demand.
+ *
+ * Layout under the store directory:
+ *   index.jnl          journal of summary records
+ *   content/&lt;id&gt;   one note's content (body, blocks, properties, context)
+ *
+ * Journal format:
+ *   ["NIX1"] then records of [4-byte length][4-byte CRC32][payload]
+ *   payload: 'P' + UTF(id) + summary bytes     put summary
+ *            'D' + UTF(id)                     delete note
+ *   A torn or corrupt final record (crash mid-append) is truncated on load.
+ *   The journal is compacted into a snapshot (write-then-rename) when dead
+ *   records outnumber live ones.
+ *
+ * Content files are replaced atomically: written to a temp file, synced,
+ * then renamed over the old one, so a crash leaves either the old or the
+ * new content, never a mix. Summaries and content are opaque strings here;
+ * the repository decides what goes in them.
+ *
+ * One instance per directory; thread-safe.
+ */
+class NoteStore {
+
+    private static final String TAG = "NoteStore";
+    private static final byte[] MAGIC = {'N', 'I', 'X', '1'};
+    private static final String INDEX_FILE = "index.jnl";
+    private static final String CONTENT_DIR = "content";
+    private static final int MAX_RECORD_BYTES = 4 * 1024 * 1024;
+    private static final int COMPACT_MIN_DEAD = 256;
+    private static final byte OP_PUT = 'P';
+    private static final byte OP_DELETE = 'D';
+
+    private final File indexFile;
+    private final File contentDir;
+    private final LinkedHashMap<String, String> summaries = new LinkedHashMap<>();
+    private FileOutputStream appendStream;
+    private long recordCount;
+    private boolean loaded;
+
+    NoteStore(File dir) {
+        this.indexFile = new File(dir, INDEX_FILE);
+        this.contentDir = new File(dir, CONTENT_DIR);
+    }
+
+    // ─── Summaries ───────────────────────────────────────────────
+
+    /** All summaries by note id, in insertion order. */
+    synchronized LinkedHashMap<String, String> readSummaries() {
+        ensureLoaded();
+        return new LinkedHashMap<>(summaries);
+    }
+
+    synchronized boolean putSummary(String id, String summary) {
+        return putSummaries(Collections.singletonMap(id, summary));
+    }
+
+    /** Several summaries in one append. Returns false if they could not be written. */
+    synchronized boolean putSummaries(Map<String, String> batch) {
+        if (batch.isEmpty()) return true;
+        ensureLoaded();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try {
+            for (Map.Entry<String, String> e : batch.entrySet()) {
+                summaries.put(e.getKey(), e.getValue());
+                writeRecord(buf, putRecord(e.getKey(), e.getValue()));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "putSummaries: serialise failed", e);
+            return false;
+        }
+        return appendBytes(buf.toByteArray(), batch.size());
+    }
+
+    /** Delete notes: their summaries first, then their content files. */
+    synchronized void delete(Collection<String> ids) {
+        if (ids.isEmpty()) return;
+        ensureLoaded();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        int n = 0;
+        try {
+            for (String id : ids) {
+                if (summaries.remove(id) == null) continue;
+                writeRecord(buf, deleteRecord(id));
+                n++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "delete: serialise failed", e);
+            return;
+        }
+        if (n > 0) appendBytes(buf.toByteArray(), n);
+        for (String id : ids) contentFile(id).delete();
+    }
+
+    /**
+     * Replace the whole index with {@code all} and drop content files of
+     * notes that are no longer in it. Used for imports and migration.
+     */
+    synchronized void replaceAll(Map<String, String> all) {
+        loaded = true;
+        summaries.clear();
+        summaries.putAll(all);
+        compact();
+        File[] files = contentDir.listFiles();
+        if (files == null) return;
+        Set<String> keep = new HashSet<>();
+        for (String id : all.keySet()) keep.add(contentFile(id).getName());
+        for (File f : files) {
+            if (!keep.contains(f.getName())) f.delete();
+        }
+    }
+
+    // ─── Content ─────────────────────────────────────────────────
+
+    /** A note's content, or null if it has none stored. */
+    synchronized String readContent(String id) {
+        File f = contentFile(id);
+        if (!f.exists()) return null;
+        try (FileInputStream in = new FileInputStream(f)) {
+            byte[] data = new byte[(int) f.length()];
+            int off = 0;
+            while (off < data.length) {
+                int r = in.read(data, off, data.length - off);
+                if (r < 0) break;
+                off += r;
+            }
+            return new String(data, 0, off, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.e(TAG, "Read content failed: " + id, e);
+            return null;
+        }
+    }
+
+    /** Replace a note's content (write-then-rename). Returns false if nothing was written. */
+    synchronized boolean writeContent(String id, String content) {
+        if (!contentDir.exists() && !contentDir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + contentDir);
+            return false;
+        }
+        File target = contentFile(id);
+        File tmp = new File(contentDir, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Write content failed: " + id, e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(target)) {
+            Log.e(TAG, "Rename content failed: " + id);
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /** Changes whenever a note's content file is rewritten; 0 if it has none. */
+    synchronized long getContentStamp(String id) {
+        File f = contentFile(id);
+        return f.lastModified() * 31 + f.length();
+    }
+
+    /** Total bytes on disk: index plus content files. */
+    synchronized long getSizeBytes() {
+        long total = indexFile.length();
+        File[] files = contentDir.listFiles();
+        if (files != null) for (File f : files) total += f.length();
+        return total;
+    }
+
+    private File contentFile(String id) {
+        return new File(contentDir, fileNameFor(id));
+    }
+
+    /** File name for a note id; ids that are not plain file names are hex-encoded behind '='. */
+    static String fileNameFor(String id) {
+        boolean plain = !id.isEmpty() && id.length() <= 64;
+        for (int i = 0; plain && i < id.length(); i++) {
+            char c = id.charAt(i);
+            plain = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+        }
+        if (plain) return id;
+        StringBuilder sb = new StringBuilder("=");
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    // ─── Journal ─────────────────────────────────────────────────
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        try {
+            load();
+        } catch (IOException e) {
+            // Unreadable index: set it aside rather than appending to it
+            Log.e(TAG, "Load failed, starting a new index", e);
+            indexFile.renameTo(new File(indexFile.getPath() + ".bad"));
+            summaries.clear();
+            compact();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!indexFile.exists() || indexFile.length() < MAGIC.length) {
+            compact(); // writes the header
+            return;
+        }
+        long goodLength = MAGIC.length;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) throw new IOException("Bad index header");
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                int expected;
+                try {
+                    int len = in.readInt();
+                    if (len <= 0 || len > MAX_RECORD_BYTES) break;
+                    expected = in.readInt();
+                    payload = new byte[len];
+                    in.readFully(payload);
+                } catch (EOFException torn) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != expected) break;   // torn or corrupt tail — keep everything before it
+                replay(payload);
+                recordCount++;
+                goodLength += 8 + payload.length;
+            }
+        }
+        if (goodLength < indexFile.length()) {
+            Log.w(TAG, "Truncating index tail at " + goodLength + " of " + indexFile.length());
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+                raf.setLength(goodLength);
+            }
+        }
+        maybeCompact();
+    }
+
+    private void replay(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        String id = in.readUTF();
+        if (op == OP_PUT) {
+            int offset = payload.length - in.available();
+            summaries.put(id, new String(payload, offset, payload.length - offset, StandardCharsets.UTF_8));
+        } else if (op == OP_DELETE) {
+            summaries.remove(id);
+        } else {
+            Log.w(TAG, "Unknown index op: " + op);
+        }
+    }
+
+    private static byte[] putRecord(String id, String summary) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(summary.length() + 32);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeByte(OP_PUT);
+        out.writeUTF(id);
+        out.write(summary.getBytes(StandardCharsets.UTF_8));
+        return buf.toByteArray();
+    }
+
+    private static byte[] deleteRecord(String id) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(id.length() + 8);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeByte(OP_DELETE);
+        out.writeUTF(id);
+        return buf.toByteArray();
+    }
+
+    private static void writeRecord(OutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(payload.length);
+        data.writeInt((int) crc.getValue());
+        data.write(payload);
+        data.flush();
+    }
+
+    private boolean appendBytes(byte[] records, int count) {
+        try {
+            if (appendStream == null) appendStream = new FileOutputStream(indexFile, true);
+            appendStream.write(records);
+            appendStream.getFD().sync();
+            recordCount += count;
+        } catch (IOException e) {
+            Log.e(TAG, "Index append failed", e);
+            closeAppend();
+            return false;
+        }
+        maybeCompact();
+        return true;
+    }
+
+    private void closeAppend() {
+        if (appendStream != null) {
+            try { appendStream.close(); } catch (IOException ignored) {}
+            appendStream = null;
+        }
+    }
+
+    private void maybeCompact() {
+        long live = summaries.size();
+        if (recordCount - live > Math.max(COMPACT_MIN_DEAD, live)) compact();
+    }
+
+    /** Rewrite the index as a snapshot of the current summaries (write-then-rename). */
+    private void compact() {
+        closeAppend();
+        File dir = indexFile.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            BufferedOutputStream buf = new BufferedOutputStream(out, 64 * 1024);
+            buf.write(MAGIC);
+            for (Map.Entry<String, String> e : summaries.entrySet()) {
+                writeRecord(buf, putRecord(e.getKey(), e.getValue()));
+            }
+            buf.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Compaction failed", e);
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(indexFile)) {
+            recordCount = summaries.size();
+        } else {
+            Log.e(TAG, "Compaction rename failed");
+            tmp.delete();
+        }
+    }
+}
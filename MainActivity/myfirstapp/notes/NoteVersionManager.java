@@ -8,8 +8,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * ═══════════════════════════════════════════════════════════════════════════════════════
@@ -17,22 +19,34 @@ import java.util.List;
  * ═══════════════════════════════════════════════════════════════════════════════════════
  *
  * Features:
- * - Saves version snapshot every auto-save
- * - Keeps last 10 versions per note
+ * - Saves version snapshot every auto-save (when the note changed)
+ * - Keeps last 50 versions per note, one history file per note, stored as
+ *   deltas so history grows with the edits rather than the note size
+ *   (see NoteHistoryStore)
  * - Restore to any previous version
- * - Diff comparison (future enhancement)
+ * - Block / line diff between versions (see TextDiff)
  */
 public class NoteVersionManager {
 
     private static final String TAG = "NoteVersionManager";
     private static final String PREFS_NAME = "note_versions_prefs";
     private static final String KEY_PREFIX = "versions_";
-    private static final int MAX_VERSIONS = 10;
+    private static final String HISTORY_DIR = "note_versions";
+    private static final int MAX_VERSIONS = 50;
 
-    private final SharedPreferences prefs;
+    // Shared so every manager sees the same files and head cache
+    private static NoteHistoryStore sharedStore;
+
+    private final NoteHistoryStore store;
 
     public NoteVersionManager(Context context) {
-        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.store = getStore(context);
+        migrateFromPrefsIfNeeded(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    private static synchronized NoteHistoryStore getStore(Context context) {
+        if (sharedStore == null) sharedStore = new NoteHistoryStore(new File(context.getFilesDir(), HISTORY_DIR));
+        return sharedStore;
     }
 
     // ═══════════════════════════════════════════════════════════════════════════════
@@ -100,13 +114,10 @@ public class NoteVersionManager {
     public void saveVersion(Note note) {
         if (note == null || note.id == null) return;
 
-        String key = KEY_PREFIX + note.id;
-        List<NoteVersion> versions = getVersions(note.id);
-
-        // Check if content has changed since last version
-        if (!versions.isEmpty()) {
-            NoteVersion lastVersion = versions.get(0);
-            boolean titleSame = lastVersion.title.equals(note.title);
+        // Check if content has changed since last version (cached, no parse)
+        NoteVersion lastVersion = store.readHead(note.id);
+        if (lastVersion != null) {
+            boolean titleSame = lastVersion.title != null && lastVersion.title.equals(note.title);
             boolean contentSame;
             if (note.blocksJson != null && lastVersion.blocksJson != null) {
                 contentSame = lastVersion.blocksJson.equals(note.blocksJson);
@@ -119,69 +130,39 @@ public class NoteVersionManager {
             }
         }
 
-        // Create new version
+        // Create new version; the store turns the previous one into a delta
         NoteVersion newVersion = new NoteVersion(note);
-
-        // Add to beginning (most recent first)
-        versions.add(0, newVersion);
-
-        // Trim to max versions
-        while (versions.size() > MAX_VERSIONS) {
-            versions.remove(versions.size() - 1);
+        if (store.push(newVersion, MAX_VERSIONS)) {
+            Log.d(TAG, "Saved version snapshot for note: " + note.id);
         }
-
-        // Save to prefs
-        saveVersions(note.id, versions);
-        Log.d(TAG, "Saved version snapshot for note: " + note.id + " (total: " + versions.size() + ")");
     }
 
     /**
      * Get all versions for a note (most recent first)
      */
     public List<NoteVersion> getVersions(String noteId) {
-        List<NoteVersion> versions = new ArrayList<>();
-
-        String key = KEY_PREFIX + noteId;
-        String json = prefs.getString(key, null);
-
-        if (json == null) return versions;
-
-        try {
-            JSONArray array = new JSONArray(json);
-            for (int i = 0; i < array.length(); i++) {
-                versions.add(NoteVersion.fromJson(array.getJSONObject(i)));
-            }
-        } catch (JSONException e) {
-            Log.e(TAG, "Error loading versions", e);
-        }
-
-        return versions;
+        return store.readAll(noteId);
     }
 
     /**
-     * Get a specific version by index (0 = most recent)
+     * Get a specific version by index (0 = most recent); rebuilds only that one
      */
     public NoteVersion getVersion(String noteId, int index) {
-        List<NoteVersion> versions = getVersions(noteId);
-        if (index >= 0 && index < versions.size()) {
-            return versions.get(index);
-        }
-        return null;
+        return store.read(noteId, index);
     }
 
     /**
      * Get version count for a note
      */
     public int getVersionCount(String noteId) {
-        return getVersions(noteId).size();
+        return store.count(noteId);
     }
 
     /**
      * Delete all versions for a note
      */
     public void deleteVersions(String noteId) {
-        String key = KEY_PREFIX + noteId;
-        prefs.edit().remove(key).apply();
+        store.delete(noteId);
         Log.d(TAG, "Deleted all versions for note: " + noteId);
     }
 
@@ -192,7 +173,7 @@ public class NoteVersionManager {
         List<NoteVersion> versions = getVersions(noteId);
         if (index >= 0 && index < versions.size()) {
             versions.remove(index);
-            saveVersions(noteId, versions);
+            store.writeAll(noteId, versions);
         }
     }
 
@@ -202,12 +183,8 @@ public class NoteVersionManager {
     public List<NoteVersion> getAllRecentVersions(int limit) {
         List<NoteVersion> allVersions = new ArrayList<>();
 
-        // Get all keys
-        for (String key : prefs.getAll().keySet()) {
-            if (key.startsWith(KEY_PREFIX)) {
-                String noteId = key.substring(KEY_PREFIX.length());
-                allVersions.addAll(getVersions(noteId));
-            }
+        for (String noteId : store.noteIds()) {
+            allVersions.addAll(getVersions(noteId));
         }
 
         // Sort by timestamp (most recent first)
@@ -222,17 +199,29 @@ public class NoteVersionManager {
     }
 
     /**
-     * Calculate diff between two versions (simple word-based for now)
+     * Calculate diff between two versions: block by block when both have
+     * blocks, line by line otherwise. {@link VersionDiff#spans} index into
+     * {@link VersionDiff#oldUnits} / {@link VersionDiff#newUnits}.
      */
     public VersionDiff calculateDiff(NoteVersion older, NoteVersion newer) {
         VersionDiff diff = new VersionDiff();
 
-        // Use body content for diffing; extract plain text from blocks if available
-        String oldText = older.body != null ? older.body : "";
-        String newText = newer.body != null ? newer.body : "";
+        boolean blocks = older.hasBlocks() && newer.hasBlocks();
+        diff.blockLevel = blocks;
+        diff.oldUnits = diffUnits(older, blocks);
+        diff.newUnits = diffUnits(newer, blocks);
+        diff.spans = TextDiff.diff(diff.oldUnits, diff.newUnits);
+        for (TextDiff.Span span : diff.spans) {
+            if (span.type == TextDiff.INSERTED) diff.insertedCount += span.newCount;
+            else if (span.type == TextDiff.REMOVED) diff.removedCount += span.oldCount;
+            else if (span.type == TextDiff.CHANGED) diff.changedCount += Math.max(span.oldCount, span.newCount);
+        }
 
-        String[] oldWords = oldText.isEmpty() ? new String[0] : oldText.split("\\s+");
-        String[] newWords = newText.isEmpty() ? new String[0] : newText.split("\\s+");
+        String oldText = join(diff.oldUnits);
+        String newText = join(diff.newUnits);
+
+        String[] oldWords = oldText.trim().isEmpty() ? new String[0] : oldText.trim().split("\\s+");
+        String[] newWords = newText.trim().isEmpty() ? new String[0] : newText.trim().split("\\s+");
 
         diff.oldWordCount = oldWords.length;
         diff.newWordCount = newWords.length;
@@ -244,11 +233,38 @@ public class NoteVersionManager {
         return diff;
     }
 
+    /** Readable units to diff: each block's type and text, or the body's lines. */
+    private static List<String> diffUnits(NoteVersion version, boolean blocks) {
+        List<String> units = new ArrayList<>();
+        if (blocks) {
+            for (ContentBlock block : ContentBlock.fromJsonArray(version.blocksJson)) {
+                String text = block.getPlainText();
+                units.add(block.getTypeName() + ": " + (text != null ? text : ""));
+            }
+        } else if (version.body != null && !version.body.isEmpty()) {
+            for (String line : version.body.split("\n", -1)) units.add(line);
+        }
+        return units;
+    }
+
+    private static String join(List<String> units) {
+        StringBuilder sb = new StringBuilder();
+        for (String unit : units) sb.append(unit).append('\n');
+        return sb.toString();
+    }
+
     // ═══════════════════════════════════════════════════════════════════════════════
     //  DIFF DATA CLASS
     // ═══════════════════════════════════════════════════════════════════════════════
 
     public static class VersionDiff {
+        public boolean blockLevel;              // units are blocks, not lines
+        public List<String> oldUnits;
+        public List<String> newUnits;
+        public List<TextDiff.Span> spans;       // EQUAL / INSERTED / REMOVED / CHANGED runs
+        public int insertedCount;
+        public int removedCount;
+        public int changedCount;
         public int oldWordCount;
         public int newWordCount;
         public int wordDifference;
@@ -265,6 +281,10 @@ public class NoteVersionManager {
             } else {
                 sb.append("No word change");
             }
+            String unit = blockLevel ? " block" : " line";
+            if (insertedCount > 0) sb.append(", ").append(insertedCount).append(unit).append(insertedCount == 1 ? "" : "s").append(" added");
+            if (removedCount > 0) sb.append(", ").append(removedCount).append(unit).append(removedCount == 1 ? "" : "s").append(" removed");
+            if (changedCount > 0) sb.append(", ").append(changedCount).append(unit).append(changedCount == 1 ? "" : "s").append(" changed");
             return sb.toString();
         }
     }
@@ -273,15 +293,36 @@ public class NoteVersionManager {
     //  PRIVATE HELPERS
     // ═══════════════════════════════════════════════════════════════════════════════
 
-    private void saveVersions(String noteId, List<NoteVersion> versions) {
-        try {
-            JSONArray array = new JSONArray();
-            for (NoteVersion version : versions) {
-                array.put(version.toJson());
+    /**
+     * One-time move of histories kept in SharedPreferences (one JSON array
+     * per note) into history files. A key is removed only once its file is
+     * written; unreadable ones are dropped.
+     */
+    private void migrateFromPrefsIfNeeded(SharedPreferences prefs) {
+        Map<String, ?> all = prefs.getAll();
+        if (all.isEmpty()) return;
+        SharedPreferences.Editor editor = prefs.edit();
+        int moved = 0;
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(KEY_PREFIX) || !(entry.getValue() instanceof String)) continue;
+            String noteId = key.substring(KEY_PREFIX.length());
+            List<NoteVersion> versions = new ArrayList<>();
+            try {
+                JSONArray array = new JSONArray((String) entry.getValue());
+                for (int i = 0; i < array.length(); i++) {
+                    versions.add(NoteVersion.fromJson(array.getJSONObject(i)));
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Dropping unreadable versions of " + noteId, e);
+                editor.remove(key);
+                continue;
             }
-            prefs.edit().putString(KEY_PREFIX + noteId, array.toString()).apply();
-        } catch (JSONException e) {
-            Log.e(TAG, "Error saving versions", e);
+            if (store.count(noteId) == 0 && !store.writeAll(noteId, versions)) continue;
+            editor.remove(key);
+            moved++;
         }
+        editor.apply();
+        Log.d(TAG, "Moved version history of " + moved + " notes to files");
     }
 }
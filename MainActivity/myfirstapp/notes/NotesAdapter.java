@@ -5,6 +5,10 @@ import com.prajwal.myfirstapp.R;
 import android.content.Context;
 import android.graphics.Color;
 import android.graphics.drawable.GradientDrawable;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -16,8 +20,11 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -45,6 +52,9 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
     private boolean isArchiveMode = false;
     private boolean isTrashMode = false;
 
+    // Search snippets by note id; empty when not searching
+    private Map<String, NoteRepository.SearchHit> searchHits = Collections.emptyMap();
+
     public NotesAdapter(Context context, List<Note> notes, OnNoteActionListener listener, boolean isGridView) {
         this.context = context;
         this.notes = notes;
@@ -90,6 +100,37 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
         return new HashSet<>(selectedIds);
     }
 
+    /** Show these hits' body snippets instead of the previews; null to clear. */
+    public void setSearchHits(List<NoteRepository.SearchHit> hits) {
+        if (hits == null || hits.isEmpty()) {
+            searchHits = Collections.emptyMap();
+        } else {
+            searchHits = new HashMap<>();
+            for (NoteRepository.SearchHit hit : hits) searchHits.put(hit.note.id, hit);
+        }
+    }
+
+    /**
+     * The body snippet of the search hit for {@code note} with the matched
+     * term highlighted, or null if the note matched on something other than
+     * its body, is locked, or there is no search.
+     */
+    public CharSequence searchSnippet(Note note) {
+        NoteRepository.SearchHit hit = searchHits.get(note.id);
+        if (hit == null || hit.field != NoteSearchIndex.FIELD_BODY || hit.note.isLocked
+                || hit.snippet == null || hit.snippet.isEmpty()) {
+            return null;
+        }
+        SpannableString text = new SpannableString(hit.snippet);
+        if (hit.highlightStart >= 0 && hit.highlightEnd <= text.length()) {
+            text.setSpan(new BackgroundColorSpan(0x66F59E0B), hit.highlightStart, hit.highlightEnd,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            text.setSpan(new ForegroundColorSpan(0xFFF1F5F9), hit.highlightStart, hit.highlightEnd,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return text;
+    }
+
     // ─── ViewHolder ──────────────────────────────────────────────
 
     static class NoteViewHolder extends RecyclerView.ViewHolder {
@@ -143,7 +184,13 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
         } else {
             holder.tvNotePreview.setTextColor(0xFF94A3B8);
         }
-        holder.tvNotePreview.setText(preview);
+        CharSequence snippet = searchSnippet(note);
+        if (snippet != null) {
+            holder.tvNotePreview.setTextColor(0xFF94A3B8);
+            holder.tvNotePreview.setText(snippet);
+        } else {
+            holder.tvNotePreview.setText(preview);
+        }
 
         // Dynamic max lines based on content length for staggered effect
         if (isGridView) {
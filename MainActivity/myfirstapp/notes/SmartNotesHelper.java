@@ -200,42 +200,19 @@ public class SmartNotesHelper {
     }
 
     // ═══════════════════════════════════════════════════════════════════════════════
-    //  DUPLICATE DETECTION
+    //  TITLE WORDS
     // ═══════════════════════════════════════════════════════════════════════════════
 
-    /**
-     * Returns the first note whose title Jaccard similarity to the input exceeds 0.7,
-     * or null if no such note exists.
-     */
-    public static Note findSimilarNote(String title, List<Note> allNotes) {
-        if (title == null || allNotes == null) return null;
-        for (Note note : allNotes) {
-            if (titleSimilarity(title, note.title) > 0.7) return note;
-        }
-        return null;
-    }
-
-    /**
-     * Jaccard similarity between two titles: |intersection| / |union| of their word sets.
-     * Words are normalized to lowercase and split on spaces/punctuation.
-     */
-    private static double titleSimilarity(String a, String b) {
-        if (a == null || b == null) return 0.0;
-        Set<String> wordsA = new HashSet<>(Arrays.asList(a.toLowerCase().split("[\\s\\p{Punct}]+")));
-        Set<String> wordsB = new HashSet<>(Arrays.asList(b.toLowerCase().split("[\\s\\p{Punct}]+")));
-        wordsA.remove("");
-        wordsB.remove("");
+    // Duplicate titles and similar notes are looked up through
+    // NoteRepository's NoteSimilarityIndex, which splits titles the same way.
 
-        if (wordsA.isEmpty() && wordsB.isEmpty()) return 1.0;
-        if (wordsA.isEmpty() || wordsB.isEmpty()) return 0.0;
-
-        Set<String> intersection = new HashSet<>(wordsA);
-        intersection.retainAll(wordsB);
-
-        Set<String> union = new HashSet<>(wordsA);
-        union.addAll(wordsB);
-
-        return (double) intersection.size() / union.size();
+    /** Lowercase words of a title, split on spaces/punctuation; empty for null. */
+    static Set<String> titleWords(String title) {
+        Set<String> words = new HashSet<>();
+        if (title == null) return words;
+        words.addAll(Arrays.asList(title.toLowerCase().split("[\\s\\p{Punct}]+")));
+        words.remove("");
+        return words;
     }
 
     // ═══════════════════════════════════════════════════════════════════════════════
@@ -275,44 +252,6 @@ public class SmartNotesHelper {
         return result;
     }
 
-    // ═══════════════════════════════════════════════════════════════════════════════
-    //  ENHANCED SIMILARITY — Body-aware
-    // ═══════════════════════════════════════════════════════════════════════════════
-
-    /**
-     * Find notes similar to the given text (title + body content).
-     * Uses keyword overlap scoring — returns notes scoring above threshold.
-     */
-    public static List<Note> findSimilarNotes(String title, String body, List<Note> allNotes, int maxResults) {
-        if (allNotes == null) return new ArrayList<>();
-        String combined = (title != null ? title : "") + " " + (body != null ? body : "");
-        List<String> sourceKeywords = extractKeywords(combined, 15);
-        if (sourceKeywords.isEmpty()) return new ArrayList<>();
-
-        Set<String> sourceSet = new HashSet<>(sourceKeywords);
-        List<ScoredNote> scored = new ArrayList<>();
-
-        for (Note note : allNotes) {
-            String noteText = (note.title != null ? note.title : "") + " "
-                    + (note.plainTextPreview != null ? note.plainTextPreview : "");
-            List<String> noteKeywords = extractKeywords(noteText, 15);
-            int overlap = 0;
-            for (String kw : noteKeywords) {
-                if (sourceSet.contains(kw)) overlap++;
-            }
-            if (overlap >= 2) { // at least 2 shared keywords
-                scored.add(new ScoredNote(note, overlap));
-            }
-        }
-
-        scored.sort((a, b) -> b.score - a.score);
-        List<Note> result = new ArrayList<>();
-        for (int i = 0; i < Math.min(maxResults, scored.size()); i++) {
-            result.add(scored.get(i).note);
-        }
-        return result;
-    }
-
     // ═══════════════════════════════════════════════════════════════════════════════
     //  PRIVATE HELPERS
     // ═══════════════════════════════════════════════════════════════════════════════
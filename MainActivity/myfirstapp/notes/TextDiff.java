@@ -0,0 +1,181 @@
+package com.prajwal.myfirstapp.notes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Myers diff over sequences of units — lines of a body or blocks of a
+ * block note. Units are compared whole, by string equality.
+ *
+ * The result is a list of spans covering both sequences in order. A run of
+ * removed units directly followed or preceded by a run of inserted ones is
+ * reported as one CHANGED span, which is what a viewer wants to show as
+ * "this block was edited".
+ *
+ * Common prefix and suffix are stripped before diffing, so typical edits
+ * (a few units touched in a long note) cost little. When the sequences
+ * differ by more than {@link #MAX_EDITS} units the middle is reported as
+ * one change instead of searching further.
+ */
+public final class TextDiff {
+
+    public static final int EQUAL = 0;
+    public static final int INSERTED = 1;
+    public static final int REMOVED = 2;
+    public static final int CHANGED = 3;
+
+    private static final int MAX_EDITS = 1000;
+
+    /** A run of units: {@code oldCount} units at {@code oldStart} became {@code newCount} at {@code newStart}. */
+    public static final class Span {
+        public final int type;
+        public final int oldStart;
+        public final int oldCount;
+        public final int newStart;
+        public final int newCount;
+
+        Span(int type, int oldStart, int oldCount, int newStart, int newCount) {
+            this.type = type;
+            this.oldStart = oldStart;
+            this.oldCount = oldCount;
+            this.newStart = newStart;
+            this.newCount = newCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Span{" + type + " " + oldStart + "+" + oldCount + " -> " + newStart + "+" + newCount + "}";
+        }
+    }
+
+    private TextDiff() {}
+
+    /** Spans turning {@code a} into {@code b}, in order. */
+    public static List<Span> diff(List<String> a, List<String> b) {
+        // Units as ints, so the inner loop compares ints
+        Map<String, Integer> ids = new HashMap<>();
+        int[] x = intern(a, ids);
+        int[] y = intern(b, ids);
+
+        int n = x.length, m = y.length;
+        int prefix = 0;
+        while (prefix < n && prefix < m && x[prefix] == y[prefix]) prefix++;
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix && x[n - 1 - suffix] == y[m - 1 - suffix]) suffix++;
+
+        // One op per unit of the middle: EQUAL, INSERTED or REMOVED
+        byte[] ops = myers(x, prefix, n - suffix, y, prefix, m - suffix);
+        if (ops == null) {
+            ops = new byte[(n - prefix - suffix) + (m - prefix - suffix)];
+            for (int i = 0; i < ops.length; i++) ops[i] = i < n - prefix - suffix ? (byte) REMOVED : (byte) INSERTED;
+        }
+
+        List<Span> spans = new ArrayList<>();
+        if (prefix > 0) spans.add(new Span(EQUAL, 0, prefix, 0, prefix));
+        int i = prefix, j = prefix, k = 0;
+        while (k < ops.length) {
+            if (ops[k] == EQUAL) {
+                int start = k;
+                while (k < ops.length && ops[k] == EQUAL) k++;
+                spans.add(new Span(EQUAL, i, k - start, j, k - start));
+                i += k - start;
+                j += k - start;
+            } else {
+                int removed = 0, inserted = 0;
+                while (k < ops.length && ops[k] != EQUAL) {
+                    if (ops[k] == REMOVED) removed++;
+                    else inserted++;
+                    k++;
+                }
+                int type = removed == 0 ? INSERTED : inserted == 0 ? REMOVED : CHANGED;
+                spans.add(new Span(type, i, removed, j, inserted));
+                i += removed;
+                j += inserted;
+            }
+        }
+        if (suffix > 0) spans.add(new Span(EQUAL, n - suffix, suffix, m - suffix, suffix));
+        return spans;
+    }
+
+    private static int[] intern(List<String> units, Map<String, Integer> ids) {
+        int[] out = new int[units.size()];
+        for (int i = 0; i < out.length; i++) {
+            Integer id = ids.get(units.get(i));
+            if (id == null) {
+                id = ids.size();
+                ids.put(units.get(i), id);
+            }
+            out[i] = id;
+        }
+        return out;
+    }
+
+    /**
+     * Shortest edit script between a[aFrom, aTo) and b[bFrom, bTo), or null
+     * if it needs more than MAX_EDITS edits. Keeps the frontier of each
+     * round (O(D²) ints) and walks back through them.
+     */
+    private static byte[] myers(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        int n = aTo - aFrom, m = bTo - bFrom;
+        if (n == 0 || m == 0) {
+            byte[] ops = new byte[n + m];
+            Arrays.fill(ops, n == 0 ? (byte) INSERTED : (byte) REMOVED);
+            return ops;
+        }
+        int max = Math.min(n + m, MAX_EDITS);
+        int[] v = new int[2 * max + 3];
+        int off = max + 1;
+        List<int[]> trace = new ArrayList<>();
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) ? v[off + k + 1] : v[off + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aFrom + x] == b[bFrom + y]) {
+                    x++;
+                    y++;
+                }
+                v[off + k] = x;
+                if (x >= n && y >= m) {
+                    found = d;
+                    break;
+                }
+            }
+            int[] round = new int[2 * d + 1];
+            System.arraycopy(v, off - d, round, 0, round.length);
+            trace.add(round);
+        }
+        if (found < 0) return null;
+
+        byte[] ops = new byte[n + m];
+        int len = 0;
+        int x = n, y = m;
+        for (int d = found; d > 0; d--) {
+            int[] prev = trace.get(d - 1);          // frontier after round d-1, k in [-(d-1), d-1]
+            int k = x - y;
+            boolean down = k == -d || (k != d && prev[k - 1 + d - 1] < prev[k + 1 + d - 1]);
+            int prevK = down ? k + 1 : k - 1;
+            int prevX = prev[prevK + d - 1];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                ops[len++] = EQUAL;
+                x--;
+                y--;
+            }
+            ops[len++] = down ? (byte) INSERTED : (byte) REMOVED;
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            ops[len++] = EQUAL;
+            x--;
+            y--;
+        }
+        byte[] out = new byte[len];
+        for (int i = 0; i < len; i++) out[i] = ops[len - 1 - i];
+        return out;
+    }
+}
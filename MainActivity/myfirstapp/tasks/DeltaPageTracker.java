@@ -0,0 +1,57 @@
+package com.prajwal.myfirstapp.tasks;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Which pages of each incoming TASKS_DELTA have arrived, so
+ * {@link TaskSyncEngine} knows when a delta is complete. A delta that gets
+ * no page for {@link #TIMEOUT_MS} is forgotten — a lost page means the
+ * next TASK_DELTA_REQ starts from the old mark anyway, so keeping it would
+ * only leak.
+ */
+final class DeltaPageTracker {
+
+    static final long TIMEOUT_MS = 60_000;
+
+    private static final class Pending {
+        final BitSet seen;
+        final int pages;
+        long lastPageAt;
+
+        Pending(int pages) {
+            this.pages = pages;
+            this.seen = new BitSet(pages);
+        }
+    }
+
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    /**
+     * Record page {@code index} of {@code pages} for delta {@code key}.
+     * Returns true once every page is in; the delta is then forgotten.
+     */
+    synchronized boolean onPage(String key, int index, int pages, long now) {
+        evictStale(now);
+        if (pages <= 0 || index < 0 || index >= pages) return false;
+        Pending p = pending.get(key);
+        if (p == null || p.pages != pages) pending.put(key, p = new Pending(pages));
+        p.seen.set(index);
+        p.lastPageAt = now;
+        if (p.seen.cardinality() < pages) return false;
+        pending.remove(key);
+        return true;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    private void evictStale(long now) {
+        for (Iterator<Pending> it = pending.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().lastPageAt > TIMEOUT_MS) it.remove();
+        }
+    }
+}
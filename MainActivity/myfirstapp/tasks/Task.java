@@ -54,6 +54,7 @@ public class Task {
     public String energyLevel;            // "deep_work", "light", "low_energy", or null
     public String locationReminderName;   // Location name (e.g. "Gym") or null
     public boolean timerRunning;          // True when stopwatch is active
+    public long rev;                      // Local revision of the last local edit (TaskSyncEngine)
 
     // ─── Constants ───────────────────────────────────────────────
 
@@ -576,6 +577,7 @@ public class Task {
             json.put("energyLevel", energyLevel != null ? energyLevel : "");
             json.put("locationReminderName", locationReminderName != null ? locationReminderName : "");
             json.put("timerRunning", timerRunning);
+            json.put("rev", rev);
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -686,6 +688,7 @@ public class Task {
             task.locationReminderName = locName.isEmpty() ? null : locName;
             task.timerRunning = json.optBoolean("timerRunning", false)
                                 || json.optBoolean("timer_running", false);
+            task.rev = json.optLong("rev", 0);
 
             return task;
         } catch (Exception e) {
@@ -599,7 +599,7 @@ public class TaskDetailActivity extends AppCompatActivity
         TaskManagerActivity mgr = TaskManagerActivity.getInstance();
         if (mgr != null) {
             try {
-                ConnectionManager cm = new ConnectionManager(getIntent().getStringExtra("server_ip"));
+                ConnectionManager cm = ConnectionManager.getInstance(this, getIntent().getStringExtra("server_ip"));
                 if (task.isCompleted()) {
                     // Was completed, now uncompleted
                     cm.sendCommand("TASK_UNCOMPLETE:" + task.id);
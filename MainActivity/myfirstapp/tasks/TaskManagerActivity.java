@@ -75,6 +75,9 @@ import java.util.Locale;
  * Protocol (received from PC via ReverseCommandListener):
  *   TASKS_SYNC:{json}  TASK_NOTIFY_ADDED:id:title
  *   TASK_NOTIFY_COMPLETED:id:title  TASK_NOTIFY_DELETED:id
+ *
+ * Once the server acknowledges delta sync the commands above are replaced
+ * by TASK_DELTA_REQ / TASK_DELTA_PUSH / TASKS_DELTA pages (see TaskSyncEngine).
  */
 public class TaskManagerActivity extends AppCompatActivity
         implements TaskAdapter.TaskActionListener, TaskEditorSheet.TaskEditorListener {
@@ -90,7 +93,7 @@ public class TaskManagerActivity extends AppCompatActivity
     private TaskRepository repo;
     private MeetingRepository meetingRepo;
     private ConnectionManager connectionManager;
-    private String serverIp;
+    private TaskSyncEngine syncEngine;
 
     // ─── State ───────────────────────────────────────────────────
     private String currentFilter = "All";
@@ -145,11 +148,10 @@ public class TaskManagerActivity extends AppCompatActivity
         setContentView(R.layout.activity_task_manager);
         instance = this;
 
-        serverIp = getIntent().getStringExtra("server_ip");
-        if (serverIp == null) serverIp = "10.190.76.54";
-        connectionManager = new ConnectionManager(serverIp);
+        connectionManager = ConnectionManager.getInstance(this, getIntent().getStringExtra("server_ip"));
 
         repo = new TaskRepository(this);
+        syncEngine = new TaskSyncEngine(this, repo, connectionManager);
         currentSortMode = repo.getSavedSortMode();
         currentGroupMode = repo.getSavedGroupMode();
 
@@ -173,7 +175,7 @@ public class TaskManagerActivity extends AppCompatActivity
         refreshAll();
 
         // Sync on open
-        connectionManager.sendCommand("TASK_SYNC");
+        syncEngine.requestSync();
     }
 
     @Override
@@ -181,6 +183,7 @@ public class TaskManagerActivity extends AppCompatActivity
         super.onResume();
         instance = this;
         repo.reload();
+        syncEngine.pushChanges(); // edits made in other screens since we were paused
         if (meetingRepo != null) loadMeetingsStrip();
         refreshAll();
     }
@@ -543,7 +546,7 @@ public class TaskManagerActivity extends AppCompatActivity
         repo.addTask(task);
 
         // Sync to PC
-        connectionManager.sendCommand("TASK_ADD:" + title + ":" + task.priority);
+        syncTaskChange("TASK_ADD:" + title + ":" + task.priority);
 
         etQuickAdd.setText("");
         InputMethodManager imm = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
@@ -823,10 +826,10 @@ public class TaskManagerActivity extends AppCompatActivity
     public void onTaskChecked(Task task, boolean isChecked) {
         if (isChecked) {
             repo.completeTask(task.id);
-            connectionManager.sendCommand("TASK_COMPLETE:" + task.id);
+            syncTaskChange("TASK_COMPLETE:" + task.id);
         } else {
             repo.uncompleteTask(task.id);
-            connectionManager.sendCommand("TASK_UNCOMPLETE:" + task.id);
+            syncTaskChange("TASK_UNCOMPLETE:" + task.id);
         }
         refreshAll();
     }
@@ -879,17 +882,17 @@ public class TaskManagerActivity extends AppCompatActivity
                     break;
                 case "Mark Complete":
                     repo.completeTask(task.id);
-                    connectionManager.sendCommand("TASK_COMPLETE:" + task.id);
+                    syncTaskChange("TASK_COMPLETE:" + task.id);
                     refreshAll();
                     break;
                 case "Mark Incomplete":
                     repo.uncompleteTask(task.id);
-                    connectionManager.sendCommand("TASK_UNCOMPLETE:" + task.id);
+                    syncTaskChange("TASK_UNCOMPLETE:" + task.id);
                     refreshAll();
                     break;
                 case "Move to Trash":
                     repo.trashTask(task.id);
-                    connectionManager.sendCommand("TASK_DELETE:" + task.id);
+                    syncTaskChange("TASK_DELETE:" + task.id);
                     Toast.makeText(this, "Moved to trash", Toast.LENGTH_SHORT).show();
                     refreshAll();
                     break;
@@ -911,18 +914,18 @@ public class TaskManagerActivity extends AppCompatActivity
             // Toggle completion
             if (task.isCompleted()) {
                 repo.uncompleteTask(task.id);
-                connectionManager.sendCommand("TASK_UNCOMPLETE:" + task.id);
+                syncTaskChange("TASK_UNCOMPLETE:" + task.id);
                 Toast.makeText(this, "Task marked incomplete", Toast.LENGTH_SHORT).show();
             } else {
                 repo.completeTask(task.id);
-                connectionManager.sendCommand("TASK_COMPLETE:" + task.id);
+                syncTaskChange("TASK_COMPLETE:" + task.id);
                 Toast.makeText(this, "Task completed ✓", Toast.LENGTH_SHORT).show();
             }
             refreshAll();
         } else if (swipeDirection == TaskAdapter.SWIPE_ARCHIVE) {
             // Archive (trash) + undo snackbar
             repo.trashTask(task.id);
-            connectionManager.sendCommand("TASK_DELETE:" + task.id);
+            syncTaskChange("TASK_DELETE:" + task.id);
 
             // Show undo snackbar
             View rootView = findViewById(android.R.id.content);
@@ -990,11 +993,21 @@ public class TaskManagerActivity extends AppCompatActivity
         Log.i(TAG, "Task sync received from PC");
     }
 
+    public void onTasksDeltaReceived(String pageJson) {
+        if (!syncEngine.onDeltaPage(pageJson)) return;
+        runOnUiThread(this::refreshAll);
+    }
+
+    /** Tell the PC about a local change: a delta push once negotiated, else the legacy command. */
+    private void syncTaskChange(String legacyCommand) {
+        if (!syncEngine.pushChanges()) connectionManager.sendCommand(legacyCommand);
+    }
+
     public void onTaskNotifyAdded(String taskId, String title) {
         runOnUiThread(() -> {
             showLocalNotification("New Task Added", title + " (from PC)");
             Toast.makeText(this, "📋 New task: " + title, Toast.LENGTH_SHORT).show();
-            connectionManager.sendCommand("TASK_SYNC");
+            syncEngine.requestSync();
         });
     }
 
@@ -1002,14 +1015,14 @@ public class TaskManagerActivity extends AppCompatActivity
         runOnUiThread(() -> {
             showLocalNotification("Task Completed", "✅ " + title);
             Toast.makeText(this, "✅ Completed: " + title, Toast.LENGTH_SHORT).show();
-            connectionManager.sendCommand("TASK_SYNC");
+            syncEngine.requestSync();
         });
     }
 
     public void onTaskNotifyDeleted(String taskId) {
         runOnUiThread(() -> {
             showLocalNotification("Task Deleted", "A task was removed from PC");
-            connectionManager.sendCommand("TASK_SYNC");
+            syncEngine.requestSync();
         });
     }
 
@@ -1020,9 +1033,10 @@ public class TaskManagerActivity extends AppCompatActivity
     @Override
     public void onTaskSaved(Task task, boolean isNew) {
         if (isNew) {
-            connectionManager.sendCommand("TASK_ADD:" + task.title + ":" + task.priority);
+            syncTaskChange("TASK_ADD:" + task.title + ":" + task.priority);
             Toast.makeText(this, "Task created!", Toast.LENGTH_SHORT).show();
         } else {
+            syncEngine.pushChanges(); // no legacy command for edits
             Toast.makeText(this, "Task updated!", Toast.LENGTH_SHORT).show();
         }
         refreshAll();
@@ -1065,7 +1079,7 @@ public class TaskManagerActivity extends AppCompatActivity
         if (btnBulkComplete != null) btnBulkComplete.setOnClickListener(v -> {
             for (String id : taskAdapter.getSelectedIds()) {
                 repo.completeTask(id);
-                connectionManager.sendCommand("TASK_COMPLETE:" + id);
+                syncTaskChange("TASK_COMPLETE:" + id);
             }
             taskAdapter.exitMultiSelect();
             refreshAll();
@@ -1079,6 +1093,7 @@ public class TaskManagerActivity extends AppCompatActivity
                     .setTitle("Set Priority")
                     .setItems(priorities, (d, which) -> {
                         repo.bulkUpdatePriority(new ArrayList<>(taskAdapter.getSelectedIds()), values[which]);
+                        syncEngine.pushChanges();
                         taskAdapter.exitMultiSelect();
                         refreshAll();
                     })
@@ -1092,6 +1107,7 @@ public class TaskManagerActivity extends AppCompatActivity
                     .setTitle("Move to Category")
                     .setItems(items, (d, which) -> {
                         repo.bulkUpdateCategory(new ArrayList<>(taskAdapter.getSelectedIds()), items[which]);
+                        syncEngine.pushChanges();
                         taskAdapter.exitMultiSelect();
                         refreshAll();
                     })
@@ -1100,6 +1116,7 @@ public class TaskManagerActivity extends AppCompatActivity
 
         if (btnBulkStar != null) btnBulkStar.setOnClickListener(v -> {
             repo.bulkStar(new ArrayList<>(taskAdapter.getSelectedIds()));
+            syncEngine.pushChanges();
             taskAdapter.exitMultiSelect();
             refreshAll();
         });
@@ -1111,7 +1128,7 @@ public class TaskManagerActivity extends AppCompatActivity
                     .setPositiveButton("Trash", (d, w) -> {
                         for (String id : taskAdapter.getSelectedIds()) {
                             repo.trashTask(id);
-                            connectionManager.sendCommand("TASK_DELETE:" + id);
+                            syncTaskChange("TASK_DELETE:" + id);
                         }
                         taskAdapter.exitMultiSelect();
                         refreshAll();
@@ -20,7 +20,9 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -65,6 +67,13 @@ public class MediaVaultRepository {
     private static final String KEY_FILE_EXPIRY_JSON      = "vault_file_expiry_json";
     private static final String KEY_LAST_UNLOCK_TIME      = "vault_last_unlock_time";
     private static final String KEY_LAST_BACKUP_TIME      = "vault_last_backup_time";
+    private static final String KEY_MASTER_SALT           = "vault_master_salt";
+    private static final String KEY_WRAPPED_DATA_KEY      = "vault_wrapped_data_key";
+    private static final String KEY_DECOY_MASTER_SALT     = "vault_decoy_master_salt";
+    private static final String KEY_DECOY_WRAPPED_KEY     = "vault_decoy_wrapped_data_key";
+    private static final String KEY_KEYS_MIGRATED         = "vault_keys_migrated";
+    private static final String KEY_FILE_COUNT            = "vault_file_count";
+    private static final String METADATA_JOURNAL          = "metadata.journal";
 
     // Lockout durations (ms): level 0→30s, 1→1m, 2→5m, 3→15m, 4→1h
     private static final long[] LOCKOUT_DURATIONS_MS = {
@@ -79,8 +88,11 @@ public class MediaVaultRepository {
     private final SharedPreferences prefs;
 
     // In-memory state (only set when vault is unlocked)
-    private char[] sessionPin = null;
+    private volatile MediaVaultCrypto.SessionKey sessionKey = null;
     private boolean isDecoySession = false;
+    private Thread keyMigrationThread;
+    private final VaultThumbnailLoader thumbnailLoader = new VaultThumbnailLoader(this);
+    private VaultMetadataStore store; // opened lazily while unlocked, see store()
 
     // ─── Singleton ───────────────────────────────────────────────
 
@@ -138,14 +150,24 @@ public class MediaVaultRepository {
      * Set up the vault PIN for the first time.
      */
     public boolean setupPin(String pin) {
+        SharedPreferences.Editor editor = prefs.edit();
+        if (!putPin(editor, pin)) return false;
+        if (!isPinSetup()) {
+            // Fresh vault: a leftover wrapped key could never be opened with the new PIN
+            editor.remove(KEY_MASTER_SALT).remove(KEY_WRAPPED_DATA_KEY);
+        }
+        editor.apply();
+        logActivity(new VaultActivityLog(VaultActivityLog.Action.PIN_CHANGED, "Vault PIN set up"));
+        return true;
+    }
+
+    /** Put a fresh salt and the PIN's hash into {@code editor}. */
+    private boolean putPin(SharedPreferences.Editor editor, String pin) {
         byte[] salt = MediaVaultCrypto.generateFileSalt();
         String hash = MediaVaultCrypto.hashVaultPin(pin, salt);
         if (hash == null) return false;
-        prefs.edit()
-            .putString(KEY_PIN_HASH, hash)
-            .putString(KEY_PIN_SALT, Base64.encodeToString(salt, Base64.NO_WRAP))
-            .apply();
-        logActivity(new VaultActivityLog(VaultActivityLog.Action.PIN_CHANGED, "Vault PIN set up"));
+        editor.putString(KEY_PIN_HASH, hash)
+            .putString(KEY_PIN_SALT, Base64.encodeToString(salt, Base64.NO_WRAP));
         return true;
     }
 
@@ -154,13 +176,37 @@ public class MediaVaultRepository {
      */
     public boolean changePin(String oldPin, String newPin) {
         if (!verifyPin(oldPin)) return false;
-        boolean success = setupPin(newPin);
-        if (success) {
-            // Update session pin
-            sessionPin = newPin.toCharArray();
-            logActivity(new VaultActivityLog(VaultActivityLog.Action.PIN_CHANGED, "Vault PIN changed"));
+        MediaVaultCrypto.SessionKey oldKey = sessionKey;
+        if (oldKey == null || isDecoySession) {
+            oldKey = openSessionKey(oldPin, false);
+            if (oldKey == null) return false;
+        }
+        // Files still keyed by the old PIN are re-keyed with the old PIN's copy
+        startKeyMigration(oldKey);
+
+        // Re-wrap the same data key under the new PIN — vault files are untouched
+        char[] newPinChars = newPin.toCharArray();
+        MediaVaultCrypto.SessionKey newKey = oldKey.withPin(newPinChars);
+        java.util.Arrays.fill(newPinChars, '\0');
+        // The new PIN hash and the key wrapped under it are written together,
+        // synchronously: a crash between the two would leave neither PIN working
+        SharedPreferences.Editor editor = prefs.edit();
+        if (!putWrappedKey(editor, newKey, false) || !putPin(editor, newPin) || !editor.commit()) {
+            Log.e(TAG, "PIN change not saved");
+            newKey.wipe();
+            if (oldKey != sessionKey) oldKey.wipe();
+            return false;
         }
-        return success;
+        if (sessionKey != null && !isDecoySession) {
+            MediaVaultCrypto.SessionKey previous = sessionKey;
+            sessionKey = newKey;
+            previous.wipe();
+        } else {
+            if (oldKey != sessionKey) oldKey.wipe();
+            newKey.wipe();
+        }
+        logActivity(new VaultActivityLog(VaultActivityLog.Action.PIN_CHANGED, "Vault PIN changed"));
+        return true;
     }
 
     /**
@@ -185,8 +231,7 @@ public class MediaVaultRepository {
         // Check real PIN
         if (verifyPin(pin)) {
             resetFailedAttempts();
-            sessionPin = pin.toCharArray();
-            isDecoySession = false;
+            if (!beginSession(pin, false)) return 1;
             logActivity(new VaultActivityLog(VaultActivityLog.Action.UNLOCKED, "Unlocked with PIN"));
             return 0;
         }
@@ -194,8 +239,7 @@ public class MediaVaultRepository {
         // Check decoy PIN
         if (isDecoyEnabled() && verifyDecoyPin(pin)) {
             resetFailedAttempts();
-            sessionPin = pin.toCharArray();
-            isDecoySession = true;
+            if (!beginSession(pin, true)) return 1;
             return 0; // Decoy session — don't log to real activity
         }
 
@@ -211,32 +255,32 @@ public class MediaVaultRepository {
 
     /** Unlock via biometric (PIN already verified by biometric binding). */
     public void unlockWithBiometric(String pin) {
-        sessionPin = pin.toCharArray();
-        isDecoySession = false;
+        if (!beginSession(pin, false)) return;
         resetFailedAttempts();
         logActivity(new VaultActivityLog(VaultActivityLog.Action.UNLOCKED, "Unlocked with biometric"));
     }
 
     public boolean isUnlocked() {
-        return sessionPin != null;
+        return sessionKey != null;
     }
 
     /**
-     * Returns a copy of the active session PIN for callers that need to perform
+     * Returns a copy of the active session key for callers that need to perform
      * their own encryption (e.g. in-memory edited file re-encryption).
-     * Returns null if the vault is locked. Callers must wipe the returned array
-     * when finished (Arrays.fill(pin, '\0')).
+     * Returns null if the vault is locked. Callers must wipe the returned key
+     * when finished (key.wipe()).
      */
-    public char[] getSessionPin() {
-        if (sessionPin == null) return null;
-        return sessionPin.clone();
+    public MediaVaultCrypto.SessionKey getSessionKey() {
+        MediaVaultCrypto.SessionKey key = sessionKey;
+        return key == null ? null : key.copy();
     }
 
     public void lock() {
-        if (sessionPin != null) {
-            java.util.Arrays.fill(sessionPin, '\0');
-            sessionPin = null;
-        }
+        MediaVaultCrypto.SessionKey key = sessionKey;
+        sessionKey = null;
+        if (key != null) key.wipe();
+        thumbnailLoader.clear();
+        closeStore();
         isDecoySession = false;
         logActivity(new VaultActivityLog(VaultActivityLog.Action.LOCKED, "Vault locked"));
     }
@@ -259,6 +303,8 @@ public class MediaVaultRepository {
             .putString(KEY_DECOY_HASH, hash)
             .putString(KEY_DECOY_SALT, Base64.encodeToString(salt, Base64.NO_WRAP))
             .putBoolean(KEY_DECOY_ENABLED, true)
+            .remove(KEY_DECOY_MASTER_SALT)
+            .remove(KEY_DECOY_WRAPPED_KEY)
             .apply();
         return true;
     }
@@ -268,10 +314,152 @@ public class MediaVaultRepository {
         prefs.edit()
             .remove(KEY_DECOY_HASH)
             .remove(KEY_DECOY_SALT)
+            .remove(KEY_DECOY_MASTER_SALT)
+            .remove(KEY_DECOY_WRAPPED_KEY)
             .putBoolean(KEY_DECOY_ENABLED, false)
             .apply();
     }
 
+    // ─── Session Keys ─────────────────────────────────────────────
+
+    /** Open the session key for {@code pin} and make it current. */
+    private boolean beginSession(String pin, boolean decoy) {
+        MediaVaultCrypto.SessionKey key = openSessionKey(pin, decoy);
+        if (key == null) {
+            Log.e(TAG, "Could not open vault data key");
+            return false;
+        }
+        MediaVaultCrypto.SessionKey previous = sessionKey;
+        closeStore();
+        sessionKey = key;
+        isDecoySession = decoy;
+        if (previous != null) previous.wipe();
+        if (!decoy) startKeyMigration(key);
+        return true;
+    }
+
+    /**
+     * Derive the master key — the only PBKDF2 run of the session — and unwrap
+     * the data key with it. Vaults created before the key hierarchy get a data
+     * key generated and wrapped here on first unlock.
+     */
+    private MediaVaultCrypto.SessionKey openSessionKey(String pin, boolean decoy) {
+        String saltB64 = prefs.getString(decoy ? KEY_DECOY_MASTER_SALT : KEY_MASTER_SALT, null);
+        String wrappedB64 = prefs.getString(decoy ? KEY_DECOY_WRAPPED_KEY : KEY_WRAPPED_DATA_KEY, null);
+        char[] pinChars = pin.toCharArray();
+        try {
+            if (saltB64 == null || wrappedB64 == null) {
+                MediaVaultCrypto.SessionKey key = MediaVaultCrypto.newSessionKey(pinChars);
+                if (!storeWrappedKey(key, decoy)) {
+                    key.wipe();
+                    return null;
+                }
+                return key;
+            }
+            return MediaVaultCrypto.unwrapSessionKey(Base64.decode(wrappedB64, Base64.NO_WRAP),
+                    pinChars, Base64.decode(saltB64, Base64.NO_WRAP));
+        } finally {
+            java.util.Arrays.fill(pinChars, '\0');
+        }
+    }
+
+    /** Wrap {@code key}'s data key under a master key from its PIN and a fresh salt. */
+    private boolean storeWrappedKey(MediaVaultCrypto.SessionKey key, boolean decoy) {
+        SharedPreferences.Editor editor = prefs.edit();
+        if (!putWrappedKey(editor, key, decoy)) return false;
+        editor.apply();
+        return true;
+    }
+
+    private boolean putWrappedKey(SharedPreferences.Editor editor, MediaVaultCrypto.SessionKey key, boolean decoy) {
+        byte[] salt = MediaVaultCrypto.generateFileSalt();
+        byte[] wrapped = MediaVaultCrypto.wrapSessionKey(key, salt);
+        if (wrapped == null) return false;
+        editor.putString(decoy ? KEY_DECOY_MASTER_SALT : KEY_MASTER_SALT,
+                    Base64.encodeToString(salt, Base64.NO_WRAP))
+            .putString(decoy ? KEY_DECOY_WRAPPED_KEY : KEY_WRAPPED_DATA_KEY,
+                    Base64.encodeToString(wrapped, Base64.NO_WRAP));
+        return true;
+    }
+
+    // ─── Key Migration ────────────────────────────────────────────
+
+    /**
+     * Re-key files and thumbnails that predate the key hierarchy (one PBKDF2
+     * per open) under the data key, on a low-priority background thread.
+     * The thread works from its own copy of the key and wipes it when done,
+     * so a lock (or a PIN change) mid-way cannot strand PIN-keyed files;
+     * anything that fails is retried on the next unlock.
+     */
+    private synchronized void startKeyMigration(MediaVaultCrypto.SessionKey key) {
+        if (prefs.getBoolean(KEY_KEYS_MIGRATED, false)) return;
+        if (keyMigrationThread != null && keyMigrationThread.isAlive()) return;
+        final MediaVaultCrypto.SessionKey migrationKey = key.copy();
+        keyMigrationThread = new Thread(() -> {
+            try {
+                migrateKeys(migrationKey);
+            } finally {
+                migrationKey.wipe();
+            }
+        }, "VaultKeyMigration");
+        keyMigrationThread.setPriority(Thread.MIN_PRIORITY);
+        keyMigrationThread.start();
+    }
+
+    private void migrateKeys(MediaVaultCrypto.SessionKey key) {
+        // Without the store (locked, or a decoy session) there is no file
+        // list; finishing here must not count as everything migrated
+        VaultMetadataStore s = store();
+        if (s == null) {
+            Log.i(TAG, "Key migration deferred: no metadata store");
+            return;
+        }
+        int migrated = 0, failed = 0;
+        for (VaultFileItem item : s.getAll()) {
+            if (item.vaultFileName != null && !item.vaultFileName.isEmpty()) {
+                File encFile = new File(getFilesDir(), item.vaultFileName);
+                if (encFile.exists() && MediaVaultCrypto.needsRekey(encFile)) {
+                    File tmp = new File(getFilesDir(), item.vaultFileName + ".rekey");
+                    if (MediaVaultCrypto.reencryptFile(encFile, tmp, key) && tmp.renameTo(encFile)) {
+                        migrated++;
+                    } else {
+                        tmp.delete();
+                        failed++;
+                    }
+                }
+            }
+
+            if (item.thumbnailPath != null && !item.thumbnailPath.isEmpty()) {
+                File thumbFile = new File(getThumbsDir(), item.thumbnailPath);
+                if (thumbFile.exists() && !migrateThumbnail(thumbFile, key)) failed++;
+            }
+        }
+        if (failed == 0) prefs.edit().putBoolean(KEY_KEYS_MIGRATED, true).apply();
+        Log.i(TAG, "Key migration: " + migrated + " files re-keyed, " + failed + " failed");
+    }
+
+    private boolean migrateThumbnail(File thumbFile, MediaVaultCrypto.SessionKey key) {
+        try {
+            byte[] encBytes = readFileBytes(thumbFile);
+            if (!MediaVaultCrypto.needsRekey(encBytes)) return true;
+            byte[] plain = MediaVaultCrypto.decryptBytes(encBytes, key);
+            if (plain == null) return false;
+            byte[] rekeyed = MediaVaultCrypto.encryptBytes(plain, key);
+            java.util.Arrays.fill(plain, (byte) 0);
+            if (rekeyed == null) return false;
+            File tmp = new File(thumbFile.getParentFile(), thumbFile.getName() + ".rekey");
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                fos.write(rekeyed);
+            }
+            if (tmp.renameTo(thumbFile)) return true;
+            tmp.delete();
+            return false;
+        } catch (IOException e) {
+            Log.w(TAG, "Thumbnail re-key failed", e);
+            return false;
+        }
+    }
+
     private boolean verifyDecoyPin(String pin) {
         String hashB64 = prefs.getString(KEY_DECOY_HASH, null);
         String saltB64 = prefs.getString(KEY_DECOY_SALT, null);
@@ -371,7 +559,7 @@ public class MediaVaultRepository {
             String vaultFileName = UUID.randomUUID().toString();
             item.vaultFileName = vaultFileName;
             File destFile = new File(getFilesDir(), vaultFileName);
-            MediaVaultCrypto.encryptFile(tempFile, destFile, sessionPin);
+            MediaVaultCrypto.encryptFile(tempFile, destFile, sessionKey);
             item.encryptedSize = destFile.length();
 
             // Generate and encrypt thumbnail
@@ -474,7 +662,7 @@ public class MediaVaultRepository {
                 thumb.recycle();
 
                 // Encrypt thumbnail
-                byte[] encryptedThumb = MediaVaultCrypto.encryptBytes(thumbBytes, sessionPin);
+                byte[] encryptedThumb = MediaVaultCrypto.encryptBytes(thumbBytes, sessionKey);
                 if (encryptedThumb != null) {
                     String thumbName = UUID.randomUUID().toString() + ".thumb";
                     File thumbFile = new File(getThumbsDir(), thumbName);
@@ -528,7 +716,7 @@ public class MediaVaultRepository {
             Log.e(TAG, "decryptFileToMemory: encrypted file not found: " + item.vaultFileName);
             return null;
         }
-        byte[] plainBytes = MediaVaultCrypto.decryptFileToMemory(encFile, sessionPin);
+        byte[] plainBytes = MediaVaultCrypto.decryptFileToMemory(encFile, sessionKey);
         if (plainBytes == null) {
             Log.e(TAG, "decryptFileToMemory: decryption returned null for: " + item.originalFileName);
         }
@@ -537,24 +725,49 @@ public class MediaVaultRepository {
 
     /**
      * Decrypt a vault file and write to the given destination file.
+     * Streams segment by segment, so memory use does not grow with file size.
      */
     public boolean exportFile(VaultFileItem item, File destFile) {
-        if (!isUnlocked()) return false;
-        byte[] plainBytes = decryptFileToMemory(item);
-        if (plainBytes == null) return false;
+        if (!isUnlocked() || item == null || item.vaultFileName == null) return false;
+        File encFile = new File(getFilesDir(), item.vaultFileName);
+        if (!encFile.exists()) return false;
         try (FileOutputStream fos = new FileOutputStream(destFile)) {
-            fos.write(plainBytes);
+            MediaVaultCrypto.decryptFileToStream(encFile, sessionKey, fos);
             logActivity(new VaultActivityLog(VaultActivityLog.Action.FILE_EXPORTED,
                     "Exported: " + item.originalFileName));
             return true;
         } catch (IOException e) {
             Log.e(TAG, "Export write failed", e);
+            destFile.delete();
             return false;
         }
     }
 
+    /**
+     * Open a seekable, decrypt-on-read MediaDataSource for a vault file.
+     * Returns null if the vault is locked or the file is in the legacy
+     * single-shot format — callers then fall back to {@link #exportFile}.
+     */
+    public VaultMediaDataSource openMediaDataSource(VaultFileItem item) {
+        if (!isUnlocked() || item == null || item.vaultFileName == null) return null;
+        File encFile = new File(getFilesDir(), item.vaultFileName);
+        if (!encFile.exists() || !MediaVaultCrypto.isSegmented(encFile)) return null;
+        try {
+            return new VaultMediaDataSource(MediaVaultCrypto.openSegmentReader(encFile, sessionKey));
+        } catch (IOException e) {
+            Log.e(TAG, "openMediaDataSource failed", e);
+            return null;
+        }
+    }
+
+    /** Shared cache + worker pool for grid / list thumbnails. Cleared on lock. */
+    public VaultThumbnailLoader getThumbnailLoader() {
+        return thumbnailLoader;
+    }
+
     /**
      * Decrypt a thumbnail into memory for display. Returns null if unavailable.
+     * Uncached — UI code should go through {@link #getThumbnailLoader()}.
      */
     public Bitmap decryptThumbnail(VaultFileItem item) {
         if (!isUnlocked() || item.thumbnailPath == null || item.thumbnailPath.isEmpty()) return null;
@@ -562,7 +775,7 @@ public class MediaVaultRepository {
         if (!thumbFile.exists()) return null;
         try {
             byte[] encBytes = readFileBytes(thumbFile);
-            byte[] plain = MediaVaultCrypto.decryptBytes(encBytes, sessionPin);
+            byte[] plain = MediaVaultCrypto.decryptBytes(encBytes, sessionKey);
             if (plain == null) return null;
             return BitmapFactory.decodeByteArray(plain, 0, plain.length);
         } catch (Exception e) {
@@ -610,35 +823,80 @@ public class MediaVaultRepository {
 
     // ─── File Metadata Persistence ────────────────────────────────
 
-    private List<VaultFileItem> loadFiles() {
-        String json = prefs.getString(KEY_FILES_JSON, "[]");
-        List<VaultFileItem> list = new ArrayList<>();
+    /**
+     * The metadata store for the current session, opened (and replayed) on
+     * first use. Null while locked or in a decoy session — callers treat that
+     * as an empty vault.
+     */
+    private synchronized VaultMetadataStore store() {
+        if (store != null || sessionKey == null || isDecoySession) return store;
+        javax.crypto.SecretKey key = MediaVaultCrypto.deriveMetadataKey(sessionKey);
+        if (key == null) return null;
+        store = VaultMetadataStore.open(new File(getVaultRoot(), METADATA_JOURNAL), key);
+        if (store != null && store.isNew()) importLegacyMetadata(store);
+        return store;
+    }
+
+    private synchronized void closeStore() {
+        if (store == null) return;
+        prefs.edit().putInt(KEY_FILE_COUNT, store.size()).apply();
+        store.close();
+        store = null;
+    }
+
+    /**
+     * One-time move from the old SharedPreferences JSON blobs into the journal.
+     * The plaintext blobs are removed once the snapshot is written.
+     */
+    private void importLegacyMetadata(VaultMetadataStore target) {
+        if (!prefs.contains(KEY_FILES_JSON)) return;
+        List<VaultFileItem> files = new ArrayList<>();
+        Map<String, List<String>> collections = new HashMap<>();
+        Map<String, Long> expiries = new HashMap<>();
         try {
-            JSONArray arr = new JSONArray(json);
+            JSONArray arr = new JSONArray(prefs.getString(KEY_FILES_JSON, "[]"));
             for (int i = 0; i < arr.length(); i++) {
                 VaultFileItem f = VaultFileItem.fromJson(arr.getJSONObject(i));
-                if (f != null) list.add(f);
+                if (f != null) files.add(f);
+            }
+            JSONObject collMap = new JSONObject(prefs.getString(KEY_FILE_COLLECTIONS_JSON, "{}"));
+            java.util.Iterator<String> ids = collMap.keys();
+            while (ids.hasNext()) {
+                String fileId = ids.next();
+                JSONArray arrIds = collMap.optJSONArray(fileId);
+                List<String> list = new ArrayList<>();
+                if (arrIds != null) for (int i = 0; i < arrIds.length(); i++) list.add(arrIds.getString(i));
+                collections.put(fileId, list);
+            }
+            JSONObject expMap = new JSONObject(prefs.getString(KEY_FILE_EXPIRY_JSON, "{}"));
+            ids = expMap.keys();
+            while (ids.hasNext()) {
+                String fileId = ids.next();
+                expiries.put(fileId, expMap.optLong(fileId, 0L));
             }
         } catch (Exception e) {
-            Log.e(TAG, "Load files failed", e);
+            Log.e(TAG, "Legacy metadata import failed", e);
+            return;
         }
-        return list;
+        target.importAll(files, collections, expiries);
+        prefs.edit()
+            .remove(KEY_FILES_JSON)
+            .remove(KEY_FILE_COLLECTIONS_JSON)
+            .remove(KEY_FILE_EXPIRY_JSON)
+            .putInt(KEY_FILE_COUNT, target.size())
+            .apply();
+        Log.i(TAG, "Imported " + files.size() + " items into the metadata journal");
     }
 
-    private void saveFiles(List<VaultFileItem> files) {
-        try {
-            JSONArray arr = new JSONArray();
-            for (VaultFileItem f : files) arr.put(f.toJson());
-            prefs.edit().putString(KEY_FILES_JSON, arr.toString()).apply();
-        } catch (Exception e) {
-            Log.e(TAG, "Save files failed", e);
-        }
+    private List<VaultFileItem> loadFiles() {
+        VaultMetadataStore s = store();
+        return s != null ? s.getAll() : new ArrayList<>();
     }
 
     private void saveFile(VaultFileItem item) {
-        List<VaultFileItem> files = loadFiles();
-        files.add(item);
-        saveFiles(files);
+        VaultMetadataStore s = store();
+        if (s == null) Log.w(TAG, "saveFile: no metadata store (locked or decoy session)");
+        else if (!s.put(item)) Log.e(TAG, "saveFile: metadata not saved for " + item.id);
     }
 
     /**
@@ -678,7 +936,7 @@ public class MediaVaultRepository {
             String vaultFileName = UUID.randomUUID().toString();
             item.vaultFileName = vaultFileName;
             File destFile = new File(getFilesDir(), vaultFileName);
-            MediaVaultCrypto.encryptFile(tempFile, destFile, sessionPin);
+            MediaVaultCrypto.encryptFile(tempFile, destFile, sessionKey);
             item.encryptedSize = destFile.length();
 
             generateAndEncryptThumbnail(item, tempFile, mimeType);
@@ -695,22 +953,13 @@ public class MediaVaultRepository {
     }
 
     public void updateFile(VaultFileItem item) {
-        List<VaultFileItem> files = loadFiles();
-        for (int i = 0; i < files.size(); i++) {
-            if (files.get(i).id.equals(item.id)) {
-                files.set(i, item);
-                saveFiles(files);
-                return;
-            }
-        }
+        VaultMetadataStore s = store();
+        if (s != null) s.update(item);
     }
 
     private void removeFile(String id) {
-        List<VaultFileItem> files = loadFiles();
-        for (int i = files.size() - 1; i >= 0; i--) {
-            if (files.get(i).id.equals(id)) { files.remove(i); break; }
-        }
-        saveFiles(files);
+        VaultMetadataStore s = store();
+        if (s != null) s.remove(id);
     }
 
     // ─── File Querying ────────────────────────────────────────────
@@ -720,28 +969,34 @@ public class MediaVaultRepository {
         return loadFiles();
     }
 
-    public List<VaultFileItem> getFilesByType(VaultFileItem.FileType type) {
-        List<VaultFileItem> result = new ArrayList<>();
-        for (VaultFileItem f : getAllFiles()) {
-            if (f.fileType == type) result.add(f);
+    /**
+     * Number of files in the vault. Works while locked (from the count saved
+     * at the last lock), e.g. for dashboard subtitles.
+     */
+    public int getFileCount() {
+        VaultMetadataStore s = store();
+        if (s != null) return s.size();
+        if (prefs.contains(KEY_FILE_COUNT)) return prefs.getInt(KEY_FILE_COUNT, 0);
+        try {
+            return new JSONArray(prefs.getString(KEY_FILES_JSON, "[]")).length(); // not migrated yet
+        } catch (Exception e) {
+            return 0;
         }
-        return result;
+    }
+
+    public List<VaultFileItem> getFilesByType(VaultFileItem.FileType type) {
+        VaultMetadataStore s = store();
+        return s != null ? s.getByType(type) : new ArrayList<>();
     }
 
     public List<VaultFileItem> getFilesByAlbum(String albumId) {
-        List<VaultFileItem> result = new ArrayList<>();
-        for (VaultFileItem f : getAllFiles()) {
-            if (albumId.equals(f.albumId)) result.add(f);
-        }
-        return result;
+        VaultMetadataStore s = store();
+        return s != null ? s.getByAlbum(albumId) : new ArrayList<>();
     }
 
     public List<VaultFileItem> getFavourites() {
-        List<VaultFileItem> result = new ArrayList<>();
-        for (VaultFileItem f : getAllFiles()) {
-            if (f.isFavourited) result.add(f);
-        }
-        return result;
+        VaultMetadataStore s = store();
+        return s != null ? s.getFavourites() : new ArrayList<>();
     }
 
     public List<VaultFileItem> getRecentFiles(int limit) {
@@ -793,15 +1048,13 @@ public class MediaVaultRepository {
     // ─── Storage Stats ────────────────────────────────────────────
 
     public long getTotalStorageUsed() {
-        long total = 0;
-        for (VaultFileItem f : loadFiles()) total += f.encryptedSize;
-        return total;
+        VaultMetadataStore s = store();
+        return s != null ? s.getTotalEncryptedSize() : 0;
     }
 
     public int getCountByType(VaultFileItem.FileType type) {
-        int count = 0;
-        for (VaultFileItem f : loadFiles()) if (f.fileType == type) count++;
-        return count;
+        VaultMetadataStore s = store();
+        return s != null ? s.countByType(type) : 0;
     }
 
     // ─── Album CRUD ───────────────────────────────────────────────
@@ -818,8 +1071,9 @@ public class MediaVaultRepository {
             }
         } catch (Exception ignored) {}
         // Update file counts
+        VaultMetadataStore s = store();
         for (VaultAlbum album : list) {
-            album.fileCount = getFilesByAlbum(album.id).size();
+            album.fileCount = s != null ? s.countInAlbum(album.id) : 0;
         }
         return list;
     }
@@ -857,11 +1111,10 @@ public class MediaVaultRepository {
 
     public void deleteAlbum(String albumId) {
         // Remove album reference from files but keep the files in vault
-        List<VaultFileItem> files = loadFiles();
-        for (VaultFileItem f : files) {
-            if (albumId.equals(f.albumId)) f.albumId = null;
+        for (VaultFileItem f : getFilesByAlbum(albumId)) {
+            f.albumId = null;
+            updateFile(f);
         }
-        saveFiles(files);
 
         List<VaultAlbum> albums = getAlbums();
         String albumName = "";
@@ -878,14 +1131,11 @@ public class MediaVaultRepository {
     }
 
     public void addFileToAlbum(String fileId, String albumId) {
-        List<VaultFileItem> files = loadFiles();
-        for (VaultFileItem f : files) {
-            if (f.id.equals(fileId)) {
-                f.albumId = albumId;
-                saveFiles(files);
-                return;
-            }
-        }
+        VaultMetadataStore s = store();
+        VaultFileItem f = s != null ? s.get(fileId) : null;
+        if (f == null) return;
+        f.albumId = albumId;
+        s.update(f);
     }
 
     // ─── Activity Log ─────────────────────────────────────────────
@@ -966,72 +1216,30 @@ public class MediaVaultRepository {
         saveCollections(list);
     }
 
-    /** Returns the JSON object mapping fileId -> array of collectionIds from SharedPreferences. */
-    private JSONObject loadFileCollectionsMap() {
-        String json = prefs.getString(KEY_FILE_COLLECTIONS_JSON, "{}");
-        try { return new JSONObject(json); } catch (Exception e) { return new JSONObject(); }
-    }
-
-    private void saveFileCollectionsMap(JSONObject map) {
-        prefs.edit().putString(KEY_FILE_COLLECTIONS_JSON, map.toString()).apply();
-    }
-
     public void addFileToCollection(String fileId, String collectionId) {
-        JSONObject map = loadFileCollectionsMap();
-        try {
-            JSONArray ids = map.optJSONArray(fileId);
-            if (ids == null) ids = new JSONArray();
-            // avoid duplicates
-            for (int i = 0; i < ids.length(); i++) {
-                if (collectionId.equals(ids.getString(i))) return;
-            }
-            ids.put(collectionId);
-            map.put(fileId, ids);
-            saveFileCollectionsMap(map);
-        } catch (Exception ignored) {}
+        VaultMetadataStore s = store();
+        if (s == null) return;
+        List<String> ids = s.getCollectionIds(fileId);
+        if (ids.contains(collectionId)) return; // avoid duplicates
+        ids.add(collectionId);
+        s.setCollections(fileId, ids);
     }
 
     public void removeFileFromCollection(String fileId, String collectionId) {
-        JSONObject map = loadFileCollectionsMap();
-        try {
-            JSONArray ids = map.optJSONArray(fileId);
-            if (ids == null) return;
-            JSONArray updated = new JSONArray();
-            for (int i = 0; i < ids.length(); i++) {
-                if (!collectionId.equals(ids.getString(i))) updated.put(ids.getString(i));
-            }
-            map.put(fileId, updated);
-            saveFileCollectionsMap(map);
-        } catch (Exception ignored) {}
+        VaultMetadataStore s = store();
+        if (s == null) return;
+        List<String> ids = s.getCollectionIds(fileId);
+        if (ids.remove(collectionId)) s.setCollections(fileId, ids);
     }
 
     public List<String> getFileCollectionIds(String fileId) {
-        JSONObject map = loadFileCollectionsMap();
-        List<String> result = new ArrayList<>();
-        try {
-            JSONArray ids = map.optJSONArray(fileId);
-            if (ids != null) {
-                for (int i = 0; i < ids.length(); i++) result.add(ids.getString(i));
-            }
-        } catch (Exception ignored) {}
-        return result;
+        VaultMetadataStore s = store();
+        return s != null ? s.getCollectionIds(fileId) : new ArrayList<>();
     }
 
     public List<VaultFileItem> getFilesInCollection(String collectionId) {
-        JSONObject map = loadFileCollectionsMap();
-        List<VaultFileItem> allFiles = getAllFiles();
-        List<VaultFileItem> result = new ArrayList<>();
-        for (VaultFileItem f : allFiles) {
-            JSONArray ids = map.optJSONArray(f.id);
-            if (ids != null) {
-                for (int i = 0; i < ids.length(); i++) {
-                    try {
-                        if (collectionId.equals(ids.getString(i))) { result.add(f); break; }
-                    } catch (Exception ignored) {}
-                }
-            }
-        }
-        return result;
+        VaultMetadataStore s = store();
+        return s != null ? s.getInCollection(collectionId) : new ArrayList<>();
     }
 
     // ─── Wipe All Files ──────────────────────────────────────────
@@ -1041,15 +1249,24 @@ public class MediaVaultRepository {
      * Used by auto-destroy and manual wipe flows.
      */
     public void wipeAllFiles() {
-        List<VaultFileItem> files = loadFiles();
-        for (VaultFileItem item : files) {
-            File encFile = new File(getFilesDir(), item.vaultFileName);
-            MediaVaultCrypto.secureDelete(encFile);
-            if (item.thumbnailPath != null && !item.thumbnailPath.isEmpty()) {
-                MediaVaultCrypto.secureDelete(new File(getThumbsDir(), item.thumbnailPath));
-            }
+        // Works while locked (auto-destroy): wipe by directory, not by metadata
+        File[] encFiles = getFilesDir().listFiles();
+        if (encFiles != null) for (File f : encFiles) MediaVaultCrypto.secureDelete(f);
+        File[] thumbs = getThumbsDir().listFiles();
+        if (thumbs != null) for (File f : thumbs) MediaVaultCrypto.secureDelete(f);
+
+        VaultMetadataStore s = store();
+        if (s != null) {
+            s.clear();
+        } else {
+            MediaVaultCrypto.secureDelete(new File(getVaultRoot(), METADATA_JOURNAL));
         }
-        saveFiles(new ArrayList<>());
+        prefs.edit()
+            .remove(KEY_FILES_JSON)
+            .remove(KEY_FILE_COLLECTIONS_JSON)
+            .remove(KEY_FILE_EXPIRY_JSON)
+            .putInt(KEY_FILE_COUNT, 0)
+            .apply();
         logActivity(new VaultActivityLog(VaultActivityLog.Action.FILE_DELETED, "All files wiped"));
     }
 
@@ -1070,46 +1287,26 @@ public class MediaVaultRepository {
 
     // ─── File Expiry ─────────────────────────────────────────────
 
-    private JSONObject loadFileExpiryMap() {
-        String json = prefs.getString(KEY_FILE_EXPIRY_JSON, "{}");
-        try { return new JSONObject(json); } catch (Exception e) { return new JSONObject(); }
-    }
-
-    private void saveFileExpiryMap(JSONObject map) {
-        prefs.edit().putString(KEY_FILE_EXPIRY_JSON, map.toString()).apply();
-    }
-
     public void setFileExpiry(String fileId, long expiryTimestamp) {
-        JSONObject map = loadFileExpiryMap();
-        try { map.put(fileId, expiryTimestamp); saveFileExpiryMap(map); } catch (Exception ignored) {}
+        VaultMetadataStore s = store();
+        if (s != null) s.setExpiry(fileId, expiryTimestamp);
     }
 
     public long getFileExpiry(String fileId) {
-        JSONObject map = loadFileExpiryMap();
-        return map.optLong(fileId, 0L);
+        VaultMetadataStore s = store();
+        return s != null ? s.getExpiry(fileId) : 0L;
     }
 
     public List<VaultFileItem> getExpiredFiles() {
-        long now = System.currentTimeMillis();
-        JSONObject map = loadFileExpiryMap();
-        List<VaultFileItem> result = new ArrayList<>();
-        for (VaultFileItem f : getAllFiles()) {
-            long expiry = map.optLong(f.id, 0L);
-            if (expiry > 0 && expiry < now) result.add(f);
-        }
-        return result;
+        VaultMetadataStore s = store();
+        return s != null ? s.getExpiringBetween(1, System.currentTimeMillis() - 1) : new ArrayList<>();
     }
 
     public List<VaultFileItem> getUpcomingExpiryFiles(int daysAhead) {
         long now = System.currentTimeMillis();
         long cutoff = now + java.util.concurrent.TimeUnit.DAYS.toMillis(daysAhead);
-        JSONObject map = loadFileExpiryMap();
-        List<VaultFileItem> result = new ArrayList<>();
-        for (VaultFileItem f : getAllFiles()) {
-            long expiry = map.optLong(f.id, 0L);
-            if (expiry > now && expiry <= cutoff) result.add(f);
-        }
-        return result;
+        VaultMetadataStore s = store();
+        return s != null ? s.getExpiringBetween(now + 1, cutoff) : new ArrayList<>();
     }
 
     // ─── Duplicate Detection ─────────────────────────────────────
@@ -3,9 +3,6 @@ package com.prajwal.myfirstapp.vault;
 
 import com.prajwal.myfirstapp.R;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.os.Handler;
-import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -22,12 +19,17 @@ import java.util.Set;
 
 /**
  * Adapter for displaying vault files in a grid or list view.
- * Decrypts thumbnails asynchronously — never caches unencrypted data to disk.
+ * Thumbnails come from the repository's {@link VaultThumbnailLoader}: decrypted
+ * off the main thread, cached in memory only, and prefetched one screen ahead.
  */
 public class VaultFileGridAdapter extends BaseAdapter {
 
+    private static final int PREFETCH_MIN_CELLS = 12;
+
     private final Context context;
     private final MediaVaultRepository repo;
+    private final VaultThumbnailLoader thumbnailLoader;
+    private int lastBoundPosition = -1;
     private List<VaultFileItem> files;
     private boolean isMultiSelectMode = false;
     private final Set<String> selectedIds = new HashSet<>();
@@ -41,6 +43,7 @@ public class VaultFileGridAdapter extends BaseAdapter {
     public VaultFileGridAdapter(Context context, MediaVaultRepository repo, List<VaultFileItem> files) {
         this.context = context;
         this.repo = repo;
+        this.thumbnailLoader = repo.getThumbnailLoader();
         this.files = new ArrayList<>(files);
     }
 
@@ -147,28 +150,21 @@ public class VaultFileGridAdapter extends BaseAdapter {
             holder.tvTypeIcon.setVisibility(View.VISIBLE);
         }
 
-        // Load thumbnail asynchronously
+        // Load thumbnail (cancels whatever this recycled cell was loading before)
         if (file.thumbnailPath != null && !file.thumbnailPath.isEmpty()) {
-            holder.progressBar.setVisibility(View.VISIBLE);
-            convertView.setTag(R.id.ivFileThumbnail, file.id);
-            final View taggedView = convertView;
-            final String fileId = file.id;
             final ViewHolder finalHolder = holder;
-            final VaultFileItem fileToLoad = file;
-            final Handler mainHandler = new Handler(Looper.getMainLooper());
-
-            new Thread(() -> {
-                Bitmap bitmap = repo.decryptThumbnail(fileToLoad);
-                mainHandler.post(() -> {
-                    finalHolder.progressBar.setVisibility(View.GONE);
-                    Object currentTag = taggedView.getTag(R.id.ivFileThumbnail);
-                    if (fileId.equals(currentTag) && bitmap != null) {
-                        finalHolder.ivThumbnail.setImageBitmap(bitmap);
-                        finalHolder.tvTypeIcon.setVisibility(View.GONE);
-                    }
-                });
-            }).start();
+            boolean hit = thumbnailLoader.load(file, holder, bitmap -> {
+                finalHolder.progressBar.setVisibility(View.GONE);
+                if (bitmap != null) {
+                    finalHolder.ivThumbnail.setImageBitmap(bitmap);
+                    finalHolder.tvTypeIcon.setVisibility(View.GONE);
+                }
+            });
+            if (!hit) holder.progressBar.setVisibility(View.VISIBLE);
+        } else {
+            thumbnailLoader.cancel(holder);
         }
+        prefetchAround(position, parent);
 
         // Multi-select state
         if (isMultiSelectMode && selectedIds.contains(file.id)) {
@@ -190,6 +186,16 @@ public class VaultFileGridAdapter extends BaseAdapter {
         return convertView;
     }
 
+    /** Queue the next screen of cells in the direction of scrolling. */
+    private void prefetchAround(int position, ViewGroup parent) {
+        int screen = Math.max(parent.getChildCount(), PREFETCH_MIN_CELLS);
+        boolean forward = position >= lastBoundPosition;
+        lastBoundPosition = position;
+        int from = forward ? position + 1 : Math.max(0, position - screen);
+        int to = forward ? Math.min(files.size(), position + 1 + screen) : position;
+        if (from < to) thumbnailLoader.prefetch(files.subList(from, to));
+    }
+
     private String getTypeEmoji(VaultFileItem.FileType type) {
         switch (type) {
             case AUDIO: return "🎵";
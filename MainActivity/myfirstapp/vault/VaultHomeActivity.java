@@ -4,7 +4,6 @@ package com.prajwal.myfirstapp.vault;
 import com.prajwal.myfirstapp.R;
 import android.app.AlertDialog;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
@@ -402,11 +401,7 @@ public class VaultHomeActivity extends AppCompatActivity {
                             FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
                     iv.setScaleType(ImageView.ScaleType.CENTER_CROP);
                     coverBox.addView(iv);
-                    final VaultFileItem finalF = f;
-                    new Thread(() -> {
-                        Bitmap b = repo.decryptThumbnail(finalF);
-                        runOnUiThread(() -> { if (b != null) iv.setImageBitmap(b); });
-                    }).start();
+                    repo.getThumbnailLoader().load(f, iv, b -> { if (b != null) iv.setImageBitmap(b); });
                     break;
                 }
             }
@@ -580,11 +575,8 @@ public class VaultHomeActivity extends AppCompatActivity {
         cell.addView(typeIcon);
 
         if (file.thumbnailPath != null && !file.thumbnailPath.isEmpty()) {
-            final VaultFileItem fileToLoad = file;
-            new Thread(() -> {
-                Bitmap b = repo.decryptThumbnail(fileToLoad);
-                runOnUiThread(() -> { if (b != null) { iv.setImageBitmap(b); typeIcon.setVisibility(View.GONE); } });
-            }).start();
+            repo.getThumbnailLoader().load(file, iv,
+                    b -> { if (b != null) { iv.setImageBitmap(b); typeIcon.setVisibility(View.GONE); } });
         }
 
         cell.setOnClickListener(v -> { resetAutoLock(); openFileBrowser(file); });
@@ -661,11 +653,8 @@ public class VaultHomeActivity extends AppCompatActivity {
             }
 
             if (file.thumbnailPath != null && !file.thumbnailPath.isEmpty()) {
-                final VaultFileItem fileToLoad = file;
-                new Thread(() -> {
-                    Bitmap b = repo.decryptThumbnail(fileToLoad);
-                    runOnUiThread(() -> { if (b != null) { iv.setImageBitmap(b); typeIcon.setVisibility(View.GONE); } });
-                }).start();
+                repo.getThumbnailLoader().load(file, iv,
+                        b -> { if (b != null) { iv.setImageBitmap(b); typeIcon.setVisibility(View.GONE); } });
             }
 
             cell.setOnClickListener(v -> { resetAutoLock(); openFileBrowser(file); });
@@ -650,14 +650,14 @@ public class VaultImageEditorActivity extends Activity {
                 fos.write(bytes);
             }
 
-            char[] pin = repo.getSessionPin();
-            if (pin == null) { tempFile.delete(); return false; }
+            MediaVaultCrypto.SessionKey key = repo.getSessionKey();
+            if (key == null) { tempFile.delete(); return false; }
 
             File destFile = new File(repo.getFilesDir(), item.vaultFileName);
             try {
-                MediaVaultCrypto.encryptFile(tempFile, destFile, pin);
+                MediaVaultCrypto.encryptFile(tempFile, destFile, key);
             } finally {
-                java.util.Arrays.fill(pin, '\0');
+                key.wipe();
             }
             item.encryptedSize = destFile.length();
             item.originalSize = bytes.length;
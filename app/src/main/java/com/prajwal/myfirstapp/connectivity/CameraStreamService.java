@@ -12,11 +12,14 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Size;
 import android.view.Surface;
 
 import androidx.annotation.NonNull;
@@ -28,13 +31,27 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Camera Stream Service — captures frames from the phone camera
  * and sends them to the PC as JPEG via UDP.
  *
- * Protocol: Raw JPEG bytes sent to PC on port 37023.
+ * Protocol (port 37023):
+ *   v1 (CAMERA_STREAM:START)   one raw JPEG per datagram; frames that do not
+ *                              fit are skipped and the quality is lowered
+ *   v2 (CAMERA_STREAM:START:2) each JPEG split into sequenced datagrams,
+ *                              see {@link FrameProtocol} for the reassembly spec
  * The PC's services.py receive_camera_stream() decodes and displays them.
+ * A receiver may report CAMERA_STATS:loss=…,echo=… back on the reverse
+ * channel; {@link StreamQualityController} then adapts resolution,
+ * quality and frame rate.
+ *
+ * Pipeline: the camera thread paces frames on the sensor timestamp,
+ * converts the YUV_420_888 image (honouring row and pixel strides) into a
+ * reused NV21 buffer and closes the image right away; a separate encoder
+ * thread compresses into a reused JPEG buffer and sends. If the encoder is
+ * still busy the frame is skipped rather than queued, so latency stays flat.
  *
  * Usage:
  *   CameraStreamService.start(context, serverIp);
@@ -44,31 +61,60 @@ public class CameraStreamService {
 
     private static final String TAG = "CameraStream";
     private static final int STREAM_PORT = 37023;
-    private static final int PREVIEW_WIDTH = 640;
-    private static final int PREVIEW_HEIGHT = 480;
-    private static final int JPEG_QUALITY = 60;
-    private static final int MAX_UDP_SIZE = 60000; // Safe UDP packet size
+    private static final int MAX_UDP_SIZE = 60000; // Safe UDP packet size (v1 frame budget)
+    private static final int V2_FRAME_BUDGET = 256 * 1024;
+    private static final long PACING_SLACK_NS = 2_000_000;
 
     private static CameraStreamService instance;
 
     private Context context;
     private String serverIp;
+    private int protocolVersion = 1;
     private CameraDevice cameraDevice;
     private CameraCaptureSession captureSession;
     private ImageReader imageReader;
     private HandlerThread cameraThread;
     private Handler cameraHandler;
+    private HandlerThread encoderThread;
+    private Handler encoderHandler;
     private DatagramSocket udpSocket;
     private InetAddress serverAddress;
-    private boolean isStreaming = false;
-
-    // Frame rate control
-    private long lastFrameTime = 0;
-    private static final long FRAME_INTERVAL_MS = 66; // ~15 FPS
+    private volatile boolean isStreaming = false;
+
+    // ─── Adaptation ─────────────────────────────────────────────
+    private StreamQualityController controller;
+    private Size[] supportedSizes = new Size[0];
+    private int captureWidth, captureHeight;     // current ImageReader size
+
+    // ─── Frame pacing (sensor clock) ────────────────────────────
+    private long nextFrameNs = 0;
+
+    // ─── Reused buffers ─────────────────────────────────────────
+    private final AtomicBoolean encoderBusy = new AtomicBoolean();
+    private byte[] nv21 = new byte[0];           // handed to the encoder while encoderBusy
+    private byte[] rowScratchU = new byte[0], rowScratchV = new byte[0];
+    private final JpegBuffer jpeg = new JpegBuffer(64 * 1024);
+    private final byte[] datagram = new byte[FrameProtocol.MAX_DATAGRAM];
+    private final DatagramPacket packet = new DatagramPacket(datagram, 0);
+    private int frameId = 0;
+
+    // ─── Stats ──────────────────────────────────────────────────
+    private int framesSent, framesSkipped, framesOversize;
+
+    /** ByteArrayOutputStream whose buffer can be sent without the toByteArray() copy. */
+    private static final class JpegBuffer extends ByteArrayOutputStream {
+        JpegBuffer(int size) { super(size); }
+        byte[] buffer() { return buf; }
+    }
 
     // ─── PUBLIC API ─────────────────────────────────────────────
 
     public static void start(Context ctx, String ip) {
+        start(ctx, ip, 1);
+    }
+
+    /** @param version 1 = one JPEG per datagram, 2 = fragmented ({@link FrameProtocol}) */
+    public static void start(Context ctx, String ip, int version) {
         if (instance != null && instance.isStreaming) {
             Log.w(TAG, "Already streaming");
             return;
@@ -76,6 +122,7 @@ public class CameraStreamService {
         instance = new CameraStreamService();
         instance.context = ctx;
         instance.serverIp = ip;
+        instance.protocolVersion = version >= FrameProtocol.VERSION ? FrameProtocol.VERSION : 1;
         instance.startStreaming();
     }
 
@@ -90,10 +137,19 @@ public class CameraStreamService {
         return instance != null && instance.isStreaming;
     }
 
+    /**
+     * Reverse command CAMERA_STATS:loss=&lt;0..1&gt;,echo=&lt;timestamp&gt;[,…] from the
+     * receiver. Unknown keys are ignored.
+     */
+    public static void onReceiverStats(String args) {
+        CameraStreamService s = instance;
+        if (s != null && s.isStreaming) s.handleStats(args);
+    }
+
     // ─── CAMERA SETUP ───────────────────────────────────────────
 
     private void startStreaming() {
-        Log.i(TAG, "Starting camera stream to " + serverIp + ":" + STREAM_PORT);
+        Log.i(TAG, "Starting camera stream v" + protocolVersion + " to " + serverIp + ":" + STREAM_PORT);
 
         // Check camera permission
         if (ActivityCompat.checkSelfPermission(context, Manifest.permission.CAMERA)
@@ -106,11 +162,20 @@ public class CameraStreamService {
             // Setup UDP socket
             udpSocket = new DatagramSocket();
             serverAddress = InetAddress.getByName(serverIp);
+            packet.setAddress(serverAddress);
+            packet.setPort(STREAM_PORT);
 
-            // Start camera thread
+            controller = new StreamQualityController(StreamQualityController.DEFAULT_LEVEL,
+                    StreamQualityController.LADDER.length - 1,
+                    protocolVersion >= FrameProtocol.VERSION ? V2_FRAME_BUDGET : MAX_UDP_SIZE);
+
+            // Start camera and encoder threads
             cameraThread = new HandlerThread("CameraStreamThread");
             cameraThread.start();
             cameraHandler = new Handler(cameraThread.getLooper());
+            encoderThread = new HandlerThread("CameraEncodeThread");
+            encoderThread.start();
+            encoderHandler = new Handler(encoderThread.getLooper());
 
             // Open camera
             CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
@@ -119,6 +184,9 @@ public class CameraStreamService {
                 Log.e(TAG, "No back camera found!");
                 return;
             }
+            StreamConfigurationMap map = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (map != null) supportedSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
 
             manager.openCamera(cameraId, new CameraDevice.StateCallback() {
                 @Override
@@ -146,38 +214,20 @@ public class CameraStreamService {
         }
     }
 
+    /** (Re)create the reader and session at the controller's current resolution. Camera thread. */
     private void createCaptureSession() {
+        if (cameraDevice == null) return;
         try {
+            closeSession();
+            StreamQualityController.Level level = controller.getLevel();
+            Size size = chooseSize(level.width, level.height);
+            captureWidth = size.getWidth();
+            captureHeight = size.getHeight();
+
             // Create ImageReader for YUV frames
-            imageReader = ImageReader.newInstance(PREVIEW_WIDTH, PREVIEW_HEIGHT,
+            imageReader = ImageReader.newInstance(captureWidth, captureHeight,
                     ImageFormat.YUV_420_888, 2);
-
-            imageReader.setOnImageAvailableListener(reader -> {
-                Image image = null;
-                try {
-                    image = reader.acquireLatestImage();
-                    if (image == null) return;
-
-                    // Frame rate limiting
-                    long now = System.currentTimeMillis();
-                    if (now - lastFrameTime < FRAME_INTERVAL_MS) {
-                        return;
-                    }
-                    lastFrameTime = now;
-
-                    // Convert YUV to JPEG and send
-                    byte[] jpeg = yuvToJpeg(image);
-                    if (jpeg != null && jpeg.length <= MAX_UDP_SIZE) {
-                        sendFrame(jpeg);
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Frame processing error: " + e.getMessage());
-                } finally {
-                    if (image != null) {
-                        image.close();
-                    }
-                }
-            }, cameraHandler);
+            imageReader.setOnImageAvailableListener(this::onImageAvailable, cameraHandler);
 
             Surface surface = imageReader.getSurface();
 
@@ -217,64 +267,199 @@ public class CameraStreamService {
                     CaptureRequest.CONTROL_AE_MODE_ON);
 
             captureSession.setRepeatingRequest(builder.build(), null, cameraHandler);
-            Log.i(TAG, "Streaming at ~15 FPS (" + PREVIEW_WIDTH + "x" + PREVIEW_HEIGHT + ")");
+            Log.i(TAG, "Streaming " + captureWidth + "x" + captureHeight + " at " + controller.getLevel());
         } catch (CameraAccessException e) {
             Log.e(TAG, "Repeating capture error: " + e.getMessage());
         }
     }
 
-    // ─── FRAME CONVERSION ───────────────────────────────────────
+    // ─── FRAME PIPELINE ─────────────────────────────────────────
 
-    private byte[] yuvToJpeg(Image image) {
+    /** Camera thread: pace, convert into the NV21 buffer, hand off to the encoder. */
+    private void onImageAvailable(ImageReader reader) {
+        Image image = null;
         try {
-            Image.Plane[] planes = image.getPlanes();
-            int width = image.getWidth();
-            int height = image.getHeight();
+            image = reader.acquireLatestImage();
+            if (image == null) return;
 
-            // Get Y, U, V planes
-            ByteBuffer yBuffer = planes[0].getBuffer();
-            ByteBuffer uBuffer = planes[1].getBuffer();
-            ByteBuffer vBuffer = planes[2].getBuffer();
+            // Pace on the sensor clock; credit is capped at one interval so a stall cannot cause a burst
+            long ts = image.getTimestamp();
+            long interval = controller.getFrameIntervalNs();
+            if (ts + PACING_SLACK_NS < nextFrameNs) return;
+            nextFrameNs = Math.max(nextFrameNs, ts - interval) + interval;
 
-            int ySize = yBuffer.remaining();
-            int uSize = uBuffer.remaining();
-            int vSize = vBuffer.remaining();
+            if (!encoderBusy.compareAndSet(false, true)) {
+                framesSkipped++;
+                return;
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int size = width * height * 3 / 2;
+            if (nv21.length != size) nv21 = new byte[size];
+            toNv21(image, nv21);
+            image.close();
+            image = null;
 
-            // NV21 format: Y + VU interleaved
-            byte[] nv21 = new byte[ySize + uSize + vSize];
-            yBuffer.get(nv21, 0, ySize);
-            vBuffer.get(nv21, ySize, vSize);
-            uBuffer.get(nv21, ySize + vSize, uSize);
+            encoderHandler.post(() -> encodeAndSend(width, height));
+        } catch (Exception e) {
+            encoderBusy.set(false);
+            Log.e(TAG, "Frame processing error: " + e.getMessage());
+        } finally {
+            if (image != null) {
+                image.close();
+            }
+        }
+    }
 
+    /** Encoder thread. */
+    private void encodeAndSend(int width, int height) {
+        try {
+            if (!isStreaming) return;
+            jpeg.reset();
             YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            yuvImage.compressToJpeg(new Rect(0, 0, width, height), JPEG_QUALITY, out);
-
-            return out.toByteArray();
+            yuvImage.compressToJpeg(new Rect(0, 0, width, height), controller.getQuality(), jpeg);
+            int length = jpeg.size();
+            controller.onFrameEncoded(length);
+
+            if (protocolVersion >= FrameProtocol.VERSION) {
+                FrameProtocol.fragment(FrameProtocol.TYPE_JPEG, frameId++, nowMs(),
+                        jpeg.buffer(), length, datagram, (buf, len) -> {
+                            packet.setData(buf, 0, len);
+                            udpSocket.send(packet);
+                        });
+                framesSent++;
+            } else if (length <= MAX_UDP_SIZE) {
+                packet.setData(jpeg.buffer(), 0, length);
+                udpSocket.send(packet);
+                framesSent++;
+            } else if (framesOversize++ == 0) {
+                // The controller has already lowered the quality for the next frame
+                Log.w(TAG, "Frame of " + length + " bytes exceeds a datagram; lowering quality");
+            }
         } catch (Exception e) {
-            Log.e(TAG, "YUV to JPEG error: " + e.getMessage());
-            return null;
+            Log.e(TAG, "Encode/send error: " + e.getMessage());
+        } finally {
+            encoderBusy.set(false);
         }
     }
 
-    // ─── NETWORK ────────────────────────────────────────────────
+    /**
+     * Copy a YUV_420_888 image into NV21 (Y plane, then interleaved V/U),
+     * honouring each plane's row and pixel stride. Devices that already lay
+     * out chroma as interleaved VU with no row padding take a bulk copy.
+     */
+    private void toNv21(Image image, byte[] out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane[] planes = image.getPlanes();
+
+        // Y
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        if (yRowStride == width) {
+            y.get(out, 0, width * height);
+        } else {
+            for (int row = 0; row < height; row++) {
+                y.position(row * yRowStride);
+                y.get(out, row * width, width);
+            }
+        }
+
+        // Chroma
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uRowStride = planes[1].getRowStride(), uPixelStride = planes[1].getPixelStride();
+        int vRowStride = planes[2].getRowStride(), vPixelStride = planes[2].getPixelStride();
+        int chromaWidth = width / 2, chromaHeight = height / 2;
+        int pos = width * height;
+
+        if (uPixelStride == 2 && vPixelStride == 2 && uRowStride == width && vRowStride == width
+                && v.remaining() == width * chromaHeight - 1 && isInterleavedVu(u, v)) {
+            // V buffer already is VUVU…; the final U byte lives only in the U buffer
+            v.get(out, pos, v.remaining());
+            out[out.length - 1] = u.get(u.limit() - 1);
+            return;
+        }
+
+        if (rowScratchU.length < uRowStride) rowScratchU = new byte[uRowStride];
+        if (rowScratchV.length < vRowStride) rowScratchV = new byte[vRowStride];
+        for (int row = 0; row < chromaHeight; row++) {
+            int uLen = Math.min(uRowStride, u.capacity() - row * uRowStride);
+            int vLen = Math.min(vRowStride, v.capacity() - row * vRowStride);
+            u.position(row * uRowStride);
+            u.get(rowScratchU, 0, uLen);
+            v.position(row * vRowStride);
+            v.get(rowScratchV, 0, vLen);
+            for (int col = 0; col < chromaWidth; col++) {
+                out[pos++] = rowScratchV[col * vPixelStride];
+                out[pos++] = rowScratchU[col * uPixelStride];
+            }
+        }
+    }
 
-    private void sendFrame(byte[] jpeg) {
+    /** True if the U and V planes share memory as NV21 (writing V[1] shows up in U[0]). */
+    private static boolean isInterleavedVu(ByteBuffer u, ByteBuffer v) {
         try {
-            DatagramPacket packet = new DatagramPacket(
-                    jpeg, jpeg.length, serverAddress, STREAM_PORT);
-            udpSocket.send(packet);
+            byte saved = u.get(0);
+            byte probe = (byte) ~saved;
+            v.put(1, probe);
+            boolean shared = u.get(0) == probe;
+            v.put(1, saved);
+            return shared;
         } catch (Exception e) {
-            Log.e(TAG, "UDP send error: " + e.getMessage());
+            return false; // read-only buffers: use the per-row path
         }
     }
 
-    // ─── CLEANUP ────────────────────────────────────────────────
+    // ─── ADAPTATION ─────────────────────────────────────────────
+
+    private void handleStats(String args) {
+        double loss = 0;
+        int latency = -1;
+        for (String pair : args.split(",")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            String key = pair.substring(0, eq).trim();
+            String value = pair.substring(eq + 1).trim();
+            try {
+                if (key.equals("loss")) loss = Double.parseDouble(value);
+                else if (key.equals("echo")) latency = nowMs() - (int) Long.parseLong(value);
+            } catch (NumberFormatException ignored) {}
+        }
+        StreamQualityController.Level before = controller.getLevel();
+        if (!controller.onReport(loss, latency, SystemClock.elapsedRealtime())) return;
+
+        StreamQualityController.Level after = controller.getLevel();
+        Log.i(TAG, "Adapting stream (loss " + loss + ", latency " + latency + " ms): "
+                + before + " → " + after + " [sent " + framesSent + ", skipped " + framesSkipped + "]");
+        if (after.width != before.width || after.height != before.height) {
+            Handler h = cameraHandler;
+            if (h != null) h.post(this::createCaptureSession);
+        }
+    }
 
-    private void stopStreaming() {
-        Log.i(TAG, "Stopping camera stream");
-        isStreaming = false;
+    /** Pick the largest supported size that fits the requested one, else the smallest. */
+    private Size chooseSize(int width, int height) {
+        Size best = null, smallest = null;
+        for (Size s : supportedSizes) {
+            long area = (long) s.getWidth() * s.getHeight();
+            if (smallest == null || area < (long) smallest.getWidth() * smallest.getHeight()) smallest = s;
+            if (s.getWidth() <= width && s.getHeight() <= height
+                    && (best == null || area > (long) best.getWidth() * best.getHeight())) {
+                best = s;
+            }
+        }
+        if (best != null) return best;
+        return smallest != null ? smallest : new Size(width, height);
+    }
+
+    private static int nowMs() {
+        return (int) SystemClock.elapsedRealtime();
+    }
+
+    // ─── CLEANUP ────────────────────────────────────────────────
 
+    private void closeSession() {
         try {
             if (captureSession != null) {
                 captureSession.close();
@@ -283,19 +468,32 @@ public class CameraStreamService {
         } catch (Exception e) { /* ignore */ }
 
         try {
-            if (cameraDevice != null) {
-                cameraDevice.close();
-                cameraDevice = null;
+            if (imageReader != null) {
+                imageReader.close();
+                imageReader = null;
             }
         } catch (Exception e) { /* ignore */ }
+    }
+
+    private void stopStreaming() {
+        Log.i(TAG, "Stopping camera stream");
+        isStreaming = false;
+
+        closeSession();
 
         try {
-            if (imageReader != null) {
-                imageReader.close();
-                imageReader = null;
+            if (cameraDevice != null) {
+                cameraDevice.close();
+                cameraDevice = null;
             }
         } catch (Exception e) { /* ignore */ }
 
+        if (encoderThread != null) {
+            encoderThread.quitSafely();
+            encoderThread = null;
+            encoderHandler = null;
+        }
+
         try {
             if (udpSocket != null && !udpSocket.isClosed()) {
                 udpSocket.close();
@@ -309,7 +507,8 @@ public class CameraStreamService {
             cameraHandler = null;
         }
 
-        Log.i(TAG, "Camera stream stopped");
+        Log.i(TAG, "Camera stream stopped (sent " + framesSent + ", skipped " + framesSkipped
+                + ", oversize " + framesOversize + ")");
     }
 
     // ─── HELPERS ────────────────────────────────────────────────
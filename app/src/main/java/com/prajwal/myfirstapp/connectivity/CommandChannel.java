@@ -0,0 +1,247 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import android.util.Log;
+
+import com.prajwal.myfirstapp.core.SecurityUtils;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Long-lived UDP channel for fire-and-forget commands (port 5005).
+ *
+ * Replaces the old "new Thread + new DatagramSocket per command" path:
+ *   - one bound socket for the lifetime of the channel
+ *   - the laptop address is resolved once and re-resolved only when the IP changes
+ *   - a single daemon sender thread drains a bounded, lock-free queue
+ *
+ * When the queue is full the oldest queued MOUSE_MOVE* command is dropped
+ * (a stale cursor delta is worthless once a newer one is waiting); if no
+ * move is queued, the oldest command of any kind is dropped instead.
+ *
+ * Once the server has acknowledged wire v2 during the handshake
+ * ({@link #setBinaryProtocol}), hot commands (mouse, scroll, key, media)
+ * are framed by {@link BinaryCommandCodec}; everything else, and every
+ * command when v1 is off, uses the text packet.
+ *
+ * Usage:
+ *   channel.setTarget("192.168.1.20");
+ *   channel.send("MOUSE_MOVE:3.0,1.5");      // returns immediately
+ *   boolean ok = channel.sendNow("TASK_ADD:…"); // blocks the caller
+ */
+public class CommandChannel {
+
+    private static final String TAG = "CommandChannel";
+    private static final int    DEFAULT_CAPACITY = 64;
+    private static final String MOVE_PREFIX = "MOUSE_MOVE";
+
+    private final int port;
+    private final int capacity;
+
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private volatile String targetIp;
+    private volatile InetAddress targetAddr;   // cached resolution of targetIp
+    private DatagramSocket socket;             // guarded by this
+
+    // Binary wire v2 (negotiated per server, reset on target change)
+    private volatile boolean binaryEnabled = false;
+    private BinaryCommandCodec codec;          // guarded by binaryLock
+    private String codecAesRef, codecHmacRef;  // keys the codec was built with
+    private final byte[] binaryBuf = new byte[BinaryCommandCodec.MAX_PACKET];
+    private final Object binaryLock = new Object();
+
+    private volatile Thread senderThread;
+    private volatile boolean running = false;
+
+    // ─── Stats (for tuning / debug overlays) ────────────────────
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private final AtomicInteger sentCount    = new AtomicInteger();
+
+    public CommandChannel(String targetIp, int port) {
+        this(targetIp, port, DEFAULT_CAPACITY);
+    }
+
+    public CommandChannel(String targetIp, int port, int capacity) {
+        this.targetIp = targetIp;
+        this.port = port;
+        this.capacity = capacity;
+    }
+
+    // ─── Public API ─────────────────────────────────────────────
+
+    /** Point the channel at a new laptop IP. The address is re-resolved lazily. */
+    public void setTarget(String ip) {
+        if (ip == null || ip.equals(targetIp)) return;
+        targetIp = ip;
+        targetAddr = null;
+        // A different server has to renegotiate the binary protocol
+        setBinaryProtocol(false);
+    }
+
+    /** Enable/disable wire v2 framing for hot commands. */
+    public void setBinaryProtocol(boolean enabled) {
+        binaryEnabled = enabled;
+        if (!enabled) {
+            synchronized (binaryLock) { codec = null; }
+        }
+    }
+
+    public boolean isBinaryProtocol() { return binaryEnabled; }
+
+    /**
+     * Queue a command for asynchronous delivery. Never blocks the caller.
+     * Starts the sender thread on first use.
+     */
+    public void send(String command) {
+        if (command == null) return;
+        if (queued.get() >= capacity) dropOldest();
+        queue.offer(command);
+        queued.incrementAndGet();
+        ensureStarted();
+        LockSupport.unpark(senderThread);
+    }
+
+    /**
+     * Build and send a command on the calling thread over the shared socket.
+     * Returns true if the packet left the device (UDP is best-effort).
+     */
+    public boolean sendNow(String command) {
+        try {
+            transmit(command);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Stop the sender thread and release the socket. Safe to call repeatedly. */
+    public synchronized void close() {
+        running = false;
+        Thread t = senderThread;
+        senderThread = null;
+        if (t != null) LockSupport.unpark(t);
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+        queue.clear();
+        queued.set(0);
+    }
+
+    public int getDroppedCount() { return droppedCount.get(); }
+    public int getSentCount()    { return sentCount.get(); }
+    public int getQueuedCount()  { return queued.get(); }
+
+    // ─── Internal ────────────────────────────────────────────────
+
+    private void ensureStarted() {
+        if (running) return;
+        synchronized (this) {
+            if (running) return;
+            running = true;
+            Thread t = new Thread(this::drainLoop, "CommandChannel");
+            t.setDaemon(true);
+            senderThread = t;
+            t.start();
+        }
+    }
+
+    private void drainLoop() {
+        while (running) {
+            String command = queue.poll();
+            if (command == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            queued.decrementAndGet();
+            try {
+                transmit(command);
+            } catch (Exception e) {
+                Log.w(TAG, "Send failed: " + e.getMessage());
+                // Force a fresh socket/address on the next packet
+                resetSocket();
+            }
+        }
+    }
+
+    /** Drop the oldest queued mouse move, or the oldest command if none is queued. */
+    private void dropOldest() {
+        Iterator<String> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(MOVE_PREFIX)) {
+                it.remove();
+                queued.decrementAndGet();
+                droppedCount.incrementAndGet();
+                return;
+            }
+        }
+        if (queue.poll() != null) {
+            queued.decrementAndGet();
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private void transmit(String command) throws Exception {
+        if (binaryEnabled && transmitBinary(command)) return;
+
+        // ENCRYPTED_CMD|TIMESTAMP|SIGNATURE, built in the thread's reusable buffer
+        ByteBuffer packet = SecurityUtils.encodePacket(command);
+        socket().send(new DatagramPacket(packet.array(), 0, packet.limit(), address(), port));
+        sentCount.incrementAndGet();
+    }
+
+    /** Send via wire v2. Returns false if the command is not in the hot set. */
+    private boolean transmitBinary(String command) throws Exception {
+        synchronized (binaryLock) {
+            String aes = SecurityUtils.AES_KEY;
+            String hmac = SecurityUtils.HMAC_KEY;
+            if (codec == null || aes != codecAesRef || hmac != codecHmacRef) {
+                codec = new BinaryCommandCodec(aes.getBytes(StandardCharsets.UTF_8),
+                        hmac.getBytes(StandardCharsets.UTF_8),
+                        new SecureRandom().nextInt(), SecurityUtils.USE_ENCRYPTION);
+                codecAesRef = aes;
+                codecHmacRef = hmac;
+            }
+            int len;
+            try {
+                len = codec.encode(command, binaryBuf);
+            } catch (NumberFormatException e) {
+                return false; // malformed arguments — let the text path carry it
+            }
+            if (len < 0) return false;
+            socket().send(new DatagramPacket(binaryBuf, 0, len, address(), port));
+        }
+        sentCount.incrementAndGet();
+        return true;
+    }
+
+    private InetAddress address() throws Exception {
+        InetAddress addr = targetAddr;
+        if (addr == null) {
+            addr = InetAddress.getByName(targetIp);
+            targetAddr = addr;
+        }
+        return addr;
+    }
+
+    private synchronized DatagramSocket socket() throws Exception {
+        if (socket == null || socket.isClosed()) socket = new DatagramSocket();
+        return socket;
+    }
+
+    private synchronized void resetSocket() {
+        if (socket != null) socket.close();
+        socket = null;
+        targetAddr = null;
+    }
+}
@@ -2,22 +2,24 @@ package com.prajwal.myfirstapp.connectivity;
 
 
 import com.prajwal.myfirstapp.chat.ChatRepository;
-import com.prajwal.myfirstapp.core.SecurityUtils;
+import com.prajwal.myfirstapp.tasks.TaskSyncEngine;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.OpenableColumns;
 import android.os.Environment;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.net.ServerSocket;
 import java.io.IOException;
 import android.util.Log;
 
@@ -32,6 +34,15 @@ public class ConnectionManager {
     private static final int PORT_WATCHDOG = 5007;
     private static final int PORT_PING = 5008;
     private static final int PORT_BACKEND_SHARING = 5009;
+    // ─── File transfer ──────────────────────────────────────────
+    private static final long PARALLEL_TRANSFER_THRESHOLD = 64L * 1024 * 1024;
+    private static final int  PARALLEL_TRANSFER_STREAMS   = 4;
+    /** Highest transfer protocol the server acknowledged (FILE_TRANSFER:<v>); 1 = legacy. */
+    private volatile int fileTransferVersion = 1;
+    private FileTransferReceiver fileReceiver;
+    // ─── Task delta sync ────────────────────────────────────────
+    /** Server's peer id once it acknowledged task delta sync (TASK_SYNC_PROTOCOL); null = full dumps. */
+    private volatile String taskSyncPeer;
     // ─── Outbox & Reachability───────────────────────────────────
     private SyncOutbox outbox;
     private volatile boolean serverReachable = false;
@@ -39,6 +50,21 @@ public class ConnectionManager {
     private static final long REACHABILITY_CACHE_MS = 3000; // reuse result for 3s
     private static final int  PING_TIMEOUT_MS       = 500;  // fast ping for data ops
     private boolean monitorStarted = false;
+    // ─── Handshake ──────────────────────────────────────────────
+    private static final String KEY_HANDSHAKE_SINCE = "handshake_tasks_since";
+    private static final String EPOCH_TS = "1970-01-01T00:00:00";
+    /** Start of the last handshake sent; becomes the next tasks_since once its SYNC_DELTA is merged. */
+    private volatile String handshakeMark;
+    // ─── Command Channel & Control Session ───────────────────────
+    private final CommandChannel commandChannel;
+    /** Shared socket for pings, requests and one-way control packets (see {@link ControlSession}). */
+    private final ControlSession session = ControlSession.getInstance();
+    /** Runs blocking work (reachability checks, handshake, outbox flushes) in order. */
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ConnectionWorker");
+        t.setDaemon(true);
+        return t;
+    });
 
 
     public interface PingCallback {
@@ -61,6 +87,8 @@ public class ConnectionManager {
     }
 
     // ─── Singleton Pattern ───────────────────────────────────────
+    // One instance per process: it owns the command channel's socket and
+    // sender thread, and the protocol versions negotiated with the server.
     private static ConnectionManager sInstance;
     private static Context sAppContext;
 
@@ -80,8 +108,19 @@ public class ConnectionManager {
         return sInstance;
     }
 
-    public ConnectionManager(String initialIp) {
+    /**
+     * The singleton, pointed at {@code serverIp} (e.g. an Activity's
+     * "server_ip" extra). A null or empty IP keeps the current server.
+     */
+    public static ConnectionManager getInstance(Context context, String serverIp) {
+        ConnectionManager cm = getInstance(context);
+        if (serverIp != null && !serverIp.isEmpty()) cm.setLaptopIp(serverIp);
+        return cm;
+    }
+
+    private ConnectionManager(String initialIp) {
         this.laptopIp = initialIp;
+        this.commandChannel = new CommandChannel(initialIp, PORT_COMMAND);
     }
 
     /**
@@ -97,187 +136,118 @@ public class ConnectionManager {
     public SyncOutbox getOutbox() { return outbox; }
 
     public void setLaptopIp(String ip) {
+        if (ip == null || ip.equals(laptopIp)) return;     // keep what was negotiated
+        String old = this.laptopIp;
         this.laptopIp = ip;
+        commandChannel.setTarget(ip);
+        if (monitorStarted) {
+            session.removeReachabilityListener(old, reachabilityListener);
+            session.addReachabilityListener(ip, PORT_COMMAND, reachabilityListener);
+        }
+        session.getTracker(ip).reset();
+        session.setRequestIds(ip, false);      // must be acknowledged again (SESSION)
+        serverReachable = false;
+        lastReachabilityCheck = 0;
+        fileTransferVersion = 1; // a different server has to acknowledge v2 again
+        if (outbox != null) outbox.setAcksEnabled(false);
+        taskSyncPeer = null;
+        NotifMirrorService.setServerIp(ip);    // back to protocol 1 until NOTIF_PROTOCOL
+        if (sAppContext != null) handshake();   // negotiate with the new server
     }
 
     public String getLaptopIp() {
         return laptopIp;
     }
 
+    /**
+     * Fire-and-forget command. Queued on the shared {@link CommandChannel};
+     * returns immediately without spawning a thread or opening a socket.
+     */
     public void sendCommand(final String command) {
-        new Thread(() -> {
-            try {
-                String timestamp = String.valueOf(System.currentTimeMillis() / 1000L);
-                String processedCommand = command;
-
-                // 1. Check the Toggle
-                if (SecurityUtils.USE_ENCRYPTION) {
-                    processedCommand = SecurityUtils.encryptAES(command);
-                }
-
-                // 2. Prepare the message for signing
-                String messageToSign = processedCommand + "|" + timestamp;
-
-                // 3. Generate HMAC Signature
-                String signature = SecurityUtils.calculateHMAC(messageToSign);
+        commandChannel.send(command);
+    }
 
-                // 4. Final Packet: ENCRYPTED_CMD|TIMESTAMP|SIGNATURE
-                String finalPacket = messageToSign + "|" + signature;
+    /** The long-lived UDP channel used by sendCommand / sendCommandSync. */
+    public CommandChannel getCommandChannel() { return commandChannel; }
 
-                DatagramSocket udpSocket = new DatagramSocket();
-                InetAddress serverAddr = InetAddress.getByName(laptopIp);
-                byte[] buf = finalPacket.getBytes();
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, serverAddr, PORT_COMMAND);
-                udpSocket.send(packet);
-                udpSocket.close();
+    /**
+     * Start accepting files from the laptop on the file port. Handles both
+     * the v2 chunked protocol and the legacy {@code name|size} stream; each
+     * connection gets its own thread. Safe to call more than once.
+     */
+    public synchronized void startFileReceiver(Context context) {
+        if (fileReceiver != null) return;
+        final Context appContext = context.getApplicationContext();
+        Log.i("RE_SYSTEM", "--- STARTING FILE RECEIVER ---");
+
+        // Use Public Documents folder so you can see the files easily
+        File docFolder = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS);
+        File receivedFolder = new File(docFolder, "Received_Files");
+
+        FileTransferReceiver receiver = new FileTransferReceiver(PORT_FILE, receivedFolder,
+                new FileTransferReceiver.Listener() {
+                    @Override
+                    public void onFileReceived(File targetFile) {
+                        Log.i("RE_SYSTEM", "SAVED: " + targetFile.getAbsolutePath());
+
+                        // 1. Tell MediaStore (so it shows in Gallery)
+                        android.media.MediaScannerConnection.scanFile(appContext,
+                                new String[]{targetFile.toString()}, null, null);
+
+                        // 2. Broadcast to Chat Activity (So bubble appears)
+                        android.content.Intent intent = new android.content.Intent("com.prajwal.myfirstapp.CHAT_EVENT");
+                        intent.putExtra("type", "file");
+                        intent.putExtra("content", targetFile.getAbsolutePath()); // Pass full path
+                        androidx.localbroadcastmanager.content.LocalBroadcastManager.getInstance(appContext).sendBroadcast(intent);
+                    }
 
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
+                    @Override
+                    public void onError(String message, Exception e) {
+                        Log.e("RE_SYSTEM", "Transfer Error: " + message, e);
+                    }
+                });
+        try {
+            receiver.start();
+            fileReceiver = receiver;
+        } catch (IOException e) {
+            Log.e("RE_SYSTEM", "File receiver could not bind port " + PORT_FILE, e);
+        }
     }
 
-    public void startFileReceiver(Context context) {
-        new Thread(() -> {
-            Log.i("RE_SYSTEM", "--- STARTING FILE RECEIVER THREAD ---");
-
-            // Use Public Documents folder so you can see the files easily
-            File docFolder = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOCUMENTS);
-            File receivedFolder = new File(docFolder, "Received_Files");
-            if (!receivedFolder.exists()) receivedFolder.mkdirs();
-
-            try (ServerSocket serverSocket = new ServerSocket(5006)) {
-                while (true) {
-                    try (Socket socket = serverSocket.accept()) {
-                        InputStream is = socket.getInputStream();
-
-                        // 1. Read the Header (Byte by byte until newline '\n')
-                        // We can't use BufferedReader because it might steal file bytes!
-                        StringBuilder headerBuilder = new StringBuilder();
-                        int b;
-                        while ((b = is.read()) != -1) {
-                            if (b == '\n') break; // End of header found
-                            headerBuilder.append((char) b);
-                        }
-
-                        String header = headerBuilder.toString();
-                        if (!header.contains("|")) continue; // Invalid header
-
-                        // 2. Parse Filename and Size
-                        String[] parts = header.split("\\|");
-                        String filename = parts[0];
-                        long filesize = Long.parseLong(parts[1]);
-
-                        Log.i("RE_SYSTEM", "Incoming File: " + filename + " Size: " + filesize);
-
-                        // 3. Create the file with the REAL name
-                        File targetFile = new File(receivedFolder, filename);
-
-                        // 4. Write the Data
-                        try (FileOutputStream fos = new FileOutputStream(targetFile)) {
-                            byte[] buffer = new byte[8192];
-                            int bytesRead;
-                            long totalRead = 0;
-
-                            // Read until we get the full file size
-                            while (totalRead < filesize && (bytesRead = is.read(buffer)) != -1) {
-                                fos.write(buffer, 0, bytesRead);
-                                totalRead += bytesRead;
-                            }
-                            Log.i("RE_SYSTEM", "SAVED: " + targetFile.getAbsolutePath());
-
-                            // 👇 ADD THIS BLOCK TO NOTIFY UI 👇
-                            // 1. Tell MediaStore (so it shows in Gallery)
-                            android.media.MediaScannerConnection.scanFile(context,
-                                    new String[]{targetFile.toString()}, null, null);
-
-                            // 2. Broadcast to Chat Activity (So bubble appears)
-                            android.content.Intent intent = new android.content.Intent("com.prajwal.myfirstapp.CHAT_EVENT");
-                            intent.putExtra("type", "file");
-                            intent.putExtra("content", targetFile.getAbsolutePath()); // Pass full path
-                            androidx.localbroadcastmanager.content.LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
-                            // 👆 END ADDITION
-
-                        }
-                    } catch (Exception e) {
-                        Log.e("RE_SYSTEM", "Transfer Error: " + e.getMessage());
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }).start();
+    public synchronized void stopFileReceiver() {
+        if (fileReceiver == null) return;
+        fileReceiver.stop();
+        fileReceiver = null;
     }
 
     // startListening() removed — ReverseCommandListener handles port 6000
 
     public void wakeUpWatchdog(){
-        new Thread(() -> {
-            try {
-                DatagramSocket socket = new DatagramSocket();
-                byte[] buf = "START_MAIN_SERVER".getBytes(); // Matches your watchdog.py command
-                InetAddress address = InetAddress.getByName(this.laptopIp);
-
-                // IMPORTANT: Sending to 5007 (Watchdog Port)
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, address, 5007);
-                socket.send(packet);
-                socket.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
+        session.send(laptopIp, PORT_WATCHDOG, "START_MAIN_SERVER", false); // Matches your watchdog.py command
     }
 
 
     public void testConnection(PingCallback callback) {
-        new Thread(() -> {
-            long startTime = System.currentTimeMillis();
-            try {
-                DatagramSocket socket = new DatagramSocket();
-                socket.setSoTimeout(2000); // 2 second timeout
-
-                // Send PING
-                String message = "PING";
-                byte[] sendBuf = message.getBytes();
-                InetAddress address = InetAddress.getByName(laptopIp);
-                DatagramPacket sendPacket = new DatagramPacket(sendBuf, sendBuf.length, address, PORT_COMMAND);
-                socket.send(sendPacket);
-
-                // Wait for PONG response
-                byte[] receiveBuf = new byte[1024];
-                DatagramPacket receivePacket = new DatagramPacket(receiveBuf, receiveBuf.length);
-                socket.receive(receivePacket);
-
-                String response = new String(receivePacket.getData(), 0, receivePacket.getLength()).trim();
-                if (response.equals("PONG")) {
-                    long responseTime = System.currentTimeMillis() - startTime;
-                    socket.close();
-                    if (callback != null) callback.onSuccess(responseTime);
-                } else {
-                    socket.close();
-                    if (callback != null) callback.onFailure();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+        session.request(laptopIp, PORT_COMMAND, "PING", false, "PONG", 2000, new ControlSession.ResponseCallback() {
+            @Override public void onResponse(String reply, long rttMs) {
+                if (callback != null) callback.onSuccess(rttMs);
+            }
+            @Override public void onTimeout() {
                 if (callback != null) callback.onFailure();
             }
-        }).start();
+        });
     }
 
+    /** {@code onSuccess} runs on the session thread once the packet has been sent. */
     public void toggleServerState(boolean isRunning, Runnable onSuccess) {
-        new Thread(() -> {
-            try {
-                DatagramSocket socket = new DatagramSocket();
-                // Send to watchdog server on port 5007
-                String message = isRunning ? "STOP_MAIN_SERVER" : "START_MAIN_SERVER";
-                byte[] buf = message.getBytes();
-                InetAddress address = InetAddress.getByName(laptopIp);
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, address, PORT_WATCHDOG);
-                socket.send(packet);
-                socket.close();
-                if (onSuccess != null) onSuccess.run();
-            } catch (Exception e) { e.printStackTrace(); }
-        }).start();
+        // Send to watchdog server on port 5007
+        String message = isRunning ? "STOP_MAIN_SERVER" : "START_MAIN_SERVER";
+        session.send(laptopIp, PORT_WATCHDOG, message, false, onSuccess);
+    }
+
+    /** RTT / loss / reachability estimate for the current server. */
+    public RttTracker getRttTracker() {
+        return session.getTracker(laptopIp);
     }
 
     //
@@ -290,171 +260,175 @@ public class ConnectionManager {
 
     // 2. Add this Function inside ConnectionManager class
     public void fetchLaptopFiles(FileListCallback callback) {
-        new Thread(() -> {
-            try {
-                DatagramSocket socket = new DatagramSocket();
-                socket.setSoTimeout(3000); // Wait up to 3 seconds for reply
-
-                // --- A. Prepare the Secure Command ---
-                String command = "REQUEST_FILE_LIST";
-                String timestamp = String.valueOf(System.currentTimeMillis() / 1000L);
-                String processedCommand = command;
+        // Signed command; the reply comes back to the session socket
+        session.request(laptopIp, PORT_COMMAND, "REQUEST_FILE_LIST", true, "FILE_LIST:", 3000,
+                new ControlSession.ResponseCallback() {
+                    @Override public void onResponse(String reply, long rttMs) {
+                        String listData = reply.substring(10); // Remove "FILE_LIST:" prefix
+                        if (callback != null) callback.onReceived(listData);
+                    }
+                    @Override public void onTimeout() {
+                        if (callback != null) callback.onError();
+                    }
+                });
+    }
 
-                // Apply Encryption if enabled
-                if (SecurityUtils.USE_ENCRYPTION) {
-                    processedCommand = SecurityUtils.encryptAES(command);
-                }
+    /**
+     * Paged directory listings from the laptop, cached per path (see
+     * {@link DirectoryListing}). Listener calls run on {@code delivery}.
+     */
+    public DirectoryListing newDirectoryListing(Executor delivery) {
+        return new DirectoryListing(laptopIp, PORT_COMMAND, delivery);
+    }
 
-                // Sign the message
-                String messageToSign = processedCommand + "|" + timestamp;
-                String signature = SecurityUtils.calculateHMAC(messageToSign);
-                String finalPacket = messageToSign + "|" + signature;
+    /**
+     * Find servers on the LAN; the list comes back once the scan settles
+     * (see {@link ServerDiscovery}). Use the overload with a
+     * {@link ServerDiscovery.Listener} to get each server as it answers.
+     */
+    public void discoverServers(DiscoveryCallback callback) {
+        discoverServers(sAppContext, new ServerDiscovery.Listener() {
+            @Override public void onServerFound(String ip) { }
+            @Override public void onFinished(java.util.List<String> servers) {
+                Log.i("ConnectionManager", "Discovery complete. Found " + servers.size() + " server(s)");
+                if (callback != null) callback.onServersFound(servers);
+            }
+        });
+    }
 
-                // --- B. Send to Laptop ---
-                InetAddress serverAddr = InetAddress.getByName(laptopIp);
-                byte[] buf = finalPacket.getBytes();
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, serverAddr, PORT_COMMAND);
-                socket.send(packet);
+    /** {@code context} (may be null) gives the last known server to probe first. */
+    public ServerDiscovery.Scan discoverServers(Context context, ServerDiscovery.Listener listener) {
+        return ServerDiscovery.getInstance().scan(context, listener);
+    }
 
-                // --- C. Listen for the List ---
-                byte[] recvBuf = new byte[8192]; // Big buffer for long file lists
-                DatagramPacket recvPacket = new DatagramPacket(recvBuf, recvBuf.length);
-                socket.receive(recvPacket);
+    /** Progress of a Wi-Fi file transfer. Callbacks run on background threads. */
+    public interface TransferListener {
+        void onStart();
+        void onProgress(long bytesDone, long totalBytes, long bytesPerSecond);
+        void onComplete();
+        void onError(String message);
+    }
 
-                String response = new String(recvPacket.getData(), 0, recvPacket.getLength()).trim();
+    public void sendFileToLaptop(Context context, Uri uri, Runnable onStart, Runnable onComplete, Runnable onError) {
+        sendFileToLaptop(context, uri, new TransferListener() {
+            @Override public void onStart()           { if (onStart != null) onStart.run(); }
+            @Override public void onProgress(long done, long total, long rate) { }
+            @Override public void onComplete()        { if (onComplete != null) onComplete.run(); }
+            @Override public void onError(String msg) { if (onError != null) onError.run(); }
+        });
+    }
 
-                // Check if it's the file list
-                if (response.startsWith("FILE_LIST:")) {
-                    String listData = response.substring(10); // Remove "FILE_LIST:" prefix
-                    if (callback != null) callback.onReceived(listData);
+    /**
+     * Send a file to the laptop. Uses transfer v2 (checksummed chunks, resume
+     * after a dropped connection, parallel streams for large files) once the
+     * server has acknowledged it; otherwise, or when the URI cannot be opened
+     * for random access, falls back to the legacy single-stream protocol.
+     */
+    public void sendFileToLaptop(Context context, Uri uri, TransferListener listener) {
+        new Thread(() -> {
+            listener.onStart();
+            String name = "file";
+            long size = -1;
+            try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    int nameIdx = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                    int sizeIdx = cursor.getColumnIndex(OpenableColumns.SIZE);
+                    if (nameIdx >= 0 && cursor.getString(nameIdx) != null) name = cursor.getString(nameIdx);
+                    if (sizeIdx >= 0 && !cursor.isNull(sizeIdx)) size = cursor.getLong(sizeIdx);
+                } else {
+                    Log.e("FileTransfer", "Could not query file metadata for URI: " + uri);
+                    listener.onError("Could not read file details");
+                    return;
                 }
-
-                socket.close();
-
             } catch (Exception e) {
-                e.printStackTrace();
-                if (callback != null) callback.onError();
+                Log.e("FileTransfer", "Metadata query failed: " + e.getMessage(), e);
+                listener.onError("Could not read file details");
+                return;
             }
-        }).start();
-    }
-
-    public void discoverServers(DiscoveryCallback callback) {
-        new Thread(() -> {
-            java.util.Set<String> discoveredIPs = new java.util.HashSet<>();
-            DatagramSocket listenSocket = null;
-            DatagramSocket sendSocket = null;
 
             try {
-                // Create listening socket on port 37020
-                listenSocket = new DatagramSocket(null);
-                listenSocket.setReuseAddress(true);
-                listenSocket.bind(new java.net.InetSocketAddress(37020));
-                listenSocket.setSoTimeout(500); // Short timeout for frequent checks
-
-                // Send broadcast discovery
-                sendSocket = new DatagramSocket();
-                sendSocket.setBroadcast(true);
-                byte[] sendBuf = "DISCOVERY_REQUEST".getBytes();
-                InetAddress broadcast = InetAddress.getByName("255.255.255.255");
-                DatagramPacket sendPacket = new DatagramPacket(sendBuf, sendBuf.length, broadcast, PORT_WATCHDOG);
-                sendSocket.send(sendPacket);
-                sendSocket.close();
-
-                System.out.println("Discovery broadcast sent, listening on port 37020...");
-
-                // Listen for 3 seconds total
-                long endTime = System.currentTimeMillis() + 3000;
-                byte[] receiveBuf = new byte[1024];
-
-                while (System.currentTimeMillis() < endTime) {
-                    try {
-                        DatagramPacket receivePacket = new DatagramPacket(receiveBuf, receiveBuf.length);
-                        listenSocket.receive(receivePacket);
-
-                        String response = new String(receivePacket.getData(), 0, receivePacket.getLength()).trim();
-                        String senderIP = receivePacket.getAddress().getHostAddress();
-
-                        System.out.println("Received: '" + response + "' from " + senderIP);
-
-                        if (response.equals("LAPTOP_IP_FOUND") || response.equals("LAPTOP_SERVER_ACTIVE")) {
-                            discoveredIPs.add(senderIP);
-                            System.out.println("Added server: " + senderIP);
-                        }
-                    } catch (java.net.SocketTimeoutException e) {
-                        // Short timeout, continue loop
-                    }
+                if (fileTransferVersion >= FileTransferProtocol.VERSION && sendFileV2(context, uri, name, size, listener)) {
+                    listener.onComplete();
+                    return;
                 }
-
-                listenSocket.close();
-
-                System.out.println("Discovery complete. Found " + discoveredIPs.size() + " server(s)");
-
-                java.util.List<String> servers = new java.util.ArrayList<>(discoveredIPs);
-                if (callback != null) callback.onServersFound(servers);
-
+                sendFileLegacy(context, uri, name, size, listener);
+                listener.onComplete();
             } catch (Exception e) {
-                System.err.println("Discovery error: " + e.getMessage());
-                e.printStackTrace();
-                if (listenSocket != null && !listenSocket.isClosed()) listenSocket.close();
-                if (sendSocket != null && !sendSocket.isClosed()) sendSocket.close();
-                if (callback != null) callback.onServersFound(new java.util.ArrayList<>());
+                Log.e("FileTransfer", "Transfer failed: " + e.getMessage(), e);
+                listener.onError(e.getMessage() != null ? e.getMessage() : "Transfer failed");
             }
         }).start();
     }
 
-    public void sendFileToLaptop(Context context, Uri uri, Runnable onStart, Runnable onComplete, Runnable onError) {
-        new Thread(() -> {
+    /** Returns false if the URI is not seekable (caller falls back to legacy). */
+    private boolean sendFileV2(Context context, Uri uri, String name, long size,
+                               TransferListener listener) throws IOException {
+        android.os.ParcelFileDescriptor pfd;
+        try {
+            pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (Exception e) {
+            Log.w("FileTransfer", "No file descriptor for " + uri + ", using legacy transfer");
+            return false;
+        }
+        if (pfd == null) return false;
+        try (android.os.ParcelFileDescriptor fd = pfd;
+             java.io.FileInputStream fis = new java.io.FileInputStream(fd.getFileDescriptor())) {
+            java.nio.channels.FileChannel channel = fis.getChannel();
+            long statSize = fd.getStatSize();
+            if (statSize >= 0) size = statSize;
+            if (size < 0) return false;
+
+            // Same URI, size and mtime = same content, so the receiver's partial file can be resumed
+            long mtime = 0;
             try {
-                if (onStart != null) onStart.run();
-
-                InputStream input = context.getContentResolver().openInputStream(uri);
-                if (input == null) {
-                    Log.e("FileTransfer", "Failed to open input stream for URI: " + uri);
-                    if (onError != null) onError.run();
-                    return;
-                }
+                mtime = android.system.Os.fstat(fd.getFileDescriptor()).st_mtime;
+            } catch (android.system.ErrnoException e) {
+                Log.w("FileTransfer", "fstat failed for " + uri + ": " + e.getMessage());
+            }
+            String transferId = FileTransferProtocol.transferId(name, size, uri + "\n" + mtime);
+            int streams = size >= PARALLEL_TRANSFER_THRESHOLD ? PARALLEL_TRANSFER_STREAMS : 1;
+            FileTransferSender sender = new FileTransferSender(laptopIp, PORT_FILE, channel,
+                    transferId, name, size, FileTransferProtocol.DEFAULT_CHUNK_SIZE, streams,
+                    listener::onProgress);
+            sender.run();
+            Log.i("FileTransfer", "Sent " + name + " (" + size + " bytes, "
+                    + sender.getChunksSent() + " chunks on the wire, " + streams + " streams)");
+            return true;
+        }
+    }
 
-                try (Socket socket = new Socket(laptopIp, PORT_FILE);
-                     OutputStream output = socket.getOutputStream()) {
-
-                    socket.setSoTimeout(10000);
-
-                    Cursor cursor = null;
-                    try {
-                        cursor = context.getContentResolver().query(uri, null, null, null, null);
-                        if (cursor != null && cursor.moveToFirst()) {
-                            int nameIdx = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                            int sizeIdx = cursor.getColumnIndex(OpenableColumns.SIZE);
-                            String name = (nameIdx >= 0) ? cursor.getString(nameIdx) : "file";
-                            long size = (sizeIdx >= 0) ? cursor.getLong(sizeIdx) : 0;
-
-                            String header = name + "|" + size + "\n";
-                            output.write(header.getBytes("UTF-8"));
-                            output.flush();
-
-                            Thread.sleep(200);
-
-                            byte[] buffer = new byte[8192];
-                            int bytesRead;
-                            while ((bytesRead = input.read(buffer)) != -1) {
-                                output.write(buffer, 0, bytesRead);
-                            }
-                            output.flush();
-                            if (onComplete != null) onComplete.run();
-                        } else {
-                            Log.e("FileTransfer", "Could not query file metadata for URI: " + uri);
-                            if (onError != null) onError.run();
-                        }
-                    } finally {
-                        if (cursor != null) cursor.close();
-                        input.close();
+    private void sendFileLegacy(Context context, Uri uri, String name, long size,
+                                TransferListener listener) throws Exception {
+        try (InputStream input = context.getContentResolver().openInputStream(uri)) {
+            if (input == null) throw new IOException("Failed to open input stream for URI: " + uri);
+            try (Socket socket = new Socket(laptopIp, PORT_FILE);
+                 OutputStream output = socket.getOutputStream()) {
+                socket.setSoTimeout(10000);
+
+                String header = name + "|" + Math.max(size, 0) + "\n";
+                output.write(header.getBytes("UTF-8"));
+                output.flush();
+
+                // v1 servers read the header with a separate recv()
+                Thread.sleep(200);
+
+                byte[] buffer = new byte[64 * 1024];
+                int bytesRead;
+                long sent = 0;
+                long startedAt = System.currentTimeMillis();
+                long lastReport = 0;
+                while ((bytesRead = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, bytesRead);
+                    sent += bytesRead;
+                    long now = System.currentTimeMillis();
+                    if (now - lastReport >= FileTransferSender.PROGRESS_INTERVAL_MS) {
+                        lastReport = now;
+                        listener.onProgress(sent, size, sent * 1000 / Math.max(1, now - startedAt));
                     }
                 }
-            } catch (Exception e) {
-                Log.e("FileTransfer", "Transfer failed: " + e.getMessage(), e);
-                if (onError != null) onError.run();
+                output.flush();
             }
-        }).start();
+        }
     }
 
     /**
@@ -478,23 +452,7 @@ public class ConnectionManager {
      * Note: UDP is best-effort; "true" means the packet left the device.
      */
     public boolean sendCommandSync(String command) {
-        try {
-            String timestamp = String.valueOf(System.currentTimeMillis() / 1000L);
-            String processed = SecurityUtils.USE_ENCRYPTION
-                    ? SecurityUtils.encryptAES(command) : command;
-            String msgToSign = processed + "|" + timestamp;
-            String signature = SecurityUtils.calculateHMAC(msgToSign);
-            String packet    = msgToSign + "|" + signature;
-
-            DatagramSocket udpSocket = new DatagramSocket();
-            InetAddress serverAddr = InetAddress.getByName(laptopIp);
-            byte[] buf = packet.getBytes();
-            udpSocket.send(new DatagramPacket(buf, buf.length, serverAddr, PORT_COMMAND));
-            udpSocket.close();
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
+        return commandChannel.sendNow(command);
     }
 
     /**
@@ -503,11 +461,16 @@ public class ConnectionManager {
      * If the server is reachable the packet is sent immediately.
      * Otherwise the command is saved to the outbox and will be
      * replayed automatically when the server comes back online.
+     * Once the server acknowledges outbox deliveries every data command
+     * goes through the outbox, so it stays queued until acknowledged.
      */
     public void sendDataCommand(Context context, String command) {
         if (outbox == null) initOutbox(context);
-        new Thread(() -> {
-            if (isServerReachable()) {
+        worker.execute(() -> {
+            if (outbox.isAcksEnabled()) {
+                outbox.enqueue(command);
+                if (isServerReachable()) outbox.flush(this, null);
+            } else if (isServerReachable()) {
                 boolean sent = sendCommandSync(command);
                 if (!sent) outbox.enqueue(command);
             } else {
@@ -515,93 +478,214 @@ public class ConnectionManager {
                 Log.w("ConnectionManager",
                         "Offline — queued: " + command.substring(0, Math.min(60, command.length())));
             }
-        }).start();
+        });
     }
 
     /**
      * Check whether the PC server is currently reachable.
-     * Result is cached for REACHABILITY_CACHE_MS to avoid flooding the network.
+     * Any answer on the control session within REACHABILITY_CACHE_MS counts;
+     * otherwise one PING is sent (joining the keepalive ping if one is in
+     * flight) and its result cached for REACHABILITY_CACHE_MS.
+     * Blocks for up to the ping timeout; never call on the main thread.
      */
     public boolean isServerReachable() {
         long now = System.currentTimeMillis();
+        RttTracker tracker = session.getTracker(laptopIp);
+        if (now - tracker.getLastSuccessMs() < REACHABILITY_CACHE_MS) {
+            return serverReachable = true;
+        }
         if (now - lastReachabilityCheck < REACHABILITY_CACHE_MS) {
             return serverReachable;
         }
         lastReachabilityCheck = now;
-        try {
-            DatagramSocket socket = new DatagramSocket();
-            socket.setSoTimeout(PING_TIMEOUT_MS);
-            byte[] sendBuf = "PING".getBytes();
-            InetAddress address = InetAddress.getByName(laptopIp);
-            socket.send(new DatagramPacket(sendBuf, sendBuf.length, address, PORT_COMMAND));
-            byte[] recvBuf = new byte[16];
-            socket.receive(new DatagramPacket(recvBuf, recvBuf.length));
-            socket.close();
-            serverReachable = true;
-        } catch (Exception e) {
-            serverReachable = false;
-        }
+        long timeout = Math.max(PING_TIMEOUT_MS, tracker.getTimeoutMs());
+        serverReachable = session.requestSync(laptopIp, PORT_COMMAND, "PING", false, "PONG", timeout) != null;
         return serverReachable;
     }
 
     /**
      * Perform the "State Exchange" handshake.
      *
-     * Sends SYNC_HANDSHAKE:tasks_since=<lastModifiedTs>,chat_since=<epochMs>
+     * Sends SYNC_HANDSHAKE:tasks_since=<lastModifiedTs>,chat_since=<epochMs>,wire=<v>,ft=<v>,outbox=<v>,tdelta=<v>,preview=<v>,rauth=1,rid=1,notif=<v>
      * The server replies with SYNC_DELTA:{...} containing tasks and chat deltas.
+     * A server that supports the binary wire protocol also answers with the
+     * reverse command WIRE_PROTOCOL:<v>; older servers ignore the field and
+     * the text protocol stays in use. Likewise FILE_TRANSFER:<v> enables
+     * file transfer v2 (see {@link FileTransferProtocol}), and OUTBOX:<v>
+     * acknowledged, batched outbox flushes (see {@link SyncOutbox}), and
+     * TASK_SYNC_PROTOCOL:<v>,<peerId> incremental task sync
+     * (see {@link com.prajwal.myfirstapp.tasks.TaskSyncEngine}). preview=<v>
+     * needs no answer: {@link PreviewReceiver} accepts both the legacy and the
+     * binary screen preview datagrams. rauth=1 asks the server to sign its
+     * reverse commands the way we sign ours; after the first signed one
+     * {@link ReverseCommandListener} drops unsigned packets. rid=1 offers
+     * request ids on the {@link ControlSession}; the server answers SESSION:<v>.
+     * notif=<v> offers batched notification mirroring with cached icons
+     * (see {@link NotificationPipeline}); the server answers NOTIF_PROTOCOL:<v>.
      *
      * @param context        app context
      * @param lastModifiedTs ISO-8601 timestamp of the most-recently synced task,
      *                       or "1970-01-01T00:00:00" to fetch everything.
      */
     public void performHandshake(Context context, String lastModifiedTs) {
+        performHandshake(context, lastModifiedTs, null);
+    }
+
+    private void performHandshake(Context context, String lastModifiedTs, Runnable onSent) {
         if (outbox == null) initOutbox(context);
         // Include chat sync timestamp if available
         ChatRepository chatRepo = new ChatRepository(context);
         long chatSince = chatRepo.getLastSyncTimestamp();
         String cmd = "SYNC_HANDSHAKE:tasks_since=" + lastModifiedTs
-                + ",chat_since=" + chatSince;
-        new Thread(() -> {
+                + ",chat_since=" + chatSince
+                + ",wire=" + BinaryCommandCodec.VERSION
+                + ",ft=" + FileTransferProtocol.VERSION
+                + ",outbox=" + SyncOutbox.PROTOCOL_VERSION
+                + ",tdelta=" + TaskSyncEngine.PROTOCOL_VERSION
+                + ",preview=" + PreviewReceiver.PROTOCOL_VERSION
+                + ",rauth=1"
+                + ",rid=1"
+                + ",notif=" + NotificationPipeline.PROTOCOL_VERSION;
+        worker.execute(() -> {
             if (isServerReachable()) {
-                sendCommandSync(cmd);
+                if (sendCommandSync(cmd) && onSent != null) onSent.run();
                 Log.i("ConnectionManager", "Handshake sent: " + cmd);
             } else {
                 Log.w("ConnectionManager", "Handshake skipped — server unreachable");
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Handshake with the current server, asking for what changed since the
+     * previous handshake. Runs whenever the server becomes reachable (first
+     * contact, after an outage or a server restart) and when the IP changes;
+     * the acks below turn the negotiated features on.
+     *
+     * tasks_since only moves forward in {@link #onHandshakeReply()}: a
+     * handshake that is lost, or whose delta is never merged, is asked for
+     * again from the same point next time.
+     */
+    private void handshake() {
+        SharedPreferences prefs = sAppContext.getSharedPreferences("app_prefs", Context.MODE_PRIVATE);
+        String since = prefs.getString(KEY_HANDSHAKE_SINCE, EPOCH_TS);
+        String now = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US).format(new Date());
+        performHandshake(sAppContext, since, () -> handshakeMark = now);
+    }
+
+    /**
+     * Called once the server's reply to the handshake (reverse command
+     * SYNC_DELTA) has been merged. The next handshake asks only for what
+     * changed after the one it answered.
+     */
+    public void onHandshakeReply() {
+        String mark = handshakeMark;
+        if (mark == null || sAppContext == null) return;
+        handshakeMark = null;
+        sAppContext.getSharedPreferences("app_prefs", Context.MODE_PRIVATE)
+                .edit().putString(KEY_HANDSHAKE_SINCE, mark).apply();
+        Log.i("ConnectionManager", "Handshake delta merged, tasks_since=" + mark);
+    }
+
+    /**
+     * Called when the server acknowledges a wire protocol version
+     * (reverse command WIRE_PROTOCOL:<v>). Hot commands switch to the
+     * binary framing only if the version matches ours.
+     */
+    public void onWireProtocolAck(int version) {
+        boolean supported = version == BinaryCommandCodec.VERSION;
+        commandChannel.setBinaryProtocol(supported);
+        Log.i("ConnectionManager", "Wire protocol " + version
+                + (supported ? " enabled" : " unsupported — staying on text"));
+    }
+
+    /**
+     * Called when the server acknowledges a file transfer protocol version
+     * (reverse command FILE_TRANSFER:<v>). Until then sendFileToLaptop uses
+     * the legacy single-stream protocol.
+     */
+    public void onFileTransferAck(int version) {
+        fileTransferVersion = Math.min(version, FileTransferProtocol.VERSION);
+        Log.i("ConnectionManager", "File transfer protocol v" + fileTransferVersion);
     }
 
-    private volatile boolean monitorRunning = false;
+    /**
+     * Called when the server acknowledges the outbox protocol (reverse
+     * command OUTBOX:<v>). Anything queued while it was unknown is flushed
+     * right away with per-command acks.
+     */
+    public void onOutboxAck(int version) {
+        if (outbox == null) return;
+        boolean supported = version >= SyncOutbox.PROTOCOL_VERSION;
+        outbox.setAcksEnabled(supported);
+        Log.i("ConnectionManager", "Outbox protocol " + version
+                + (supported ? " enabled" : " unsupported — unacknowledged flush"));
+        if (supported && outbox.getPendingCount() > 0) outbox.flush(this, null);
+    }
+
+    /**
+     * Called when the server acknowledges task delta sync (reverse command
+     * TASK_SYNC_PROTOCOL:<v>,<peerId>). Until then tasks travel as full
+     * TASKS_SYNC lists.
+     */
+    public void onTaskSyncAck(int version, String peerId) {
+        boolean supported = version >= TaskSyncEngine.PROTOCOL_VERSION && peerId != null && !peerId.isEmpty();
+        taskSyncPeer = supported ? peerId : null;
+        Log.i("ConnectionManager", "Task delta sync " + version
+                + (supported ? " enabled (peer " + peerId + ")" : " unsupported — full lists"));
+    }
+
+    /** Peer id of the server for task delta sync, or null if it only sends full lists. */
+    public String getTaskSyncPeer() { return taskSyncPeer; }
+
+    /**
+     * Called when the server acknowledges request ids on the control
+     * session (reverse command SESSION:<v>). Until then replies are matched
+     * by sender and reply prefix.
+     */
+    public void onSessionAck(int version) {
+        boolean supported = version >= 1;
+        session.setRequestIds(laptopIp, supported);
+        Log.i("ConnectionManager", "Session request ids " + (supported ? "enabled" : "unsupported"));
+    }
+
+    /** Reverse command OUTBOX_ACK:<seq>[,<seq>…]. */
+    public void onOutboxDelivered(String seqList) {
+        if (outbox != null) outbox.onAck(seqList);
+    }
 
     /**
-     * Background thread: pings the server every 5 seconds.
-     * When the server transitions from unreachable → reachable,
-     * the outbox is flushed automatically.
+     * The control session pings the server every {@link ControlSession#TICK_MS}.
+     * When it goes from unreachable → reachable the handshake is (re)sent
+     * and the outbox is flushed.
      */
+    private final ControlSession.ReachabilityListener reachabilityListener = (host, reachable) -> {
+        if (!host.equals(laptopIp)) return;    // late event for the previous server
+        serverReachable = reachable;
+        lastReachabilityCheck = System.currentTimeMillis();
+        if (!reachable) return;
+        if (sAppContext != null) handshake();
+        if (outbox == null) return;
+        // Flushing checks reachability itself, which must not run on the session thread
+        worker.execute(() -> {
+            int pendingCount = outbox.getPendingCount();
+            if (pendingCount > 0) {
+                Log.i("ConnectionManager",
+                        "Server back online — flushing outbox (" + pendingCount + " items)");
+                outbox.flush(this, null);
+            }
+        });
+    };
+
     private void startConnectionMonitor() {
         if (monitorStarted) return;
         monitorStarted = true;
-        monitorRunning = true;
-        new Thread(() -> {
-            while (monitorRunning) {
-                boolean was = serverReachable;
-                lastReachabilityCheck = 0;
-                boolean now = isServerReachable();
-
-                if (!was && now && outbox != null && outbox.getPendingCount() > 0) {
-                    Log.i("ConnectionManager",
-                            "Server back online — flushing outbox ("
-                            + outbox.getPendingCount() + " items)");
-                    outbox.flush(this, null);
-                }
-                try { Thread.sleep(5000); } catch (InterruptedException e) { break; }
-            }
-        }, "ConnectionMonitor").start();
+        session.addReachabilityListener(laptopIp, PORT_COMMAND, reachabilityListener);
     }
 
     /** Stop the background connection monitor. Call from onDestroy(). */
     public void stopConnectionMonitor() {
-        monitorRunning = false;
+        session.removeReachabilityListener(laptopIp, reachabilityListener);
         monitorStarted = false;
     }
 }
\ No newline at end of file
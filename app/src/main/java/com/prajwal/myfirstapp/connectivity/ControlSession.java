@@ -0,0 +1,505 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import android.util.Log;
+
+import com.prajwal.myfirstapp.core.SecurityUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One multiplexed UDP session to the PC for everything that is not a
+ * hot-path command: request/response calls (PING, REQUEST_FILE_LIST …),
+ * one-way control packets (watchdog, notification mirror, heartbeats) and
+ * keepalive.
+ *
+ * A single non-blocking DatagramChannel and Selector serve the whole
+ * process on one daemon thread ("ControlSession"); callers never open
+ * sockets or start threads. Requests are tracked in a pending table with
+ * a deadline each:
+ *   - once the server has acknowledged request ids (SESSION:1, see
+ *     ConnectionManager.performHandshake) a request goes out as
+ *     {@code REQ:<id>|<command>} and its reply {@code RES:<id>|<reply>} is
+ *     matched by id and sender address;
+ *   - otherwise a reply is matched to the oldest pending request from the
+ *     same address whose expected reply prefix it starts with.
+ * Concurrent PINGs to the same host share one packet.
+ *
+ * Every answered or timed-out request feeds the host's {@link RttTracker},
+ * so keepalive pings, reachability checks and other requests all
+ * contribute to one RTT / reachability estimate. Hosts with a reachability
+ * listener are pinged every {@link #TICK_MS}; the registered heartbeat
+ * goes out on the same tick.
+ *
+ * Callbacks and listeners run on the session thread and must not block.
+ */
+public final class ControlSession {
+
+    private static final String TAG = "ControlSession";
+
+    public static final long TICK_MS = 2000;
+    private static final int MAX_DATAGRAM = 65507;
+    private static final String PING = "PING";
+    private static final String PONG = "PONG";
+    private static final String REQ_PREFIX = "REQ:";
+    private static final String RES_PREFIX = "RES:";
+
+    public interface ResponseCallback {
+        void onResponse(String reply, long rttMs);
+        /** No reply within the timeout, or the packet could not be sent. */
+        void onTimeout();
+    }
+
+    public interface ReachabilityListener {
+        void onReachabilityChanged(String host, boolean reachable);
+    }
+
+    private static final class Pending {
+        final int id;
+        InetAddress addr;                  // set on the session thread when sent
+        final String host;
+        final String replyPrefix;
+        final boolean ping;
+        final long sentNs;
+        final long deadlineNs;
+        final List<ResponseCallback> callbacks = new ArrayList<>(1);
+
+        Pending(int id, String host, String replyPrefix, boolean ping, long timeoutMs) {
+            this.id = id;
+            this.host = host;
+            this.replyPrefix = replyPrefix;
+            this.ping = ping;
+            this.sentNs = System.nanoTime();
+            this.deadlineNs = sentNs + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        }
+    }
+
+    /**
+     * A packet waiting for the session thread; {@code request} is null for
+     * one-way sends, which may carry an {@code onSent} callback instead.
+     */
+    private static final class Outgoing {
+        final String host;
+        final int port;
+        final String command;
+        final boolean signed;
+        final Pending request;
+        final Runnable onSent;
+
+        Outgoing(String host, int port, String command, boolean signed, Pending request, Runnable onSent) {
+            this.host = host;
+            this.port = port;
+            this.command = command;
+            this.signed = signed;
+            this.request = request;
+            this.onSent = onSent;
+        }
+    }
+
+    private static ControlSession instance;
+
+    public static synchronized ControlSession getInstance() {
+        if (instance == null) instance = new ControlSession();
+        return instance;
+    }
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private Thread thread;
+
+    private final Object lock = new Object();
+    private final List<Pending> pending = new ArrayList<>();          // guarded by lock, oldest first
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final ConcurrentLinkedQueue<Outgoing> outgoing = new ConcurrentLinkedQueue<>();
+
+    private final Map<String, RttTracker> trackers = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> lastReachable = new ConcurrentHashMap<>();
+    private final Map<String, InetAddress> addresses = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> requestIds = new ConcurrentHashMap<>();
+    private final Map<String, Integer> keepalivePorts = new ConcurrentHashMap<>();
+    private final Map<String, CopyOnWriteArrayList<ReachabilityListener>> listeners = new ConcurrentHashMap<>();
+
+    private volatile String heartbeatHost;
+    private volatile int heartbeatPort;
+
+    // ─── Stats ──────────────────────────────────────────────────
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+
+    private ControlSession() {}
+
+    // ─── Requests ───────────────────────────────────────────────
+
+    /**
+     * Send {@code command} to host:port and wait (on the session thread)
+     * for a reply starting with {@code replyPrefix}.
+     *
+     * @param signed send as an ENCRYPTED_CMD|TIMESTAMP|SIGNATURE packet
+     */
+    public void request(String host, int port, String command, boolean signed, String replyPrefix,
+                        long timeoutMs, ResponseCallback callback) {
+        boolean ping = PING.equals(command) && PONG.equals(replyPrefix);
+        Pending p;
+        synchronized (lock) {
+            if (ping) {
+                for (Pending q : pending) {
+                    if (q.ping && q.host.equals(host)) {
+                        if (callback != null) q.callbacks.add(callback);   // share the in-flight ping
+                        return;
+                    }
+                }
+            }
+            p = new Pending(nextId.getAndIncrement(), host, replyPrefix, ping, timeoutMs);
+            if (callback != null) p.callbacks.add(callback);
+            pending.add(p);
+        }
+        enqueue(new Outgoing(host, port, command, signed, p, null));
+    }
+
+    /**
+     * Blocking form of {@link #request}: returns the reply, or null on
+     * timeout. Must not be called from a session callback.
+     */
+    public String requestSync(String host, int port, String command, boolean signed,
+                              String replyPrefix, long timeoutMs) {
+        if (Thread.currentThread() == thread) {
+            throw new IllegalStateException("requestSync on the session thread");
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        String[] reply = new String[1];
+        request(host, port, command, signed, replyPrefix, timeoutMs, new ResponseCallback() {
+            @Override public void onResponse(String r, long rttMs) { reply[0] = r; done.countDown(); }
+            @Override public void onTimeout() { done.countDown(); }
+        });
+        try {
+            // The session enforces the timeout; the extra margin only guards against a stalled thread
+            done.await(timeoutMs + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return reply[0];
+    }
+
+    /** PING → PONG, joining a ping already in flight to the same host. */
+    public void ping(String host, int port, ResponseCallback callback) {
+        request(host, port, PING, false, PONG, getTracker(host).getTimeoutMs(), callback);
+    }
+
+    /** Fire-and-forget packet over the session socket. Never blocks the caller. */
+    public void send(String host, int port, String command, boolean signed) {
+        send(host, port, command, signed, null);
+    }
+
+    /**
+     * {@link #send} that runs {@code onSent} on the session thread once the
+     * packet has gone out; it is not run if sending fails.
+     */
+    public void send(String host, int port, String command, boolean signed, Runnable onSent) {
+        if (host == null) return;
+        enqueue(new Outgoing(host, port, command, signed, null, onSent));
+    }
+
+    // ─── Reachability, keepalive, heartbeat ─────────────────────
+
+    public RttTracker getTracker(String host) {
+        RttTracker t = trackers.get(host);
+        if (t == null) {
+            RttTracker fresh = new RttTracker();
+            t = trackers.putIfAbsent(host, fresh);
+            if (t == null) t = fresh;
+        }
+        return t;
+    }
+
+    /**
+     * Keep {@code host} pinged on {@code port} every tick and report
+     * reachability changes to {@code listener}.
+     */
+    public void addReachabilityListener(String host, int port, ReachabilityListener listener) {
+        CopyOnWriteArrayList<ReachabilityListener> list = listeners.get(host);
+        if (list == null) {
+            CopyOnWriteArrayList<ReachabilityListener> fresh = new CopyOnWriteArrayList<>();
+            list = listeners.putIfAbsent(host, fresh);
+            if (list == null) list = fresh;
+        }
+        list.addIfAbsent(listener);
+        keepalivePorts.put(host, port);
+        start();
+    }
+
+    public void removeReachabilityListener(String host, ReachabilityListener listener) {
+        if (host == null) return;
+        CopyOnWriteArrayList<ReachabilityListener> list = listeners.get(host);
+        if (list == null) return;
+        list.remove(listener);
+        if (list.isEmpty()) {
+            listeners.remove(host);
+            keepalivePorts.remove(host);
+        }
+    }
+
+    /** Send HEARTBEAT:&lt;ms&gt; to host:port every tick; null host stops it. */
+    public void setHeartbeat(String host, int port) {
+        heartbeatPort = port;
+        heartbeatHost = host;
+        if (host != null) start();
+    }
+
+    /** The server acknowledged request ids (reverse command SESSION:&lt;v&gt;). */
+    public void setRequestIds(String host, boolean enabled) {
+        if (enabled) requestIds.put(host, true);
+        else requestIds.remove(host);
+    }
+
+    public String getStats() {
+        return "sent=" + requestsSent.get() + " answered=" + responses.get()
+                + " timeouts=" + timeouts.get() + " unmatched=" + unmatched.get();
+    }
+
+    // ─── Session thread ─────────────────────────────────────────
+
+    private void enqueue(Outgoing o) {
+        outgoing.add(o);
+        if (start()) selector.wakeup();
+    }
+
+    /** Open the channel and start the session thread once; false if that failed. */
+    private synchronized boolean start() {
+        if (thread != null) return true;
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().bind(null);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open session: " + e.getMessage());
+            return false;
+        }
+        thread = new Thread(this::loop, "ControlSession");
+        thread.setDaemon(true);
+        thread.start();
+        Log.i(TAG, "Session open on port " + channel.socket().getLocalPort());
+        return true;
+    }
+
+    private void loop() {
+        ByteBuffer buf = ByteBuffer.allocate(MAX_DATAGRAM);
+        long nextTick = System.nanoTime();
+        while (true) {
+            try {
+                flushOutgoing();
+                long now = System.nanoTime();
+                long wakeAt = Math.min(nextTick, earliestDeadline());
+                long waitMs = TimeUnit.NANOSECONDS.toMillis(wakeAt - now);
+                if (waitMs > 0) selector.select(waitMs);
+                else selector.selectNow();
+                selector.selectedKeys().clear();
+
+                SocketAddress from;
+                while (true) {
+                    buf.clear();
+                    from = channel.receive(buf);
+                    if (from == null) break;
+                    onDatagram(((InetSocketAddress) from).getAddress(), buf.array(), buf.position());
+                }
+
+                now = System.nanoTime();
+                expire(now);
+                if (now - nextTick >= 0) {
+                    tick();
+                    nextTick = now + TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Session loop error: " + e.getMessage());
+                try { Thread.sleep(100); } catch (InterruptedException ie) { return; }
+            }
+        }
+    }
+
+    private void flushOutgoing() {
+        Outgoing o;
+        while ((o = outgoing.poll()) != null) {
+            Pending p = o.request;
+            try {
+                InetAddress addr = resolve(o.host);
+                String payload = o.command;
+                if (p != null) {
+                    p.addr = addr;
+                    if (Boolean.TRUE.equals(requestIds.get(o.host))) {
+                        payload = REQ_PREFIX + p.id + "|" + o.command;
+                    }
+                }
+                sendPacket(addr, o.port, payload, o.signed);
+                if (p != null) requestsSent.incrementAndGet();
+            } catch (Exception e) {
+                Log.w(TAG, "Send to " + o.host + ":" + o.port + " failed: " + e.getMessage());
+                if (p == null) continue;
+                synchronized (lock) {
+                    if (!pending.remove(p)) continue;     // already answered or expired
+                }
+                fail(p);
+                continue;
+            }
+            if (o.onSent != null) {
+                try {
+                    o.onSent.run();
+                } catch (Exception e) {
+                    Log.e(TAG, "Send callback error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private long earliestDeadline() {
+        long earliest = Long.MAX_VALUE;
+        synchronized (lock) {
+            for (Pending p : pending) {
+                if (earliest == Long.MAX_VALUE || p.deadlineNs - earliest < 0) earliest = p.deadlineNs;
+            }
+        }
+        return earliest == Long.MAX_VALUE ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_MS) : earliest;
+    }
+
+    private void onDatagram(InetAddress from, byte[] b, int len) {
+        int start = 0, end = len;
+        while (start < end && (b[start] & 0xFF) <= ' ') start++;
+        while (end > start && (b[end - 1] & 0xFF) <= ' ') end--;
+        String text = new String(b, start, end - start, StandardCharsets.UTF_8);
+
+        Pending match = null;
+        synchronized (lock) {
+            if (text.startsWith(RES_PREFIX)) {
+                int bar = text.indexOf('|');
+                int id = -1;
+                try {
+                    id = Integer.parseInt(text.substring(RES_PREFIX.length(), bar < 0 ? text.length() : bar));
+                } catch (NumberFormatException ignored) {}
+                text = bar < 0 ? "" : text.substring(bar + 1);
+                for (Iterator<Pending> it = pending.iterator(); it.hasNext(); ) {
+                    Pending p = it.next();
+                    // Ids are small counters: a reply must also come from the host that was asked
+                    if (p.id == id && from.equals(p.addr)) { match = p; it.remove(); break; }
+                }
+            } else {
+                for (Iterator<Pending> it = pending.iterator(); it.hasNext(); ) {
+                    Pending p = it.next();
+                    if (from.equals(p.addr) && text.startsWith(p.replyPrefix)) { match = p; it.remove(); break; }
+                }
+            }
+        }
+        if (match == null) {
+            unmatched.incrementAndGet();
+            return;
+        }
+        long rttMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - match.sentNs);
+        responses.incrementAndGet();
+        getTracker(match.host).onSample(rttMs, System.currentTimeMillis());
+        checkTransition(match.host);
+        for (ResponseCallback cb : match.callbacks) {
+            try {
+                cb.onResponse(text, rttMs);
+            } catch (Exception e) {
+                Log.e(TAG, "Response callback error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void expire(long now) {
+        List<Pending> expired = null;
+        synchronized (lock) {
+            for (Iterator<Pending> it = pending.iterator(); it.hasNext(); ) {
+                Pending p = it.next();
+                if (now - p.deadlineNs >= 0) {
+                    it.remove();
+                    if (expired == null) expired = new ArrayList<>();
+                    expired.add(p);
+                }
+            }
+        }
+        if (expired == null) return;
+        for (Pending p : expired) {
+            timeouts.incrementAndGet();
+            fail(p);
+        }
+    }
+
+    private void fail(Pending p) {
+        getTracker(p.host).onLoss();
+        checkTransition(p.host);
+        for (ResponseCallback cb : p.callbacks) {
+            try {
+                cb.onTimeout();
+            } catch (Exception e) {
+                Log.e(TAG, "Timeout callback error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void tick() {
+        for (Map.Entry<String, Integer> e : keepalivePorts.entrySet()) {
+            ping(e.getKey(), e.getValue(), null);
+        }
+        String hb = heartbeatHost;
+        if (hb != null) send(hb, heartbeatPort, "HEARTBEAT:" + System.currentTimeMillis(), false);
+        flushOutgoing();
+    }
+
+    private void checkTransition(String host) {
+        boolean now = getTracker(host).isReachable();
+        Boolean before = lastReachable.put(host, now);
+        if (before != null && before == now) return;
+        if (before == null && !now) return;     // first answer is a timeout: nothing changed yet
+        CopyOnWriteArrayList<ReachabilityListener> list = listeners.get(host);
+        if (list == null) return;
+        for (ReachabilityListener l : list) {
+            try {
+                l.onReachabilityChanged(host, now);
+            } catch (Exception e) {
+                Log.e(TAG, "Reachability listener error: " + e.getMessage());
+            }
+        }
+    }
+
+    // ─── Sending ────────────────────────────────────────────────
+
+    private void sendPacket(InetAddress addr, int port, String command, boolean signed) throws Exception {
+        InetSocketAddress target = new InetSocketAddress(addr, port);
+        if (signed) {
+            // Thread-local buffer from SecurityUtils; sent before this thread builds another
+            ByteBuffer packet = SecurityUtils.encodePacket(command);
+            channel.send(ByteBuffer.wrap(packet.array(), 0, packet.limit()), target);
+        } else {
+            channel.send(ByteBuffer.wrap(command.getBytes(StandardCharsets.UTF_8)), target);
+        }
+    }
+
+    private InetAddress resolve(String host) throws IOException {
+        InetAddress addr = addresses.get(host);
+        if (addr == null) {
+            addr = InetAddress.getByName(host);
+            addresses.put(host, addr);
+        }
+        return addr;
+    }
+}
@@ -0,0 +1,169 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * File transfer v2 ("MFT2") on the file port (5006).
+ *
+ * Replaces the v1 {@code name|size\n} + raw bytes stream with chunked,
+ * checksummed, resumable transfers that can use several TCP connections
+ * in parallel. v1 is still accepted by the receiver and used by the sender
+ * until the server acknowledges v2 during performHandshake.
+ *
+ * Every connection (all integers big-endian, strings are DataOutput UTF):
+ *
+ *   client → server  OPEN
+ *     "MFT2"  u8 version  UTF transferId  UTF name  i64 size  i32 chunkSize  u8 stream
+ *   server → client  OPEN reply
+ *     u8 status  i32 chunkCount  bitmap[(chunkCount + 7) / 8]
+ *     (bit i set = chunk i is already stored and verified → resume point)
+ *
+ *   then any number of frames:
+ *   client → server  CHUNK   'C'  i32 index  i32 length  sha256[32]  bytes[length]
+ *   server → client  ACK          u8 status  i32 index
+ *   client → server  FINISH  'F'  sha256[32] of the whole file
+ *   server → client  RESULT       u8 status  i32 missingChunks
+ *     (STATUS_BAD_CHECKSUM: every chunk arrived but the assembled file does
+ *      not hash to the sender's digest; the receiver has discarded its
+ *      partial file and reports all chunks missing)
+ *
+ * Chunks are written with positional FileChannel writes, so streams can
+ * deliver them in any order. The transfer id (stable for a given source)
+ * keys the receiver's partial file, so a sender that reconnects after a
+ * Wi-Fi drop, or is restarted, only sends the chunks not yet acknowledged;
+ * the whole-file digest on FINISH catches a partial file that was resumed
+ * from different content.
+ */
+public final class FileTransferProtocol {
+
+    public static final int VERSION = 2;
+    public static final byte[] MAGIC = {'M', 'F', 'T', '2'};
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+    public static final int MAX_STREAMS = 8;
+    public static final int SHA256_LEN = 32;
+
+    public static final byte FRAME_CHUNK = 'C';
+    public static final byte FRAME_FINISH = 'F';
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_BAD_CHECKSUM = 1;
+    public static final int STATUS_IO_ERROR = 2;
+    public static final int STATUS_INCOMPLETE = 3;
+    public static final int STATUS_REJECTED = 4;
+
+    private FileTransferProtocol() {}
+
+    /** Header sent by the client at the start of every connection. */
+    public static final class Open {
+        public final String transferId;
+        public final String name;
+        public final long size;
+        public final int chunkSize;
+        public final int stream;
+
+        public Open(String transferId, String name, long size, int chunkSize, int stream) {
+            this.transferId = transferId;
+            this.name = name;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.stream = stream;
+        }
+
+        public int chunkCount() {
+            return FileTransferProtocol.chunkCount(size, chunkSize);
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(transferId);
+            out.writeUTF(name);
+            out.writeLong(size);
+            out.writeInt(chunkSize);
+            out.writeByte(stream);
+        }
+
+        /** Reads the header after the magic has already been consumed. */
+        public static Open read(DataInputStream in) throws IOException {
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported transfer version " + version);
+            String id = in.readUTF();
+            String name = in.readUTF();
+            long size = in.readLong();
+            int chunkSize = in.readInt();
+            int stream = in.readUnsignedByte();
+            if (size < 0 || chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE
+                    || FileTransferProtocol.chunkCount(size, chunkSize) < 0 || id.isEmpty()) {
+                throw new IOException("Invalid transfer header");
+            }
+            return new Open(id, name, size, chunkSize, stream);
+        }
+    }
+
+    // ─── Helpers ─────────────────────────────────────────────────
+
+    /** Number of chunks for {@code size} bytes; -1 if it does not fit an int. */
+    public static int chunkCount(long size, int chunkSize) {
+        long count = (size + chunkSize - 1) / chunkSize;
+        return count > Integer.MAX_VALUE ? -1 : (int) count;
+    }
+
+    public static int chunkLength(long size, int chunkSize, int index) {
+        return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+    }
+
+    public static boolean isMagic(byte[] b) {
+        return b.length >= 4 && b[0] == MAGIC[0] && b[1] == MAGIC[1]
+                && b[2] == MAGIC[2] && b[3] == MAGIC[3];
+    }
+
+    public static byte[] newBitmap(int chunkCount) {
+        return new byte[(chunkCount + 7) / 8];
+    }
+
+    public static boolean isSet(byte[] bitmap, int index) {
+        return (bitmap[index >>> 3] & (1 << (index & 7))) != 0;
+    }
+
+    public static void set(byte[] bitmap, int index) {
+        bitmap[index >>> 3] |= (byte) (1 << (index & 7));
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stable id for a source: same name, size and source key (URI + mtime)
+     * give the same id, so a restarted send resumes the receiver's partial file.
+     */
+    public static String transferId(String name, long size, String sourceKey) {
+        MessageDigest md = newDigest();
+        md.update((name + '\n' + size + '\n' + sourceKey).getBytes(StandardCharsets.UTF_8));
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) sb.append(String.format("%02x", digest[i]));
+        return sb.toString();
+    }
+
+    /** Strip any path from a peer-supplied file name. */
+    public static String safeFileName(String name) {
+        if (name == null) return "file";
+        String base = name.replace('\\', '/');
+        base = base.substring(base.lastIndexOf('/') + 1).trim();
+        if (base.isEmpty() || base.equals(".") || base.equals("..")) return "file";
+        return base;
+    }
+}
@@ -0,0 +1,488 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.prajwal.myfirstapp.connectivity.FileTransferProtocol.*;
+
+/**
+ * Accepts file transfers on the file port — v2 (see {@link FileTransferProtocol})
+ * and the legacy v1 {@code name|size\n} stream.
+ *
+ * Each connection is served on its own pooled thread, so a large transfer no
+ * longer blocks other senders, and the parallel streams of one v2 transfer
+ * share a single {@link Transfer}: one positional FileChannel on the
+ * partial file plus a bitmap of verified chunks. The bitmap is persisted
+ * next to the partial file (after forcing the data it describes to disk),
+ * so a transfer interrupted by a Wi-Fi drop — or an app restart — resumes
+ * from the last acknowledged chunks.
+ *
+ * Chunks are streamed into the partial file through a fixed
+ * {@link #STREAM_BUFFER} per connection, whatever chunk size the sender
+ * chose, and hashed on the way; the chunk's bit is only set once its
+ * SHA-256 matches. A chunk that is already set is verified but not
+ * rewritten, so a bad resend cannot damage data that was acknowledged.
+ *
+ * Partial files live in {@code <dir>/.partial/<transferId>.part}; the
+ * completed file is renamed into {@code dir} once it hashes to the digest
+ * the sender put in FINISH. On a mismatch the partial file is discarded.
+ */
+public class FileTransferReceiver {
+
+    public interface Listener {
+        void onFileReceived(File file);
+        void onError(String message, Exception e);
+    }
+
+    private static final String PARTIAL_DIR = ".partial";
+    private static final int MAX_CONNECTIONS = 16;
+    private static final int READ_TIMEOUT_MS = 60000;
+    private static final int SOCKET_BUFFER = 512 * 1024;
+    private static final int STATE_FLUSH_CHUNKS = 8;
+    private static final long STATE_FLUSH_MS = 1000;
+    private static final int MAX_LEGACY_HEADER = 4096;
+    private static final int STREAM_BUFFER = 64 * 1024;
+    private static final long ACCEPT_BACKOFF_MIN_MS = 100;
+    private static final long ACCEPT_BACKOFF_MAX_MS = 5000;
+
+    private final int port;
+    private final File dir;
+    private final File partialDir;
+    private final Listener listener;
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+    private final ExecutorService pool;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running = false;
+
+    public FileTransferReceiver(int port, File dir, Listener listener) {
+        this.port = port;
+        this.dir = dir;
+        this.partialDir = new File(dir, PARTIAL_DIR);
+        this.listener = listener;
+        this.pool = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> new Thread(r, "FileReceiver-conn"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // ─── Lifecycle ───────────────────────────────────────────────
+
+    /** Binds the port and starts the accept loop on its own thread. */
+    public synchronized void start() throws IOException {
+        if (running) return;
+        if (!dir.exists()) dir.mkdirs();
+        if (!partialDir.exists()) partialDir.mkdirs();
+        ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.setReceiveBufferSize(SOCKET_BUFFER);
+        ss.bind(new java.net.InetSocketAddress(port));
+        serverSocket = ss;
+        running = true;
+        new Thread(this::acceptLoop, "FileReceiver").start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {}
+        pool.shutdownNow();
+        for (Transfer t : transfers.values()) t.closeQuietly();
+        transfers.clear();
+    }
+
+    /** Bound port (useful when constructed with port 0). */
+    public int getLocalPort() {
+        ServerSocket ss = serverSocket;
+        return ss != null ? ss.getLocalPort() : -1;
+    }
+
+    private void acceptLoop() {
+        long backoffMs = 0;
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+                backoffMs = 0;
+            } catch (IOException e) {
+                if (!running) break;
+                if (serverSocket.isClosed()) {
+                    listener.onError("file port closed", e);
+                    running = false;
+                    break;
+                }
+                // e.g. out of file descriptors: retry, but don't spin while it lasts
+                if (backoffMs == 0) listener.onError("accept failed", e);
+                backoffMs = Math.min(Math.max(backoffMs * 2, ACCEPT_BACKOFF_MIN_MS), ACCEPT_BACKOFF_MAX_MS);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                continue;
+            }
+            try {
+                pool.execute(() -> handle(socket));
+            } catch (Exception e) {
+                // Pool saturated: refuse rather than queue behind a multi-GB transfer
+                try { socket.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(READ_TIMEOUT_MS);
+            s.setTcpNoDelay(true);
+            BufferedInputStream in = new BufferedInputStream(s.getInputStream(), 64 * 1024);
+            in.mark(MAGIC.length);
+            byte[] magic = new byte[MAGIC.length];
+            int n = readUpTo(in, magic);
+            in.reset();
+            if (n == MAGIC.length && isMagic(magic)) {
+                in.skip(MAGIC.length);
+                handleV2(s, new DataInputStream(in));
+            } else {
+                handleLegacy(in);
+            }
+        } catch (SocketException e) {
+            // Peer went away mid-transfer; v2 resumes on reconnect
+        } catch (Exception e) {
+            listener.onError("transfer failed", e);
+        }
+    }
+
+    // ─── v2 ──────────────────────────────────────────────────────
+
+    private void handleV2(Socket socket, DataInputStream in) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), 8 * 1024));
+        Open open = Open.read(in);
+        Transfer transfer;
+        try {
+            transfer = acquire(open);
+        } catch (IOException e) {
+            out.writeByte(STATUS_REJECTED);
+            out.writeInt(0);
+            out.flush();
+            throw e;
+        }
+
+        try {
+            out.writeByte(STATUS_OK);
+            out.writeInt(transfer.chunkCount);
+            out.write(transfer.snapshotBitmap());
+            out.flush();
+
+            byte[] buffer = new byte[STREAM_BUFFER];
+            byte[] sha = new byte[SHA256_LEN];
+            MessageDigest digest = newDigest();
+            while (true) {
+                int frame = in.read();
+                if (frame < 0) return;
+                if (frame == FRAME_CHUNK) {
+                    int index = in.readInt();
+                    int length = in.readInt();
+                    in.readFully(sha);
+                    if (index < 0 || index >= transfer.chunkCount
+                            || length != chunkLength(open.size, open.chunkSize, index)) {
+                        throw new IOException("Bad chunk frame " + index + "/" + length);
+                    }
+                    boolean write = !transfer.has(index);
+                    boolean written = true;
+                    long position = (long) index * open.chunkSize;
+                    digest.reset();
+                    for (int remaining = length; remaining > 0; ) {
+                        int n = Math.min(buffer.length, remaining);
+                        in.readFully(buffer, 0, n);
+                        digest.update(buffer, 0, n);
+                        if (write && written) written = transfer.write(index, position, buffer, n);
+                        position += n;
+                        remaining -= n;
+                    }
+                    int status;
+                    if (!MessageDigest.isEqual(digest.digest(), sha)) {
+                        status = STATUS_BAD_CHECKSUM;   // bit stays clear: the bytes get rewritten
+                    } else if (!written) {
+                        status = STATUS_IO_ERROR;
+                    } else {
+                        if (write) transfer.markReceived(index);
+                        status = STATUS_OK;
+                    }
+                    out.writeByte(status);
+                    out.writeInt(index);
+                    out.flush();
+                } else if (frame == FRAME_FINISH) {
+                    in.readFully(sha);
+                    int missing = transfer.missingChunks();
+                    int status = STATUS_INCOMPLETE;
+                    if (missing == 0) {
+                        if (MessageDigest.isEqual(transfer.digest(), sha)) {
+                            status = STATUS_OK;
+                        } else {
+                            listener.onError("checksum mismatch for " + transfer.name + ", discarding it", null);
+                            transfer.discard();
+                            status = STATUS_BAD_CHECKSUM;
+                            missing = transfer.chunkCount;
+                        }
+                    }
+                    File done = status == STATUS_OK ? complete(transfer) : null;
+                    out.writeByte(status);
+                    out.writeInt(missing);
+                    out.flush();
+                    if (done != null) listener.onFileReceived(done);
+                    return;
+                } else {
+                    throw new IOException("Unknown frame " + frame);
+                }
+            }
+        } finally {
+            release(transfer);
+        }
+    }
+
+    private Transfer acquire(Open open) throws IOException {
+        synchronized (transfers) {
+            Transfer t = transfers.get(open.transferId);
+            if (t == null || t.completed) {
+                t = new Transfer(open);
+                transfers.put(open.transferId, t);
+            } else if (t.size != open.size || t.chunkSize != open.chunkSize) {
+                throw new IOException("Transfer " + open.transferId + " reopened with different geometry");
+            }
+            t.refs++;
+            return t;
+        }
+    }
+
+    /** Last connection of a transfer gone: persist state and close the file until it reconnects. */
+    private void release(Transfer t) {
+        synchronized (transfers) {
+            if (--t.refs > 0) return;
+            if (transfers.get(t.id) == t) transfers.remove(t.id);
+        }
+        t.persistState(true);
+        t.closeQuietly();
+    }
+
+    private File complete(Transfer t) throws IOException {
+        synchronized (transfers) {
+            t.persistState(true);
+            t.closeQuietly();
+            File target = uniqueTarget(safeFileName(t.name));
+            if (!t.partFile.renameTo(target)) throw new IOException("rename to " + target + " failed");
+            t.stateFile.delete();
+            t.completed = true;
+            return target;
+        }
+    }
+
+    private File uniqueTarget(String name) {
+        File target = new File(dir, name);
+        if (!target.exists()) return target;
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int i = 1; ; i++) {
+            target = new File(dir, base + " (" + i + ")" + ext);
+            if (!target.exists()) return target;
+        }
+    }
+
+    /** One in-progress v2 file, shared by all of its streams. */
+    private final class Transfer {
+        final String id;
+        final String name;
+        final long size;
+        final int chunkSize;
+        final int chunkCount;
+        final File partFile;
+        final File stateFile;
+        final FileChannel channel;
+        final byte[] bitmap;
+        int refs;                 // guarded by transfers
+        boolean completed;
+        private int unflushed;
+        private long lastFlushAt;
+
+        Transfer(Open open) throws IOException {
+            this.id = open.transferId;
+            this.name = open.name;
+            this.size = open.size;
+            this.chunkSize = open.chunkSize;
+            this.chunkCount = open.chunkCount();
+            String key = safeFileName(open.transferId);
+            this.partFile = new File(partialDir, key + ".part");
+            this.stateFile = new File(partialDir, key + ".state");
+            byte[] restored = readState();
+            this.bitmap = restored != null ? restored : newBitmap(chunkCount);
+            RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+            if (raf.length() != size) raf.setLength(size);
+            this.channel = raf.getChannel();
+        }
+
+        /** Positional write of part of chunk {@code index}; safe from several streams at once. */
+        boolean write(int index, long position, byte[] data, int length) {
+            if (completed) return false;
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+                while (buf.hasRemaining()) channel.write(buf, position + buf.position());
+                return true;
+            } catch (IOException e) {
+                listener.onError("write chunk " + index + " of " + name, e);
+                return false;
+            }
+        }
+
+        /** Chunk {@code index} is written and verified. */
+        void markReceived(int index) {
+            synchronized (this) {
+                FileTransferProtocol.set(bitmap, index);
+                unflushed++;
+            }
+            persistState(false);
+        }
+
+        synchronized boolean has(int index) {
+            return FileTransferProtocol.isSet(bitmap, index);
+        }
+
+        /** SHA-256 of the partial file as it stands. */
+        byte[] digest() throws IOException {
+            MessageDigest md = newDigest();
+            ByteBuffer buf = ByteBuffer.allocate(256 * 1024);
+            long position = 0;
+            while (position < size) {
+                buf.clear();
+                int n = channel.read(buf, position);
+                if (n < 0) throw new IOException("partial file shorter than " + size);
+                md.update(buf.array(), 0, n);
+                position += n;
+            }
+            return md.digest();
+        }
+
+        /** Forget every chunk, so the sender's next round starts over. */
+        synchronized void discard() {
+            Arrays.fill(bitmap, (byte) 0);
+            unflushed++;
+            persistState(true);
+        }
+
+        synchronized byte[] snapshotBitmap() {
+            return Arrays.copyOf(bitmap, bitmap.length);
+        }
+
+        synchronized int missingChunks() {
+            int missing = 0;
+            for (int i = 0; i < chunkCount; i++) if (!FileTransferProtocol.isSet(bitmap, i)) missing++;
+            return missing;
+        }
+
+        /**
+         * State layout: UTF transferId, i64 size, i32 chunkSize, bitmap.
+         * Data is forced before the bitmap that vouches for it is written.
+         */
+        synchronized void persistState(boolean force) {
+            if (completed || !channel.isOpen()) return;
+            long now = System.currentTimeMillis();
+            if (!force && unflushed < STATE_FLUSH_CHUNKS && now - lastFlushAt < STATE_FLUSH_MS) return;
+            if (unflushed == 0 && stateFile.exists()) return;
+            File tmp = new File(stateFile.getPath() + ".tmp");
+            try {
+                channel.force(false);
+                try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+                    out.writeUTF(id);
+                    out.writeLong(size);
+                    out.writeInt(chunkSize);
+                    out.write(bitmap);
+                }
+                if (!tmp.renameTo(stateFile)) throw new IOException("rename failed");
+                unflushed = 0;
+                lastFlushAt = now;
+            } catch (IOException e) {
+                listener.onError("persist state for " + name, e);
+                tmp.delete();
+            }
+        }
+
+        private byte[] readState() {
+            if (!stateFile.exists() || !partFile.exists()) return null;
+            try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile))) {
+                if (!in.readUTF().equals(id) || in.readLong() != size || in.readInt() != chunkSize) {
+                    return null;
+                }
+                byte[] restored = newBitmap(chunkCount);
+                in.readFully(restored);
+                return restored;
+            } catch (IOException e) {
+                return null; // corrupt state: start over, chunks get re-sent
+            }
+        }
+
+        void closeQuietly() {
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    // ─── v1 (legacy) ─────────────────────────────────────────────
+
+    private void handleLegacy(InputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (header.length() >= MAX_LEGACY_HEADER) throw new IOException("Header too long");
+            header.append((char) b);
+        }
+        String line = new String(header.toString().getBytes(StandardCharsets.ISO_8859_1),
+                StandardCharsets.UTF_8);
+        int bar = line.lastIndexOf('|');
+        if (bar < 0) return; // Invalid header
+        String filename = safeFileName(line.substring(0, bar));
+        long filesize = Long.parseLong(line.substring(bar + 1).trim());
+
+        File target = uniqueTarget(filename);
+        try (FileOutputStream fos = new FileOutputStream(target)) {
+            byte[] buffer = new byte[64 * 1024];
+            long totalRead = 0;
+            int read;
+            while (totalRead < filesize
+                    && (read = in.read(buffer, 0, (int) Math.min(buffer.length, filesize - totalRead))) != -1) {
+                fos.write(buffer, 0, read);
+                totalRead += read;
+            }
+        }
+        listener.onFileReceived(target);
+    }
+
+    private static int readUpTo(InputStream in, byte[] buf) throws IOException {
+        int n = 0;
+        while (n < buf.length) {
+            int r = in.read(buf, n, buf.length - n);
+            if (r < 0) break;
+            n += r;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,136 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.io.IOException;
+
+/**
+ * Fragmented frame datagrams ("MF" v2) for the camera stream and the PC
+ * screen preview.
+ *
+ * A frame (one JPEG) larger than a datagram used to be dropped outright;
+ * now it is split into MTU-sized fragments that each carry enough of the
+ * frame header to be reassembled in any order.
+ *
+ * Datagram layout (big-endian), HEADER_SIZE = 20 bytes then payload:
+ *
+ *   0  'M' 'F'          magic
+ *   2  u8  version      2
+ *   3  u8  type         TYPE_JPEG, …
+ *   4  u32 frameId      increments per frame, wraps
+ *   8  u16 index        fragment number, 0-based
+ *  10  u16 count        fragments in this frame (≥ 1)
+ *  12  u32 frameLength  total payload bytes of the frame
+ *  16  u32 timestamp    sender clock in ms (truncated), echoed in stats
+ *
+ * Fragment i carries bytes [i * MAX_PAYLOAD, min((i + 1) * MAX_PAYLOAD, frameLength)).
+ *
+ * Reassembly (see {@link FrameReassembler}):
+ *   - collect fragments by frameId until all {@code count} have arrived;
+ *   - a frame id at or before the last delivered one is late and dropped;
+ *   - delivering a frame abandons every older incomplete frame;
+ *   - only a few frames are kept pending; the oldest is abandoned first.
+ *
+ * Receivers report back with the reverse command
+ * {@code CAMERA_STATS:loss=<0..1>,echo=<timestamp of the newest complete frame>}.
+ */
+public final class FrameProtocol {
+
+    public static final int VERSION = 2;
+    public static final byte MAGIC_0 = 'M';
+    public static final byte MAGIC_1 = 'F';
+
+    public static final int HEADER_SIZE = 20;
+    /** Keeps every datagram inside a typical Wi-Fi MTU, so the IP layer never fragments. */
+    public static final int MAX_DATAGRAM = 1400;
+    public static final int MAX_PAYLOAD = MAX_DATAGRAM - HEADER_SIZE;
+
+    public static final int TYPE_JPEG = 1;
+    /** Screen preview dirty rectangles, see {@link PreviewReceiver}. */
+    public static final int TYPE_RECTS = 2;
+
+    private FrameProtocol() {}
+
+    /** Receives each finished datagram; the buffer is reused after the call returns. */
+    public interface DatagramSink {
+        void send(byte[] datagram, int length) throws IOException;
+    }
+
+    /** Parsed datagram header. */
+    public static final class Header {
+        public int type;
+        public int frameId;
+        public int index;
+        public int count;
+        public int frameLength;
+        public int timestamp;
+    }
+
+    /**
+     * Split {@code frame[0, length)} into datagrams built in {@code scratch}
+     * (at least MAX_DATAGRAM bytes) and hand each to {@code sink}.
+     *
+     * @return number of datagrams sent
+     */
+    public static int fragment(int type, int frameId, int timestamp, byte[] frame, int length,
+                               byte[] scratch, DatagramSink sink) throws IOException {
+        int count = fragmentCount(length);
+        if (count > 0xFFFF) throw new IOException("Frame too large: " + length);
+        for (int i = 0; i < count; i++) {
+            int off = i * MAX_PAYLOAD;
+            int len = Math.min(MAX_PAYLOAD, length - off);
+            writeHeader(scratch, type, frameId, i, count, length, timestamp);
+            System.arraycopy(frame, off, scratch, HEADER_SIZE, len);
+            sink.send(scratch, HEADER_SIZE + len);
+        }
+        return count;
+    }
+
+    public static int fragmentCount(int length) {
+        return Math.max(1, (length + MAX_PAYLOAD - 1) / MAX_PAYLOAD);
+    }
+
+    static void writeHeader(byte[] b, int type, int frameId, int index, int count,
+                            int frameLength, int timestamp) {
+        b[0] = MAGIC_0;
+        b[1] = MAGIC_1;
+        b[2] = VERSION;
+        b[3] = (byte) type;
+        putInt(b, 4, frameId);
+        b[8] = (byte) (index >>> 8);
+        b[9] = (byte) index;
+        b[10] = (byte) (count >>> 8);
+        b[11] = (byte) count;
+        putInt(b, 12, frameLength);
+        putInt(b, 16, timestamp);
+    }
+
+    /** Parse the header of {@code datagram[off, off + len)}; false if it is not a valid v2 fragment. */
+    public static boolean readHeader(byte[] b, int off, int len, Header out) {
+        if (len < HEADER_SIZE || b[off] != MAGIC_0 || b[off + 1] != MAGIC_1 || b[off + 2] != VERSION) {
+            return false;
+        }
+        out.type = b[off + 3] & 0xFF;
+        out.frameId = getInt(b, off + 4);
+        out.index = ((b[off + 8] & 0xFF) << 8) | (b[off + 9] & 0xFF);
+        out.count = ((b[off + 10] & 0xFF) << 8) | (b[off + 11] & 0xFF);
+        out.frameLength = getInt(b, off + 12);
+        out.timestamp = getInt(b, off + 16);
+        if (out.count == 0 || out.index >= out.count || out.frameLength < 0
+                || fragmentCount(out.frameLength) != out.count) {
+            return false;
+        }
+        int expected = Math.min(MAX_PAYLOAD, out.frameLength - out.index * MAX_PAYLOAD);
+        return len - HEADER_SIZE == expected;
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+}
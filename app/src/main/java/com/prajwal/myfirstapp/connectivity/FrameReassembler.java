@@ -0,0 +1,144 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.util.Arrays;
+
+/**
+ * Reference receiver for {@link FrameProtocol} datagrams.
+ *
+ * Keeps up to {@code maxPending} partially received frames in reusable
+ * buffers. A frame is delivered as soon as its last fragment arrives;
+ * older incomplete frames are abandoned at that point (a newer picture
+ * makes them worthless) and fragments of frames at or before the last
+ * delivered one are ignored as late. Not thread-safe: feed it from the
+ * receiving thread.
+ */
+public class FrameReassembler {
+
+    public interface Listener {
+        /** {@code data} is only valid during the call; it is reused for later frames. */
+        void onFrame(int type, int frameId, int timestamp, byte[] data, int length);
+    }
+
+    private static final class Slot {
+        boolean used;
+        int frameId;
+        int type;
+        int timestamp;
+        int frameLength;
+        int count;
+        int received;
+        boolean[] have = new boolean[0];
+        byte[] data = new byte[0];
+    }
+
+    private final int maxFrameBytes;
+    private final Slot[] slots;
+    private final Listener listener;
+    private final FrameProtocol.Header header = new FrameProtocol.Header();
+
+    private boolean delivered;        // lastDelivered is valid
+    private int lastDelivered;
+
+    // ─── Stats ──────────────────────────────────────────────────
+    private long framesCompleted;
+    private long framesLost;          // ids skipped between two delivered frames
+    private long fragmentsLate;
+    private long fragmentsInvalid;
+
+    public FrameReassembler(int maxFrameBytes, int maxPending, Listener listener) {
+        this.maxFrameBytes = maxFrameBytes;
+        this.slots = new Slot[maxPending];
+        for (int i = 0; i < maxPending; i++) slots[i] = new Slot();
+        this.listener = listener;
+    }
+
+    /** Feed one received datagram. */
+    public void accept(byte[] datagram, int off, int len) {
+        FrameProtocol.Header h = header;
+        if (!FrameProtocol.readHeader(datagram, off, len, h) || h.frameLength > maxFrameBytes) {
+            fragmentsInvalid++;
+            return;
+        }
+        if (delivered && h.frameId - lastDelivered <= 0) {
+            fragmentsLate++;
+            return;
+        }
+
+        Slot slot = find(h.frameId);
+        if (slot == null) slot = claim(h);
+        if (slot == null) {
+            fragmentsLate++;
+            return;
+        }
+        if (slot.frameLength != h.frameLength || slot.count != h.count) {
+            fragmentsInvalid++;
+            return;
+        }
+        if (slot.have[h.index]) return; // duplicate
+        slot.have[h.index] = true;
+        slot.received++;
+        System.arraycopy(datagram, off + FrameProtocol.HEADER_SIZE, slot.data,
+                h.index * FrameProtocol.MAX_PAYLOAD, len - FrameProtocol.HEADER_SIZE);
+
+        if (slot.received == slot.count) {
+            complete(slot);
+        }
+    }
+
+    public long getFramesCompleted()   { return framesCompleted; }
+    public long getFramesLost()        { return framesLost; }
+    public long getFragmentsLate()     { return fragmentsLate; }
+    public long getFragmentsInvalid()  { return fragmentsInvalid; }
+
+    /** Forget all pending frames and the last delivered id (e.g. after a stream restart). */
+    public void reset() {
+        for (Slot s : slots) s.used = false;
+        delivered = false;
+    }
+
+    // ─── Internal ────────────────────────────────────────────────
+
+    private Slot find(int frameId) {
+        for (Slot s : slots) {
+            if (s.used && s.frameId == frameId) return s;
+        }
+        return null;
+    }
+
+    /**
+     * Take a free slot, or abandon the oldest pending frame to make room.
+     * Returns null if the new frame is older than everything pending.
+     */
+    private Slot claim(FrameProtocol.Header h) {
+        Slot target = null;
+        for (Slot s : slots) {
+            if (!s.used) { target = s; break; }
+            if (target == null || s.frameId - target.frameId < 0) target = s;
+        }
+        if (target.used && h.frameId - target.frameId < 0) return null;
+        target.used = true;
+        target.frameId = h.frameId;
+        target.type = h.type;
+        target.timestamp = h.timestamp;
+        target.frameLength = h.frameLength;
+        target.count = h.count;
+        target.received = 0;
+        if (target.have.length < h.count) target.have = new boolean[h.count];
+        else Arrays.fill(target.have, 0, h.count, false);
+        if (target.data.length < h.frameLength) target.data = new byte[h.frameLength];
+        return target;
+    }
+
+    private void complete(Slot slot) {
+        slot.used = false;
+        if (delivered) framesLost += Math.max(0, slot.frameId - lastDelivered - 1);
+        delivered = true;
+        lastDelivered = slot.frameId;
+        framesCompleted++;
+        // Anything older is now late
+        for (Slot s : slots) {
+            if (s.used && s.frameId - slot.frameId < 0) s.used = false;
+        }
+        listener.onFrame(slot.type, slot.frameId, slot.timestamp, slot.data, slot.frameLength);
+    }
+}
@@ -0,0 +1,133 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import android.view.Choreographer;
+
+/**
+ * Coalesces high-frequency pointer input into frame-paced packets.
+ *
+ * Touchpad moves, gyro moves and scroll distance are summed as they
+ * arrive and flushed at most once per {@code 1 / flushRateHz} seconds,
+ * aligned to the display vsync via {@link Choreographer}. One flush
+ * sends at most one packet per kind:
+ *
+ *   MOUSE_MOVE:dx,dy              summed touchpad delta (float px)
+ *   MOUSE_MOVE_RELATIVE:dx:dy     summed gyro delta (int px, remainder carried)
+ *   MOUSE_SCROLL:n                net scroll ticks since the last flush
+ *
+ * These are the existing commands, so the PC side needs no changes.
+ * Must be used from a Looper thread (the UI thread in practice); the
+ * frame callback is only posted while there is something to send.
+ */
+public class MotionAggregator implements Choreographer.FrameCallback {
+
+    public static final int DEFAULT_FLUSH_RATE_HZ = 120;
+    /** Scroll distance (px) that makes up one MOUSE_SCROLL tick. */
+    private static final float SCROLL_STEP_PX = 10f;
+
+    private final ConnectionManager connectionManager;
+    private final Choreographer choreographer;
+
+    private long flushIntervalNanos;
+    private long lastFlushNanos = 0;
+    private boolean framePosted = false;
+
+    // Pending, not yet sent
+    private float moveX, moveY;
+    private boolean hasMove = false;
+    private float relX, relY;           // fractional part carried between flushes
+    private boolean hasRelative = false;
+    private float scrollAccum;          // px, converted to whole ticks on flush
+
+    public MotionAggregator(ConnectionManager connectionManager) {
+        this(connectionManager, DEFAULT_FLUSH_RATE_HZ);
+    }
+
+    public MotionAggregator(ConnectionManager connectionManager, int flushRateHz) {
+        this.connectionManager = connectionManager;
+        this.choreographer = Choreographer.getInstance();
+        setFlushRateHz(flushRateHz);
+    }
+
+    /** Maximum packets per second per kind. Vsync still bounds the real rate. */
+    public void setFlushRateHz(int hz) {
+        flushIntervalNanos = 1_000_000_000L / Math.max(1, hz);
+    }
+
+    // ─── Input ───────────────────────────────────────────────────
+
+    /** Touchpad delta in pixels. */
+    public void addMove(float dx, float dy) {
+        moveX += dx;
+        moveY += dy;
+        hasMove = true;
+        scheduleFrame();
+    }
+
+    /** Gyro delta in (fractional) cursor pixels. */
+    public void addRelativeMove(float dx, float dy) {
+        relX += dx;
+        relY += dy;
+        hasRelative = true;
+        scheduleFrame();
+    }
+
+    /** Two-finger / gesture scroll distance in pixels; positive is down. */
+    public void addScroll(float dy) {
+        scrollAccum += dy;
+        scheduleFrame();
+    }
+
+    // ─── Flushing ────────────────────────────────────────────────
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePosted = false;
+        if (frameTimeNanos - lastFlushNanos < flushIntervalNanos) {
+            scheduleFrame();
+            return;
+        }
+        lastFlushNanos = frameTimeNanos;
+        flush();
+    }
+
+    /**
+     * Send everything pending right now. Call before discrete commands
+     * (click, button down) so they are never reordered ahead of motion.
+     */
+    public void flush() {
+        if (hasMove) {
+            connectionManager.sendCommand("MOUSE_MOVE:" + moveX + "," + moveY);
+            moveX = moveY = 0;
+            hasMove = false;
+        }
+        if (hasRelative) {
+            int ix = (int) relX;
+            int iy = (int) relY;
+            if (ix != 0 || iy != 0) {
+                connectionManager.sendCommand("MOUSE_MOVE_RELATIVE:" + ix + ":" + iy);
+                relX -= ix;
+                relY -= iy;
+            }
+            hasRelative = false;
+        }
+        int ticks = (int) (scrollAccum / SCROLL_STEP_PX);
+        if (ticks != 0) {
+            connectionManager.sendCommand("MOUSE_SCROLL:" + ticks);
+            scrollAccum -= ticks * SCROLL_STEP_PX;
+        }
+    }
+
+    /** Drop anything pending and stop the frame callback (e.g. on touch cancel / stop()). */
+    public void reset() {
+        choreographer.removeFrameCallback(this);
+        framePosted = false;
+        moveX = moveY = relX = relY = scrollAccum = 0;
+        hasMove = hasRelative = false;
+    }
+
+    private void scheduleFrame() {
+        if (framePosted) return;
+        framePosted = true;
+        choreographer.postFrameCallback(this);
+    }
+}
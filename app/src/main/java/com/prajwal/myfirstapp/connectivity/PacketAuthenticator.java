@@ -0,0 +1,78 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import com.prajwal.myfirstapp.core.SecurityUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Accept/reject decision for inbound reverse-command datagrams.
+ *
+ * Signed packets (ENCRYPTED_CMD|TIMESTAMP|SIGNATURE, as sent by
+ * SecurityUtils) are verified, checked against the clock skew window and
+ * for replays, then decrypted. Unsigned packets are only accepted while
+ * authentication is not required and no signed packet has been seen yet,
+ * which is the case for an unpaired phone talking to an older server.
+ * Once a key is paired the listener requires authentication from the start.
+ */
+final class PacketAuthenticator {
+
+    static final long MAX_CLOCK_SKEW_SEC = 30;
+
+    private volatile boolean requireAuth;
+    private boolean authenticatedPeer;              // a signed packet was accepted
+    private final long[] recentSignatures = new long[128];
+    private int recentSignatureIndex;
+    private volatile long rejected;
+
+    PacketAuthenticator(boolean requireAuth) {
+        this.requireAuth = requireAuth;
+    }
+
+    void setRequireAuth(boolean require) {
+        this.requireAuth = require;
+    }
+
+    boolean isRequired() {
+        return requireAuth || authenticatedPeer;
+    }
+
+    long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * The command carried by {@code buf[start, end)}, or null if the packet
+     * must be dropped.
+     */
+    String accept(byte[] buf, int start, int end, long nowSec) {
+        if (SecurityUtils.isSignedPacket(buf, start, end - start)) {
+            String command = SecurityUtils.decodePacket(buf, start, end - start, nowSec, MAX_CLOCK_SKEW_SEC);
+            if (command == null || isReplay(buf, end)) {
+                rejected++;
+                return null;
+            }
+            authenticatedPeer = true;
+            return command;
+        }
+        if (isRequired()) {
+            rejected++;
+            return null;
+        }
+        return new String(buf, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /** Remember recent signatures; an identical one inside the skew window is a replay. */
+    private boolean isReplay(byte[] buf, int end) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = end - 64; i < end; i++) {
+            h ^= buf[i];
+            h *= 0x100000001b3L;
+        }
+        for (long seen : recentSignatures) {
+            if (seen == h) return true;
+        }
+        recentSignatures[recentSignatureIndex] = h;
+        recentSignatureIndex = (recentSignatureIndex + 1) % recentSignatures.length;
+        return false;
+    }
+}
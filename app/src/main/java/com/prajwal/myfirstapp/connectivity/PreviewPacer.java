@@ -0,0 +1,133 @@
+package com.prajwal.myfirstapp.connectivity;
+
+/**
+ * Drop and repair rules of {@link PreviewReceiver}, kept apart from the
+ * bitmaps so they can be tested on the JVM.
+ *
+ * Only one frame is in flight to the UI at a time: before drawing into
+ * the back buffer the receiver thread waits up to {@code presentWaitMs}
+ * for the UI to take the previous frame, and drops the frame if it is
+ * still behind. A dropped frame, or a lost one, leaves part of the picture
+ * stale, so it asks for a keyframe — at most once per
+ * {@code keyframeIntervalMs}, since the keyframe itself takes a while to
+ * arrive.
+ */
+final class PreviewPacer {
+
+    interface Clock {
+        long nowMs();
+    }
+
+    private final long presentWaitMs;
+    private final long keyframeIntervalMs;
+    private final Runnable keyframeRequest;
+    private final Clock clock;
+
+    private final Object lock = new Object();
+    private boolean pending;            // a frame was posted and the UI has not taken it
+    private boolean open = true;
+
+    // Receiver thread only
+    private long lostSeen;
+    private long lastKeyframeRequestMs;
+    private boolean keyframeRequested;
+    private int framesDropped;
+
+    /**
+     * @param keyframeRequest called on the receiver thread when a full frame is
+     *                        needed to repair the picture (may be null)
+     */
+    PreviewPacer(long presentWaitMs, long keyframeIntervalMs, Runnable keyframeRequest, Clock clock) {
+        this.presentWaitMs = presentWaitMs;
+        this.keyframeIntervalMs = keyframeIntervalMs;
+        this.keyframeRequest = keyframeRequest;
+        this.clock = clock;
+    }
+
+    /** Start a new run with nothing in flight. */
+    void open() {
+        synchronized (lock) {
+            open = true;
+            pending = false;
+        }
+        lostSeen = 0;
+    }
+
+    /** Wakes a waiting {@link #awaitPresented}; it returns false from now on. */
+    void close() {
+        synchronized (lock) {
+            open = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * The back buffer is the one the UI showed before the last swap, so it
+     * may only be drawn into once the UI has taken the new front. Waits a
+     * little for that; false if it did not happen (the frame is dropped
+     * and a keyframe requested) or the pacer was closed.
+     */
+    boolean awaitPresented() {
+        synchronized (lock) {
+            long deadline = clock.nowMs() + presentWaitMs;
+            while (pending && open) {
+                long left = deadline - clock.nowMs();
+                if (left <= 0) {
+                    drop();
+                    return false;
+                }
+                try {
+                    lock.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return open;
+        }
+    }
+
+    /** A frame was handed to the UI. */
+    void posted() {
+        synchronized (lock) { pending = true; }
+    }
+
+    /** The UI took the last frame. Called on the main thread. */
+    void presented() {
+        synchronized (lock) {
+            pending = false;
+            lock.notifyAll();
+        }
+    }
+
+    /** The frame cannot be shown (e.g. no picture to apply it to). */
+    void drop() {
+        framesDropped++;
+        requestKeyframe();
+    }
+
+    /** The reassembler was reset: its lost count starts over. */
+    void resetLostCount() {
+        lostSeen = 0;
+    }
+
+    /** {@code lost} is the reassembler's running count of lost frames. */
+    void onLostCount(long lost) {
+        if (lost == lostSeen) return;
+        lostSeen = lost;
+        requestKeyframe();     // a lost update leaves part of the picture stale
+    }
+
+    void requestKeyframe() {
+        if (keyframeRequest == null) return;
+        long now = clock.nowMs();
+        if (keyframeRequested && now - lastKeyframeRequestMs < keyframeIntervalMs) return;
+        keyframeRequested = true;
+        lastKeyframeRequestMs = now;
+        keyframeRequest.run();
+    }
+
+    int getFramesDropped() {
+        return framesDropped;
+    }
+}
@@ -0,0 +1,306 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
+/**
+ * Receives the PC screen preview on UDP and turns it into a Bitmap.
+ *
+ * Two datagram formats are accepted on the same port, told apart by their
+ * first bytes:
+ *   "IMG:"<base64 JPEG>   legacy, one whole frame per datagram
+ *   "MF" …                {@link FrameProtocol} fragments (preview=2 in the
+ *                         handshake), reassembled by {@link FrameReassembler}
+ *
+ * Binary frame types:
+ *   TYPE_JPEG    the whole screen as one JPEG (a keyframe)
+ *   TYPE_RECTS   dirty rectangles on top of the previous picture:
+ *                u16 screenWidth, u16 screenHeight, u16 rectCount, then per
+ *                rect u16 x, u16 y, u32 jpegLength, jpeg bytes (big-endian)
+ *
+ * Frames are decoded straight out of the reassembly buffer into two
+ * mutable bitmaps that are reused via {@code inBitmap}: one is on screen,
+ * the other is drawn into and then swapped in. Dirty rectangles only
+ * touch the regions that changed, after first bringing the back buffer up
+ * to date with the regions the previous swap changed. If a frame is lost,
+ * or the UI has not caught up with the previous frame, the frame is
+ * dropped and a keyframe is requested (at most every
+ * {@link #KEYFRAME_REQUEST_INTERVAL_MS}); see {@link PreviewPacer}.
+ *
+ * The callback runs on the main thread. The bitmap it receives stays
+ * owned by the receiver: it is valid until the next callback and must not
+ * be recycled.
+ */
+public class PreviewReceiver {
+
+    private static final String TAG = "PreviewReceiver";
+
+    /** Advertised as preview=<v> in the handshake. */
+    public static final int PROTOCOL_VERSION = 2;
+
+    private static final int MAX_FRAME_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_PENDING_FRAMES = 3;
+    private static final int SOCKET_BUFFER_BYTES = 1024 * 1024;
+    static final long PRESENT_WAIT_MS = 100;
+    static final long KEYFRAME_REQUEST_INTERVAL_MS = 500;
+
+    public interface FrameCallback {
+        void onFrame(Bitmap bitmap);
+    }
+
+    private final int port;
+    private final FrameCallback callback;
+    private final PreviewPacer pacer;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean running;
+    private volatile boolean enabled;
+    private DatagramSocket socket;
+    private Thread thread;
+    private FrameReassembler reassembler;
+
+    // ─── Receiver thread state ──────────────────────────────────
+    private final Bitmap[] buffers = new Bitmap[2];
+    private int front = -1;                        // index on screen, -1 before the first frame
+    private final Rect staleInBack = new Rect();   // regions the back buffer is behind by
+    private Bitmap tile;
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private final Canvas canvas = new Canvas();
+    private final Rect src = new Rect(), dst = new Rect(), changed = new Rect();
+
+    // ─── Stats ──────────────────────────────────────────────────
+    private int framesShown;
+
+    /**
+     * @param keyframeRequest called on the receiver thread when a full frame is
+     *                        needed to repair the picture (may be null)
+     */
+    public PreviewReceiver(int port, FrameCallback callback, Runnable keyframeRequest) {
+        this.port = port;
+        this.callback = callback;
+        this.pacer = new PreviewPacer(PRESENT_WAIT_MS, KEYFRAME_REQUEST_INTERVAL_MS,
+                keyframeRequest, SystemClock::uptimeMillis);
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;  // half the memory of ARGB, no alpha in a screen grab
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        try {
+            socket = new DatagramSocket(null);
+            socket.setReuseAddress(true);
+            socket.setReceiveBufferSize(SOCKET_BUFFER_BYTES);
+            socket.bind(new InetSocketAddress(port));
+        } catch (SocketException e) {
+            Log.e(TAG, "Cannot bind preview port " + port + ": " + e.getMessage());
+            if (socket != null) socket.close();
+            socket = null;
+            return;
+        }
+        reassembler = new FrameReassembler(MAX_FRAME_BYTES, MAX_PENDING_FRAMES, this::onFrame);
+        pacer.open();
+        running = true;
+        thread = new Thread(this::receiveLoop, "PreviewReceiver");
+        thread.start();
+    }
+
+    /** Closes the socket, waits for the thread and releases the bitmaps. */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            if (socket != null) socket.close();   // unblocks receive()
+            t = thread;
+            thread = null;
+        }
+        pacer.close();
+        if (t != null) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+        Log.i(TAG, "Stopped (shown " + framesShown + ", dropped " + pacer.getFramesDropped() + ")");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** While disabled, datagrams are read and discarded. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // ─── Receive loop ───────────────────────────────────────────
+
+    private void receiveLoop() {
+        byte[] buf = new byte[64 * 1024];
+        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        boolean wasEnabled = false;
+        try {
+            while (running) {
+                packet.setLength(buf.length);
+                socket.receive(packet);
+                boolean on = enabled;
+                if (on != wasEnabled) {
+                    // Preview toggled: anything half-received is stale
+                    reassembler.reset();
+                    pacer.resetLostCount();
+                    front = -1;
+                    staleInBack.setEmpty();
+                    wasEnabled = on;
+                }
+                if (!on) continue;
+
+                int len = packet.getLength();
+                if (len >= 2 && buf[0] == FrameProtocol.MAGIC_0 && buf[1] == FrameProtocol.MAGIC_1) {
+                    reassembler.accept(buf, 0, len);
+                } else if (len > 4 && buf[0] == 'I' && buf[1] == 'M' && buf[2] == 'G' && buf[3] == ':') {
+                    onLegacyFrame(buf, len);
+                }
+            }
+        } catch (Exception e) {
+            if (running) Log.e(TAG, "Receive error: " + e.getMessage());
+        } finally {
+            running = false;
+            if (socket != null) socket.close();
+            releaseBitmaps();
+        }
+    }
+
+    private void onLegacyFrame(byte[] buf, int len) {
+        try {
+            byte[] jpeg = Base64.decode(buf, 4, len - 4, Base64.DEFAULT);
+            decodeKeyframe(jpeg, 0, jpeg.length);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Bad legacy frame: " + e.getMessage());
+        }
+    }
+
+    /** Reassembler callback; {@code data} is the reassembly buffer itself. */
+    private void onFrame(int type, int frameId, int timestamp, byte[] data, int length) {
+        pacer.onLostCount(reassembler.getFramesLost());
+        if (type == FrameProtocol.TYPE_JPEG) {
+            decodeKeyframe(data, 0, length);
+        } else if (type == FrameProtocol.TYPE_RECTS) {
+            applyRects(data, length);
+        }
+    }
+
+    // ─── Decoding ───────────────────────────────────────────────
+
+    private void decodeKeyframe(byte[] data, int off, int len) {
+        if (!pacer.awaitPresented()) return;
+        int back = front < 0 ? 0 : 1 - front;
+        Bitmap decoded = decode(data, off, len, buffers[back]);
+        if (decoded == null) return;
+        buffers[back] = decoded;
+        // The buffer that goes to the back next is behind everywhere
+        staleInBack.set(0, 0, decoded.getWidth(), decoded.getHeight());
+        present(back);
+    }
+
+    private void applyRects(byte[] d, int len) {
+        if (len < 6) return;
+        int screenW = u16(d, 0), screenH = u16(d, 2), count = u16(d, 4);
+        if (front < 0 || buffers[front].getWidth() != screenW || buffers[front].getHeight() != screenH) {
+            pacer.drop();          // nothing (or the wrong size) to draw on
+            return;
+        }
+        if (!pacer.awaitPresented()) return;
+        int back = 1 - front;
+        Bitmap target = buffers[back];
+        if (target == null || target.getWidth() != screenW || target.getHeight() != screenH) {
+            target = Bitmap.createBitmap(screenW, screenH, options.inPreferredConfig);
+            buffers[back] = target;
+            staleInBack.set(0, 0, screenW, screenH);
+        }
+        canvas.setBitmap(target);
+        if (!staleInBack.isEmpty()) {
+            canvas.drawBitmap(buffers[front], staleInBack, staleInBack, null);
+        }
+
+        changed.setEmpty();
+        int pos = 6;
+        for (int i = 0; i < count; i++) {
+            if (pos + 8 > len) break;
+            int x = u16(d, pos), y = u16(d, pos + 2);
+            int jpegLen = (int) Math.min(Integer.MAX_VALUE, u32(d, pos + 4));
+            pos += 8;
+            if (jpegLen > len - pos) break;
+            Bitmap decoded = decode(d, pos, jpegLen, tile);
+            pos += jpegLen;
+            if (decoded == null) continue;
+            tile = decoded;
+            src.set(0, 0, decoded.getWidth(), decoded.getHeight());
+            dst.set(x, y, x + decoded.getWidth(), y + decoded.getHeight());
+            canvas.drawBitmap(decoded, src, dst, null);
+            changed.union(dst);
+        }
+        canvas.setBitmap(null);
+        staleInBack.set(changed);
+        present(back);
+    }
+
+    /** Decode into {@code reuse} when it is large enough, else into a new bitmap. */
+    private Bitmap decode(byte[] data, int off, int len, Bitmap reuse) {
+        options.inBitmap = reuse != null && !reuse.isRecycled() ? reuse : null;
+        try {
+            return BitmapFactory.decodeByteArray(data, off, len, options);
+        } catch (IllegalArgumentException e) {
+            // reuse too small for this frame (e.g. the PC resolution changed)
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, off, len, options);
+        } finally {
+            options.inBitmap = null;
+        }
+    }
+
+    // ─── Presentation ───────────────────────────────────────────
+
+    private void present(int index) {
+        front = index;
+        Bitmap bitmap = buffers[index];
+        pacer.posted();
+        mainHandler.post(() -> {
+            try {
+                if (running && callback != null) callback.onFrame(bitmap);
+                framesShown++;
+            } finally {
+                pacer.presented();
+            }
+        });
+    }
+
+    private void releaseBitmaps() {
+        // The UI may still show the front buffer; leave it to the GC
+        buffers[0] = buffers[1] = null;
+        tile = null;
+        front = -1;
+    }
+
+    private static int u16(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF);
+    }
+
+    private static long u32(byte[] b, int off) {
+        return ((long) (b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+}
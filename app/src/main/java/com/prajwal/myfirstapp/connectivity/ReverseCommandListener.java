@@ -3,9 +3,11 @@ package com.prajwal.myfirstapp.connectivity;
 
 import com.prajwal.myfirstapp.R;
 import com.prajwal.myfirstapp.calendar.CalendarActivity;
+import com.prajwal.myfirstapp.connectivity.CommandRouter.Mode;
 import com.prajwal.myfirstapp.core.MyDeviceAdminReceiver;
 import com.prajwal.myfirstapp.notes.NotesActivity;
 import com.prajwal.myfirstapp.tasks.TaskManagerActivity;
+import com.prajwal.myfirstapp.tasks.TaskSyncEngine;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -31,17 +33,26 @@ import android.speech.tts.TextToSpeech;
 import android.util.Log;
 import android.widget.Toast;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Listens for reverse commands sent FROM the PC TO the phone.
  * Runs as a background thread started from MainActivity.
  * 
  * Protocol: UDP packets on port 6000
- * Response/heartbeat: UDP packets sent to PC on port 6001
+ * Response/heartbeat: UDP packets sent to PC on port 6001 over the
+ * shared {@link ControlSession}
+ *
+ * Commands are dispatched through a {@link CommandRouter}; slow handlers
+ * run on a single worker thread so the receive loop only decodes and routes.
  */
 public class ReverseCommandListener {
 
@@ -55,6 +66,14 @@ public class ReverseCommandListener {
     private boolean running = false;
     private String serverIp;
 
+    // Dispatch
+    private static final int WORKER_QUEUE = 256;
+    private final ThreadPoolExecutor worker;
+    private final CommandRouter router;
+
+    // Inbound authentication
+    private final PacketAuthenticator auth;
+
     // Hardware
     private TextToSpeech tts;
     private MediaPlayer mediaPlayer;
@@ -70,6 +89,13 @@ public class ReverseCommandListener {
         this.context = context.getApplicationContext();
         this.serverIp = serverIp;
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(WORKER_QUEUE), r -> new Thread(r, "ReverseCmdWorker"));
+        this.router = new CommandRouter(mainHandler::post, worker);
+        router.setErrorListener((command, e) -> Log.e(TAG, "Command handling error: " + e.getMessage()));
+        registerRoutes();
+        // A paired phone only takes commands signed with the paired key
+        this.auth = new PacketAuthenticator(new QRPairingManager(this.context).isPaired());
 
         // Initialize TTS
         tts = new TextToSpeech(this.context, status -> {
@@ -81,13 +107,33 @@ public class ReverseCommandListener {
     }
 
     public void setServerIp(String ip) {
+        String old = this.serverIp;
         this.serverIp = ip;
+        if (running && (old == null || !old.equals(ip))) {
+            ControlSession.getInstance().setHeartbeat(ip, RESPONSE_PORT);
+        }
     }
 
     public void setCallback(StatusCallback callback) {
         this.callback = callback;
     }
 
+    /**
+     * Drop every packet that is not signed with the shared HMAC key. On by
+     * default once the phone is paired; otherwise unsigned packets are
+     * accepted until the first signed one arrives (servers that advertise
+     * rauth in the handshake), so unpaired setups with older servers keep
+     * working.
+     */
+    public void setRequireAuthentication(boolean require) {
+        auth.setRequireAuth(require);
+    }
+
+    /** Per-command counters and latency histograms. */
+    public CommandRouter getRouter() {
+        return router;
+    }
+
     public void start() {
         if (running) return;
         running = true;
@@ -99,16 +145,13 @@ public class ReverseCommandListener {
                 listenSocket.setSoTimeout(1000);
                 Log.i(TAG, "Reverse command listener started on port " + LISTEN_PORT);
 
-                byte[] buffer = new byte[4096];
+                byte[] buffer = new byte[65507];
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 while (running) {
                     try {
-                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        packet.setLength(buffer.length);
                         listenSocket.receive(packet);
-                        String command = new String(packet.getData(), 0, packet.getLength()).trim();
-                        String senderIp = packet.getAddress().getHostAddress();
-
-                        Log.i(TAG, "Received: " + command + " from " + senderIp);
-                        handleCommand(command, senderIp);
+                        handlePacket(buffer, packet.getLength());
 
                     } catch (java.net.SocketTimeoutException e) {
                         // Normal timeout, continue
@@ -125,23 +168,17 @@ public class ReverseCommandListener {
             }
         }).start();
 
-        // Heartbeat thread — tells the PC we're alive
-        new Thread(() -> {
-            while (running) {
-                try {
-                    sendToPC("HEARTBEAT:" + System.currentTimeMillis());
-                    Thread.sleep(2000);
-                } catch (Exception e) {
-                    // Ignore
-                }
-            }
-        }).start();
+        // Heartbeat — tells the PC we're alive; sent on the control session's keepalive tick
+        if (serverIp != null) ControlSession.getInstance().setHeartbeat(serverIp, RESPONSE_PORT);
 
         Log.i(TAG, "Reverse command system started");
     }
 
     public void stop() {
         running = false;
+        ControlSession.getInstance().setHeartbeat(null, 0);
+        worker.shutdown();
+        Log.i(TAG, "Command stats:\n" + router.dumpStats());
         if (listenSocket != null && !listenSocket.isClosed()) {
             listenSocket.close();
         }
@@ -154,260 +191,320 @@ public class ReverseCommandListener {
     }
 
     // ─── COMMAND DISPATCHER ────────────────────────────────────
-    private void handleCommand(String command, String senderIp) {
-        try {
-            if (command.startsWith("VIBRATE_PATTERN:")) {
-                String pattern = command.substring(16);
-                vibratePattern(pattern);
-
-            } else if (command.startsWith("VIBRATE:")) {
-                int duration = Integer.parseInt(command.substring(8));
-                vibrate(duration);
-
-            } else if (command.startsWith("RING:")) {
-                int seconds = Integer.parseInt(command.substring(5));
-                ringPhone(seconds);
-
-            } else if (command.equals("RING_STOP")) {
-                stopRing();
-
-            } else if (command.startsWith("FLASH:")) {
-                // FLASH:FF0000:1000
-                // Flash screen effect — just show a toast for now 
-                showToast("Flash: " + command.substring(6));
-
-            } else if (command.startsWith("TOAST:")) {
-                String msg = command.substring(6);
-                showToast(msg);
-
-            } else if (command.startsWith("NOTIFY:")) {
-                // NOTIFY:Title|Body
-                String payload = command.substring(7);
-                String[] parts = payload.split("\\|", 2);
-                if (parts.length == 2) {
-                    showNotification(parts[0], parts[1]);
-                }
-
-            } else if (command.startsWith("BRIGHTNESS:")) {
-                int level = Integer.parseInt(command.substring(11));
-                setScreenBrightness(level);
-
-            } else if (command.startsWith("VOLUME:")) {
-                // VOLUME:music:10
-                String[] parts = command.substring(7).split(":");
-                if (parts.length == 2) {
-                    setVolume(parts[0], Integer.parseInt(parts[1]));
-                }
-
-            } else if (command.startsWith("CLIPBOARD:")) {
-                String text = command.substring(10);
-                setClipboard(text);
-
-            } else if (command.startsWith("OPEN_URL:")) {
-                String url = command.substring(9);
-                openUrl(url);
-
-            } else if (command.equals("TAKE_SCREENSHOT")) {
-                takeScreenshot();
-
-            } else if (command.startsWith("FLASHLIGHT:")) {
-                boolean on = command.substring(11).equals("ON");
-                toggleFlashlight(on);
-
-            } else if (command.equals("GET_INFO")) {
-                sendPhoneInfo();
-
-            } else if (command.equals("LOCK_SCREEN")) {
-                lockScreen();
-
-            } else if (command.startsWith("TTS:")) {
-                String text = command.substring(4);
-                speakText(text);
-
-            } else if (command.equals("FIND_MY_PHONE")) {
-                findMyPhone();
-
-            } else if (command.equals("KEEP_ALIVE")) {
-                sendToPC("KEEP_ALIVE_ACK");
-
-            } else if (command.startsWith("CAMERA_STREAM:")) {
-                String action = command.substring(14);
-                if (action.equals("START")) {
-                    Log.i(TAG, "Starting camera stream to " + serverIp);
-                    showToast("Camera stream starting...");
-                    CameraStreamService.start(context, serverIp);
-                } else if (action.equals("STOP")) {
-                    Log.i(TAG, "Stopping camera stream");
-                    showToast("Camera stream stopped");
-                    CameraStreamService.stop();
-                }
-
-            // ─── TASK MANAGER COMMANDS ─────────────────────────
-            } else if (command.startsWith("TASKS_SYNC:")) {
-                // Full task list sync from PC
-                String tasksJson = command.substring(11);
-                Log.i(TAG, "Received task sync from PC");
-                TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
-                if (taskActivity != null) {
-                    taskActivity.onTasksSyncReceived(tasksJson);
-                } else {
-                    // Activity not open — show notification
-                    showNotification("Tasks Synced", "Task list updated from PC");
-                }
-
-            } else if (command.startsWith("TASK_NOTIFY_ADDED:")) {
-                // TASK_NOTIFY_ADDED:id:title
-                String[] parts = command.substring(18).split(":", 2);
-                String taskId = parts[0];
-                String title = parts.length > 1 ? parts[1] : "New Task";
-                Log.i(TAG, "PC added task: " + title);
-                TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
-                if (taskActivity != null) {
-                    taskActivity.onTaskNotifyAdded(taskId, title);
-                } else {
-                    showNotification("New Task from PC", title);
-                    vibrate(200);
-                }
-
-            } else if (command.startsWith("TASK_NOTIFY_COMPLETED:")) {
-                // TASK_NOTIFY_COMPLETED:id:title
-                String[] parts = command.substring(22).split(":", 2);
-                String taskId = parts[0];
-                String title = parts.length > 1 ? parts[1] : "Task";
-                Log.i(TAG, "PC completed task: " + title);
-                TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
-                if (taskActivity != null) {
-                    taskActivity.onTaskNotifyCompleted(taskId, title);
-                } else {
-                    showNotification("Task Completed", "✅ " + title);
-                }
-
-            } else if (command.startsWith("TASK_NOTIFY_DELETED:")) {
-                String taskId = command.substring(20);
-                Log.i(TAG, "PC deleted task: " + taskId);
-                TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
-                if (taskActivity != null) {
-                    taskActivity.onTaskNotifyDeleted(taskId);
-                } else {
-                    showNotification("Task Deleted", "A task was removed from PC");
-                }
-
-            } else if (command.startsWith("TASK_ADDED:")) {
-                // Acknowledgment from PC that task was added
-                Log.i(TAG, "PC confirmed task add: " + command.substring(11));
 
-            } else if (command.startsWith("TASKS:")) {
-                // Response to TASK_LIST request
-                String tasksJson = command.substring(6);
-                TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
-                if (taskActivity != null) {
-                    taskActivity.onTasksSyncReceived(tasksJson);
-                }
+    /**
+     * Routes are registered per feature. INLINE handlers must stay cheap
+     * (acks and counters); anything touching system services, activities or
+     * storage runs on the worker so the receive loop never waits on it.
+     */
+    private void registerRoutes() {
+        registerDeviceCommands();
+        registerProtocolCommands();
+        registerCameraCommands();
+        registerTaskCommands();
+        registerNotesCommands();
+        registerCalendarCommands();
+        registerNotificationMirrorCommands();
+    }
 
-            // ─── NOTES COMMANDS ──────────────────────────────────
-            } else if (command.startsWith("NOTES_SYNC:")) {
-                // Full notes tree sync from PC
-                String notesJson = command.substring(11);
-                Log.i(TAG, "Received notes sync from PC");
-                NotesActivity notesActivity = NotesActivity.getInstance();
-                if (notesActivity != null) {
-                    notesActivity.onNotesSyncReceived(notesJson);
-                } else {
-                    showNotification("Notes Synced", "Notes updated from PC");
-                }
+    private static String args(String command, int off) {
+        return command.substring(off);
+    }
 
-            } else if (command.startsWith("NOTE_NOTIFY_ADDED:")) {
-                // NOTE_NOTIFY_ADDED:id:name
-                String[] parts = command.substring(18).split(":", 2);
-                String noteId = parts[0];
-                String noteName = parts.length > 1 ? parts[1] : "New Note";
-                Log.i(TAG, "PC added note: " + noteName);
-                NotesActivity notesActivity = NotesActivity.getInstance();
-                if (notesActivity != null) {
-                    notesActivity.onNoteEventReceived("ADDED", noteId);
-                } else {
-                    showNotification("New Note from PC", noteName);
-                }
+    private void registerDeviceCommands() {
+        router.register("VIBRATE_PATTERN", Mode.WORKER, (c, a) -> vibratePattern(args(c, a)))
+              .register("VIBRATE", Mode.WORKER, (c, a) -> vibrate(Integer.parseInt(args(c, a))))
+              .register("RING", Mode.WORKER, (c, a) -> ringPhone(Integer.parseInt(args(c, a))))
+              .register("RING_STOP", Mode.WORKER, (c, a) -> stopRing())
+              // FLASH:FF0000:1000 — flash screen effect, just a toast for now
+              .register("FLASH", Mode.INLINE, (c, a) -> showToast("Flash: " + args(c, a)))
+              .register("TOAST", Mode.INLINE, (c, a) -> showToast(args(c, a)))
+              .register("NOTIFY", Mode.WORKER, (c, a) -> {
+                  // NOTIFY:Title|Body
+                  String[] parts = args(c, a).split("\\|", 2);
+                  if (parts.length == 2) {
+                      showNotification(parts[0], parts[1]);
+                  }
+              })
+              .register("BRIGHTNESS", Mode.WORKER, (c, a) -> setScreenBrightness(Integer.parseInt(args(c, a))))
+              .register("VOLUME", Mode.WORKER, (c, a) -> {
+                  // VOLUME:music:10
+                  String[] parts = args(c, a).split(":");
+                  if (parts.length == 2) {
+                      setVolume(parts[0], Integer.parseInt(parts[1]));
+                  }
+              })
+              .register("CLIPBOARD", Mode.INLINE, (c, a) -> setClipboard(args(c, a)))
+              .register("OPEN_URL", Mode.INLINE, (c, a) -> openUrl(args(c, a)))
+              .register("TAKE_SCREENSHOT", Mode.INLINE, (c, a) -> takeScreenshot())
+              .register("FLASHLIGHT", Mode.WORKER, (c, a) -> toggleFlashlight(args(c, a).equals("ON")))
+              .register("GET_INFO", Mode.WORKER, (c, a) -> sendPhoneInfo())
+              .register("LOCK_SCREEN", Mode.WORKER, (c, a) -> lockScreen())
+              .register("TTS", Mode.WORKER, (c, a) -> speakText(args(c, a)))
+              .register("FIND_MY_PHONE", Mode.WORKER, (c, a) -> findMyPhone());
+    }
 
-            } else if (command.startsWith("NOTE_NOTIFY_UPDATED:")) {
-                String[] parts = command.substring(20).split(":", 2);
-                String noteId = parts[0];
-                String noteName = parts.length > 1 ? parts[1] : "Note";
-                Log.i(TAG, "PC updated note: " + noteName);
-                NotesActivity notesActivity = NotesActivity.getInstance();
-                if (notesActivity != null) {
-                    notesActivity.onNoteEventReceived("UPDATED", noteId);
-                }
+    private void registerProtocolCommands() {
+        router.register("KEEP_ALIVE", Mode.INLINE, (c, a) -> sendToPC("KEEP_ALIVE_ACK"))
+              // Handshake acks (see ConnectionManager.performHandshake)
+              .register("WIRE_PROTOCOL", Mode.INLINE, (c, a) ->
+                      ConnectionManager.getInstance(context).onWireProtocolAck(Integer.parseInt(args(c, a).trim())))
+              .register("FILE_TRANSFER", Mode.INLINE, (c, a) ->
+                      ConnectionManager.getInstance(context).onFileTransferAck(Integer.parseInt(args(c, a).trim())))
+              .register("OUTBOX", Mode.INLINE, (c, a) ->
+                      ConnectionManager.getInstance(context).onOutboxAck(Integer.parseInt(args(c, a).trim())))
+              .register("OUTBOX_ACK", Mode.INLINE, (c, a) ->
+                      ConnectionManager.getInstance(context).onOutboxDelivered(args(c, a)))
+              .register("TASK_SYNC_PROTOCOL", Mode.INLINE, (c, a) -> {
+                  // TASK_SYNC_PROTOCOL:<v>,<peerId>
+                  String[] parts = args(c, a).split(",", 2);
+                  ConnectionManager.getInstance(context).onTaskSyncAck(
+                          Integer.parseInt(parts[0].trim()), parts.length > 1 ? parts[1].trim() : null);
+              })
+              .register("SESSION", Mode.INLINE, (c, a) ->
+                      ConnectionManager.getInstance(context).onSessionAck(Integer.parseInt(args(c, a).trim())))
+              .register("NOTIF_PROTOCOL", Mode.INLINE, (c, a) ->
+                      NotifMirrorService.onProtocolAck(Integer.parseInt(args(c, a).trim())))
+              // CMD_STATS → CMD_STATS:<route stats, one per ';'>
+              .register("CMD_STATS", Mode.WORKER, (c, a) ->
+                      sendToPC("CMD_STATS:" + router.dumpStats().replace('\n', ';')
+                              + ";rejected=" + auth.getRejected()));
+    }
 
-            } else if (command.startsWith("NOTE_NOTIFY_DELETED:")) {
-                String noteId = command.substring(20);
-                Log.i(TAG, "PC deleted note: " + noteId);
-                NotesActivity notesActivity = NotesActivity.getInstance();
-                if (notesActivity != null) {
-                    notesActivity.onNoteEventReceived("DELETED", noteId);
-                } else {
-                    showNotification("Note Deleted", "A note was removed from PC");
-                }
+    private void registerCameraCommands() {
+        router.register("CAMERA_STREAM", Mode.WORKER, (c, a) -> {
+                  String action = args(c, a);
+                  if (action.equals("START") || action.startsWith("START:")) {
+                      // START:2 asks for fragmented frames (FrameProtocol); plain START stays v1
+                      int version = 1;
+                      if (action.startsWith("START:")) {
+                          try { version = Integer.parseInt(action.substring(6).trim()); }
+                          catch (NumberFormatException ignored) {}
+                      }
+                      Log.i(TAG, "Starting camera stream v" + version + " to " + serverIp);
+                      showToast("Camera stream starting...");
+                      CameraStreamService.start(context, serverIp, version);
+                  } else if (action.equals("STOP")) {
+                      Log.i(TAG, "Stopping camera stream");
+                      showToast("Camera stream stopped");
+                      CameraStreamService.stop();
+                  }
+              })
+              // Receiver feedback for the camera stream's quality controller
+              .register("CAMERA_STATS", Mode.INLINE, (c, a) -> CameraStreamService.onReceiverStats(args(c, a)));
+    }
 
-            // ─── CALENDAR COMMANDS ──────────────────────────────
-            } else if (command.startsWith("CAL_SYNC:")) {
-                // Full calendar sync from PC
-                String calendarJson = command.substring(9);
-                Log.i(TAG, "Received calendar sync from PC");
-                CalendarActivity calendarActivity = CalendarActivity.getInstance();
-                if (calendarActivity != null) {
-                    calendarActivity.onCalendarSyncReceived(calendarJson);
-                } else {
-                    showNotification("Calendar Synced", "Calendar updated from PC");
-                }
+    private void registerTaskCommands() {
+        router.register("SYNC_DELTA", Mode.WORKER, (c, a) -> {
+                  // SYNC_DELTA:{"tasks":[...],...} — the server's reply to SYNC_HANDSHAKE
+                  TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
+                  if (taskActivity == null) return; // not merged: the next handshake asks again
+                  JSONArray tasks = new JSONObject(args(c, a)).optJSONArray("tasks");
+                  if (tasks != null && tasks.length() > 0) taskActivity.onTasksSyncReceived(tasks.toString());
+                  ConnectionManager.getInstance(context).onHandshakeReply();
+              })
+              .register("TASKS_SYNC", Mode.WORKER, (c, a) -> {
+                  // Full task list sync from PC
+                  Log.i(TAG, "Received task sync from PC");
+                  TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
+                  if (taskActivity != null) {
+                      taskActivity.onTasksSyncReceived(args(c, a));
+                  } else {
+                      // Activity not open — show notification
+                      showNotification("Tasks Synced", "Task list updated from PC");
+                  }
+              })
+              .register("TASKS_DELTA", Mode.WORKER, (c, a) -> {
+                  // One page of incremental task changes (see TaskSyncEngine)
+                  TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
+                  if (taskActivity != null) {
+                      taskActivity.onTasksDeltaReceived(args(c, a));
+                  }
+                  // Otherwise the page is re-requested from the same mark on the next open
+              })
+              .register("TASK_DELTA_ACK", Mode.WORKER, (c, a) -> {
+                  // TASK_DELTA_ACK:peerId,rev — the PC has our task changes up to rev
+                  String[] parts = args(c, a).split(",", 2);
+                  if (parts.length == 2) {
+                      TaskSyncEngine.onPushAck(context, parts[0], Long.parseLong(parts[1].trim()));
+                  }
+              })
+              .register("TASK_NOTIFY_ADDED", Mode.WORKER, (c, a) -> {
+                  // TASK_NOTIFY_ADDED:id:title
+                  String[] parts = args(c, a).split(":", 2);
+                  String taskId = parts[0];
+                  String title = parts.length > 1 ? parts[1] : "New Task";
+                  Log.i(TAG, "PC added task: " + title);
+                  TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
+                  if (taskActivity != null) {
+                      taskActivity.onTaskNotifyAdded(taskId, title);
+                  } else {
+                      showNotification("New Task from PC", title);
+                      vibrate(200);
+                  }
+              })
+              .register("TASK_NOTIFY_COMPLETED", Mode.WORKER, (c, a) -> {
+                  // TASK_NOTIFY_COMPLETED:id:title
+                  String[] parts = args(c, a).split(":", 2);
+                  String taskId = parts[0];
+                  String title = parts.length > 1 ? parts[1] : "Task";
+                  Log.i(TAG, "PC completed task: " + title);
+                  TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
+                  if (taskActivity != null) {
+                      taskActivity.onTaskNotifyCompleted(taskId, title);
+                  } else {
+                      showNotification("Task Completed", "✅ " + title);
+                  }
+              })
+              .register("TASK_NOTIFY_DELETED", Mode.WORKER, (c, a) -> {
+                  String taskId = args(c, a);
+                  Log.i(TAG, "PC deleted task: " + taskId);
+                  TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
+                  if (taskActivity != null) {
+                      taskActivity.onTaskNotifyDeleted(taskId);
+                  } else {
+                      showNotification("Task Deleted", "A task was removed from PC");
+                  }
+              })
+              // Acknowledgment from PC that task was added
+              .register("TASK_ADDED", Mode.INLINE, (c, a) -> Log.i(TAG, "PC confirmed task add: " + args(c, a)))
+              .register("TASKS", Mode.WORKER, (c, a) -> {
+                  // Response to TASK_LIST request
+                  TaskManagerActivity taskActivity = TaskManagerActivity.getInstance();
+                  if (taskActivity != null) {
+                      taskActivity.onTasksSyncReceived(args(c, a));
+                  }
+              });
+    }
 
-            } else if (command.startsWith("CAL_NOTIFY_ADDED:")) {
-                // CAL_NOTIFY_ADDED:id:title
-                String[] parts = command.substring(17).split(":", 2);
-                String eventId = parts[0];
-                String eventTitle = parts.length > 1 ? parts[1] : "New Event";
-                Log.i(TAG, "PC added calendar event: " + eventTitle);
-                CalendarActivity calendarActivity = CalendarActivity.getInstance();
-                if (calendarActivity != null) {
-                    calendarActivity.onCalendarEventReceived("ADDED", eventId);
-                } else {
-                    showNotification("New Event from PC", eventTitle);
-                }
+    private void registerNotesCommands() {
+        router.register("NOTES_SYNC", Mode.WORKER, (c, a) -> {
+                  // Full notes tree sync from PC
+                  Log.i(TAG, "Received notes sync from PC");
+                  NotesActivity notesActivity = NotesActivity.getInstance();
+                  if (notesActivity != null) {
+                      notesActivity.onNotesSyncReceived(args(c, a));
+                  } else {
+                      showNotification("Notes Synced", "Notes updated from PC");
+                  }
+              })
+              .register("NOTE_NOTIFY_ADDED", Mode.WORKER, (c, a) -> {
+                  // NOTE_NOTIFY_ADDED:id:name
+                  String[] parts = args(c, a).split(":", 2);
+                  String noteId = parts[0];
+                  String noteName = parts.length > 1 ? parts[1] : "New Note";
+                  Log.i(TAG, "PC added note: " + noteName);
+                  NotesActivity notesActivity = NotesActivity.getInstance();
+                  if (notesActivity != null) {
+                      notesActivity.onNoteEventReceived("ADDED", noteId);
+                  } else {
+                      showNotification("New Note from PC", noteName);
+                  }
+              })
+              .register("NOTE_NOTIFY_UPDATED", Mode.WORKER, (c, a) -> {
+                  String[] parts = args(c, a).split(":", 2);
+                  String noteId = parts[0];
+                  String noteName = parts.length > 1 ? parts[1] : "Note";
+                  Log.i(TAG, "PC updated note: " + noteName);
+                  NotesActivity notesActivity = NotesActivity.getInstance();
+                  if (notesActivity != null) {
+                      notesActivity.onNoteEventReceived("UPDATED", noteId);
+                  }
+              })
+              .register("NOTE_NOTIFY_DELETED", Mode.WORKER, (c, a) -> {
+                  String noteId = args(c, a);
+                  Log.i(TAG, "PC deleted note: " + noteId);
+                  NotesActivity notesActivity = NotesActivity.getInstance();
+                  if (notesActivity != null) {
+                      notesActivity.onNoteEventReceived("DELETED", noteId);
+                  } else {
+                      showNotification("Note Deleted", "A note was removed from PC");
+                  }
+              });
+    }
 
-            } else if (command.startsWith("CAL_NOTIFY_UPDATED:")) {
-                String[] parts = command.substring(19).split(":", 2);
-                String eventId = parts[0];
-                String eventTitle = parts.length > 1 ? parts[1] : "Event";
-                Log.i(TAG, "PC updated calendar event: " + eventTitle);
-                CalendarActivity calendarActivity = CalendarActivity.getInstance();
-                if (calendarActivity != null) {
-                    calendarActivity.onCalendarEventReceived("UPDATED", eventId);
-                }
+    private void registerCalendarCommands() {
+        router.register("CAL_SYNC", Mode.WORKER, (c, a) -> {
+                  // Full calendar sync from PC
+                  Log.i(TAG, "Received calendar sync from PC");
+                  CalendarActivity calendarActivity = CalendarActivity.getInstance();
+                  if (calendarActivity != null) {
+                      calendarActivity.onCalendarSyncReceived(args(c, a));
+                  } else {
+                      showNotification("Calendar Synced", "Calendar updated from PC");
+                  }
+              })
+              .register("CAL_NOTIFY_ADDED", Mode.WORKER, (c, a) -> {
+                  // CAL_NOTIFY_ADDED:id:title
+                  String[] parts = args(c, a).split(":", 2);
+                  String eventId = parts[0];
+                  String eventTitle = parts.length > 1 ? parts[1] : "New Event";
+                  Log.i(TAG, "PC added calendar event: " + eventTitle);
+                  CalendarActivity calendarActivity = CalendarActivity.getInstance();
+                  if (calendarActivity != null) {
+                      calendarActivity.onCalendarEventReceived("ADDED", eventId);
+                  } else {
+                      showNotification("New Event from PC", eventTitle);
+                  }
+              })
+              .register("CAL_NOTIFY_UPDATED", Mode.WORKER, (c, a) -> {
+                  String[] parts = args(c, a).split(":", 2);
+                  String eventId = parts[0];
+                  String eventTitle = parts.length > 1 ? parts[1] : "Event";
+                  Log.i(TAG, "PC updated calendar event: " + eventTitle);
+                  CalendarActivity calendarActivity = CalendarActivity.getInstance();
+                  if (calendarActivity != null) {
+                      calendarActivity.onCalendarEventReceived("UPDATED", eventId);
+                  }
+              })
+              .register("CAL_NOTIFY_DELETED", Mode.WORKER, (c, a) -> {
+                  String eventId = args(c, a);
+                  Log.i(TAG, "PC deleted calendar event: " + eventId);
+                  CalendarActivity calendarActivity = CalendarActivity.getInstance();
+                  if (calendarActivity != null) {
+                      calendarActivity.onCalendarEventReceived("DELETED", eventId);
+                  } else {
+                      showNotification("Event Deleted", "A calendar event was removed from PC");
+                  }
+              });
+    }
 
-            } else if (command.startsWith("CAL_NOTIFY_DELETED:")) {
-                String eventId = command.substring(19);
-                Log.i(TAG, "PC deleted calendar event: " + eventId);
-                CalendarActivity calendarActivity = CalendarActivity.getInstance();
-                if (calendarActivity != null) {
-                    calendarActivity.onCalendarEventReceived("DELETED", eventId);
-                } else {
-                    showNotification("Event Deleted", "A calendar event was removed from PC");
-                }
+    private void registerNotificationMirrorCommands() {
+        router.register("NOTIF_DISMISS", Mode.WORKER, (c, a) -> {
+            String key = args(c, a);
+            Log.i(TAG, "PC requested notification dismiss: " + key);
+            NotifMirrorService.dismissNotification(key);
+        });
+    }
 
-            // ─── NOTIFICATION MIRROR COMMANDS ───────────────────────
-            } else if (command.startsWith("NOTIF_DISMISS:")) {
-                String key = command.substring(14);
-                Log.i(TAG, "PC requested notification dismiss: " + key);
-                NotifMirrorService.dismissNotification(key);
-            }
+    // ─── INBOUND PACKETS ───────────────────────────────────────
+
+    /**
+     * Turn one datagram into a command and dispatch it. Signed packets are
+     * verified and decrypted by {@link PacketAuthenticator}; unsigned ones
+     * are dropped once the phone is paired or a signed packet was accepted.
+     */
+    private void handlePacket(byte[] buf, int len) {
+        // Trim ASCII whitespace on the bytes instead of String.trim()
+        int start = 0, end = len;
+        while (start < end && (buf[start] & 0xFF) <= ' ') start++;
+        while (end > start && (buf[end - 1] & 0xFF) <= ' ') end--;
+        if (start == end) return;
+
+        String command = auth.accept(buf, start, end, System.currentTimeMillis() / 1000L);
+        if (command == null) {
+            Log.w(TAG, "Rejected packet: unsigned, bad signature, stale timestamp or replay");
+            return;
+        }
 
-            // Notify callback
-            if (callback != null) {
-                mainHandler.post(() -> callback.onReverseCommand(command));
-            }
+        if (Log.isLoggable(TAG, Log.DEBUG)) Log.d(TAG, "Received: " + command);
+        if (!router.dispatch(command) && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "No route for: " + command);
+        }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Command handling error: " + e.getMessage());
+        // Notify callback
+        if (callback != null) {
+            mainHandler.post(() -> callback.onReverseCommand(command));
         }
     }
 
@@ -645,43 +742,29 @@ public class ReverseCommandListener {
     }
 
     private void sendPhoneInfo() {
-        new Thread(() -> {
-            try {
-                // Battery
-                android.os.BatteryManager bm = (android.os.BatteryManager)
-                        context.getSystemService(Context.BATTERY_SERVICE);
-                int battery = bm != null ? bm.getIntProperty(android.os.BatteryManager.BATTERY_PROPERTY_CAPACITY) : -1;
+        try {
+            // Battery
+            android.os.BatteryManager bm = (android.os.BatteryManager)
+                    context.getSystemService(Context.BATTERY_SERVICE);
+            int battery = bm != null ? bm.getIntProperty(android.os.BatteryManager.BATTERY_PROPERTY_CAPACITY) : -1;
 
-                // Storage
-                android.os.StatFs stat = new android.os.StatFs(android.os.Environment.getDataDirectory().getPath());
-                long freeGB = stat.getAvailableBytes() / (1024 * 1024 * 1024);
-                long totalGB = stat.getTotalBytes() / (1024 * 1024 * 1024);
+            // Storage
+            android.os.StatFs stat = new android.os.StatFs(android.os.Environment.getDataDirectory().getPath());
+            long freeGB = stat.getAvailableBytes() / (1024 * 1024 * 1024);
+            long totalGB = stat.getTotalBytes() / (1024 * 1024 * 1024);
 
-                String info = String.format("Battery:%d|Storage:%dGB/%dGB|Model:%s|Android:%s",
-                        battery, freeGB, totalGB,
-                        Build.MODEL, Build.VERSION.RELEASE);
+            String info = String.format("Battery:%d|Storage:%dGB/%dGB|Model:%s|Android:%s",
+                    battery, freeGB, totalGB,
+                    Build.MODEL, Build.VERSION.RELEASE);
 
-                sendToPC("PHONE_INFO:" + info);
-            } catch (Exception e) {
-                Log.e(TAG, "Info gather error: " + e.getMessage());
-            }
-        }).start();
+            sendToPC("PHONE_INFO:" + info);
+        } catch (Exception e) {
+            Log.e(TAG, "Info gather error: " + e.getMessage());
+        }
     }
 
     // ─── SEND TO PC ────────────────────────────────────────────
     private void sendToPC(String message) {
-        if (serverIp == null) return;
-        new Thread(() -> {
-            try {
-                DatagramSocket socket = new DatagramSocket();
-                byte[] buf = message.getBytes();
-                InetAddress address = InetAddress.getByName(serverIp);
-                DatagramPacket packet = new DatagramPacket(buf, buf.length, address, RESPONSE_PORT);
-                socket.send(packet);
-                socket.close();
-            } catch (Exception e) {
-                // Silently fail for heartbeats
-            }
-        }).start();
+        ControlSession.getInstance().send(serverIp, RESPONSE_PORT, message, false);
     }
 }
@@ -0,0 +1,470 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds PC servers on the LAN. One socket on {@link #DISCOVERY_PORT}
+ * serves both active scans and the servers' periodic
+ * LAPTOP_SERVER_ACTIVE announcements, on one daemon thread that only
+ * runs while something is listening.
+ *
+ * A scan:
+ *   - first probes the last known good server directly — DISCOVERY_REQUEST
+ *     to its watchdog port and a PING over the {@link ControlSession} —
+ *     which usually answers within a few ms;
+ *   - broadcasts DISCOVERY_REQUEST to the broadcast address of every
+ *     active IPv4 interface (plus 255.255.255.255), repeating after 250,
+ *     500, 1000 … ms in case a packet was lost;
+ *   - reports each server as soon as it answers and finishes
+ *     {@link #QUIET_MS} after the last new answer, or after
+ *     {@link #SCAN_MS} if nothing answers.
+ *
+ * {@link #reconnect} repeats scans until a server answers, backing off
+ * exponentially ({@link #backoffMs}) while nothing does.
+ *
+ * Listener calls run on the discovery thread.
+ */
+public final class ServerDiscovery {
+
+    private static final String TAG = "ServerDiscovery";
+
+    public static final int DISCOVERY_PORT = 37020;
+    private static final int WATCHDOG_PORT = 5007;
+    private static final int COMMAND_PORT = 5005;
+
+    static final long SCAN_MS = 3000;
+    static final long QUIET_MS = 400;
+    /** Reconnect waits this long for the last known server before broadcasting. */
+    static final long PROBE_MS = 150;
+    static final long FIRST_RESEND_MS = 250;
+    static final long MIN_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 30_000;
+
+    private static final String REQUEST = "DISCOVERY_REQUEST";
+    private static final String PREFS = "app_prefs";
+    private static final String KEY_LAST_SERVER = "laptop_ip";   // also read by ConnectionManager.getInstance
+
+    public interface Listener {
+        void onServerFound(String ip);
+        /** The scan is over; {@code servers} in the order they answered. */
+        void onFinished(List<String> servers);
+    }
+
+    /** Every announcement or discovery reply, from any server. */
+    public interface PresenceListener {
+        void onServerPresent(String ip);
+    }
+
+    /** Where probes go; the discovery socket in the app, a recorder in tests. */
+    interface Transport {
+        List<InetAddress> broadcastAddresses();
+        /** DISCOVERY_REQUEST to {@code addr}:{@code port}. */
+        void send(InetAddress addr, int port);
+        /** PING {@code ip}; run {@code answered} if it replies with PONG. */
+        void ping(String ip, Runnable answered);
+        /** The server to probe directly, or null; {@code context} may be null. */
+        String lastServer(Context context);
+    }
+
+    interface Clock {
+        long nowMs();
+    }
+
+    /** One running scan; pass to {@link #cancel}. */
+    public final class Scan {
+        final Listener listener;
+        final String lastKnown;
+        final boolean stopOnFirst;
+        final Set<String> found = new LinkedHashSet<>();
+        final long deadline;
+        long nextBroadcast;
+        long resendDelay = FIRST_RESEND_MS;
+        long lastFoundAt;
+        List<InetAddress> broadcasts;
+        volatile boolean cancelled;
+
+        Scan(Listener listener, String lastKnown, boolean stopOnFirst, long now) {
+            this.listener = listener;
+            this.lastKnown = lastKnown;
+            this.stopOnFirst = stopOnFirst;
+            this.deadline = now + SCAN_MS;
+            this.nextBroadcast = lastKnown != null && stopOnFirst ? now + PROBE_MS : now;
+        }
+    }
+
+    private static ServerDiscovery instance;
+
+    public static synchronized ServerDiscovery getInstance() {
+        if (instance == null) instance = new ServerDiscovery();
+        return instance;
+    }
+
+    private final List<Scan> scans = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<Scan> starting = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> probeAnswers = new ConcurrentLinkedQueue<>();
+    private final List<PresenceListener> presence = new CopyOnWriteArrayList<>();
+
+    // Reconnect state, guarded by this
+    private Listener reconnectListener;
+    private Context reconnectContext;
+    private int reconnectAttempt;
+    private long nextReconnectAt;
+
+    private final Transport transport;
+    private final Clock clock;
+    private final boolean ownThread;
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private Thread thread;
+
+    private ServerDiscovery() {
+        this.transport = new SocketTransport();
+        this.clock = () -> System.nanoTime() / 1_000_000;
+        this.ownThread = true;
+    }
+
+    /**
+     * Discovery over {@code transport} with no socket or thread of its own:
+     * the caller drives it with {@link #step} and {@link #onAnswer}. Used
+     * directly by tests.
+     */
+    ServerDiscovery(Transport transport, Clock clock) {
+        this.transport = transport;
+        this.clock = clock;
+        this.ownThread = false;
+    }
+
+    // ─── API ────────────────────────────────────────────────────
+
+    /** Scan the LAN, probing the last known server (if {@code context} is given) first. */
+    public Scan scan(Context context, Listener listener) {
+        Scan s = new Scan(listener, transport.lastServer(context), false, clock.nowMs());
+        starting.add(s);
+        wake();
+        return s;
+    }
+
+    public void cancel(Scan scan) {
+        if (scan != null) scan.cancelled = true;
+    }
+
+    /**
+     * Scan until a server answers — the last known one usually does at
+     * once — then report it and stop. While nothing answers, scans repeat
+     * after {@link #backoffMs} of the attempt number.
+     */
+    public void reconnect(Context context, Listener listener) {
+        startReconnect(context.getApplicationContext(), listener);
+    }
+
+    synchronized void startReconnect(Context appContext, Listener listener) {
+        reconnectContext = appContext;
+        reconnectListener = listener;
+        reconnectAttempt = 0;
+        nextReconnectAt = clock.nowMs();
+        wake();
+    }
+
+    public synchronized void stopReconnect() {
+        reconnectListener = null;
+        reconnectContext = null;
+    }
+
+    public void addPresenceListener(PresenceListener listener) {
+        presence.add(listener);
+        wake();
+    }
+
+    public void removePresenceListener(PresenceListener listener) {
+        presence.remove(listener);
+    }
+
+    /** Remember a server that worked, for the next scan's direct probe. */
+    public static void rememberServer(Context context, String ip) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .edit().putString(KEY_LAST_SERVER, ip).apply();
+    }
+
+    public static String getLastServer(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).getString(KEY_LAST_SERVER, null);
+    }
+
+    /** Delay before reconnect attempt {@code attempt} (0-based): 0, 1 s, 2 s, 4 s … up to 30 s. */
+    static long backoffMs(int attempt) {
+        if (attempt <= 0) return 0;
+        if (attempt > 16) return MAX_BACKOFF_MS;
+        return Math.min(MAX_BACKOFF_MS, MIN_BACKOFF_MS << (attempt - 1));
+    }
+
+    // ─── Discovery thread ───────────────────────────────────────
+
+    private synchronized void wake() {
+        if (!ownThread) return;
+        if (thread == null) {
+            try {
+                selector = Selector.open();
+                channel = DatagramChannel.open();
+                channel.socket().setReuseAddress(true);     // servers' announcements may be shared
+                channel.socket().setBroadcast(true);
+                channel.socket().bind(new InetSocketAddress(DISCOVERY_PORT));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot bind discovery port " + DISCOVERY_PORT + ": " + e.getMessage());
+                closeChannel();
+                Scan s;
+                while ((s = starting.poll()) != null) s.listener.onFinished(new ArrayList<>());
+                return;
+            }
+            thread = new Thread(this::loop, "ServerDiscovery");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            selector.wakeup();
+        }
+    }
+
+    private boolean idle() {
+        synchronized (this) {
+            if (!scans.isEmpty() || !starting.isEmpty() || !presence.isEmpty() || reconnectListener != null) {
+                return false;
+            }
+            closeChannel();
+            thread = null;
+            return true;
+        }
+    }
+
+    private void closeChannel() {
+        try { if (channel != null) channel.close(); } catch (IOException ignored) {}
+        try { if (selector != null) selector.close(); } catch (IOException ignored) {}
+        channel = null;
+        selector = null;
+    }
+
+    private void loop() {
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        while (!idle()) {
+            try {
+                long wait = step();
+                if (wait > 0) selector.select(wait);
+                else selector.selectNow();
+                selector.selectedKeys().clear();
+
+                SocketAddress from;
+                while (true) {
+                    buf.clear();
+                    from = channel.receive(buf);
+                    if (from == null) break;
+                    String msg = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8).trim();
+                    if (msg.equals("LAPTOP_IP_FOUND") || msg.equals("LAPTOP_SERVER_ACTIVE")) {
+                        onAnswer(((InetSocketAddress) from).getAddress().getHostAddress());
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Discovery loop error: " + e.getMessage());
+                try { Thread.sleep(100); } catch (InterruptedException ie) { return; }
+            }
+        }
+    }
+
+    /**
+     * Start new scans and reconnect attempts, take probe answers and end or
+     * re-broadcast every scan. Returns how long until something is due.
+     */
+    long step() {
+        long now = clock.nowMs();
+        Scan s;
+        while ((s = starting.poll()) != null) begin(s, now);
+        startReconnectScan(now);
+
+        String ip;
+        while ((ip = probeAnswers.poll()) != null) onAnswer(ip);
+
+        now = clock.nowMs();
+        for (Scan scan : scans) service(scan, now);
+        return nextWakeup(now) - now;
+    }
+
+    private void begin(Scan s, long now) {
+        s.broadcasts = transport.broadcastAddresses();
+        scans.add(s);
+        if (s.lastKnown != null) {
+            String ip = s.lastKnown;
+            send(ip, WATCHDOG_PORT);
+            transport.ping(ip, () -> {
+                probeAnswers.add(ip);
+                wake();
+            });
+        }
+        service(s, now);
+    }
+
+    private synchronized void startReconnectScan(long now) {
+        if (reconnectListener == null || now < nextReconnectAt) return;
+        for (Scan s : scans) if (s.stopOnFirst) return;            // one attempt at a time
+        Listener outer = reconnectListener;
+        Scan s = new Scan(new Listener() {
+            @Override public void onServerFound(String ip) {
+                synchronized (ServerDiscovery.this) {
+                    if (reconnectListener != outer) return;
+                    reconnectListener = null;
+                    reconnectContext = null;
+                }
+                outer.onServerFound(ip);
+            }
+            @Override public void onFinished(List<String> servers) {
+                if (!servers.isEmpty()) {
+                    outer.onFinished(servers);
+                    return;
+                }
+                synchronized (ServerDiscovery.this) {
+                    if (reconnectListener != outer) return;
+                    long delay = backoffMs(++reconnectAttempt);
+                    nextReconnectAt = clock.nowMs() + delay;
+                    Log.i(TAG, "No server answered, retrying in " + delay + " ms");
+                }
+            }
+        }, transport.lastServer(reconnectContext), true, now);
+        nextReconnectAt = Long.MAX_VALUE;        // until this attempt finishes
+        begin(s, now);
+    }
+
+    /** A discovery reply or announcement from {@code ip}. */
+    void onAnswer(String ip) {
+        for (PresenceListener l : presence) {
+            try {
+                l.onServerPresent(ip);
+            } catch (Exception e) {
+                Log.e(TAG, "Presence listener error: " + e.getMessage());
+            }
+        }
+        long now = clock.nowMs();
+        for (Scan s : scans) {
+            if (s.cancelled || !s.found.add(ip)) continue;
+            s.lastFoundAt = now;
+            try {
+                s.listener.onServerFound(ip);
+            } catch (Exception e) {
+                Log.e(TAG, "Discovery listener error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void service(Scan s, long now) {
+        boolean over = s.cancelled
+                || now >= s.deadline
+                || (!s.found.isEmpty() && (s.stopOnFirst || now - s.lastFoundAt >= QUIET_MS));
+        if (over) {
+            scans.remove(s);
+            if (s.cancelled) return;
+            try {
+                s.listener.onFinished(new ArrayList<>(s.found));
+            } catch (Exception e) {
+                Log.e(TAG, "Discovery listener error: " + e.getMessage());
+            }
+            return;
+        }
+        if (now >= s.nextBroadcast) {
+            for (InetAddress addr : s.broadcasts) transport.send(addr, WATCHDOG_PORT);
+            s.nextBroadcast = now + s.resendDelay;
+            s.resendDelay *= 2;
+        }
+    }
+
+    private long nextWakeup(long now) {
+        long next = now + 60_000;
+        for (Scan s : scans) {
+            next = Math.min(next, Math.min(s.deadline, s.nextBroadcast));
+            if (!s.found.isEmpty()) next = Math.min(next, s.lastFoundAt + QUIET_MS);
+        }
+        synchronized (this) {
+            if (reconnectListener != null && nextReconnectAt != Long.MAX_VALUE) {
+                next = Math.min(next, nextReconnectAt);
+            }
+        }
+        return next;
+    }
+
+    private void send(String host, int port) {
+        try {
+            transport.send(InetAddress.getByName(host), port);
+        } catch (IOException e) {
+            Log.w(TAG, "Probe to " + host + " failed: " + e.getMessage());
+        }
+    }
+
+    /** The discovery socket for probes, the {@link ControlSession} for PINGs. */
+    private final class SocketTransport implements Transport {
+        @Override public List<InetAddress> broadcastAddresses() {
+            return ServerDiscovery.broadcastAddresses();
+        }
+
+        @Override public void send(InetAddress addr, int port) {
+            try {
+                channel.send(ByteBuffer.wrap(REQUEST.getBytes(StandardCharsets.UTF_8)), new InetSocketAddress(addr, port));
+            } catch (IOException e) {
+                Log.w(TAG, "Discovery send to " + addr.getHostAddress() + " failed: " + e.getMessage());
+            }
+        }
+
+        @Override public void ping(String ip, Runnable answered) {
+            ControlSession.getInstance().request(ip, COMMAND_PORT, "PING", false, "PONG", SCAN_MS,
+                    new ControlSession.ResponseCallback() {
+                        @Override public void onResponse(String reply, long rttMs) { answered.run(); }
+                        @Override public void onTimeout() { }
+                    });
+        }
+
+        @Override public String lastServer(Context context) {
+            return context != null ? getLastServer(context) : null;
+        }
+    }
+
+    /** Broadcast address of every up, non-loopback IPv4 interface, then the limited broadcast. */
+    static List<InetAddress> broadcastAddresses() {
+        List<InetAddress> out = new ArrayList<>();
+        try {
+            Enumeration<NetworkInterface> ifaces = NetworkInterface.getNetworkInterfaces();
+            if (ifaces != null) {
+                for (NetworkInterface nif : Collections.list(ifaces)) {
+                    if (!nif.isUp() || nif.isLoopback()) continue;
+                    for (InterfaceAddress ia : nif.getInterfaceAddresses()) {
+                        InetAddress b = ia.getBroadcast();
+                        if (ia.getAddress() instanceof Inet4Address && b != null && !out.contains(b)) out.add(b);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Interface enumeration failed: " + e.getMessage());
+        }
+        try {
+            InetAddress limited = InetAddress.getByName("255.255.255.255");
+            if (!out.contains(limited)) out.add(limited);
+        } catch (IOException ignored) {}
+        return out;
+    }
+}
@@ -0,0 +1,149 @@
+package com.prajwal.myfirstapp.connectivity;
+
+/**
+ * Picks resolution, JPEG quality and frame rate for the camera stream
+ * from what the receiver reports (CAMERA_STATS loss and echoed latency)
+ * and from the size of the frames we produce.
+ *
+ * Works on a fixed ladder of levels. Congestion (loss above
+ * {@link #LOSS_HIGH} or latency above {@link #LATENCY_HIGH_MS}) steps down
+ * one level immediately, at most once per {@link #HOLD_MS}. After
+ * {@link #GOOD_REPORTS_TO_CLIMB} consecutive clean reports it steps up one
+ * level. Within a level, frames that come out larger than the budget shave
+ * the JPEG quality; clean reports or a run of small frames give it back.
+ * This is what keeps bright, detailed scenes under the legacy
+ * single-datagram limit.
+ *
+ * Thread-safe; all methods are cheap.
+ */
+public class StreamQualityController {
+
+    /** One rung of the ladder. */
+    public static final class Level {
+        public final int width;
+        public final int height;
+        public final int quality;
+        public final int fps;
+
+        Level(int width, int height, int quality, int fps) {
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.fps = fps;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + " q" + quality + " @" + fps;
+        }
+    }
+
+    static final Level[] LADDER = {
+            new Level(320, 240, 45, 10),
+            new Level(640, 480, 50, 12),
+            new Level(640, 480, 65, 15),
+            new Level(960, 720, 70, 20),
+            new Level(1280, 720, 75, 24),
+    };
+    public static final int DEFAULT_LEVEL = 2;   // the old fixed 640x480 @ ~15 FPS
+
+    static final double LOSS_HIGH = 0.05;
+    static final double LOSS_LOW = 0.01;
+    static final int LATENCY_HIGH_MS = 250;
+    static final int LATENCY_LOW_MS = 120;
+    static final long HOLD_MS = 2000;
+    static final int GOOD_REPORTS_TO_CLIMB = 5;
+
+    private static final int QUALITY_STEP_DOWN = 10;
+    private static final int QUALITY_STEP_UP = 5;
+    private static final int MIN_QUALITY = 25;
+    private static final int SMALL_FRAMES_TO_RECOVER = 30;
+
+    private final int maxLevel;
+    private final int frameBudgetBytes;
+    private int level;
+    private int qualityOffset;           // ≤ 0, applied to the level's quality
+    private int goodReports;
+    private int smallFrames;             // consecutive frames well under budget
+    private long lastChangeMs = Long.MIN_VALUE / 2;
+
+    /**
+     * @param startLevel       ladder index to start at, usually {@link #DEFAULT_LEVEL}
+     * @param maxLevel         highest ladder index to use (e.g. lower on weak devices)
+     * @param frameBudgetBytes encoded frames above this lower the quality
+     */
+    public StreamQualityController(int startLevel, int maxLevel, int frameBudgetBytes) {
+        this.maxLevel = Math.max(0, Math.min(maxLevel, LADDER.length - 1));
+        this.level = Math.max(0, Math.min(startLevel, this.maxLevel));
+        this.frameBudgetBytes = frameBudgetBytes;
+    }
+
+    public synchronized Level getLevel() {
+        return LADDER[level];
+    }
+
+    /** JPEG quality to encode the next frame with. */
+    public synchronized int getQuality() {
+        return Math.max(MIN_QUALITY, LADDER[level].quality + qualityOffset);
+    }
+
+    public synchronized long getFrameIntervalNs() {
+        return 1_000_000_000L / LADDER[level].fps;
+    }
+
+    /**
+     * Apply a receiver report. Returns true if the level changed (the
+     * caller may need to reconfigure the camera for a new resolution).
+     */
+    public synchronized boolean onReport(double loss, int latencyMs, long nowMs) {
+        boolean congested = loss > LOSS_HIGH || latencyMs > LATENCY_HIGH_MS;
+        boolean clean = loss < LOSS_LOW && latencyMs >= 0 && latencyMs < LATENCY_LOW_MS;
+
+        if (congested) {
+            goodReports = 0;
+            if (level > 0 && nowMs - lastChangeMs >= HOLD_MS) {
+                level--;
+                qualityOffset = 0;
+                lastChangeMs = nowMs;
+                return true;
+            }
+            return false;
+        }
+        if (!clean) {
+            goodReports = 0;
+            return false;
+        }
+        if (qualityOffset < 0) {
+            qualityOffset = Math.min(0, qualityOffset + QUALITY_STEP_UP);
+            return false;
+        }
+        if (++goodReports >= GOOD_REPORTS_TO_CLIMB && level < maxLevel
+                && nowMs - lastChangeMs >= HOLD_MS) {
+            level++;
+            goodReports = 0;
+            lastChangeMs = nowMs;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the size of an encoded frame. Oversized frames lower the
+     * quality for the next ones; a long run of small frames (the scene got
+     * simpler) restores it, so this also works without receiver reports.
+     */
+    public synchronized void onFrameEncoded(int bytes) {
+        if (bytes > frameBudgetBytes) {
+            smallFrames = 0;
+            goodReports = 0;
+            if (getQuality() > MIN_QUALITY) qualityOffset -= QUALITY_STEP_DOWN;
+        } else if (bytes < frameBudgetBytes / 2 && qualityOffset < 0) {
+            if (++smallFrames >= SMALL_FRAMES_TO_RECOVER) {
+                smallFrames = 0;
+                qualityOffset = Math.min(0, qualityOffset + QUALITY_STEP_UP);
+            }
+        } else {
+            smallFrames = 0;
+        }
+    }
+}
@@ -6,14 +6,56 @@ import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 /**
  * Offline-first command queue — the "Outbox" Pattern.
  *
  * When a data command (TASK_ADD, NOTE_UPDATE, CAL_ADD, etc.) cannot be
  * delivered to the PC because it is unreachable, the command is saved here.
- * The queue is persisted to SharedPreferences so it survives app restarts.
+ *
+ * Storage is an append-only journal ({@code files/sync_outbox/outbox.log})
+ * of CRC-checked enqueue/remove records, replayed on start (a torn tail is
+ * truncated) and rewritten with only the live entries once removals
+ * dominate it. The queue itself lives in memory, so {@link #getPendingCount}
+ * is O(1). Queues left in SharedPreferences by older builds are migrated
+ * into the journal once.
+ *
+ * Commands that are superseded by a newer one for the same object are
+ * coalesced on enqueue — only the last NOTE_UPDATE / CAL_UPDATE for an id
+ * is kept, COMPLETE and UNCOMPLETE replace each other, a DELETE drops any
+ * pending update of the object, and a repeated *_SYNC request is sent once.
+ *
+ * Flushing is pipelined: once the server has acknowledged the outbox
+ * protocol during the handshake (reverse command OUTBOX:1), entries are
+ * packed into OUTBOX_BATCH datagrams, up to {@link #WINDOW} commands are
+ * in flight at a time, and each is removed only when the server answers
+ * OUTBOX_ACK:&lt;seq&gt;[,&lt;seq&gt;…]. Unacknowledged entries are re-sent after
+ * {@link #ACK_TIMEOUT_MS}. Older servers get the plain commands back to
+ * back over the shared command socket. Two commands for the same object
+ * are never in flight together, so the server sees them in order.
  *
  * Usage:
  *   outbox.enqueue("TASK_ADD:Buy milk:normal");   // called on send failure
@@ -26,108 +68,590 @@ public class SyncOutbox {
     private static final String QUEUE_KEY  = "pending_commands";
     private static final int    MAX_RETRIES = 5;
 
-    private final Context context;
+    // ─── Journal ────────────────────────────────────────────────
+    private static final String DIR_NAME     = "sync_outbox";
+    private static final String JOURNAL_NAME = "outbox.log";
+    private static final byte   OP_ENQUEUE = 'E';
+    private static final byte   OP_REMOVE  = 'R';
+    /** Rewrite the journal once it holds this many dead records and more dead than live ones. */
+    private static final int    COMPACT_MIN_DEAD = 256;
+
+    // ─── Pipelined flush ────────────────────────────────────────
+    /** Protocol version advertised in the handshake (outbox=<v>). */
+    public static final int     PROTOCOL_VERSION = 1;
+    static final int            WINDOW = 64;
+    static final int            BATCH_BYTES = 1200;      // keeps datagrams below a typical MTU
+    static final long           ACK_TIMEOUT_MS = 1500;
+    /** Attempts per flush before an unacknowledged entry counts as a failed retry. */
+    static final int            MAX_ATTEMPTS = 3;
+    private static final int    UNACKED_BURST = 32;      // pacing for servers without acks
+
+    /** Where a flush sends its packets; {@link ConnectionManager#sendCommandSync} in the app. */
+    interface Transport {
+        boolean send(String packet);
+    }
+
+    private static final class Entry {
+        final long seq;
+        final String command;
+        final long enqueuedAt;
+        final String target;    // "FAMILY:id" or the *_SYNC type, null if never coalesced
+        final int kind;
+        int retries;
+        int attempts;           // sends in the current flush
+        long sentAt;            // 0 = not in flight
+
+        Entry(long seq, String command, long enqueuedAt) {
+            this.seq = seq;
+            this.command = command;
+            this.enqueuedAt = enqueuedAt;
+            this.target = coalesceTarget(command);
+            this.kind = kindOf(command);
+        }
+    }
+
+    private final File dir;
+    private final File journalFile;
+
+    // All state below is guarded by this
+    private final LinkedHashMap<Long, Entry> pending = new LinkedHashMap<>();
+    private final Map<String, List<Entry>> byTarget = new HashMap<>();
+    private final Map<Long, Entry> inFlight = new LinkedHashMap<>();
+    private long nextSeq = 1;
+    private int deadRecords;
+    private DataOutputStream journal;
+    private boolean acksEnabled;
+    private boolean flushing;
+    private final List<Runnable> flushCallbacks = new ArrayList<>();
 
     public SyncOutbox(Context context) {
-        this.context = context.getApplicationContext();
+        this(new File(context.getApplicationContext().getFilesDir(), DIR_NAME));
+        migrateLegacyQueue(context.getApplicationContext());
+    }
+
+    /** Journal-only outbox rooted at {@code dir}; used directly by tests. */
+    SyncOutbox(File dir) {
+        this.dir = dir;
+        this.journalFile = new File(dir, JOURNAL_NAME);
+        synchronized (this) {
+            if (!dir.exists() && !dir.mkdirs()) Log.w(TAG, "Could not create " + dir);
+            replayJournal();
+            openJournal();
+            if (shouldCompact()) compact();
+        }
     }
 
     // ─── Public API ─────────────────────────────────────────────
 
     /** Add a command to the outbox for later delivery. */
     public synchronized void enqueue(String command) {
-        try {
-            JSONArray queue = loadQueue();
-            JSONObject entry = new JSONObject();
-            entry.put("command", command);
-            entry.put("enqueued_at", System.currentTimeMillis());
-            entry.put("retries", 0);
-            queue.put(entry);
-            saveQueue(queue);
-            Log.i(TAG, "Queued offline: " + abbrev(command));
-        } catch (JSONException e) {
-            Log.e(TAG, "Enqueue error: " + e.getMessage());
-        }
+        if (command == null) return;
+        Entry entry = new Entry(nextSeq++, command, System.currentTimeMillis());
+        appendEnqueue(entry);
+        int superseded = add(entry);
+        flushJournal();
+        if (shouldCompact()) compact();
+        notifyAll();
+        Log.i(TAG, "Queued offline: " + abbrev(command)
+                + (superseded > 0 ? " (replaces " + superseded + ")" : ""));
     }
 
     /** Number of commands currently waiting to be sent. */
     public synchronized int getPendingCount() {
-        return loadQueue().length();
+        return pending.size();
     }
 
     /**
      * Attempt to deliver all queued commands.
      *
-     * Each successfully-sent command is removed from the queue.
-     * Failed commands have their retry counter incremented; after
-     * MAX_RETRIES they are silently dropped.
+     * Each delivered command is removed from the queue. A command that
+     * cannot be delivered has its retry counter incremented; after
+     * MAX_RETRIES flushes it is dropped. Commands enqueued while a flush is
+     * running are picked up by that flush, and a second call just waits
+     * for it.
      *
      * Runs on a background thread. {@code onComplete} is invoked when done.
      */
     public void flush(ConnectionManager connectionManager, Runnable onComplete) {
+        flush(connectionManager::sendCommandSync, onComplete);
+    }
+
+    void flush(Transport transport, Runnable onComplete) {
+        synchronized (this) {
+            if (onComplete != null) flushCallbacks.add(onComplete);
+            if (flushing) return;
+            flushing = true;
+        }
         new Thread(() -> {
+            List<Runnable> callbacks;
             synchronized (SyncOutbox.this) {
-                JSONArray queue = loadQueue();
-                if (queue.length() == 0) {
-                    if (onComplete != null) onComplete.run();
-                    return;
-                }
-
-                Log.i(TAG, "Flushing outbox — " + queue.length() + " pending command(s)");
-                JSONArray remaining = new JSONArray();
-
-                for (int i = 0; i < queue.length(); i++) {
-                    try {
-                        JSONObject entry = queue.getJSONObject(i);
-                        String command = entry.getString("command");
-                        int retries   = entry.optInt("retries", 0);
-
-                        boolean sent = connectionManager.sendCommandSync(command);
-
-                        if (sent) {
-                            Log.i(TAG, "✓ Flushed: " + abbrev(command));
-                        } else if (retries < MAX_RETRIES) {
-                            entry.put("retries", retries + 1);
-                            remaining.put(entry);
-                            Log.w(TAG, "Retry " + (retries + 1) + "/" + MAX_RETRIES
-                                    + ": " + abbrev(command));
-                        } else {
-                            Log.e(TAG, "Dropped after " + MAX_RETRIES
-                                    + " retries: " + abbrev(command));
-                        }
-                    } catch (JSONException e) {
-                        Log.e(TAG, "Flush entry error: " + e.getMessage());
+                try {
+                    if (!pending.isEmpty()) {
+                        Log.i(TAG, "Flushing outbox — " + pending.size() + " pending command(s)"
+                                + (acksEnabled ? "" : " (no acks)"));
+                        if (acksEnabled) flushPipelined(transport);
+                        else flushUnacked(transport);
+                        Log.i(TAG, "Flush done. Remaining: " + pending.size());
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    flushJournal();
+                    if (shouldCompact()) compact();
+                    flushing = false;
+                    callbacks = new ArrayList<>(flushCallbacks);
+                    flushCallbacks.clear();
                 }
+            }
+            for (Runnable r : callbacks) r.run();
+        }, "SyncOutboxFlush").start();
+    }
 
-                saveQueue(remaining);
-                Log.i(TAG, "Flush done. Remaining: " + remaining.length());
+    /**
+     * Server acknowledged the outbox protocol (reverse command OUTBOX:&lt;v&gt;).
+     * Until then flushes fall back to unacknowledged sends.
+     */
+    public synchronized void setAcksEnabled(boolean enabled) {
+        acksEnabled = enabled;
+    }
+
+    public synchronized boolean isAcksEnabled() {
+        return acksEnabled;
+    }
+
+    /** Reverse command OUTBOX_ACK:&lt;seq&gt;[,&lt;seq&gt;…] — the server applied these entries. */
+    public synchronized void onAck(String seqList) {
+        for (String part : seqList.split(",")) {
+            long seq;
+            try {
+                seq = Long.parseLong(part.trim());
+            } catch (NumberFormatException e) {
+                continue;
             }
-            if (onComplete != null) onComplete.run();
-        }).start();
+            inFlight.remove(seq);
+            Entry entry = pending.get(seq);
+            if (entry != null) remove(entry);
+        }
+        flushJournal(); // late acks arrive outside any flush
+        notifyAll();
     }
 
     /** Remove all pending commands (e.g., after a full server-side reset). */
     public synchronized void clear() {
-        saveQueue(new JSONArray());
+        pending.clear();
+        byTarget.clear();
+        inFlight.clear();
+        compact();
         Log.i(TAG, "Outbox cleared");
     }
 
-    // ─── Internal ────────────────────────────────────────────────
+    // ─── Queue ──────────────────────────────────────────────────
 
-    private JSONArray loadQueue() {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String json = prefs.getString(QUEUE_KEY, "[]");
+    private static final int KIND_OTHER    = 0;
+    private static final int KIND_UPDATE   = 1;
+    private static final int KIND_STATE    = 2;   // COMPLETE / UNCOMPLETE
+    private static final int KIND_DELETE   = 3;
+    private static final int KIND_SYNC     = 4;
+
+    private static final Pattern JSON_ID = Pattern.compile("\"id\"\\s*:\\s*\"?([^\",}\\s]+)");
+
+    /**
+     * The object a command acts on, e.g. "CAL:42" for CAL_UPDATE:{"id":"42",…}
+     * or "NOTE:7" for NOTE_DELETE:7, or the type itself for a bare *_SYNC.
+     * Null if the command is never coalesced.
+     */
+    static String coalesceTarget(String command) {
+        int colon = command.indexOf(':');
+        String type = colon < 0 ? command : command.substring(0, colon);
+        if (colon < 0) return type.endsWith("_SYNC") ? type : null;
+        int us = type.lastIndexOf('_');
+        if (us <= 0) return null;
+        String payload = command.substring(colon + 1);
+        String id;
+        if (payload.startsWith("{")) {
+            Matcher m = JSON_ID.matcher(payload);
+            id = m.find() ? m.group(1) : null;
+        } else {
+            int end = payload.length();
+            for (int i = 0; i < payload.length(); i++) {
+                char c = payload.charAt(i);
+                if (c == ':' || c == '|' || c == ',') { end = i; break; }
+            }
+            id = payload.substring(0, end).trim();
+        }
+        if (id == null || id.isEmpty()) return null;
+        return type.substring(0, us) + ':' + id;
+    }
+
+    private static int kindOf(String command) {
+        int colon = command.indexOf(':');
+        String type = colon < 0 ? command : command.substring(0, colon);
+        if (colon < 0) return type.endsWith("_SYNC") ? KIND_SYNC : KIND_OTHER;
+        if (type.endsWith("_UPDATE")) return KIND_UPDATE;
+        if (type.endsWith("_COMPLETE") || type.endsWith("_UNCOMPLETE")) return KIND_STATE;
+        if (type.endsWith("_DELETE")) return KIND_DELETE;
+        return KIND_OTHER;
+    }
+
+    /** Whether a newer command of {@code newer} kind makes a pending {@code older} one pointless. */
+    private static boolean supersedes(int newer, int older) {
+        switch (newer) {
+            case KIND_UPDATE: return older == KIND_UPDATE;
+            case KIND_STATE:  return older == KIND_STATE;
+            case KIND_DELETE: return older == KIND_UPDATE || older == KIND_STATE || older == KIND_DELETE;
+            case KIND_SYNC:   return older == KIND_SYNC;
+            default:          return false;
+        }
+    }
+
+    /** Insert an entry, dropping what it supersedes. Returns the number dropped. */
+    private int add(Entry entry) {
+        int dropped = 0;
+        if (entry.target != null && entry.kind != KIND_OTHER) {
+            List<Entry> same = byTarget.get(entry.target);
+            if (same != null) {
+                for (Iterator<Entry> it = same.iterator(); it.hasNext(); ) {
+                    Entry old = it.next();
+                    if (!supersedes(entry.kind, old.kind)) continue;
+                    it.remove();
+                    pending.remove(old.seq);
+                    appendRemove(old.seq);
+                    deadRecords += 2;
+                    dropped++;
+                }
+            }
+        }
+        pending.put(entry.seq, entry);
+        if (entry.target != null) {
+            List<Entry> same = byTarget.get(entry.target);
+            if (same == null) byTarget.put(entry.target, same = new ArrayList<>(2));
+            same.add(entry);
+        }
+        return dropped;
+    }
+
+    private void remove(Entry entry) {
+        pending.remove(entry.seq);
+        if (entry.target != null) {
+            List<Entry> same = byTarget.get(entry.target);
+            if (same != null) {
+                same.remove(entry);
+                if (same.isEmpty()) byTarget.remove(entry.target);
+            }
+        }
+        appendRemove(entry.seq);
+        deadRecords += 2;   // the enqueue record and this remove record
+    }
+
+    // ─── Flush ──────────────────────────────────────────────────
+
+    /** Legacy servers: send back to back; "left the device" counts as delivered. */
+    private void flushUnacked(Transport transport) throws InterruptedException {
+        int sent = 0;
+        long after = 0;
+        while (true) {
+            // Entries enqueued during the pauses below are picked up by the next pass
+            List<Entry> batch = new ArrayList<>();
+            for (Entry e : pending.values()) if (e.seq > after) batch.add(e);
+            if (batch.isEmpty()) return;
+            for (Entry entry : batch) {
+                after = entry.seq;
+                if (!pending.containsKey(entry.seq)) continue;
+                if (transport.send(entry.command)) {
+                    remove(entry);
+                    if (++sent % UNACKED_BURST == 0) wait(2); // let the server's socket buffer drain
+                } else {
+                    fail(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep up to WINDOW entries in flight, packed into OUTBOX_BATCH datagrams,
+     * until everything is acknowledged or an entry exhausts its attempts
+     * (the server has gone away again).
+     */
+    private void flushPipelined(Transport transport) throws InterruptedException {
+        for (Entry e : pending.values()) { e.attempts = 0; e.sentAt = 0; }
+        inFlight.clear();
+        StringBuilder batch = new StringBuilder(BATCH_BYTES);
+        List<Entry> batchEntries = new ArrayList<>();
+
+        while (!pending.isEmpty()) {
+            long now = System.currentTimeMillis();
+
+            // Expire entries that were superseded or timed out while in flight
+            boolean gaveUp = false;
+            for (Iterator<Entry> it = inFlight.values().iterator(); it.hasNext(); ) {
+                Entry e = it.next();
+                if (!pending.containsKey(e.seq)) {
+                    it.remove();
+                } else if (now - e.sentAt >= ACK_TIMEOUT_MS) {
+                    it.remove();
+                    e.sentAt = 0;
+                    if (e.attempts >= MAX_ATTEMPTS) gaveUp = true;
+                }
+            }
+            if (gaveUp) {
+                for (Entry e : new ArrayList<>(pending.values())) {
+                    if (e.attempts > 0) fail(e);
+                }
+                inFlight.clear();
+                return;
+            }
+
+            // Fill the window in queue order, one in-flight entry per object
+            for (Entry e : pending.values()) {
+                if (inFlight.size() >= WINDOW) break;
+                if (e.sentAt != 0 || targetInFlight(e)) continue;
+                if (e.command.indexOf('\n') >= 0) {
+                    // Cannot share a newline-separated batch
+                    transport.send("OUTBOX_CMD:" + e.seq + '|' + e.command);
+                    markSent(e, now);
+                    continue;
+                }
+                String line = e.seq + "|" + e.command;
+                if (batch.length() > 0 && batch.length() + line.length() + 1 > BATCH_BYTES) {
+                    sendBatch(transport, batch, batchEntries);
+                }
+                if (batch.length() > 0) batch.append('\n');
+                batch.append(line);
+                batchEntries.add(e);
+                markSent(e, now);
+            }
+            sendBatch(transport, batch, batchEntries);
+
+            if (pending.isEmpty()) break;
+            wait(inFlight.isEmpty() ? ACK_TIMEOUT_MS : oldestDeadline(now));
+        }
+    }
+
+    /** A batch that fails to leave the device is simply re-sent once its entries time out. */
+    private void sendBatch(Transport transport, StringBuilder batch, List<Entry> entries) {
+        if (entries.isEmpty()) return;
+        transport.send("OUTBOX_BATCH:" + batch);
+        batch.setLength(0);
+        entries.clear();
+    }
+
+    private void markSent(Entry e, long now) {
+        e.sentAt = now;
+        e.attempts++;
+        inFlight.put(e.seq, e);
+    }
+
+    private boolean targetInFlight(Entry e) {
+        if (e.target == null) return false;
+        List<Entry> same = byTarget.get(e.target);
+        if (same == null) return false;
+        for (Entry other : same) {
+            if (other != e && inFlight.containsKey(other.seq) && other.seq < e.seq) return true;
+        }
+        return false;
+    }
+
+    private long oldestDeadline(long now) {
+        long oldest = Long.MAX_VALUE;
+        for (Entry e : inFlight.values()) oldest = Math.min(oldest, e.sentAt);
+        return Math.max(1, oldest + ACK_TIMEOUT_MS - now);
+    }
+
+    private void fail(Entry entry) {
+        entry.attempts = 0;
+        entry.sentAt = 0;
+        if (++entry.retries < MAX_RETRIES) {
+            Log.w(TAG, "Retry " + entry.retries + "/" + MAX_RETRIES + ": " + abbrev(entry.command));
+        } else {
+            Log.e(TAG, "Dropped after " + MAX_RETRIES + " retries: " + abbrev(entry.command));
+            remove(entry);
+        }
+    }
+
+    // ─── Journal ────────────────────────────────────────────────
+
+    /**
+     * Journal record: [int payloadLength][int crc32][payload], payload =
+     * 'E' seq enqueuedAt command, or 'R' seq. Retry counters are not
+     * journaled; they restart with the process.
+     */
+    private void appendEnqueue(Entry entry) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(entry.command.length() + 24);
+        DataOutputStream payload = new DataOutputStream(buf);
         try {
-            return new JSONArray(json);
-        } catch (JSONException e) {
-            return new JSONArray();
+            payload.writeByte(OP_ENQUEUE);
+            payload.writeLong(entry.seq);
+            payload.writeLong(entry.enqueuedAt);
+            writeString(payload, entry.command);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        appendRecord(buf.toByteArray());
+    }
+
+    private void appendRemove(long seq) {
+        byte[] bytes = new byte[9];
+        bytes[0] = OP_REMOVE;
+        for (int i = 0; i < 8; i++) bytes[1 + i] = (byte) (seq >>> (56 - 8 * i));
+        appendRecord(bytes);
+    }
+
+    /** Buffered append; {@link #flushJournal} makes it durable. */
+    private void appendRecord(byte[] bytes) {
+        if (journal == null) return;
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            journal.writeInt(bytes.length);
+            journal.writeInt((int) crc.getValue());
+            journal.write(bytes);
+        } catch (IOException e) {
+            Log.e(TAG, "appendRecord", e);
+        }
+    }
+
+    private void flushJournal() {
+        if (journal == null) return;
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "flushJournal", e);
         }
     }
 
-    private void saveQueue(JSONArray queue) {
+    private boolean shouldCompact() {
+        return deadRecords >= COMPACT_MIN_DEAD && deadRecords > pending.size();
+    }
+
+    /** Rewrite the journal with only the live entries (write-then-rename). */
+    private void compact() {
+        File tmp = new File(dir, JOURNAL_NAME + ".tmp");
+        closeJournal();
+        try {
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            for (Entry entry : pending.values()) appendEnqueue(entry);
+            closeJournal();
+            if (!tmp.renameTo(journalFile)) throw new IOException("rename failed");
+            deadRecords = 0;
+        } catch (IOException e) {
+            Log.e(TAG, "compact", e);
+            closeJournal();
+            tmp.delete();
+        }
+        openJournal();
+    }
+
+    private void replayJournal() {
+        if (!journalFile.exists()) return;
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                int expectedCrc = in.readInt();
+                if (length < 0 || length > journalFile.length()) break;
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 0, length);
+                if ((int) crc.getValue() != expectedCrc) break;
+                applyRecord(bytes);
+                good += 8 + length;
+            }
+        } catch (IOException e) {
+            // Torn tail from an interrupted append — everything before it is intact
+            Log.w(TAG, "replayJournal stopped at " + good, e);
+        }
+        if (good < journalFile.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(good);
+            } catch (IOException e) {
+                Log.e(TAG, "truncate journal", e);
+            }
+        }
+    }
+
+    private void applyRecord(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte op = in.readByte();
+        long seq = in.readLong();
+        nextSeq = Math.max(nextSeq, seq + 1);
+        if (op == OP_ENQUEUE) {
+            long enqueuedAt = in.readLong();
+            Entry entry = new Entry(seq, readString(in), enqueuedAt);
+            pending.put(seq, entry);
+            if (entry.target != null) {
+                List<Entry> same = byTarget.get(entry.target);
+                if (same == null) byTarget.put(entry.target, same = new ArrayList<>(2));
+                same.add(entry);
+            }
+        } else if (op == OP_REMOVE) {
+            Entry entry = pending.remove(seq);
+            if (entry != null && entry.target != null) {
+                List<Entry> same = byTarget.get(entry.target);
+                if (same != null) {
+                    same.remove(entry);
+                    if (same.isEmpty()) byTarget.remove(entry.target);
+                }
+            }
+            deadRecords += 2;
+        }
+    }
+
+    private void openJournal() {
+        try {
+            journal = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(journalFile, true)));
+        } catch (IOException e) {
+            Log.e(TAG, "openJournal", e);
+            journal = null;
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) return;
+        try { journal.close(); } catch (IOException ignored) {}
+        journal = null;
+    }
+
+    /** Length-prefixed UTF-8; writeUTF caps strings at 64 KB, which large CAL_ADD payloads can exceed. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) throw new IOException("Bad string length");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ─── Migration ──────────────────────────────────────────────
+
+    /** Move a queue persisted by older builds (JSON in SharedPreferences) into the journal. */
+    private void migrateLegacyQueue(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().putString(QUEUE_KEY, queue.toString()).apply();
+        String json = prefs.getString(QUEUE_KEY, null);
+        if (json == null) return;
+        try {
+            JSONArray queue = new JSONArray(json);
+            for (int i = 0; i < queue.length(); i++) {
+                String command = queue.getJSONObject(i).optString("command", null);
+                if (command != null) enqueue(command);
+            }
+            Log.i(TAG, "Migrated " + queue.length() + " command(s) from preferences");
+        } catch (JSONException e) {
+            Log.e(TAG, "Legacy queue unreadable: " + e.getMessage());
+        }
+        prefs.edit().remove(QUEUE_KEY).apply();
     }
 
     private static String abbrev(String s) {
@@ -1,12 +1,12 @@
 package com.prajwal.myfirstapp.core;
 
-import android.util.Base64;
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
-import java.util.Formatter;
 
 public class SecurityUtils {
 
@@ -16,36 +16,315 @@ public class SecurityUtils {
     public static String HMAC_KEY = "my_hmac_secret_key";
     public static boolean USE_ENCRYPTION = true;
 
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+                    .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int IV_LEN = 16;
+    private static final int HMAC_LEN = 32;
+
+    // One Cipher/Mac/SecureRandom per thread — these JCA objects are not thread-safe
+    private static final ThreadLocal<CryptoContext> CONTEXT = new ThreadLocal<CryptoContext>() {
+        @Override protected CryptoContext initialValue() { return new CryptoContext(); }
+    };
+
     public static String encryptAES(String plainText) throws Exception {
-        byte[] keyBytes = AES_KEY.getBytes("UTF-8");
-        SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
+        CryptoContext ctx = CONTEXT.get();
+        ctx.ensureKeys();
+        byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+        int len = ctx.encrypt(plain, plain.length);
+        byte[] out = new byte[base64Length(len)];
+        int outLen = base64Encode(ctx.cipherOut, 0, len, out, 0);
+        return new String(out, 0, outLen, StandardCharsets.US_ASCII);
+    }
+
+    public static String calculateHMAC(String data) throws Exception {
+        CryptoContext ctx = CONTEXT.get();
+        ctx.ensureKeys();
+        ctx.mac.update(data.getBytes(StandardCharsets.UTF_8));
+        ctx.mac.doFinal(ctx.macOut, 0);
+        byte[] hex = new byte[HMAC_LEN * 2];
+        hexEncode(ctx.macOut, HMAC_LEN, hex, 0);
+        return new String(hex, StandardCharsets.US_ASCII);
+    }
 
-        // Generate a random IV for every packet (Security Best Practice)
-        byte[] iv = new byte[16];
-        new SecureRandom().nextBytes(iv);
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
+    /**
+     * Build a complete {@code ENCRYPTED_CMD|TIMESTAMP|SIGNATURE} packet for
+     * {@code command} directly into this thread's reusable buffer.
+     *
+     * The returned ByteBuffer is owned by the calling thread and is
+     * overwritten by the next call on that thread: send it (array(), 0,
+     * limit()) before building another packet. Byte-for-byte identical to
+     * the String-based path the server already understands.
+     */
+    public static ByteBuffer encodePacket(String command, long timestampSec) throws Exception {
+        CryptoContext ctx = CONTEXT.get();
+        ctx.ensureKeys();
 
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+        // 1. Command → UTF-8 in the reusable plaintext buffer
+        int plainLen = ctx.encodeUtf8(command);
 
-        byte[] encrypted = cipher.doFinal(plainText.getBytes("UTF-8"));
+        // 2. Payload segment (Base64(IV + ciphertext) or raw command)
+        int bodyLen = USE_ENCRYPTION
+                ? base64Length(IV_LEN + (plainLen / 16 + 1) * 16) : plainLen;
+        byte[] out = ctx.packetCapacity(bodyLen + 1 + 20 + 1 + HMAC_LEN * 2);
+        int pos;
+        if (USE_ENCRYPTION) {
+            int encLen = ctx.encrypt(ctx.plain, plainLen);
+            pos = base64Encode(ctx.cipherOut, 0, encLen, out, 0);
+        } else {
+            System.arraycopy(ctx.plain, 0, out, 0, plainLen);
+            pos = plainLen;
+        }
 
-        // Combine IV + Ciphertext
-        byte[] combined = new byte[iv.length + encrypted.length];
-        System.arraycopy(iv, 0, combined, 0, iv.length);
-        System.arraycopy(encrypted, 0, combined, iv.length, encrypted.length);
+        // 3. |TIMESTAMP
+        out[pos++] = '|';
+        pos = writeDecimal(timestampSec, out, pos);
 
-        return Base64.encodeToString(combined, Base64.NO_WRAP);
+        // 4. HMAC over "payload|timestamp", then |SIGNATURE
+        ctx.mac.update(out, 0, pos);
+        ctx.mac.doFinal(ctx.macOut, 0);
+        out[pos++] = '|';
+        pos = hexEncode(ctx.macOut, HMAC_LEN, out, pos);
+
+        ctx.packet.clear();
+        ctx.packet.limit(pos);
+        return ctx.packet;
     }
 
-    public static String calculateHMAC(String data) throws Exception {
-        SecretKeySpec signingKey = new SecretKeySpec(HMAC_KEY.getBytes("UTF-8"), "HmacSHA256");
-        Mac mac = Mac.getInstance("HmacSHA256");
-        mac.init(signingKey);
-        byte[] rawHmac = mac.doFinal(data.getBytes("UTF-8"));
+    /** {@link #encodePacket(String, long)} stamped with the current time. */
+    public static ByteBuffer encodePacket(String command) throws Exception {
+        return encodePacket(command, System.currentTimeMillis() / 1000L);
+    }
+
+    /** True if {@code buf[off, off + len)} ends in |&lt;64 hex chars&gt;, i.e. looks like an encodePacket packet. */
+    public static boolean isSignedPacket(byte[] buf, int off, int len) {
+        if (len < HMAC_LEN * 2 + 3) return false;
+        int sig = off + len - HMAC_LEN * 2;
+        if (buf[sig - 1] != '|') return false;
+        for (int i = sig; i < off + len; i++) {
+            if (hexValue(buf[i]) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Verify and open an inbound {@code ENCRYPTED_CMD|TIMESTAMP|SIGNATURE}
+     * packet, the same format {@link #encodePacket} produces. Returns the
+     * command, or null if the signature does not match, the timestamp is
+     * more than {@code maxSkewSec} away from {@code nowSec}, or the payload
+     * does not decrypt. The signature is compared in constant time.
+     */
+    public static String decodePacket(byte[] buf, int off, int len, long nowSec, long maxSkewSec) {
+        if (!isSignedPacket(buf, off, len)) return null;
+        try {
+            CryptoContext ctx = CONTEXT.get();
+            ctx.ensureKeys();
+            int sig = off + len - HMAC_LEN * 2;
+            int signedEnd = sig - 1;               // "payload|timestamp"
+
+            ctx.mac.update(buf, off, signedEnd - off);
+            ctx.mac.doFinal(ctx.macOut, 0);
+            int diff = 0;
+            for (int i = 0; i < HMAC_LEN; i++) {
+                int v = (hexValue(buf[sig + 2 * i]) << 4) | hexValue(buf[sig + 2 * i + 1]);
+                diff |= v ^ (ctx.macOut[i] & 0xff);
+            }
+            if (diff != 0) return null;
+
+            int tsSep = signedEnd - 1;
+            long ts = 0;
+            while (tsSep >= off && buf[tsSep] >= '0' && buf[tsSep] <= '9') tsSep--;
+            if (tsSep < off || buf[tsSep] != '|' || tsSep == signedEnd - 1 || signedEnd - tsSep > 19) return null;
+            for (int i = tsSep + 1; i < signedEnd; i++) ts = ts * 10 + (buf[i] - '0');
+            if (Math.abs(nowSec - ts) > maxSkewSec) return null;
+
+            int payloadLen = tsSep - off;
+            if (!USE_ENCRYPTION) return new String(buf, off, payloadLen, StandardCharsets.UTF_8);
+            int plainLen = ctx.decrypt(buf, off, payloadLen);
+            return plainLen < 0 ? null : new String(ctx.plain, 0, plainLen, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // ─── Encoding helpers (no Formatter / intermediate Strings) ──
+
+    /** Standard padded Base64 of {@code data}. */
+    public static String base64(byte[] data) {
+        byte[] out = new byte[base64Length(data.length)];
+        int len = base64Encode(data, 0, data.length, out, 0);
+        return new String(out, 0, len, StandardCharsets.US_ASCII);
+    }
+
+    static int base64Length(int n) {
+        return ((n + 2) / 3) * 4;
+    }
+
+    static int base64Encode(byte[] src, int off, int len, byte[] dst, int pos) {
+        int end = off + len;
+        int i = off;
+        while (end - i >= 3) {
+            int v = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dst[pos++] = BASE64_ALPHABET[v >>> 18];
+            dst[pos++] = BASE64_ALPHABET[(v >>> 12) & 0x3f];
+            dst[pos++] = BASE64_ALPHABET[(v >>> 6) & 0x3f];
+            dst[pos++] = BASE64_ALPHABET[v & 0x3f];
+            i += 3;
+        }
+        int rem = end - i;
+        if (rem > 0) {
+            int v = (src[i] & 0xff) << 16 | (rem == 2 ? (src[i + 1] & 0xff) << 8 : 0);
+            dst[pos++] = BASE64_ALPHABET[v >>> 18];
+            dst[pos++] = BASE64_ALPHABET[(v >>> 12) & 0x3f];
+            dst[pos++] = rem == 2 ? BASE64_ALPHABET[(v >>> 6) & 0x3f] : (byte) '=';
+            dst[pos++] = '=';
+        }
+        return pos;
+    }
+
+    /** Decode standard padded Base64; returns the decoded length or -1 if malformed. */
+    static int base64Decode(byte[] src, int off, int len, byte[] dst) {
+        if (len % 4 != 0) return -1;
+        int pos = 0;
+        for (int i = off; i < off + len; i += 4) {
+            int a = base64Value(src[i]), b = base64Value(src[i + 1]);
+            int c = src[i + 2] == '=' ? -2 : base64Value(src[i + 2]);
+            int d = src[i + 3] == '=' ? -2 : base64Value(src[i + 3]);
+            if (a < 0 || b < 0 || c == -1 || d == -1 || (c == -2 && d != -2)) return -1;
+            if ((c == -2 || d == -2) && i + 4 != off + len) return -1;
+            dst[pos++] = (byte) (a << 2 | b >> 4);
+            if (c >= 0) dst[pos++] = (byte) (b << 4 | c >> 2);
+            if (d >= 0) dst[pos++] = (byte) (c << 6 | d);
+        }
+        return pos;
+    }
+
+    private static int base64Value(byte c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A';
+        if (c >= 'a' && c <= 'z') return c - 'a' + 26;
+        if (c >= '0' && c <= '9') return c - '0' + 52;
+        if (c == '+') return 62;
+        if (c == '/') return 63;
+        return -1;
+    }
+
+    private static int hexValue(byte c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    static int hexEncode(byte[] src, int len, byte[] dst, int pos) {
+        for (int i = 0; i < len; i++) {
+            dst[pos++] = HEX_DIGITS[(src[i] >> 4) & 0x0f];
+            dst[pos++] = HEX_DIGITS[src[i] & 0x0f];
+        }
+        return pos;
+    }
+
+    private static int writeDecimal(long value, byte[] dst, int pos) {
+        if (value == 0) {
+            dst[pos++] = '0';
+            return pos;
+        }
+        if (value < 0) {
+            dst[pos++] = '-';
+            value = -value;
+        }
+        int start = pos;
+        while (value > 0) {
+            dst[pos++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte t = dst[i]; dst[i] = dst[j]; dst[j] = t;
+        }
+        return pos;
+    }
+
+    // ─── Per-thread crypto context ───────────────────────────────
+
+    /**
+     * Cached Cipher, Mac, SecureRandom and key specs for one thread.
+     * Keys are rebuilt only when AES_KEY / HMAC_KEY are reassigned
+     * (QR pairing), detected by reference comparison.
+     */
+    private static final class CryptoContext {
+        private Cipher cipher;
+        private Mac mac;
+        private final SecureRandom random = new SecureRandom();
+
+        private String aesKeyRef;
+        private String hmacKeyRef;
+        private SecretKeySpec aesKey;
+
+        private final byte[] iv = new byte[IV_LEN];
+        private final byte[] macOut = new byte[HMAC_LEN];
+        private byte[] plain = new byte[256];
+        private byte[] cipherOut = new byte[512];
+        private ByteBuffer packet = ByteBuffer.allocate(1024);
+
+        void ensureKeys() throws Exception {
+            String aes = AES_KEY;
+            String hmac = HMAC_KEY;
+            if (aes != aesKeyRef) {
+                if (cipher == null) cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                aesKey = new SecretKeySpec(aes.getBytes(StandardCharsets.UTF_8), "AES");
+                aesKeyRef = aes;
+            }
+            if (hmac != hmacKeyRef) {
+                if (mac == null) mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(hmac.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+                hmacKeyRef = hmac;
+            }
+        }
+
+        /** Encrypt {@code src[0..len)} into cipherOut as IV + ciphertext; returns its length. */
+        int encrypt(byte[] src, int len) throws Exception {
+            // Fresh random IV for every packet (Security Best Practice)
+            random.nextBytes(iv);
+            cipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+            int needed = IV_LEN + cipher.getOutputSize(len);
+            if (cipherOut.length < needed) cipherOut = new byte[needed * 2];
+            System.arraycopy(iv, 0, cipherOut, 0, IV_LEN);
+            return IV_LEN + cipher.doFinal(src, 0, len, cipherOut, IV_LEN);
+        }
+
+        /**
+         * Base64-decode {@code src[off, off + len)} as IV + ciphertext and
+         * decrypt it into {@code plain}; returns the plaintext length or -1.
+         */
+        int decrypt(byte[] src, int off, int len) throws Exception {
+            if (cipherOut.length < len) cipherOut = new byte[len];
+            int raw = base64Decode(src, off, len, cipherOut);
+            if (raw < IV_LEN + 16 || (raw - IV_LEN) % 16 != 0) return -1;
+            cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(cipherOut, 0, IV_LEN));
+            if (plain.length < raw) plain = new byte[raw * 2];
+            return cipher.doFinal(cipherOut, IV_LEN, raw - IV_LEN, plain, 0);
+        }
+
+        /** UTF-8 encode into {@code plain}; ASCII commands take the no-allocation path. */
+        int encodeUtf8(String s) {
+            int n = s.length();
+            if (plain.length < n) plain = new byte[n * 2];
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                    if (plain.length < utf8.length) plain = new byte[utf8.length * 2];
+                    System.arraycopy(utf8, 0, plain, 0, utf8.length);
+                    return utf8.length;
+                }
+                plain[i] = (byte) c;
+            }
+            return n;
+        }
 
-        Formatter formatter = new Formatter();
-        for (byte b : rawHmac) { formatter.format("%02x", b); }
-        return formatter.toString();
+        byte[] packetCapacity(int needed) {
+            if (packet.capacity() < needed) packet = ByteBuffer.allocate(needed * 2);
+            return packet.array();
+        }
     }
-}
\ No newline at end of file
+}
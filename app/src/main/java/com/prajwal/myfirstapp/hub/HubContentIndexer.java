@@ -10,6 +10,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -31,10 +32,12 @@ import java.util.concurrent.Executors;
  *                              most non-scanned PDFs)
  *   • Images (JPEG/PNG)      — basic EXIF metadata extraction from raw bytes
  *
- * The extracted text is stored in {@link HubFile#contentIndex} and a flag
- * {@link HubFile#contentIndexed} is set to avoid redundant re-indexing.
+ * The extracted text goes into the {@link HubContentIndex} inverted index;
+ * the HubFile itself only records {@link HubFile#contentIndexed} and a
+ * {@link HubFile#contentHash} of the extracted text, so re-indexing a file
+ * whose content has not changed leaves the index untouched.
  *
- * The {@link HubSearchActivity} uses {@code contentIndex} to show "Content Match"
+ * The {@link HubSearchActivity} queries the index to show "Content Match"
  * badges on results that matched by content rather than filename.
  */
 public class HubContentIndexer {
@@ -52,10 +55,12 @@ public class HubContentIndexer {
 
     private static HubContentIndexer instance;
     private final Context context;
+    private final HubContentIndex index;
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     private HubContentIndexer(Context context) {
         this.context = context.getApplicationContext();
+        this.index = HubContentIndex.getInstance(context);
     }
 
     public static synchronized HubContentIndexer getInstance(Context context) {
@@ -78,15 +83,20 @@ public class HubContentIndexer {
     }
 
     /**
-     * Indexes all files that have not yet been indexed. Runs entirely in the
+     * Indexes all files that have not yet been indexed (or are missing from the
+     * index, e.g. after upgrading from the SharedPreferences-backed index) and
+     * drops index entries for files no longer in the hub. Runs entirely in the
      * background; calls {@code onComplete} on the main thread when done.
      */
     public void indexAllPending(Runnable onComplete) {
         executor.execute(() -> {
             HubFileRepository repo = HubFileRepository.getInstance(context);
             List<HubFile> all = repo.getAllFiles();
+            Set<String> ids = new HashSet<>();
+            for (HubFile f : all) ids.add(f.id);
+            index.retainAll(ids);
             for (HubFile f : all) {
-                if (!f.contentIndexed) {
+                if (!f.contentIndexed || !index.contains(f.id)) {
                     doIndex(f);
                     repo.updateFile(f);
                 }
@@ -140,7 +150,7 @@ public class HubContentIndexer {
                     || file.fileType == HubFile.FileType.SCREENSHOT) {
                 String exif = extractExifMetadata(f);
                 file.exifJson = exif;
-                // Also put key exif fields into contentIndex so they're searchable
+                // Also index key exif fields so they're searchable
                 markIndexed(file, exif);
                 return;
             }
@@ -154,7 +164,11 @@ public class HubContentIndexer {
     }
 
     private void markIndexed(HubFile file, String content) {
-        file.contentIndex = content != null ? truncate(content) : "";
+        if (file == null) return;
+        String text = content != null ? truncate(content) : "";
+        String hash = sha1(text);
+        index.put(file.id, hash, text); // no-op when the hash is unchanged
+        file.contentHash = hash;
         file.contentIndexed = true;
     }
 
@@ -372,19 +386,29 @@ public class HubContentIndexer {
         return (dot > 0 && dot < name.length() - 1) ? name.substring(dot + 1) : "";
     }
 
+    private String sha1(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(s.hashCode());
+        }
+    }
+
     private String truncate(String s) {
         if (s == null) return "";
         return s.length() > MAX_CONTENT_LENGTH ? s.substring(0, MAX_CONTENT_LENGTH) : s;
     }
 
     /**
-     * Returns true if the given query string matches in the file's content index.
-     * Used by the search layer to set the "Content Match" flag.
+     * Returns true if the given query matches the file's indexed content.
+     * Prefer {@link HubContentIndex#search(String)} when checking many files.
      */
-    public static boolean contentMatches(HubFile file, String query) {
+    public boolean contentMatches(HubFile file, String query) {
         if (file == null || query == null || query.isEmpty()) return false;
-        String ci = file.contentIndex;
-        if (ci == null || ci.isEmpty()) return false;
-        return ci.toLowerCase().contains(query.toLowerCase());
+        return index.search(query).contains(file.id);
     }
 }
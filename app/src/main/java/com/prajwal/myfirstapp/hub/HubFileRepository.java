@@ -15,8 +15,11 @@ import java.io.FileInputStream;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -53,6 +56,10 @@ public class HubFileRepository {
 
     // In-memory caches
     private final List<HubFile> files = new ArrayList<>();
+    /** Tracked files by absolute path, kept in step with {@link #files}. */
+    private final Map<String, HubFile> filesByPath = new HashMap<>();
+    /** Path each file id was last indexed under, so in-place path edits can be re-keyed. */
+    private final Map<String, String> pathById = new HashMap<>();
     private final List<HubFolder> folders = new ArrayList<>();
     private final List<HubProject> projects = new ArrayList<>();
     private final List<DuplicateGroup> duplicateGroups = new ArrayList<>();
@@ -62,9 +69,11 @@ public class HubFileRepository {
     private final List<HubVersionChain> versionChains = new ArrayList<>();
 
     private boolean loaded = false;
+    private final HubFileScanner scanner;
 
     private HubFileRepository(Context context) {
         this.context = context.getApplicationContext();
+        this.scanner = new HubFileScanner(this.context, this);
         load();
     }
 
@@ -99,7 +108,10 @@ public class HubFileRepository {
             JSONArray arr = new JSONArray(json);
             for (int i = 0; i < arr.length(); i++) {
                 HubFile f = HubFile.fromJson(arr.getJSONObject(i));
-                if (f != null) files.add(f);
+                if (f != null) {
+                    files.add(f);
+                    indexPath(f);
+                }
             }
         } catch (Exception e) { Log.e(TAG, "loadFiles", e); }
     }
@@ -250,6 +262,7 @@ public class HubFileRepository {
 
     public synchronized void addFile(HubFile file) {
         files.add(0, file);
+        indexPath(file);
         saveFiles();
         logActivity(new FileActivity(file.id, file.displayName != null ? file.displayName : file.originalFileName,
                 file.getTypeEmoji(), FileActivity.Action.IMPORTED,
@@ -312,14 +325,23 @@ public class HubFileRepository {
     public synchronized void updateFile(HubFile file) {
         file.updatedAt = System.currentTimeMillis();
         for (int i = 0; i < files.size(); i++) {
-            if (files.get(i).id.equals(file.id)) { files.set(i, file); break; }
+            if (files.get(i).id.equals(file.id)) {
+                files.set(i, file);
+                indexPath(file); // re-keys even if the same instance was edited in place
+                break;
+            }
         }
         saveFiles();
     }
 
     public synchronized void deleteFile(String id) {
-        files.removeIf(f -> f.id.equals(id));
+        files.removeIf(f -> {
+            if (!f.id.equals(id)) return false;
+            unindexPath(f);
+            return true;
+        });
         saveFiles();
+        executor.execute(() -> HubContentIndex.getInstance(context).remove(id));
     }
 
     public synchronized List<HubFile> getDuplicateFiles() {
@@ -526,17 +548,19 @@ public class HubFileRepository {
 
     /**
      * Scans common directories for new files and adds them to the inbox.
+     * Only directories that changed since the last scan are listed (see
+     * {@link HubFileScanner}); everything found is committed in one batch.
      * Runs on a background thread; calls callback on main thread when done.
      */
     public void scanForNewFiles(Runnable onComplete) {
         executor.execute(() -> {
             long lastScan = getLastScanTimestamp();
             long now = System.currentTimeMillis();
-            List<File> scanDirs = getScanDirectories();
-            for (File dir : scanDirs) {
-                if (!dir.exists() || !dir.isDirectory()) continue;
-                scanDirectory(dir, lastScan, getSourceForDirectory(dir));
+            Map<File, HubFile.Source> roots = new LinkedHashMap<>();
+            for (File dir : getScanDirectories()) {
+                if (dir.exists() && dir.isDirectory()) roots.put(dir, getSourceForDirectory(dir));
             }
+            scanner.scan(roots, lastScan);
             setLastScanTimestamp(now);
             if (onComplete != null) {
                 android.os.Handler mainHandler = new android.os.Handler(android.os.Looper.getMainLooper());
@@ -545,27 +569,75 @@ public class HubFileRepository {
         });
     }
 
-    private void scanDirectory(File dir, long since, HubFile.Source source) {
-        File[] files = dir.listFiles();
-        if (files == null) return;
-        for (File file : files) {
-            if (file.isDirectory()) {
-                scanDirectory(file, since, source);
-            } else if (file.lastModified() > since && file.length() > 0) {
-                // Add to inbox for review (existing behaviour)
-                createInboxItemForFile(file, source);
-                // Also auto-import directly into the hub so files appear immediately
-                addFileIfNotTracked(file, source);
+    public HubFileScanner getScanner() {
+        return scanner;
+    }
+
+    /** {@code originalModifiedAt} of the file tracked at {@code path}, or -1 if none is. */
+    synchronized long getTrackedModifiedAt(String path) {
+        HubFile f = filesByPath.get(path);
+        return f != null ? f.originalModifiedAt : -1;
+    }
+
+    /** Paths of all tracked files (a copy). */
+    synchronized List<String> getTrackedPaths() {
+        return new ArrayList<>(filesByPath.keySet());
+    }
+
+    private void indexPath(HubFile f) {
+        unindexPath(f);
+        if (f.filePath == null || f.filePath.isEmpty()) return;
+        filesByPath.put(f.filePath, f);
+        pathById.put(f.id, f.filePath);
+    }
+
+    private void unindexPath(HubFile f) {
+        String path = pathById.remove(f.id);
+        if (path == null) return;
+        HubFile indexed = filesByPath.get(path);
+        if (indexed != null && indexed.id.equals(f.id)) filesByPath.remove(path);
+    }
+
+    /**
+     * Adds a scan's new files and inbox items in one go: a single save per
+     * list instead of a save (plus activity entry save) per file.
+     */
+    synchronized void commitScanResults(List<HubFile> newFiles, List<InboxItem> newInbox) {
+        if (newFiles.isEmpty() && newInbox.isEmpty()) return;
+        int added = 0;
+        for (HubFile file : newFiles) {
+            if (filesByPath.containsKey(file.filePath)) continue; // tracked meanwhile
+            files.add(0, file);
+            indexPath(file);
+            activities.add(0, new FileActivity(file.id, file.displayName, file.getTypeEmoji(),
+                    FileActivity.Action.IMPORTED,
+                    "Imported from " + (file.source != null ? file.source.name() : "Unknown")));
+            added++;
+        }
+        if (added > 0) {
+            if (activities.size() > MAX_ACTIVITY_ENTRIES) {
+                activities.subList(MAX_ACTIVITY_ENTRIES, activities.size()).clear();
+            }
+            saveFiles();
+            saveActivities();
+        }
+
+        Set<String> pendingPaths = new HashSet<>();
+        for (InboxItem existing : inboxItems) {
+            if (existing.filePath != null && existing.status == InboxItem.Status.PENDING) {
+                pendingPaths.add(existing.filePath);
             }
         }
+        boolean inboxChanged = false;
+        for (InboxItem item : newInbox) {
+            if (!pendingPaths.add(item.filePath)) continue;
+            inboxItems.add(0, item);
+            inboxChanged = true;
+        }
+        if (inboxChanged) saveInboxItems();
     }
 
-    /** Directly adds a file to the tracked list if it is not already there. */
-    private synchronized void addFileIfNotTracked(File file, HubFile.Source source) {
-        String path = file.getAbsolutePath();
-        for (HubFile f : files) {
-            if (path.equals(f.filePath)) return; // already tracked
-        }
+    HubFile buildHubFile(File file, HubFile.Source source) {
         String ext = getExtension(file.getName());
         String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext.toLowerCase());
         if (mime == null) mime = "application/octet-stream";
@@ -573,7 +645,7 @@ public class HubFileRepository {
         HubFile hubFile = new HubFile();
         hubFile.originalFileName = file.getName();
         hubFile.displayName = file.getName();
-        hubFile.filePath = path;
+        hubFile.filePath = file.getAbsolutePath();
         hubFile.fileSize = file.length();
         hubFile.mimeType = mime;
         hubFile.fileType = HubFile.fileTypeFromMime(mime, ext);
@@ -581,10 +653,10 @@ public class HubFileRepository {
         hubFile.fileExtension = ext;
         hubFile.originalCreatedAt = file.lastModified();
         hubFile.originalModifiedAt = file.lastModified();
-        addFile(hubFile);
+        return hubFile;
     }
 
-    private void createInboxItemForFile(File file, HubFile.Source source) {
+    InboxItem buildInboxItem(File file, HubFile.Source source) {
         InboxItem item = new InboxItem();
         item.filePath = file.getAbsolutePath();
         item.fileName = file.getName();
@@ -599,7 +671,7 @@ public class HubFileRepository {
 
         // Auto-categorization confidence based on source and type
         item.autoCategorizationConfidence = computeConfidence(source, item.fileType);
-        addInboxItem(item);
+        return item;
     }
 
     private int computeConfidence(HubFile.Source source, HubFile.FileType type) {
@@ -838,8 +910,15 @@ public class HubFileRepository {
         }
     }
 
-    public synchronized List<SearchResult> searchFilesWithContent(String query) {
-        String q = query.toLowerCase();
+    public List<SearchResult> searchFilesWithContent(String query) {
+        // Query the index before taking the repository lock: its first use reads it from disk
+        Set<String> contentHits = HubContentIndex.getInstance(context).search(query);
+        synchronized (this) {
+            return matchFiles(query.toLowerCase(), contentHits);
+        }
+    }
+
+    private List<SearchResult> matchFiles(String q, Set<String> contentHits) {
         List<SearchResult> result = new ArrayList<>();
         for (HubFile f : files) {
             if (f.isHidden) continue;
@@ -856,7 +935,7 @@ public class HubFileRepository {
                 continue;
             }
             // Content index match
-            if (f.contentIndex != null && f.contentIndex.toLowerCase().contains(q)) {
+            if (contentHits.contains(f.id)) {
                 result.add(new SearchResult(f, true));
                 continue;
             }
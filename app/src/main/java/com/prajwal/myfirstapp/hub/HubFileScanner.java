@@ -0,0 +1,399 @@
+package com.prajwal.myfirstapp.hub;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Incremental scanner behind {@link HubFileRepository#scanForNewFiles}.
+ *
+ * Keeps a snapshot of every scanned directory (mtime, child count and the
+ * names of its subdirectories). A directory whose mtime has not moved since
+ * it was last listed has had no entries added, removed or renamed, so the
+ * scan skips listing it and walks straight into the remembered subdirectories.
+ * Every entry of a directory that did change is stat'd. An untracked file
+ * modified since the last scan is imported; a tracked one modified since
+ * then, and since it was imported, was rewritten in place and gets an inbox
+ * item again. A rewrite does not move the directory mtime, so in a skipped
+ * directory the tracked files (known from the repository, no listing
+ * needed) are still stat'd for rewrites.
+ *
+ * Newly found files and inbox items are handed to the repository as one
+ * batch so a scan persists files/inbox/activity once instead of once per file.
+ *
+ * In live mode every snapshotted directory (up to {@link #MAX_WATCHED_DIRS})
+ * also gets a {@link FileObserver}. Watched directories are trusted without
+ * even an mtime check until an event (CLOSE_WRITE included, which covers
+ * rewrites) marks them dirty, so a scan with no events since the last one is
+ * a no-op (unless some directories exceeded the watch cap; those still get
+ * the mtime and rewrite checks). Events trigger a debounced scan.
+ * {@link SmartFileHubActivity} runs live mode between onResume and onPause.
+ *
+ * Scans run on the repository's executor and are serialised on a private
+ * lock. Live mode is switched with volatile flags rather than that lock, so
+ * starting or stopping it from the UI thread never waits for a scan.
+ */
+public class HubFileScanner {
+
+    private static final String TAG = "HubFileScanner";
+    private static final String SNAPSHOT_FILE = "hub_scan_snapshot.bin";
+    private static final int SNAPSHOT_VERSION = 1;
+    /** Directory mtimes can be as coarse as 1–2 s; re-list anything that changed within that window of the last listing. */
+    private static final long MTIME_SLACK_MS = 2000;
+    private static final int MAX_WATCHED_DIRS = 512;
+    private static final long LIVE_SCAN_DEBOUNCE_MS = 1500;
+    private static final int WATCH_MASK = FileObserver.CREATE | FileObserver.MOVED_TO
+            | FileObserver.CLOSE_WRITE | FileObserver.DELETE | FileObserver.MOVED_FROM
+            | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private final Context context;
+    private final HubFileRepository repo;
+    private final File snapshotFile;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Scan thread only (guarded by scanLock)
+    private final Object scanLock = new Object();
+    private final Map<String, DirSnapshot> snapshots = new HashMap<>();
+    private boolean snapshotLoaded = false;
+    private boolean snapshotDirty = false;
+
+    // Live mode
+    private final Map<String, FileObserver> observers = new ConcurrentHashMap<>();
+    private final Set<String> dirtyDirs = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean liveMode = false;
+    private volatile boolean fullScanNeeded = true;
+    private volatile Runnable liveListener;
+    private final Runnable liveScan = this::runLiveScan;
+
+    // Stats from the last scan
+    private int lastDirsListed, lastDirsSkipped, lastFilesChecked, lastNewFiles;
+
+    private static final class DirSnapshot {
+        long mtime;
+        int childCount;
+        long listedAt;
+        String[] subdirs;
+    }
+
+    HubFileScanner(Context context, HubFileRepository repo) {
+        this.context = context.getApplicationContext();
+        this.repo = repo;
+        this.snapshotFile = new File(this.context.getFilesDir(), SNAPSHOT_FILE);
+    }
+
+    // ─── Scan ─────────────────────────────────────────────────────────────────
+
+    /**
+     * Walks {@code roots} (directory → source) and commits every untracked
+     * file modified after {@code since}. Returns the number of files added.
+     */
+    public int scan(Map<File, HubFile.Source> roots, long since) {
+        synchronized (scanLock) {
+            return scanLocked(roots, since);
+        }
+    }
+
+    private int scanLocked(Map<File, HubFile.Source> roots, long since) {
+        loadSnapshot();
+        // Everything watched and nothing happened: nothing to do
+        if (liveMode && !fullScanNeeded && dirtyDirs.isEmpty()
+                && observers.size() >= snapshots.size()) {
+            lastDirsListed = lastDirsSkipped = lastFilesChecked = lastNewFiles = 0;
+            return 0;
+        }
+
+        Map<String, HubFile.Source> rootSources = new HashMap<>();
+        for (Map.Entry<File, HubFile.Source> e : roots.entrySet()) {
+            rootSources.put(e.getKey().getAbsolutePath(), e.getValue());
+        }
+
+        Walk walk = new Walk(rootSources, since);
+        for (Map.Entry<File, HubFile.Source> e : roots.entrySet()) {
+            File root = e.getKey();
+            if (root.isDirectory()) walk.visit(root, e.getValue());
+        }
+
+        // Forget directories that no longer exist (or fell out of the roots)
+        if (snapshots.keySet().retainAll(walk.visited)) snapshotDirty = true;
+        for (String path : new ArrayList<>(observers.keySet())) {
+            if (!walk.visited.contains(path)) unwatch(path);
+        }
+        fullScanNeeded = false;
+
+        repo.commitScanResults(walk.newFiles, walk.newInbox);
+        saveSnapshot();
+
+        lastDirsListed = walk.listed;
+        lastDirsSkipped = walk.skipped;
+        lastFilesChecked = walk.checked;
+        lastNewFiles = walk.newFiles.size();
+        Log.d(TAG, "scan: " + getStats());
+        return lastNewFiles;
+    }
+
+    private final class Walk {
+        final Map<String, HubFile.Source> rootSources;
+        final long since;
+        final Set<String> visited = new HashSet<>();
+        final List<HubFile> newFiles = new ArrayList<>();
+        final List<InboxItem> newInbox = new ArrayList<>();
+        /** Tracked file paths by parent directory, built on first need. */
+        Map<String, List<String>> trackedByDir;
+        int listed, skipped, checked;
+
+        Walk(Map<String, HubFile.Source> rootSources, long since) {
+            this.rootSources = rootSources;
+            this.since = since;
+        }
+
+        void visit(File dir, HubFile.Source source) {
+            String path = dir.getAbsolutePath();
+            if (!visited.add(path)) return; // overlapping roots (DCIM vs DCIM/Camera)
+            HubFile.Source rootSource = rootSources.get(path);
+            if (rootSource != null) source = rootSource;
+
+            DirSnapshot snap = snapshots.get(path);
+            boolean dirty = dirtyDirs.remove(path);
+            if (snap != null && !dirty && observers.containsKey(path)) {
+                // Watched and no events since the last listing
+                skipped++;
+                descend(dir, snap.subdirs, source);
+                return;
+            }
+
+            long mtime = dir.lastModified();
+            if (snap != null && !dirty && snap.mtime == mtime
+                    && snap.listedAt - mtime > MTIME_SLACK_MS) {
+                skipped++;
+                watch(path);
+                checkRewrites(path, source);
+                descend(dir, snap.subdirs, source);
+                return;
+            }
+
+            watch(path); // before listing, so nothing created meanwhile is missed
+            File[] children = dir.listFiles();
+            if (children == null) {
+                snapshots.remove(path);
+                return;
+            }
+            listed++;
+            // Every file, even on a re-list within the mtime slack: an entry count
+            // that did not change can still hide a rename (tmp → final) in the same tick
+            List<String> subdirs = new ArrayList<>();
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    subdirs.add(child.getName());
+                } else {
+                    checkFile(child, source);
+                }
+            }
+
+            DirSnapshot updated = new DirSnapshot();
+            updated.mtime = mtime;
+            updated.childCount = children.length;
+            updated.listedAt = System.currentTimeMillis();
+            updated.subdirs = subdirs.toArray(new String[0]);
+            snapshots.put(path, updated);
+            snapshotDirty = true;
+
+            descend(dir, updated.subdirs, source);
+        }
+
+        void descend(File dir, String[] subdirs, HubFile.Source source) {
+            for (String name : subdirs) visit(new File(dir, name), source);
+        }
+
+        /** Tracked files of a directory that was not listed, checked for in-place rewrites. */
+        void checkRewrites(String dir, HubFile.Source source) {
+            if (trackedByDir == null) {
+                trackedByDir = new HashMap<>();
+                for (String path : repo.getTrackedPaths()) {
+                    String parent = new File(path).getParent();
+                    List<String> paths = trackedByDir.get(parent);
+                    if (paths == null) trackedByDir.put(parent, paths = new ArrayList<>());
+                    paths.add(path);
+                }
+            }
+            List<String> paths = trackedByDir.get(dir);
+            if (paths == null) return;
+            for (String path : paths) checkFile(new File(path), source);
+        }
+
+        void checkFile(File file, HubFile.Source source) {
+            checked++;
+            long modified = file.lastModified();
+            if (modified <= since || file.length() <= 0) return;
+            long tracked = repo.getTrackedModifiedAt(file.getAbsolutePath());
+            if (tracked >= 0) {
+                // Rewritten in place since it was imported: back to the inbox for review
+                if (modified > tracked) newInbox.add(repo.buildInboxItem(file, source));
+                return;
+            }
+            // Add to inbox for review, and import directly so files appear immediately
+            newInbox.add(repo.buildInboxItem(file, source));
+            newFiles.add(repo.buildHubFile(file, source));
+        }
+    }
+
+    // ─── Live mode ────────────────────────────────────────────────────────────
+
+    /**
+     * Watch scanned directories and rescan shortly after anything changes.
+     * Observers are registered by the next scan, so start one afterwards.
+     * {@code onNewFiles} runs on the main thread after each live scan; may be null.
+     */
+    public void startLiveMode(Runnable onNewFiles) {
+        liveListener = onNewFiles;
+        if (liveMode) return;
+        liveMode = true;
+        // Directories may have changed while nothing was watching: the next scan
+        // checks mtimes as usual and registers observers as it goes.
+        fullScanNeeded = true;
+    }
+
+    public void stopLiveMode() {
+        liveMode = false;
+        liveListener = null;
+        mainHandler.removeCallbacks(liveScan);
+        for (String path : new ArrayList<>(observers.keySet())) unwatch(path);
+        dirtyDirs.clear();
+    }
+
+    public boolean isLiveMode() { return liveMode; }
+
+    private void watch(String path) {
+        if (!liveMode || observers.containsKey(path) || observers.size() >= MAX_WATCHED_DIRS) return;
+        FileObserver observer = new DirObserver(path);
+        observer.startWatching();
+        observers.put(path, observer);
+        if (!liveMode) unwatch(path); // stopped while this scan was running
+    }
+
+    private void unwatch(String path) {
+        FileObserver observer = observers.remove(path);
+        if (observer != null) observer.stopWatching();
+    }
+
+    private void onDirEvent(String dir, int event, String name) {
+        int type = event & FileObserver.ALL_EVENTS;
+        if ((type & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+            // The parent's mtime changes too; it will be re-listed
+            unwatch(dir);
+            fullScanNeeded = true;
+        }
+        // CLOSE_WRITE matters too: a file rewritten in place does not move the directory mtime
+        dirtyDirs.add(dir);
+        mainHandler.removeCallbacks(liveScan);
+        mainHandler.postDelayed(liveScan, LIVE_SCAN_DEBOUNCE_MS);
+    }
+
+    private void runLiveScan() {
+        if (!liveMode) return;
+        final Runnable listener = liveListener;
+        repo.scanForNewFiles(listener);
+    }
+
+    private final class DirObserver extends FileObserver {
+        private final String dir;
+
+        @SuppressWarnings("deprecation") // File-based constructor needs API 29
+        DirObserver(String dir) {
+            super(dir, WATCH_MASK);
+            this.dir = dir;
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            onDirEvent(dir, event, path);
+        }
+    }
+
+    // ─── Snapshot persistence ─────────────────────────────────────────────────
+
+    /** Drop the snapshot so the next scan lists every directory again. */
+    public void reset() {
+        synchronized (scanLock) {
+            snapshots.clear();
+            snapshotDirty = true;
+            fullScanNeeded = true;
+            saveSnapshot();
+        }
+    }
+
+    private void loadSnapshot() {
+        if (snapshotLoaded) return;
+        snapshotLoaded = true;
+        if (!snapshotFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_VERSION) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                DirSnapshot s = new DirSnapshot();
+                s.mtime = in.readLong();
+                s.childCount = in.readInt();
+                s.listedAt = in.readLong();
+                s.subdirs = new String[in.readInt()];
+                for (int k = 0; k < s.subdirs.length; k++) s.subdirs[k] = in.readUTF();
+                snapshots.put(path, s);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "loadSnapshot: starting fresh", e);
+            snapshots.clear();
+        }
+    }
+
+    private void saveSnapshot() {
+        if (!snapshotDirty) return;
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(snapshots.size());
+            for (Map.Entry<String, DirSnapshot> e : snapshots.entrySet()) {
+                DirSnapshot s = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(s.mtime);
+                out.writeInt(s.childCount);
+                out.writeLong(s.listedAt);
+                out.writeInt(s.subdirs.length);
+                for (String name : s.subdirs) out.writeUTF(name);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "saveSnapshot", e);
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(snapshotFile)) snapshotDirty = false;
+        else Log.e(TAG, "saveSnapshot: rename failed");
+    }
+
+    // ─── Stats ────────────────────────────────────────────────────────────────
+
+    public String getStats() {
+        return "listed=" + lastDirsListed + " skipped=" + lastDirsSkipped
+                + " checked=" + lastFilesChecked + " new=" + lastNewFiles
+                + " watched=" + observers.size() + (liveMode ? " live" : "");
+    }
+}
@@ -35,6 +35,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Search activity for Hub files.
@@ -58,6 +60,10 @@ public class HubSearchActivity extends AppCompatActivity {
 
     private Handler debounceHandler = new Handler(Looper.getMainLooper());
     private Runnable debounceRunnable;
+    /** Runs searches (and the first load of the content index) off the UI thread. */
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    /** Bumped per search on the UI thread; results of an older search are dropped. */
+    private int searchGeneration;
 
     private List<HubFile> results = new ArrayList<>();
     private SearchResultAdapter adapter;
@@ -96,6 +102,9 @@ public class HubSearchActivity extends AppCompatActivity {
 
         loadPreSearch();
         setupSearchBar();
+        // Read the content index from disk now, not on the first keystroke
+        Context appContext = getApplicationContext();
+        searchExecutor.execute(() -> HubContentIndex.getInstance(appContext).getDocumentCount());
 
         // Auto-focus
         etSearchQuery.requestFocus();
@@ -202,7 +211,15 @@ public class HubSearchActivity extends AppCompatActivity {
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (debounceRunnable != null) debounceHandler.removeCallbacks(debounceRunnable);
+        searchExecutor.shutdownNow();
+    }
+
     private void showPreSearch() {
+        searchGeneration++;
         searchPreSearchLayout.setVisibility(View.VISIBLE);
         searchResultsLayout.setVisibility(View.GONE);
         searchEmptyState.setVisibility(View.GONE);
@@ -213,10 +230,19 @@ public class HubSearchActivity extends AppCompatActivity {
         searchProgressBar.setVisibility(View.VISIBLE);
         searchPreSearchLayout.setVisibility(View.GONE);
         searchEmptyState.setVisibility(View.GONE);
+        saveToHistory(query);
 
-        // Use content-aware search that also searches inside files
-        List<HubFileRepository.SearchResult> raw = repo.searchFilesWithContent(query);
+        int generation = ++searchGeneration;
+        searchExecutor.execute(() -> {
+            // Use content-aware search that also searches inside files
+            List<HubFileRepository.SearchResult> raw = repo.searchFilesWithContent(query);
+            runOnUiThread(() -> {
+                if (generation == searchGeneration && !isFinishing()) showResults(query, raw);
+            });
+        });
+    }
 
+    private void showResults(String query, List<HubFileRepository.SearchResult> raw) {
         // Sort: name matches first, then content matches
         List<HubFileRepository.SearchResult> nameMatches = new ArrayList<>();
         List<HubFileRepository.SearchResult> contentMatches = new ArrayList<>();
@@ -249,8 +275,6 @@ public class HubSearchActivity extends AppCompatActivity {
             tvResultsCount.setText(countText);
             adapter.notifyDataSetChanged();
         }
-
-        saveToHistory(query);
     }
 
     private void showFilterDialog() {
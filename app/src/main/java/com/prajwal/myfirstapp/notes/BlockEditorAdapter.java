@@ -1260,6 +1260,7 @@ public class BlockEditorAdapter extends RecyclerView.Adapter<BlockEditorAdapter.
             else if ("dashed".equals(style)) block.setDividerStyle("dotted");
             else block.setDividerStyle("solid");
             notifyItemChanged(holder.getAdapterPosition());
+            if (listener != null) listener.onBlockChanged(holder.getAdapterPosition(), block);
         });
     }
 
@@ -0,0 +1,160 @@
+package com.prajwal.myfirstapp.notes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Per-block derived data for {@link NoteEditorActivity} — serialized JSON,
+ * plain text, word count and @mention titles — kept between saves so a
+ * save or a stats refresh only redoes the blocks that changed.
+ *
+ * A block is redone when the editor marked it dirty, or when its
+ * fingerprint (type, indent, order, updatedAt, text, content size) moved;
+ * the fingerprint catches edits made through paths that do not report the
+ * block. Setters that leave updatedAt alone (collapsed, divider style, …)
+ * can keep the fingerprint, so every path making them must mark the block. Blocks are tracked by identity, so replacing the list (restore,
+ * template, reload) simply builds entries for the new blocks.
+ *
+ * Everything handed out is an immutable string, safe to pass to the
+ * background writer. Main thread only.
+ */
+final class EditorBlockCache {
+
+    private static final class Entry {
+        long fingerprint;
+        String json;
+        String plainText;
+        int words;
+        List<String> mentions;     // null if none
+    }
+
+    private final NoteRelationsManager relations;
+    private IdentityHashMap<ContentBlock, Entry> entries = new IdentityHashMap<>();
+    private final Set<ContentBlock> dirty = Collections.newSetFromMap(new IdentityHashMap<ContentBlock, Boolean>());
+    private final List<Entry> order = new ArrayList<>();
+    private int charCount;
+    private int wordCount;
+    private int rebuilt;
+
+    EditorBlockCache(NoteRelationsManager relations) {
+        this.relations = relations;
+    }
+
+    /** The editor saw this block change. */
+    void markDirty(ContentBlock block) {
+        if (block != null) dirty.add(block);
+    }
+
+    /** Bring the entries up to date with {@code blocks}; cheap when few blocks changed. */
+    void refresh(List<ContentBlock> blocks) {
+        IdentityHashMap<ContentBlock, Entry> next = new IdentityHashMap<>(blocks.size() * 2);
+        order.clear();
+        charCount = 0;
+        wordCount = 0;
+        rebuilt = 0;
+        int nonEmpty = 0;
+        for (ContentBlock block : blocks) {
+            long fp = fingerprint(block);
+            Entry e = entries.get(block);
+            if (e == null || e.fingerprint != fp || dirty.contains(block)) {
+                e = build(block, fp);
+                rebuilt++;
+            }
+            next.put(block, e);
+            order.add(e);
+            if (!e.plainText.isEmpty()) {
+                charCount += e.plainText.length();
+                nonEmpty++;
+            }
+            wordCount += e.words;
+        }
+        if (nonEmpty > 1) charCount += nonEmpty - 1;   // '\n' between blocks
+        entries = next;
+        dirty.clear();
+    }
+
+    /** Blocks rebuilt by the last {@link #refresh}. */
+    int getRebuiltCount() {
+        return rebuilt;
+    }
+
+    int getCharCount() {
+        return charCount;
+    }
+
+    int getWordCount() {
+        return wordCount;
+    }
+
+    /** Same as {@code ContentBlock.toJsonArray(blocks).toString()}, from the cached block JSON. */
+    String buildBlocksJson() {
+        int size = 2 + order.size();
+        for (Entry e : order) size += e.json.length();
+        StringBuilder sb = new StringBuilder(size);
+        sb.append('[');
+        for (int i = 0; i < order.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(order.get(i).json);
+        }
+        return sb.append(']').toString();
+    }
+
+    /** Plain text of the non-empty blocks, one per line. */
+    String buildPlainText() {
+        StringBuilder sb = new StringBuilder(charCount);
+        for (Entry e : order) {
+            if (e.plainText.isEmpty()) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(e.plainText);
+        }
+        return sb.toString();
+    }
+
+    /** First {@code max} characters of {@link #buildPlainText()}, without building all of it. */
+    String buildPlainTextPrefix(int max) {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : order) {
+            if (sb.length() >= max) break;
+            if (e.plainText.isEmpty()) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(e.plainText);
+        }
+        return sb.length() > max ? sb.substring(0, max) : sb.toString();
+    }
+
+    /** Titles @mentioned anywhere in the note, in order of first mention. */
+    Set<String> getMentionTitles() {
+        Set<String> titles = new LinkedHashSet<>();
+        for (Entry e : order) if (e.mentions != null) titles.addAll(e.mentions);
+        return titles;
+    }
+
+    private Entry build(ContentBlock block, long fingerprint) {
+        Entry e = new Entry();
+        e.fingerprint = fingerprint;
+        e.json = block.toJson().toString();
+        String plain = block.getPlainText();
+        e.plainText = plain != null ? plain : "";
+        String trimmed = e.plainText.trim();
+        e.words = trimmed.isEmpty() ? 0 : trimmed.split("\\s+").length;
+        if (block.isTextBased()) {
+            List<String> mentions = relations.extractMentions(block.getText());
+            if (!mentions.isEmpty()) e.mentions = mentions;
+        }
+        return e;
+    }
+
+    private static long fingerprint(ContentBlock block) {
+        long h = block.blockType != null ? block.blockType.hashCode() : 0;
+        h = h * 31 + block.indentLevel;
+        h = h * 31 + block.sortOrder;
+        h = h * 31 + block.updatedAt;
+        h = h * 31 + block.content.length();
+        h = h * 31 + block.getText().hashCode();   // the stored string; its hash is cached
+        return h;
+    }
+}
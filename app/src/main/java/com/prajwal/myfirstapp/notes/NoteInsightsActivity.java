@@ -63,7 +63,9 @@ public class NoteInsightsActivity extends AppCompatActivity {
     // ═══════════════════════════════════════════════════════════════════════════════
 
     private void loadInsights() {
-        NoteInsightsManager.Insights insights = NoteInsightsManager.generateInsights(noteRepository.getAllNotes());
+        List<Note> allNotes = noteRepository.getAllNotes();
+        for (Note n : allNotes) noteRepository.loadContent(n);     // block counts need the content
+        NoteInsightsManager.Insights insights = NoteInsightsManager.generateInsights(allNotes);
 
         // ── Summary card ──
         TextView tvTotalNotes = findViewById(R.id.tvTotalNotes);
@@ -0,0 +1,514 @@
+package com.prajwal.myfirstapp.notes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over note titles, tags, categories and body text with
+ * BM25F ranking.
+ *
+ *   - Text is split into lower-case letter/digit runs. Each term maps to a
+ *     posting list of (doc, per-field term frequencies), kept in doc order.
+ *   - Field weights: title {@link #W_TITLE}, tags {@link #W_TAGS}, category
+ *     {@link #W_CATEGORY}, body 1. Frequencies are length-normalised per
+ *     field, weighted, summed and saturated once (BM25F, k1 = 1.2, b = 0.75).
+ *   - Every query term must match (AND). The last term also matches as a
+ *     prefix, since it is usually still being typed; terms of four or more
+ *     letters also match words one edit away (two from eight letters).
+ *     Prefix and fuzzy matches score less than exact ones.
+ *   - {@link #put} and {@link #remove} are incremental: a changed note gets
+ *     a new doc id and the old one is tombstoned. Postings of dead docs are
+ *     skipped by queries and dropped when dead docs reach a quarter of all.
+ *
+ * Each note carries a signature from the caller (see
+ * {@link NoteRepository}) so a persisted index can be reconciled with the
+ * notes at load time. Hits name the field and term that contributed most,
+ * and {@link #locate} finds that term in the field's text for highlighting.
+ *
+ * Thread-safe.
+ */
+public class NoteSearchIndex {
+
+    public static final int FIELD_TITLE = 0;
+    public static final int FIELD_TAGS = 1;
+    public static final int FIELD_CATEGORY = 2;
+    public static final int FIELD_BODY = 3;
+    private static final int FIELDS = 4;
+
+    static final float W_TITLE = 3.0f;
+    static final float W_TAGS = 2.0f;
+    static final float W_CATEGORY = 1.5f;
+    private static final float[] WEIGHTS = {W_TITLE, W_TAGS, W_CATEGORY, 1.0f};
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final float PREFIX_FACTOR = 0.8f;
+    private static final float FUZZY_FACTOR = 0.5f;
+    private static final int MAX_PREFIX_TERMS = 64;
+    private static final int MAX_FUZZY_TERMS = 16;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    private static final int MAX_BODY_TOKENS = 50_000;
+
+    private static final int MAGIC = 0x4E534931;      // "NSI1"
+
+    // Per-field term frequency packed into one int: body 18 bits, title 6, tags 4, category 4
+    private static final int[] SHIFT = {18, 24, 28, 0};
+    private static final int[] MASK = {0x3F, 0xF, 0xF, 0x3FFFF};
+
+    public static final class Hit {
+        public final String noteId;
+        public final float score;
+        /** Field and term with the largest contribution, for highlighting. */
+        public final int field;
+        public final String term;
+
+        Hit(String noteId, float score, int field, String term) {
+            this.noteId = noteId;
+            this.score = score;
+            this.field = field;
+            this.term = term;
+        }
+    }
+
+    private static final class Postings {
+        int[] docs = new int[2];
+        int[] tfs = new int[2];
+        int size;
+
+        void add(int doc, int tf) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            docs[size] = doc;
+            tfs[size] = tf;
+            size++;
+        }
+    }
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<String, Integer> docOf = new HashMap<>();
+    private String[] docNote = new String[16];
+    private long[] docSig = new long[16];
+    private int[] docLen = new int[16 * FIELDS];
+    private final BitSet dead = new BitSet();
+    private int docCount;
+    private final long[] totalLen = new long[FIELDS];
+
+    // ─── Updates ─────────────────────────────────────────────────
+
+    /** Index (or re-index) a note. */
+    public synchronized void put(String noteId, long signature, String title, List<String> tags,
+                                 String category, String body) {
+        removeDoc(noteId);
+        HashMap<String, int[]> tf = new HashMap<>();
+        int[] len = new int[FIELDS];
+        len[FIELD_TITLE] = count(tf, title, FIELD_TITLE, Integer.MAX_VALUE);
+        if (tags != null) for (String tag : tags) len[FIELD_TAGS] += count(tf, tag, FIELD_TAGS, Integer.MAX_VALUE);
+        len[FIELD_CATEGORY] = count(tf, category, FIELD_CATEGORY, Integer.MAX_VALUE);
+        len[FIELD_BODY] = count(tf, body, FIELD_BODY, MAX_BODY_TOKENS);
+
+        int doc = newDoc(noteId, signature, len);
+        for (Map.Entry<String, int[]> e : tf.entrySet()) {
+            Postings p = terms.get(e.getKey());
+            if (p == null) {
+                p = new Postings();
+                terms.put(e.getKey(), p);
+            }
+            p.add(doc, pack(e.getValue()));
+        }
+    }
+
+    public synchronized void remove(String noteId) {
+        removeDoc(noteId);
+        maybeCompact();
+    }
+
+    /** The signature a note was indexed with, or 0 if it is not indexed. */
+    public synchronized long getSignature(String noteId) {
+        Integer doc = docOf.get(noteId);
+        return doc != null ? docSig[doc] : 0;
+    }
+
+    public synchronized Set<String> getNoteIds() {
+        return new HashSet<>(docOf.keySet());
+    }
+
+    public synchronized int size() {
+        return docOf.size();
+    }
+
+    private void removeDoc(String noteId) {
+        Integer doc = docOf.remove(noteId);
+        if (doc == null) return;
+        dead.set(doc);
+        for (int f = 0; f < FIELDS; f++) totalLen[f] -= docLen[doc * FIELDS + f];
+    }
+
+    private int newDoc(String noteId, long signature, int[] len) {
+        if (docCount == docNote.length) {
+            int cap = docCount * 2;
+            docNote = Arrays.copyOf(docNote, cap);
+            docSig = Arrays.copyOf(docSig, cap);
+            docLen = Arrays.copyOf(docLen, cap * FIELDS);
+        }
+        int doc = docCount++;
+        docNote[doc] = noteId;
+        docSig[doc] = signature;
+        for (int f = 0; f < FIELDS; f++) {
+            docLen[doc * FIELDS + f] = len[f];
+            totalLen[f] += len[f];
+        }
+        docOf.put(noteId, doc);
+        maybeCompact();
+        return docOf.get(noteId);
+    }
+
+    private void maybeCompact() {
+        int deadCount = docCount - docOf.size();
+        if (deadCount > 64 && deadCount * 4 > docCount) compact();
+    }
+
+    /** Renumber live docs and drop postings of dead ones. */
+    private void compact() {
+        int[] remap = new int[docCount];
+        int live = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (dead.get(doc)) {
+                remap[doc] = -1;
+                continue;
+            }
+            remap[doc] = live;
+            docNote[live] = docNote[doc];
+            docSig[live] = docSig[doc];
+            System.arraycopy(docLen, doc * FIELDS, docLen, live * FIELDS, FIELDS);
+            docOf.put(docNote[live], live);
+            live++;
+        }
+        for (int doc = live; doc < docCount; doc++) docNote[doc] = null;
+        docCount = live;
+        dead.clear();
+        for (java.util.Iterator<Postings> it = terms.values().iterator(); it.hasNext(); ) {
+            Postings p = it.next();
+            int n = 0;
+            for (int i = 0; i < p.size; i++) {
+                int d = remap[p.docs[i]];
+                if (d < 0) continue;
+                p.docs[n] = d;
+                p.tfs[n] = p.tfs[i];
+                n++;
+            }
+            p.size = n;
+            if (n == 0) it.remove();
+        }
+    }
+
+    // ─── Search ──────────────────────────────────────────────────
+
+    /** Best {@code limit} notes matching every term of {@code query}, best first. */
+    public synchronized List<Hit> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        int live = docOf.size();
+        if (tokens.isEmpty() || live == 0 || limit <= 0) return Collections.emptyList();
+
+        float[] avg = new float[FIELDS];
+        for (int f = 0; f < FIELDS; f++) avg[f] = Math.max(1f, (float) totalLen[f] / live);
+
+        float[] total = new float[docCount];
+        int[] matched = new int[docCount];
+        float[] best = new float[docCount];
+        int[] bestField = new int[docCount];
+        String[] bestTerm = new String[docCount];
+        float[] tokenScore = new float[docCount];
+        int[] touched = new int[docCount];
+
+        for (int t = 0; t < tokens.size(); t++) {
+            String token = tokens.get(t);
+            Map<String, Float> variants = expand(token, t == tokens.size() - 1);
+            if (variants.isEmpty()) return Collections.emptyList();
+            int nTouched = 0;
+            for (Map.Entry<String, Float> v : variants.entrySet()) {
+                Postings p = terms.get(v.getKey());
+                float idf = (float) Math.log(1 + (live - p.size + 0.5) / (p.size + 0.5));
+                float factor = v.getValue() * idf;
+                for (int i = 0; i < p.size; i++) {
+                    int doc = p.docs[i];
+                    if (dead.get(doc) || matched[doc] < t) continue;     // already missed an earlier term
+                    int tf = p.tfs[i];
+                    float wtf = 0, top = 0;
+                    int topField = FIELD_BODY;
+                    for (int f = 0; f < FIELDS; f++) {
+                        int n = (tf >>> SHIFT[f]) & MASK[f];
+                        if (n == 0) continue;
+                        float norm = WEIGHTS[f] * n / (1 - B + B * docLen[doc * FIELDS + f] / avg[f]);
+                        wtf += norm;
+                        if (norm > top) {
+                            top = norm;
+                            topField = f;
+                        }
+                    }
+                    float s = factor * wtf * (K1 + 1) / (wtf + K1);
+                    if (tokenScore[doc] == 0) touched[nTouched++] = doc;
+                    if (s > tokenScore[doc]) tokenScore[doc] = s;
+                    if (s > best[doc]) {
+                        best[doc] = s;
+                        bestField[doc] = topField;
+                        bestTerm[doc] = v.getKey();
+                    }
+                }
+            }
+            for (int i = 0; i < nTouched; i++) {
+                int doc = touched[i];
+                total[doc] += tokenScore[doc];
+                matched[doc] = t + 1;
+                tokenScore[doc] = 0;
+            }
+        }
+
+        int need = tokens.size();
+        PriorityQueue<Integer> top = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)),
+                (a, b) -> Float.compare(total[a], total[b]));
+        for (int doc = 0; doc < docCount; doc++) {
+            if (matched[doc] != need) continue;
+            if (top.size() < limit) {
+                top.add(doc);
+            } else if (total[doc] > total[top.peek()]) {
+                top.poll();
+                top.add(doc);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            int doc = top.poll();
+            hits.add(new Hit(docNote[doc], total[doc], bestField[doc], bestTerm[doc]));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    /** Indexed terms that {@code token} matches, with their score factor. */
+    private Map<String, Float> expand(String token, boolean last) {
+        HashMap<String, Float> out = new HashMap<>();
+        if (terms.containsKey(token)) out.put(token, 1f);
+        if (last) {
+            List<Map.Entry<String, Postings>> prefixed = new ArrayList<>();
+            for (Map.Entry<String, Postings> e : terms.subMap(token, token + Character.MAX_VALUE).entrySet()) {
+                if (!e.getKey().equals(token)) prefixed.add(e);
+            }
+            if (prefixed.size() > MAX_PREFIX_TERMS) {
+                // Keep the most common completions
+                Collections.sort(prefixed, (a, b) -> Integer.compare(b.getValue().size, a.getValue().size));
+                prefixed = prefixed.subList(0, MAX_PREFIX_TERMS);
+            }
+            for (Map.Entry<String, Postings> e : prefixed) out.put(e.getKey(), PREFIX_FACTOR);
+        }
+        if (token.length() >= MIN_FUZZY_LENGTH) {
+            int maxEdits = token.length() >= 8 ? 2 : 1;
+            // Typos rarely hit the first letter; only look at terms sharing it
+            String first = token.substring(0, 1);
+            SortedMap<String, Postings> range = terms.subMap(first, first + Character.MAX_VALUE);
+            List<String> fuzzy = new ArrayList<>();
+            for (String term : range.keySet()) {
+                if (out.containsKey(term) || Math.abs(term.length() - token.length()) > maxEdits) continue;
+                if (withinEdits(token, term, maxEdits)) fuzzy.add(term);
+            }
+            if (fuzzy.size() > MAX_FUZZY_TERMS) {
+                Collections.sort(fuzzy, (a, b) -> Integer.compare(terms.get(b).size, terms.get(a).size));
+                fuzzy = fuzzy.subList(0, MAX_FUZZY_TERMS);
+            }
+            for (String term : fuzzy) out.put(term, FUZZY_FACTOR);
+        }
+        return out;
+    }
+
+    /** Optimal string alignment distance of a and b is at most {@code max}. */
+    static boolean withinEdits(String a, String b, int max) {
+        int n = a.length(), m = b.length();
+        int[] prev2 = new int[m + 1], prev = new int[m + 1], cur = new int[m + 1];
+        for (int j = 0; j <= m; j++) prev[j] = j;
+        for (int i = 1; i <= n; i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= m; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, prev2[j - 2] + 1);
+                }
+                cur[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max) return false;
+            int[] t = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[m] <= max;
+    }
+
+    // ─── Text ────────────────────────────────────────────────────
+
+    /** Lower-case letter/digit runs of {@code text}. */
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                out.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    private static int count(HashMap<String, int[]> tf, String text, int field, int maxTokens) {
+        if (text == null) return 0;
+        List<String> tokens = tokenize(text);
+        int n = Math.min(tokens.size(), maxTokens);
+        for (int i = 0; i < n; i++) {
+            int[] counts = tf.get(tokens.get(i));
+            if (counts == null) {
+                counts = new int[FIELDS];
+                tf.put(tokens.get(i), counts);
+            }
+            counts[field]++;
+        }
+        return n;
+    }
+
+    private static int pack(int[] counts) {
+        int packed = 0;
+        for (int f = 0; f < FIELDS; f++) packed |= Math.min(counts[f], MASK[f]) << SHIFT[f];
+        return packed;
+    }
+
+    /**
+     * Character range {start, end} of the first word in {@code text} that is
+     * {@code term} or starts with it (prefix hits), or null. Fuzzy hits fall
+     * back to the first word within the same edit distance.
+     */
+    public static int[] locate(String text, String term) {
+        if (text == null || term == null) return null;
+        int[] fuzzy = null;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                String w = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (w.equals(term)) return new int[]{start, i};
+                if (w.startsWith(term)) return new int[]{start, i};
+                if (fuzzy == null && term.length() >= MIN_FUZZY_LENGTH
+                        && withinEdits(term, w, term.length() >= 8 ? 2 : 1)) {
+                    fuzzy = new int[]{start, i};
+                }
+                start = -1;
+            }
+        }
+        return fuzzy;
+    }
+
+    // ─── Persistence ─────────────────────────────────────────────
+
+    /** Write a compacted snapshot. */
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        compact();
+        out.writeInt(MAGIC);
+        out.writeInt(docCount);
+        for (int doc = 0; doc < docCount; doc++) {
+            out.writeUTF(docNote[doc]);
+            out.writeLong(docSig[doc]);
+            for (int f = 0; f < FIELDS; f++) out.writeInt(docLen[doc * FIELDS + f]);
+        }
+        out.writeInt(terms.size());
+        for (Map.Entry<String, Postings> e : terms.entrySet()) {
+            Postings p = e.getValue();
+            out.writeUTF(e.getKey());
+            out.writeInt(p.size);
+            int prev = 0;
+            for (int i = 0; i < p.size; i++) {
+                writeVarint(out, p.docs[i] - prev);                  // doc gaps are small
+                prev = p.docs[i];
+                writeVarint(out, p.tfs[i]);
+            }
+        }
+    }
+
+    /** Read a snapshot written by {@link #writeTo}. */
+    public static NoteSearchIndex readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Bad search index header");
+        NoteSearchIndex index = new NoteSearchIndex();
+        int docs = in.readInt();
+        int cap = Math.max(16, docs);
+        index.docNote = new String[cap];
+        index.docSig = new long[cap];
+        index.docLen = new int[cap * FIELDS];
+        for (int doc = 0; doc < docs; doc++) {
+            index.docNote[doc] = in.readUTF();
+            index.docSig[doc] = in.readLong();
+            for (int f = 0; f < FIELDS; f++) {
+                int len = in.readInt();
+                index.docLen[doc * FIELDS + f] = len;
+                index.totalLen[f] += len;
+            }
+            index.docOf.put(index.docNote[doc], doc);
+        }
+        index.docCount = docs;
+        int termCount = in.readInt();
+        for (int t = 0; t < termCount; t++) {
+            String term = in.readUTF();
+            int size = in.readInt();
+            Postings p = new Postings();
+            p.docs = new int[Math.max(2, size)];
+            p.tfs = new int[Math.max(2, size)];
+            int doc = 0;
+            for (int i = 0; i < size; i++) {
+                doc += readVarint(in);
+                if (doc >= docs) throw new IOException("Bad posting");
+                p.docs[i] = doc;
+                p.tfs[i] = readVarint(in);
+            }
+            p.size = size;
+            index.terms.put(term, p);
+        }
+        return index;
+    }
+
+    private static void writeVarint(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int v = 0, shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+            shift += 7;
+            if (shift > 28) throw new IOException("Bad varint");
+        }
+    }
+}
@@ -56,13 +56,7 @@ public class NoteShareViewerActivity extends AppCompatActivity {
 
     private void loadNoteById(String noteId) {
         NoteRepository repo = new NoteRepository(this);
-        Note note = null;
-        for (Note n : repo.getAllNotes()) {
-            if (noteId.equals(n.id)) {
-                note = n;
-                break;
-            }
-        }
+        Note note = repo.getNoteById(noteId);
 
         if (note == null) {
             Toast.makeText(this, "Note not found", Toast.LENGTH_SHORT).show();
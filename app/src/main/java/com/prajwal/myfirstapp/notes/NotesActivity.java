@@ -176,7 +176,7 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
                     .getString("last_server_ip", null);
         }
         if (serverIp != null) {
-            connectionManager = new ConnectionManager(serverIp);
+            connectionManager = ConnectionManager.getInstance(this, serverIp);
         }
 
         // Initialize repository
@@ -659,6 +659,10 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
         ArrayList<Note> pinnedNotes = repository.filterPinnedNotes(currentFilter, currentSearchQuery);
         ArrayList<Note> unpinnedNotes = repository.filterUnpinnedNotes(currentFilter, currentSearchQuery);
 
+        // Body matches show where the query was found
+        notesAdapter.setSearchHits(currentSearchQuery.isEmpty() ? null
+                : repository.search(currentSearchQuery, currentFilter, pinnedNotes.size() + unpinnedNotes.size()));
+
         // Update pinned section
         updatePinnedSection(pinnedNotes);
 
@@ -712,7 +716,9 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
         TextView tvCategory = card.findViewById(R.id.tvPinnedCategory);
 
         tvTitle.setText(note.title.isEmpty() ? "Untitled" : note.title);
-        tvPreview.setText(note.plainTextPreview.isEmpty() ? "No content" : note.plainTextPreview);
+        CharSequence snippet = notesAdapter.searchSnippet(note);
+        if (snippet != null) tvPreview.setText(snippet);
+        else tvPreview.setText(note.plainTextPreview.isEmpty() ? "No content" : note.plainTextPreview);
         tvCategory.setText(note.category);
 
         // Apply note color tint
@@ -1097,6 +1103,7 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
 
     // Kept for backwards compatibility with quick actions
     private void showQuickEditDialog(Note note) {
+        repository.loadContent(note);
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Edit Note");
 
@@ -1993,8 +2000,8 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
                 tvTitle.setText(note.title.isEmpty() ? "Untitled" : note.title);
 
                 // Content preview
-                if (note.body != null && !note.body.isEmpty()) {
-                    String preview = note.body.replaceAll("\\n+", " ").trim();
+                if (note.plainTextPreview != null && !note.plainTextPreview.isEmpty()) {
+                    String preview = note.plainTextPreview.replaceAll("\\n+", " ").trim();
                     tvPreview.setText(preview.length() > 80 ? preview.substring(0, 80) + "…" : preview);
                     tvPreview.setVisibility(View.VISIBLE);
                 } else {
@@ -700,7 +700,7 @@ public class NotesSettingsActivity extends Activity {
                             // Export all notes — single note PDF export reused per note for pdf format
                             for (Note note : repo.getAllNotes()) {
                                 if ("pdf".equals(format)) {
-                                    exportMgr.exportAsPdf(note, success -> {});
+                                    exportMgr.exportAsPdf(repo.loadContent(note), success -> {});
                                 }
                             }
                             runOnUiThread(() -> Toast.makeText(this,
@@ -853,13 +853,7 @@ public class NotesSettingsActivity extends Activity {
 
     private long estimateNotesStorage() {
         try {
-            NoteRepository repo = new NoteRepository(this);
-            long total = 0;
-            for (Note n : repo.getAllNotes()) {
-                if (n.body != null) total += n.body.length() * 2L;
-                if (n.title != null) total += n.title.length() * 2L;
-            }
-            return total;
+            return new NoteRepository(this).getStorageBytes();
         } catch (Exception e) {
             return 0;
         }
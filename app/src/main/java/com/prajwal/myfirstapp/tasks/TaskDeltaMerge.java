@@ -0,0 +1,54 @@
+package com.prajwal.myfirstapp.tasks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides what one page of remote task changes does to the local tasks,
+ * for {@link TaskRepository#applyRemoteChanges}. Kept apart from the
+ * repository (no preferences, no JSON) so the rules can be unit-tested.
+ *
+ * A local task the peer has already seen ({@code rev <= ackedLocalRev})
+ * simply takes the remote version or deletion. If both sides changed it
+ * since, the later {@code updatedAt} wins and a local edit survives a
+ * remote delete. A remote task whose id we deleted after the peer's mark
+ * stays deleted.
+ */
+final class TaskDeltaMerge {
+
+    /** Remote tasks to store, in page order. */
+    final List<Task> accepted = new ArrayList<>();
+    /** Local ids the remote deletions remove. */
+    final Set<String> removed = new HashSet<>();
+
+    private TaskDeltaMerge() {}
+
+    /**
+     * @param local          local tasks by id
+     * @param tombstones     locally deleted ids with their deletion revision
+     * @param ackedLocalRev  highest local revision the peer has acknowledged
+     */
+    static TaskDeltaMerge plan(Map<String, Task> local, Map<String, Long> tombstones,
+                               List<Task> incoming, Collection<String> deletedIds, long ackedLocalRev) {
+        TaskDeltaMerge merge = new TaskDeltaMerge();
+        for (Task remote : incoming) {
+            Task existing = local.get(remote.id);
+            if (existing == null) {
+                Long deletedAt = tombstones.get(remote.id);
+                if (deletedAt != null && deletedAt > ackedLocalRev) continue; // our delete is newer
+                merge.accepted.add(remote);
+            } else if (existing.rev <= ackedLocalRev || remote.updatedAt >= existing.updatedAt) {
+                merge.accepted.add(remote);
+            }
+        }
+        for (String id : deletedIds) {
+            Task existing = local.get(id);
+            if (existing != null && existing.rev <= ackedLocalRev) merge.removed.add(id);
+        }
+        return merge;
+    }
+}
@@ -9,9 +9,11 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +22,12 @@ import java.util.Map;
  * Repository for Task data — handles persistence, CRUD, filtering,
  * sorting, searching, bulk operations, categories, trash management,
  * and migration from the old flat task format.
+ *
+ * Every save stamps changed tasks with a new revision from a repository-wide
+ * counter ({@link Task#rev}) and records permanently deleted ids as
+ * tombstones, so {@link TaskSyncEngine} can ship only what changed since a
+ * peer's high-water mark. Changes are detected by fingerprinting each task's
+ * JSON, which covers every mutation path without touching the callers.
  */
 public class TaskRepository {
 
@@ -31,6 +39,9 @@ public class TaskRepository {
     private static final String CATEGORIES_KEY = "custom_categories";
     private static final String SORT_MODE_KEY = "sort_mode";
     private static final String GROUP_MODE_KEY = "group_mode";
+    private static final String REV_CLOCK_KEY = "rev_clock";
+    private static final String TOMBSTONES_KEY = "tombstones";
+    private static final String REVS_ASSIGNED_KEY = "revisions_assigned";
 
     // Old prefs for migration
     private static final String OLD_PREFS_NAME = "task_manager_prefs";
@@ -58,6 +69,12 @@ public class TaskRepository {
     private ArrayList<Task> tasks;
     private ArrayList<TaskCategory> customCategories;
 
+    // ─── Revisions (delta sync) ─────────────────────────────────
+    private Map<String, Task> byId = new HashMap<>();
+    /** Fingerprint of each task's JSON (without rev) as of the last load/save. */
+    private Map<String, Long> fingerprints = new HashMap<>();
+    private long revClock;
+
     // ─── Constructor ─────────────────────────────────────────────
 
     public TaskRepository(Context context) {
@@ -78,25 +95,95 @@ public class TaskRepository {
 
     private void loadTasks() {
         tasks.clear();
-        String json = getPrefs().getString(TASKS_KEY, "[]");
+        byId.clear();
+        fingerprints.clear();
+        SharedPreferences prefs = getPrefs();
+        revClock = prefs.getLong(REV_CLOCK_KEY, 0);
+        String json = prefs.getString(TASKS_KEY, "[]");
         try {
             JSONArray array = new JSONArray(json);
             for (int i = 0; i < array.length(); i++) {
                 Task task = Task.fromJson(array.getJSONObject(i));
-                if (task != null) tasks.add(task);
+                if (task == null) continue;
+                tasks.add(task);
+                byId.put(task.id, task);
+                fingerprints.put(task.id, fingerprint(task));
             }
             Log.i(TAG, "Loaded " + tasks.size() + " tasks");
         } catch (JSONException e) {
             Log.e(TAG, "Failed to load tasks: " + e.getMessage());
         }
+
+        // Tasks saved before revisions existed all count as unsynced local edits
+        if (!prefs.getBoolean(REVS_ASSIGNED_KEY, false)) {
+            for (Task task : tasks) {
+                if (task.rev == 0) task.rev = ++revClock;
+            }
+            prefs.edit().putBoolean(REVS_ASSIGNED_KEY, true).apply();
+            if (!tasks.isEmpty()) saveTasks();
+        }
     }
 
     private void saveTasks() {
+        SharedPreferences prefs = getPrefs();
+        // Another repository instance may have advanced the clock since we loaded
+        revClock = Math.max(revClock, prefs.getLong(REV_CLOCK_KEY, 0));
+
         JSONArray array = new JSONArray();
+        Map<String, Task> index = new HashMap<>(tasks.size() * 2);
+        Map<String, Long> prints = new HashMap<>(tasks.size() * 2);
         for (Task task : tasks) {
+            long print = fingerprint(task);
+            Long previous = fingerprints.get(task.id);
+            if (previous == null || previous != print) task.rev = ++revClock;
+            prints.put(task.id, print);
+            index.put(task.id, task);
             array.put(task.toJson());
         }
-        getPrefs().edit().putString(TASKS_KEY, array.toString()).apply();
+
+        // Ids that disappeared since the last save were deleted permanently
+        Map<String, Long> tombstones = null;
+        for (String id : fingerprints.keySet()) {
+            if (index.containsKey(id)) continue;
+            if (tombstones == null) tombstones = loadTombstones();
+            tombstones.put(id, ++revClock);
+        }
+        byId = index;
+        fingerprints = prints;
+
+        SharedPreferences.Editor editor = prefs.edit()
+                .putString(TASKS_KEY, array.toString())
+                .putLong(REV_CLOCK_KEY, revClock);
+        if (tombstones != null) editor.putString(TOMBSTONES_KEY, new JSONObject(tombstones).toString());
+        editor.apply();
+    }
+
+    /** 64-bit FNV-1a over the task's JSON, minus the revision itself. */
+    private static long fingerprint(Task task) {
+        JSONObject json = task.toJson();
+        json.remove("rev");
+        String s = json.toString();
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private Map<String, Long> loadTombstones() {
+        Map<String, Long> tombstones = new HashMap<>();
+        try {
+            JSONObject json = new JSONObject(getPrefs().getString(TOMBSTONES_KEY, "{}"));
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String id = keys.next();
+                tombstones.put(id, json.getLong(id));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to load tombstones: " + e.getMessage());
+        }
+        return tombstones;
     }
 
     // ─── Migration ───────────────────────────────────────────────
@@ -159,10 +246,7 @@ public class TaskRepository {
     }
 
     public Task getTaskById(String id) {
-        for (Task task : tasks) {
-            if (task.id.equals(id)) return task;
-        }
-        return null;
+        return byId.get(id);
     }
 
     public void deleteTaskPermanently(String id) {
@@ -791,12 +875,12 @@ public class TaskRepository {
 
     /**
      * Receive synced tasks from PC (merges with local, PC wins on conflicts).
+     * Legacy full-list sync, used until the server speaks the delta protocol.
      */
     public void onSyncReceived(String tasksJson) {
         try {
             JSONArray jsonArray = new JSONArray(tasksJson);
-            Map<String, Task> localMap = new HashMap<>();
-            for (Task t : tasks) localMap.put(t.id, t);
+            Map<String, Integer> positions = positionsById();
 
             for (int i = 0; i < jsonArray.length(); i++) {
                 JSONObject obj = jsonArray.getJSONObject(i);
@@ -809,16 +893,13 @@ public class TaskRepository {
                     if (incoming == null) continue;
                 }
 
-                Task existing = localMap.get(incoming.id);
+                Task existing = byId.get(incoming.id);
                 if (existing == null) {
                     // New task from PC
-                    incoming.source = "pc";
-                    tasks.add(incoming);
+                    acceptRemote(incoming, null, positions);
                 } else if (incoming.updatedAt > existing.updatedAt) {
                     // PC version is newer — update local
-                    incoming.source = existing.source;
-                    int idx = tasks.indexOf(existing);
-                    if (idx >= 0) tasks.set(idx, incoming);
+                    acceptRemote(incoming, existing, positions);
                 }
             }
 
@@ -829,6 +910,94 @@ public class TaskRepository {
         }
     }
 
+    // ─── Delta Sync ──────────────────────────────────────────────
+
+    /** Highest revision handed out so far; a peer that acked it has everything. */
+    public long getRevisionClock() {
+        return Math.max(revClock, getPrefs().getLong(REV_CLOCK_KEY, 0));
+    }
+
+    /** Tasks (trashed ones included) edited locally after revision {@code sinceRev}. */
+    public List<Task> getTasksChangedSince(long sinceRev) {
+        List<Task> changed = new ArrayList<>();
+        for (Task task : tasks) {
+            if (task.rev > sinceRev) changed.add(task);
+        }
+        return changed;
+    }
+
+    /** Ids deleted permanently after revision {@code sinceRev}, with their deletion revision. */
+    public Map<String, Long> getTombstonesSince(long sinceRev) {
+        Map<String, Long> result = new HashMap<>();
+        for (Map.Entry<String, Long> e : loadTombstones().entrySet()) {
+            if (e.getValue() > sinceRev) result.put(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+    /** Forget tombstones every peer has acknowledged. */
+    public void pruneTombstones(long ackedRev) {
+        Map<String, Long> tombstones = loadTombstones();
+        boolean changed = false;
+        for (Iterator<Long> it = tombstones.values().iterator(); it.hasNext(); ) {
+            if (it.next() <= ackedRev) {
+                it.remove();
+                changed = true;
+            }
+        }
+        if (changed) getPrefs().edit().putString(TOMBSTONES_KEY, new JSONObject(tombstones).toString()).apply();
+    }
+
+    /**
+     * Merge one page of remote changes in a single O(n) pass, following the
+     * rules of {@link TaskDeltaMerge}; a surviving local edit reaches the
+     * peer on the next push. Remote changes are stored with revision 0, so
+     * they are not echoed back.
+     *
+     * @return number of local tasks added, replaced or removed
+     */
+    public int applyRemoteChanges(List<Task> incoming, Collection<String> deletedIds, long ackedLocalRev) {
+        TaskDeltaMerge merge = TaskDeltaMerge.plan(byId, loadTombstones(), incoming, deletedIds, ackedLocalRev);
+        Map<String, Integer> positions = positionsById();
+        for (Task remote : merge.accepted) acceptRemote(remote, byId.get(remote.id), positions);
+
+        for (String id : merge.removed) {
+            byId.remove(id);
+            fingerprints.remove(id); // a remote delete needs no local tombstone
+        }
+        if (!merge.removed.isEmpty()) tasks.removeIf(t -> merge.removed.contains(t.id));
+
+        int applied = merge.accepted.size() + merge.removed.size();
+        if (applied > 0) saveTasks();
+        return applied;
+    }
+
+    /**
+     * Put a remote task in place of {@code existing} (or append it). It gets
+     * revision 0 either way — it is the peer's version, not a local edit —
+     * so it never shows up in {@link #getTasksChangedSince}.
+     */
+    private void acceptRemote(Task remote, Task existing, Map<String, Integer> positions) {
+        remote.rev = 0;
+        if (existing == null) {
+            remote.source = "pc";
+            positions.put(remote.id, tasks.size());
+            tasks.add(remote);
+        } else {
+            remote.source = existing.source;
+            Integer idx = positions.get(existing.id);
+            if (idx != null) tasks.set(idx, remote);
+        }
+        byId.put(remote.id, remote);
+        fingerprints.put(remote.id, fingerprint(remote));
+    }
+
+    private Map<String, Integer> positionsById() {
+        Map<String, Integer> positions = new HashMap<>(tasks.size() * 2);
+        for (int i = 0; i < tasks.size(); i++) positions.put(tasks.get(i).id, i);
+        return positions;
+    }
+
     // ─── Full Reload ─────────────────────────────────────────────
 
     public void reload() {
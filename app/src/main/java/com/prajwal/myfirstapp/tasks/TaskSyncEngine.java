@@ -0,0 +1,247 @@
+package com.prajwal.myfirstapp.tasks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.prajwal.myfirstapp.connectivity.ConnectionManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Incremental task sync with the PC, replacing full TASKS_SYNC dumps once
+ * the server acknowledges it during the handshake (TASK_SYNC_PROTOCOL:1,&lt;peerId&gt;).
+ *
+ * Each task carries a local revision ({@link Task#rev}); deletions leave
+ * tombstones (see {@link TaskRepository}). Per peer we keep two
+ * high-water marks:
+ *   sent — highest local revision the peer has acknowledged
+ *   recv — highest peer revision we have applied completely
+ *
+ * Protocol (JSON pages, each kept under {@link #PAGE_BYTES} so it fits a
+ * single datagram and the listener's receive buffer):
+ *   phone → PC  TASK_DELTA_REQ:&lt;recv&gt;            send me your changes after recv
+ *   PC → phone  TASKS_DELTA:{page}                  your changes, one page at a time
+ *   phone → PC  TASK_DELTA_ACK:&lt;to&gt;              all pages of that delta applied
+ *   phone → PC  TASK_DELTA_PUSH:{page}              our changes after sent
+ *   PC → phone  TASK_DELTA_ACK:&lt;peerId&gt;,&lt;to&gt;     sent := to
+ *
+ *   page = {"peer", "from", "to", "page", "pages", "tasks":[task…], "tombstones":[{"id","rev"}…]}
+ *
+ * A lost page or ack only means the next request or push starts from the
+ * old mark again; applying a page twice is harmless. Until the protocol is
+ * negotiated {@link #requestSync} sends the legacy TASK_SYNC.
+ */
+public class TaskSyncEngine {
+
+    private static final String TAG = "TaskSyncEngine";
+    private static final String PREFS_NAME = "task_sync_prefs";
+    private static final String DEVICE_ID_KEY = "device_id";
+    private static final String SENT_PREFIX = "sent_";
+    private static final String RECV_PREFIX = "recv_";
+
+    public static final int PROTOCOL_VERSION = 1;
+    static final int PAGE_BYTES = 2048;
+    private static final long PUSH_DEBOUNCE_MS = 300;
+
+    private final Context context;
+    private final TaskRepository repo;
+    private final ConnectionManager connectionManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable pushRunnable = this::pushNow;
+    private boolean pushScheduled;
+
+    /** Pages received so far for each incoming delta, keyed by "peer:to". */
+    private final DeltaPageTracker incomingPages = new DeltaPageTracker();
+
+    public TaskSyncEngine(Context context, TaskRepository repo, ConnectionManager connectionManager) {
+        this.context = context.getApplicationContext();
+        this.repo = repo;
+        this.connectionManager = connectionManager;
+    }
+
+    // ─── Public API ─────────────────────────────────────────────
+
+    /** True once the connected server has acknowledged delta sync. */
+    public boolean isDeltaEnabled() {
+        return peerId() != null;
+    }
+
+    /** Pull the PC's changes and push ours; falls back to a full TASK_SYNC. */
+    public void requestSync() {
+        String peer = peerId();
+        if (peer == null) {
+            connectionManager.sendCommand("TASK_SYNC");
+            return;
+        }
+        connectionManager.sendCommand("TASK_DELTA_REQ:" + prefs().getLong(RECV_PREFIX + peer, 0));
+        pushNow();
+    }
+
+    /**
+     * Schedule a push of local changes (debounced, so a bulk edit goes out
+     * once). Returns false if delta sync is not negotiated and the caller
+     * should send its legacy command instead.
+     */
+    public boolean pushChanges() {
+        if (!isDeltaEnabled()) return false;
+        if (!pushScheduled) {
+            pushScheduled = true;
+            handler.postDelayed(pushRunnable, PUSH_DEBOUNCE_MS);
+        }
+        return true;
+    }
+
+    /**
+     * Apply one TASKS_DELTA page. Returns true if any local task changed.
+     * Once every page of a delta is in, the recv mark advances and the PC
+     * gets TASK_DELTA_ACK.
+     */
+    public boolean onDeltaPage(String pageJson) {
+        try {
+            JSONObject page = new JSONObject(pageJson);
+            String peer = page.getString("peer");
+            long to = page.getLong("to");
+            int index = page.getInt("page");
+            int pages = page.getInt("pages");
+
+            List<Task> incoming = new ArrayList<>();
+            JSONArray tasksArr = page.optJSONArray("tasks");
+            if (tasksArr != null) {
+                for (int i = 0; i < tasksArr.length(); i++) {
+                    Task task = Task.fromJson(tasksArr.getJSONObject(i));
+                    if (task != null) incoming.add(task);
+                }
+            }
+            List<String> deleted = new ArrayList<>();
+            JSONArray tombArr = page.optJSONArray("tombstones");
+            if (tombArr != null) {
+                for (int i = 0; i < tombArr.length(); i++) deleted.add(tombArr.getJSONObject(i).getString("id"));
+            }
+
+            int applied = repo.applyRemoteChanges(incoming, deleted, prefs().getLong(SENT_PREFIX + peer, 0));
+
+            if (incomingPages.onPage(peer + ":" + to, index, pages, System.currentTimeMillis())) {
+                if (to > prefs().getLong(RECV_PREFIX + peer, 0)) {
+                    prefs().edit().putLong(RECV_PREFIX + peer, to).apply();
+                }
+                connectionManager.sendCommand("TASK_DELTA_ACK:" + to);
+                Log.i(TAG, "Delta up to rev " + to + " from " + peer + " applied");
+            }
+            return applied > 0;
+        } catch (JSONException e) {
+            Log.e(TAG, "Delta page parse error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Reverse command TASK_DELTA_ACK:&lt;peerId&gt;,&lt;rev&gt; — the PC has our changes up to rev. */
+    public static void onPushAck(Context context, String peer, long rev) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (rev > prefs.getLong(SENT_PREFIX + peer, 0)) {
+            prefs.edit().putLong(SENT_PREFIX + peer, rev).apply();
+        }
+    }
+
+    // ─── Push ───────────────────────────────────────────────────
+
+    private void pushNow() {
+        handler.removeCallbacks(pushRunnable);
+        pushScheduled = false;
+        String peer = peerId();
+        if (peer == null) return;
+
+        long from = prefs().getLong(SENT_PREFIX + peer, 0);
+        long to = repo.getRevisionClock();
+        repo.pruneTombstones(from);
+        if (to <= from) return;
+
+        List<JSONObject> records = new ArrayList<>();
+        for (Task task : repo.getTasksChangedSince(from)) records.add(task.toJson());
+        List<JSONObject> tombstones = new ArrayList<>();
+        for (Map.Entry<String, Long> e : repo.getTombstonesSince(from).entrySet()) {
+            try {
+                tombstones.add(new JSONObject().put("id", e.getKey()).put("rev", e.getValue()));
+            } catch (JSONException ignored) {}
+        }
+        if (records.isEmpty() && tombstones.isEmpty()) return;
+
+        List<String> pages = paginate(deviceId(), from, to, records, tombstones);
+        for (String page : pages) connectionManager.sendCommand("TASK_DELTA_PUSH:" + page);
+        Log.i(TAG, "Pushed " + records.size() + " task(s), " + tombstones.size()
+                + " deletion(s) in " + pages.size() + " page(s)");
+    }
+
+    /**
+     * Split records into pages whose records total at most PAGE_BYTES
+     * characters (a record larger than that gets a page of its own).
+     */
+    static List<String> paginate(String peer, long from, long to,
+                                 List<JSONObject> records, List<JSONObject> tombstones) {
+        List<Page> bodies = new ArrayList<>();
+        bodies.add(new Page());
+        for (JSONObject r : records) place(bodies, r, false);
+        for (JSONObject t : tombstones) place(bodies, t, true);
+
+        List<String> pages = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            try {
+                pages.add(new JSONObject()
+                        .put("peer", peer)
+                        .put("from", from)
+                        .put("to", to)
+                        .put("page", i)
+                        .put("pages", bodies.size())
+                        .put("tasks", bodies.get(i).tasks)
+                        .put("tombstones", bodies.get(i).tombstones)
+                        .toString());
+            } catch (JSONException e) {
+                Log.e(TAG, "paginate: " + e.getMessage());
+            }
+        }
+        return pages;
+    }
+
+    private static final class Page {
+        final JSONArray tasks = new JSONArray();
+        final JSONArray tombstones = new JSONArray();
+        int size;
+    }
+
+    private static void place(List<Page> pages, JSONObject item, boolean tombstone) {
+        int length = item.toString().length() + 1;
+        Page page = pages.get(pages.size() - 1);
+        if (page.size > 0 && page.size + length > PAGE_BYTES) pages.add(page = new Page());
+        (tombstone ? page.tombstones : page.tasks).put(item);
+        page.size += length;
+    }
+
+    // ─── Internal ────────────────────────────────────────────────
+
+    private String peerId() {
+        return ConnectionManager.getInstance(context).getTaskSyncPeer();
+    }
+
+    private String deviceId() {
+        SharedPreferences prefs = prefs();
+        String id = prefs.getString(DEVICE_ID_KEY, null);
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            prefs.edit().putString(DEVICE_ID_KEY, id).apply();
+        }
+        return id;
+    }
+
+    private SharedPreferences prefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
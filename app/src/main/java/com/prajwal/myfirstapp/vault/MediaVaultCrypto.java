@@ -3,14 +3,23 @@ package com.prajwal.myfirstapp.vault;
 import android.util.Base64;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.security.SecureRandom;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
@@ -20,10 +29,26 @@ import javax.crypto.spec.SecretKeySpec;
 /**
  * Handles file-level AES-256-GCM encryption/decryption for the Personal Media Vault.
  *
- * Security model:
- * - Each file has a unique 32-byte salt.
- * - The encryption key is derived from the vault PIN + salt using PBKDF2-HMAC-SHA256.
- * - Encrypted file format: [4-byte salt length][salt][12-byte IV][ciphertext+GCM tag]
+ * Security model (key hierarchy):
+ * - At unlock the PIN is stretched once with PBKDF2-HMAC-SHA256 into a master key.
+ * - The master key only wraps (AES-GCM) a random 256-bit data key, stored wrapped
+ *   in the repository prefs. Changing the PIN re-wraps the data key; files stay as-is.
+ * - Each file has a unique 32-byte salt; its key is HKDF-SHA256(data key, salt),
+ *   so opening a file or thumbnail costs two HMACs instead of a PBKDF2 run.
+ * - The unlocked {@link SessionKey} holds the data key in memory until lock.
+ * - Files and thumbnails written before the hierarchy keyed each file with
+ *   PBKDF2(PIN, salt); they stay readable and are re-keyed by a one-time migration.
+ * - Encrypted file format (segmented — written by encryptFile):
+ *     ["MVS2"][1-byte version][4-byte salt length][salt][12-byte base IV]
+ *     [4-byte segment size][8-byte plaintext length]
+ *     then per segment: [ciphertext (≤ segment size) + 16-byte GCM tag]
+ *   Segment i uses nonce = baseIV XOR i (low 4 bytes) and AAD = i | isLast | plaintextLength,
+ *   so segments cannot be reordered, dropped or truncated without failing authentication.
+ *   Files stream through constant memory and any byte range decrypts on its own.
+ *   Version 3 files are keyed from the data key; version 2 files from PBKDF2(PIN, salt).
+ * - Legacy format (v1, still readable): [4-byte salt length][salt][12-byte IV][ciphertext+GCM tag]
+ * - Thumbnails (encryptBytes): ["MVK3"][salt][12-byte IV][ciphertext+GCM tag];
+ *   the pre-hierarchy form starts with a 4-byte salt length instead of the magic.
  * - The raw key is NEVER stored on disk — derived fresh each session and held in memory.
  */
 public class MediaVaultCrypto {
@@ -34,6 +59,17 @@ public class MediaVaultCrypto {
     private static final int SALT_LENGTH = 32;
     private static final int GCM_IV_LENGTH = 12;
     private static final int GCM_TAG_LENGTH = 128;
+    private static final int GCM_TAG_BYTES = GCM_TAG_LENGTH / 8;
+
+    // Segmented container and data-key formats
+    private static final byte[] SEGMENTED_MAGIC = {'M', 'V', 'S', '2'};
+    private static final int SEGMENTED_VERSION_PIN = 2;      // key = PBKDF2(PIN, salt)
+    private static final int SEGMENTED_VERSION = 3;          // key = HKDF(data key, salt)
+    private static final byte[] BYTES_MAGIC = {'M', 'V', 'K', '3'};
+    private static final int DATA_KEY_LENGTH = 32;
+    private static final byte[] HKDF_INFO_FILE = {'m', 'v', '-', 'f', 'i', 'l', 'e', '-', 'k', 'e', 'y'};
+    private static final byte[] HKDF_INFO_METADATA = {'m', 'v', '-', 'm', 'e', 't', 'a', 'd', 'a', 't', 'a'};
+    public static final int SEGMENT_SIZE = 64 * 1024;
 
     // ─── Key Derivation ──────────────────────────────────────────
 
@@ -45,7 +81,8 @@ public class MediaVaultCrypto {
     }
 
     /**
-     * Derive an AES-256 key from the vault PIN and a file-specific salt.
+     * Derive an AES-256 key from the vault PIN and a salt (PBKDF2, slow by design).
+     * Used once per unlock for the master key, and for reading pre-hierarchy files.
      * The returned key is held in memory only — never persisted.
      */
     public static SecretKey deriveFileKey(char[] vaultPin, byte[] fileSalt) {
@@ -60,6 +97,123 @@ public class MediaVaultCrypto {
         }
     }
 
+    /** Master key for wrapping the data key. Same stretching as the PIN hash. */
+    public static SecretKey deriveMasterKey(char[] vaultPin, byte[] masterSalt) {
+        return deriveFileKey(vaultPin, masterSalt);
+    }
+
+    /**
+     * Per-file key from the session data key: HKDF-SHA256 with the file salt
+     * as HKDF salt. Cheap enough to run for every thumbnail in a grid.
+     */
+    public static SecretKey deriveFileKey(SessionKey sessionKey, byte[] fileSalt) {
+        return hkdf(sessionKey, fileSalt, HKDF_INFO_FILE);
+    }
+
+    /** Key for the encrypted metadata journal (see VaultMetadataStore). */
+    public static SecretKey deriveMetadataKey(SessionKey sessionKey) {
+        return hkdf(sessionKey, new byte[32], HKDF_INFO_METADATA);
+    }
+
+    private static SecretKey hkdf(SessionKey sessionKey, byte[] salt, byte[] info) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+            byte[] prk = mac.doFinal(sessionKey.dataKey);            // extract
+            mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            mac.update(info);
+            mac.update((byte) 1);
+            byte[] okm = mac.doFinal();                               // expand, one block = 32 bytes
+            Arrays.fill(prk, (byte) 0);
+            SecretKey key = new SecretKeySpec(okm, "AES");
+            Arrays.fill(okm, (byte) 0);
+            return key;
+        } catch (Exception e) {
+            Log.e(TAG, "HKDF failed", e);
+            return null;
+        }
+    }
+
+    /** A fresh random data key for a new vault (or one created before the hierarchy). */
+    public static SessionKey newSessionKey(char[] vaultPin) {
+        byte[] dataKey = new byte[DATA_KEY_LENGTH];
+        new SecureRandom().nextBytes(dataKey);
+        SessionKey key = new SessionKey(dataKey, vaultPin);
+        Arrays.fill(dataKey, (byte) 0);
+        return key;
+    }
+
+    /**
+     * Wrap the session data key under the master key derived from the key's PIN
+     * and {@code masterSalt}: [12-byte IV][ciphertext+GCM tag].
+     */
+    public static byte[] wrapSessionKey(SessionKey sessionKey, byte[] masterSalt) {
+        SecretKey masterKey = deriveMasterKey(sessionKey.pin, masterSalt);
+        if (masterKey == null) return null;
+        try {
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            new SecureRandom().nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            byte[] ct = cipher.doFinal(sessionKey.dataKey);
+            byte[] wrapped = new byte[GCM_IV_LENGTH + ct.length];
+            System.arraycopy(iv, 0, wrapped, 0, GCM_IV_LENGTH);
+            System.arraycopy(ct, 0, wrapped, GCM_IV_LENGTH, ct.length);
+            return wrapped;
+        } catch (Exception e) {
+            Log.e(TAG, "Data key wrap failed", e);
+            return null;
+        }
+    }
+
+    /** Unwrap a data key; returns null if the PIN is wrong. One PBKDF2 run. */
+    public static SessionKey unwrapSessionKey(byte[] wrapped, char[] vaultPin, byte[] masterSalt) {
+        SecretKey masterKey = deriveMasterKey(vaultPin, masterSalt);
+        if (masterKey == null) return null;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, masterKey,
+                    new GCMParameterSpec(GCM_TAG_LENGTH, wrapped, 0, GCM_IV_LENGTH));
+            byte[] dataKey = cipher.doFinal(wrapped, GCM_IV_LENGTH, wrapped.length - GCM_IV_LENGTH);
+            if (dataKey.length != DATA_KEY_LENGTH) return null;
+            SessionKey key = new SessionKey(dataKey, vaultPin);
+            Arrays.fill(dataKey, (byte) 0);
+            return key;
+        } catch (Exception e) {
+            Log.e(TAG, "Data key unwrap failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * Key material of an unlocked vault: the data key, plus the PIN for
+     * reading files that predate the key hierarchy. Wipe on lock.
+     */
+    public static final class SessionKey {
+        private final byte[] dataKey;
+        private final char[] pin;
+
+        private SessionKey(byte[] dataKey, char[] pin) {
+            this.dataKey = dataKey.clone();
+            this.pin = pin.clone();
+        }
+
+        /** Independent copy for a background task that may outlive this session. */
+        public SessionKey copy() {
+            return new SessionKey(dataKey, pin);
+        }
+
+        /** Same data key, new PIN (after a PIN change). */
+        public SessionKey withPin(char[] newPin) {
+            return new SessionKey(dataKey, newPin);
+        }
+
+        public void wipe() {
+            Arrays.fill(dataKey, (byte) 0);
+            Arrays.fill(pin, '\0');
+        }
+    }
+
     // ─── Hash PIN for storage ─────────────────────────────────────
 
     /**
@@ -91,46 +245,91 @@ public class MediaVaultCrypto {
     // ─── File Encryption ─────────────────────────────────────────
 
     /**
-     * Encrypts a plaintext file and writes to the destination encrypted file.
-     * File format: [4 bytes: salt length][salt bytes][12 bytes: IV][ciphertext + 16-byte GCM tag]
+     * Encrypts a plaintext file into the segmented (v2) format, streaming
+     * one segment at a time — memory use is independent of file size.
      *
      * @param sourceFile  The unencrypted source file.
      * @param destFile    The destination encrypted file.
-     * @param vaultPin    The vault PIN chars (not stored).
-     * @return The salt used (must be persisted in metadata so decryption can re-derive the key).
+     * @param sessionKey  The unlocked session key.
+     * @return The salt used.
      */
-    public static byte[] encryptFile(File sourceFile, File destFile, char[] vaultPin) throws IOException {
+    public static byte[] encryptFile(File sourceFile, File destFile, SessionKey sessionKey) throws IOException {
+        try (FileInputStream fis = new FileInputStream(sourceFile)) {
+            return encryptStream(fis, sourceFile.length(), destFile, sessionKey);
+        }
+    }
+
+    /**
+     * Re-encrypt a vault file under the session data key without writing
+     * plaintext anywhere. Used by the key migration for files written before
+     * the key hierarchy.
+     */
+    public static boolean reencryptFile(File encryptedFile, File destFile, SessionKey sessionKey) {
+        try {
+            if (isSegmented(encryptedFile)) {
+                try (SegmentReader reader = openSegmentReader(encryptedFile, sessionKey)) {
+                    encryptStream(reader.asInputStream(), reader.length(), destFile, sessionKey);
+                }
+            } else {
+                byte[] plain = decryptLegacyFileToMemory(encryptedFile, sessionKey.pin);
+                if (plain == null) return false;
+                encryptStream(new java.io.ByteArrayInputStream(plain), plain.length, destFile, sessionKey);
+                Arrays.fill(plain, (byte) 0);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Re-encryption failed", e);
+            destFile.delete();
+            return false;
+        }
+    }
+
+    /** True if the file is still keyed directly by the PIN (pre-hierarchy). */
+    public static boolean needsRekey(File encryptedFile) {
+        try (FileInputStream fis = new FileInputStream(encryptedFile)) {
+            byte[] head = new byte[SEGMENTED_MAGIC.length + 1];
+            if (readFully(fis, head, head.length) != head.length) return true;
+            for (int i = 0; i < SEGMENTED_MAGIC.length; i++) {
+                if (head[i] != SEGMENTED_MAGIC[i]) return true;
+            }
+            return (head[SEGMENTED_MAGIC.length] & 0xFF) != SEGMENTED_VERSION;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** True if thumbnail bytes are still keyed directly by the PIN (pre-hierarchy). */
+    public static boolean needsRekey(byte[] encryptedBytes) {
+        return !hasBytesMagic(encryptedBytes);
+    }
+
+    private static byte[] encryptStream(InputStream in, long plainLength, File destFile,
+                                        SessionKey sessionKey) throws IOException {
         byte[] salt = generateFileSalt();
-        SecretKey key = deriveFileKey(vaultPin, salt);
+        SecretKey key = deriveFileKey(sessionKey, salt);
         if (key == null) throw new IOException("Key derivation failed");
 
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
-
-        try (FileInputStream fis = new FileInputStream(sourceFile);
-             FileOutputStream fos = new FileOutputStream(destFile)) {
-
-            // Write salt length + salt
-            fos.write(intToBytes(salt.length));
-            fos.write(salt);
-            // Write IV
-            fos.write(iv);
-
-            // Read source into memory (for files up to reasonable size)
-            byte[] plainBytes = new byte[(int) sourceFile.length()];
-            int totalRead = 0;
-            int read;
-            while (totalRead < plainBytes.length &&
-                    (read = fis.read(plainBytes, totalRead, plainBytes.length - totalRead)) != -1) {
-                totalRead += read;
-            }
+        byte[] baseIv = new byte[GCM_IV_LENGTH];
+        new SecureRandom().nextBytes(baseIv);
+        long segmentCount = segmentCount(plainLength, SEGMENT_SIZE);
 
-            // Encrypt
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-            byte[] cipherBytes = cipher.doFinal(plainBytes);
-            fos.write(cipherBytes);
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(destFile), SEGMENT_SIZE)) {
 
+            writeSegmentedHeader(out, salt, baseIv, SEGMENT_SIZE, plainLength);
+
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            byte[] plain = new byte[SEGMENT_SIZE];
+            byte[] sealed = new byte[SEGMENT_SIZE + GCM_TAG_BYTES];
+            for (long i = 0; i < segmentCount; i++) {
+                int want = (int) Math.min(SEGMENT_SIZE, plainLength - i * SEGMENT_SIZE);
+                if (readFully(in, plain, want) != want) throw new IOException("Source file shrank");
+                cipher.init(Cipher.ENCRYPT_MODE, key,
+                        new GCMParameterSpec(GCM_TAG_LENGTH, segmentNonce(baseIv, i)));
+                cipher.updateAAD(segmentAad(i, i == segmentCount - 1, plainLength));
+                int n = cipher.doFinal(plain, 0, want, sealed, 0);
+                out.write(sealed, 0, n);
+            }
+            Arrays.fill(plain, (byte) 0);
         } catch (Exception e) {
             destFile.delete();
             throw new IOException("Encryption failed: " + e.getMessage(), e);
@@ -141,13 +340,252 @@ public class MediaVaultCrypto {
 
     /**
      * Decrypts an encrypted vault file into memory and returns the plaintext bytes.
-     * Never writes unencrypted bytes to disk.
+     * Never writes unencrypted bytes to disk. Reads both the segmented and the
+     * legacy single-shot format. Prefer {@link #decryptFileToStream} or
+     * {@link #openSegmentReader} for large media.
      *
      * @param encryptedFile The encrypted vault file.
-     * @param vaultPin      The vault PIN chars.
+     * @param sessionKey    The unlocked session key.
      * @return Decrypted bytes, or null on failure.
      */
-    public static byte[] decryptFileToMemory(File encryptedFile, char[] vaultPin) {
+    public static byte[] decryptFileToMemory(File encryptedFile, SessionKey sessionKey) {
+        if (isSegmented(encryptedFile)) {
+            try (SegmentReader reader = openSegmentReader(encryptedFile, sessionKey)) {
+                if (reader.length() > Integer.MAX_VALUE - 8) return null;
+                byte[] plain = new byte[(int) reader.length()];
+                reader.readFully(0, plain, 0, plain.length);
+                return plain;
+            } catch (Exception e) {
+                Log.e(TAG, "Decryption failed", e);
+                return null;
+            }
+        }
+        return decryptLegacyFileToMemory(encryptedFile, sessionKey.pin);
+    }
+
+    /**
+     * Decrypt a vault file into {@code out}. Segmented files stream with
+     * constant memory; legacy files are decrypted in memory first.
+     */
+    public static void decryptFileToStream(File encryptedFile, SessionKey sessionKey,
+                                           OutputStream out) throws IOException {
+        if (!isSegmented(encryptedFile)) {
+            byte[] plain = decryptLegacyFileToMemory(encryptedFile, sessionKey.pin);
+            if (plain == null) throw new IOException("Decryption failed");
+            out.write(plain);
+            return;
+        }
+        try (SegmentReader reader = openSegmentReader(encryptedFile, sessionKey)) {
+            byte[] buf = new byte[reader.segmentSize];
+            for (long pos = 0; pos < reader.length(); ) {
+                int n = (int) Math.min(buf.length, reader.length() - pos);
+                reader.readFully(pos, buf, 0, n);
+                out.write(buf, 0, n);
+                pos += n;
+            }
+        }
+    }
+
+    /** True if the file is in the segmented (v2) container format. */
+    public static boolean isSegmented(File encryptedFile) {
+        try (FileInputStream fis = new FileInputStream(encryptedFile)) {
+            byte[] magic = new byte[SEGMENTED_MAGIC.length];
+            return readFully(fis, magic, magic.length) == magic.length
+                    && Arrays.equals(magic, SEGMENTED_MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open a random-access reader over a segmented vault file.
+     * Throws IOException for legacy files — check {@link #isSegmented} first.
+     */
+    public static SegmentReader openSegmentReader(File encryptedFile, SessionKey sessionKey) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(encryptedFile, "r");
+        try {
+            byte[] magic = new byte[SEGMENTED_MAGIC.length];
+            raf.readFully(magic);
+            int version = Arrays.equals(magic, SEGMENTED_MAGIC) ? raf.readUnsignedByte() : -1;
+            if (version != SEGMENTED_VERSION && version != SEGMENTED_VERSION_PIN) {
+                throw new IOException("Not a segmented vault file");
+            }
+            int saltLen = raf.readInt();
+            if (saltLen <= 0 || saltLen > 256) throw new IOException("Bad salt length");
+            byte[] salt = new byte[saltLen];
+            raf.readFully(salt);
+            byte[] baseIv = new byte[GCM_IV_LENGTH];
+            raf.readFully(baseIv);
+            int segmentSize = raf.readInt();
+            long plainLength = raf.readLong();
+            if (segmentSize <= 0 || plainLength < 0) throw new IOException("Bad segment header");
+
+            SecretKey key = version == SEGMENTED_VERSION
+                    ? deriveFileKey(sessionKey, salt)
+                    : deriveFileKey(sessionKey.pin, salt);
+            if (key == null) throw new IOException("Key derivation failed");
+            return new SegmentReader(raf, key, baseIv, segmentSize, plainLength, raf.getFilePointer());
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Random-access plaintext view of a segmented vault file. Decrypts only
+     * the segments touched by a read and keeps the most recent one cached,
+     * so sequential playback decrypts each segment once.
+     * Thread-safe; close it to release the file handle.
+     */
+    public static final class SegmentReader implements Closeable {
+        private final RandomAccessFile raf;
+        private final SecretKey key;
+        private final byte[] baseIv;
+        private final int segmentSize;
+        private final long plainLength;
+        private final long dataOffset;
+        private final long segmentCount;
+        private final Cipher cipher;
+
+        private final byte[] sealed;
+        private final byte[] plain;
+        private long cachedSegment = -1;
+        private int cachedLength = 0;
+
+        private SegmentReader(RandomAccessFile raf, SecretKey key, byte[] baseIv, int segmentSize,
+                              long plainLength, long dataOffset) throws IOException {
+            this.raf = raf;
+            this.key = key;
+            this.baseIv = baseIv;
+            this.segmentSize = segmentSize;
+            this.plainLength = plainLength;
+            this.dataOffset = dataOffset;
+            this.segmentCount = segmentCount(plainLength, segmentSize);
+            this.sealed = new byte[segmentSize + GCM_TAG_BYTES];
+            this.plain = new byte[segmentSize];
+            try {
+                this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        /** Plaintext length in bytes. */
+        public long length() { return plainLength; }
+
+        /**
+         * Read up to {@code len} plaintext bytes starting at {@code position}.
+         * Returns the number of bytes read, or -1 at end of file.
+         */
+        public synchronized int read(long position, byte[] buf, int off, int len) throws IOException {
+            if (position >= plainLength) return -1;
+            if (len == 0) return 0;
+            long segment = position / segmentSize;
+            loadSegment(segment);
+            int inSegment = (int) (position - segment * segmentSize);
+            int n = Math.min(len, cachedLength - inSegment);
+            System.arraycopy(plain, inSegment, buf, off, n);
+            return n;
+        }
+
+        public void readFully(long position, byte[] buf, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = read(position, buf, off, len);
+                if (n < 0) throw new EOFException();
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void loadSegment(long segment) throws IOException {
+            if (segment == cachedSegment) return;
+            int plainLen = (int) Math.min(segmentSize, plainLength - segment * segmentSize);
+            int sealedLen = plainLen + GCM_TAG_BYTES;
+            raf.seek(dataOffset + segment * (long) (segmentSize + GCM_TAG_BYTES));
+            raf.readFully(sealed, 0, sealedLen);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key,
+                        new GCMParameterSpec(GCM_TAG_LENGTH, segmentNonce(baseIv, segment)));
+                cipher.updateAAD(segmentAad(segment, segment == segmentCount - 1, plainLength));
+                cachedLength = cipher.doFinal(sealed, 0, sealedLen, plain, 0);
+                cachedSegment = segment;
+            } catch (Exception e) {
+                cachedSegment = -1;
+                throw new IOException("Segment " + segment + " failed authentication", e);
+            }
+        }
+
+        /** Sequential view from position 0, for streaming re-encryption. */
+        InputStream asInputStream() {
+            return new InputStream() {
+                private long pos = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == 1 ? one[0] & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = SegmentReader.this.read(pos, b, off, len);
+                    if (n > 0) pos += n;
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            Arrays.fill(plain, (byte) 0);
+            cachedSegment = -1;
+            raf.close();
+        }
+    }
+
+    private static void writeSegmentedHeader(OutputStream out, byte[] salt, byte[] baseIv,
+                                             int segmentSize, long plainLength) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.write(SEGMENTED_MAGIC);
+        dos.writeByte(SEGMENTED_VERSION);
+        dos.writeInt(salt.length);
+        dos.write(salt);
+        dos.write(baseIv);
+        dos.writeInt(segmentSize);
+        dos.writeLong(plainLength);
+        dos.flush();
+    }
+
+    private static long segmentCount(long plainLength, int segmentSize) {
+        // An empty file still gets one (empty, authenticated) segment
+        return Math.max(1, (plainLength + segmentSize - 1) / segmentSize);
+    }
+
+    private static byte[] segmentNonce(byte[] baseIv, long segment) {
+        byte[] nonce = baseIv.clone();
+        for (int i = 0; i < 4; i++) {
+            nonce[GCM_IV_LENGTH - 1 - i] ^= (byte) (segment >>> (8 * i));
+        }
+        return nonce;
+    }
+
+    private static byte[] segmentAad(long segment, boolean last, long plainLength) {
+        byte[] aad = new byte[17];
+        for (int i = 0; i < 8; i++) aad[i] = (byte) (segment >>> (56 - 8 * i));
+        aad[8] = (byte) (last ? 1 : 0);
+        for (int i = 0; i < 8; i++) aad[9 + i] = (byte) (plainLength >>> (56 - 8 * i));
+        return aad;
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int len) throws IOException {
+        int total = 0, n;
+        while (total < len && (n = in.read(buf, total, len - total)) != -1) total += n;
+        return total;
+    }
+
+    /** Legacy (v1) single-shot GCM file: whole ciphertext is decrypted at once. */
+    private static byte[] decryptLegacyFileToMemory(File encryptedFile, char[] vaultPin) {
         try (FileInputStream fis = new FileInputStream(encryptedFile)) {
             // Read salt
             byte[] saltLenBytes = new byte[4];
@@ -187,13 +625,13 @@ public class MediaVaultCrypto {
     }
 
     /**
-     * Encrypts raw bytes (e.g. thumbnail) using a derived key from PIN and a new salt.
-     * Returns: [4-byte salt len][salt][12-byte IV][ciphertext]
+     * Encrypts raw bytes (e.g. thumbnail) under a per-item key from the session data key.
+     * Returns: ["MVK3"][salt][12-byte IV][ciphertext]
      */
-    public static byte[] encryptBytes(byte[] plainBytes, char[] vaultPin) {
+    public static byte[] encryptBytes(byte[] plainBytes, SessionKey sessionKey) {
         try {
             byte[] salt = generateFileSalt();
-            SecretKey key = deriveFileKey(vaultPin, salt);
+            SecretKey key = deriveFileKey(sessionKey, salt);
             if (key == null) return null;
 
             byte[] iv = new byte[GCM_IV_LENGTH];
@@ -203,12 +641,12 @@ public class MediaVaultCrypto {
             cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
             byte[] cipherBytes = cipher.doFinal(plainBytes);
 
-            byte[] result = new byte[4 + salt.length + GCM_IV_LENGTH + cipherBytes.length];
-            byte[] saltLenBytes = intToBytes(salt.length);
-            System.arraycopy(saltLenBytes, 0, result, 0, 4);
-            System.arraycopy(salt, 0, result, 4, salt.length);
-            System.arraycopy(iv, 0, result, 4 + salt.length, GCM_IV_LENGTH);
-            System.arraycopy(cipherBytes, 0, result, 4 + salt.length + GCM_IV_LENGTH, cipherBytes.length);
+            int headerLen = BYTES_MAGIC.length + SALT_LENGTH + GCM_IV_LENGTH;
+            byte[] result = new byte[headerLen + cipherBytes.length];
+            System.arraycopy(BYTES_MAGIC, 0, result, 0, BYTES_MAGIC.length);
+            System.arraycopy(salt, 0, result, BYTES_MAGIC.length, SALT_LENGTH);
+            System.arraycopy(iv, 0, result, BYTES_MAGIC.length + SALT_LENGTH, GCM_IV_LENGTH);
+            System.arraycopy(cipherBytes, 0, result, headerLen, cipherBytes.length);
             return result;
         } catch (Exception e) {
             Log.e(TAG, "Byte encryption failed", e);
@@ -218,31 +656,45 @@ public class MediaVaultCrypto {
 
     /**
      * Decrypts bytes produced by encryptBytes() back to plaintext in memory.
+     * Also reads the pre-hierarchy layout ([4-byte salt len][salt][IV][ciphertext], PIN-keyed).
      */
-    public static byte[] decryptBytes(byte[] encryptedBytes, char[] vaultPin) {
+    public static byte[] decryptBytes(byte[] encryptedBytes, SessionKey sessionKey) {
         try {
-            int saltLen = bytesToInt(new byte[]{encryptedBytes[0], encryptedBytes[1],
-                    encryptedBytes[2], encryptedBytes[3]});
-            byte[] salt = new byte[saltLen];
-            System.arraycopy(encryptedBytes, 4, salt, 0, saltLen);
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            System.arraycopy(encryptedBytes, 4 + saltLen, iv, 0, GCM_IV_LENGTH);
-            int cipherStart = 4 + saltLen + GCM_IV_LENGTH;
-            byte[] cipherBytes = new byte[encryptedBytes.length - cipherStart];
-            System.arraycopy(encryptedBytes, cipherStart, cipherBytes, 0, cipherBytes.length);
-
-            SecretKey key = deriveFileKey(vaultPin, salt);
+            byte[] salt;
+            int ivStart;
+            SecretKey key;
+            if (hasBytesMagic(encryptedBytes)) {
+                salt = Arrays.copyOfRange(encryptedBytes, BYTES_MAGIC.length, BYTES_MAGIC.length + SALT_LENGTH);
+                ivStart = BYTES_MAGIC.length + SALT_LENGTH;
+                key = deriveFileKey(sessionKey, salt);
+            } else {
+                int saltLen = bytesToInt(new byte[]{encryptedBytes[0], encryptedBytes[1],
+                        encryptedBytes[2], encryptedBytes[3]});
+                salt = Arrays.copyOfRange(encryptedBytes, 4, 4 + saltLen);
+                ivStart = 4 + saltLen;
+                key = deriveFileKey(sessionKey.pin, salt);
+            }
             if (key == null) return null;
 
+            int cipherStart = ivStart + GCM_IV_LENGTH;
             Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-            return cipher.doFinal(cipherBytes);
+            cipher.init(Cipher.DECRYPT_MODE, key,
+                    new GCMParameterSpec(GCM_TAG_LENGTH, encryptedBytes, ivStart, GCM_IV_LENGTH));
+            return cipher.doFinal(encryptedBytes, cipherStart, encryptedBytes.length - cipherStart);
         } catch (Exception e) {
             Log.e(TAG, "Byte decryption failed", e);
             return null;
         }
     }
 
+    private static boolean hasBytesMagic(byte[] encryptedBytes) {
+        if (encryptedBytes == null || encryptedBytes.length < BYTES_MAGIC.length) return false;
+        for (int i = 0; i < BYTES_MAGIC.length; i++) {
+            if (encryptedBytes[i] != BYTES_MAGIC[i]) return false;
+        }
+        return true;
+    }
+
     // ─── Secure File Delete ───────────────────────────────────────
 
     /**
@@ -272,15 +724,6 @@ public class MediaVaultCrypto {
 
     // ─── Utilities ───────────────────────────────────────────────
 
-    private static byte[] intToBytes(int value) {
-        return new byte[]{
-            (byte) (value >>> 24),
-            (byte) (value >>> 16),
-            (byte) (value >>> 8),
-            (byte) value
-        };
-    }
-
     private static int bytesToInt(byte[] bytes) {
         return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) |
                ((bytes[2] & 0xFF) << 8)  |  (bytes[3] & 0xFF);
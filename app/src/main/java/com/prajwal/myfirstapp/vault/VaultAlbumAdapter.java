@@ -3,10 +3,7 @@ package com.prajwal.myfirstapp.vault;
 
 import com.prajwal.myfirstapp.R;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.os.Handler;
-import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -100,14 +97,11 @@ public class VaultAlbumAdapter extends android.widget.BaseAdapter {
             if (coverFile != null && coverFile.thumbnailPath != null && !coverFile.thumbnailPath.isEmpty()) {
                 colorBox.setVisibility(View.GONE);
                 ivCover.setVisibility(View.VISIBLE);
-                final VaultFileItem finalCover = coverFile;
-                final Handler mainHandler = new Handler(Looper.getMainLooper());
-                new Thread(() -> {
-                    Bitmap bitmap = repo.decryptThumbnail(finalCover);
-                    mainHandler.post(() -> { if (bitmap != null) ivCover.setImageBitmap(bitmap); });
-                }).start();
+                repo.getThumbnailLoader().load(coverFile, ivCover,
+                        bitmap -> { if (bitmap != null) ivCover.setImageBitmap(bitmap); });
             }
         } else {
+            repo.getThumbnailLoader().cancel(ivCover);
             ivCover.setVisibility(View.GONE);
             colorBox.setVisibility(View.VISIBLE);
         }
@@ -50,6 +50,7 @@ public class VaultAudioPlayerActivity extends Activity {
     private boolean isShuffle = false;
     private float playbackSpeed = 1.0f;
     private File tempFile;
+    private VaultMediaDataSource dataSource; // closed by MediaPlayer.release()
 
     private final Handler handler = new Handler(Looper.getMainLooper());
     private final Runnable seekUpdateRunnable = new Runnable() {
@@ -139,9 +140,13 @@ public class VaultAudioPlayerActivity extends Activity {
 
         new Thread(() -> {
             try {
-                tempFile = File.createTempFile("vault_aud_", ".tmp", getCacheDir());
-                boolean ok = repo.exportFile(currentFile, tempFile);
-                if (!ok) throw new Exception("export failed");
+                // Segmented files decrypt on demand; legacy files go through a temp copy
+                dataSource = repo.openMediaDataSource(currentFile);
+                if (dataSource == null) {
+                    tempFile = File.createTempFile("vault_aud_", ".tmp", getCacheDir());
+                    boolean ok = repo.exportFile(currentFile, tempFile);
+                    if (!ok) throw new Exception("export failed");
+                }
                 runOnUiThread(this::startPlayback);
             } catch (Exception e) {
                 runOnUiThread(() -> Toast.makeText(this, "Failed to load audio", Toast.LENGTH_SHORT).show());
@@ -152,7 +157,11 @@ public class VaultAudioPlayerActivity extends Activity {
     private void startPlayback() {
         try {
             mediaPlayer = new MediaPlayer();
-            mediaPlayer.setDataSource(tempFile.getAbsolutePath());
+            if (dataSource != null) {
+                mediaPlayer.setDataSource(dataSource);
+            } else {
+                mediaPlayer.setDataSource(tempFile.getAbsolutePath());
+            }
             mediaPlayer.setLooping(isLooping);
             mediaPlayer.prepare();
 
@@ -374,6 +383,10 @@ public class VaultAudioPlayerActivity extends Activity {
             } catch (Exception ignored) {}
             mediaPlayer = null;
         }
+        if (dataSource != null) {
+            try { dataSource.close(); } catch (Exception ignored) {}
+            dataSource = null;
+        }
     }
 
     private void deleteTempFile() {
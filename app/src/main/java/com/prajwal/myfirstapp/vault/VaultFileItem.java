@@ -43,6 +43,31 @@ public class VaultFileItem {
         this.lastAccessedAt = System.currentTimeMillis();
     }
 
+    /** Field-by-field copy (tags list included) — used by the metadata store. */
+    public VaultFileItem copy() {
+        VaultFileItem f = new VaultFileItem();
+        f.id = id;
+        f.originalFileName = originalFileName;
+        f.vaultFileName = vaultFileName;
+        f.fileType = fileType;
+        f.mimeType = mimeType;
+        f.originalSize = originalSize;
+        f.encryptedSize = encryptedSize;
+        f.duration = duration;
+        f.width = width;
+        f.height = height;
+        f.thumbnailPath = thumbnailPath;
+        f.albumId = albumId;
+        f.tags = tags != null ? new ArrayList<>(tags) : new ArrayList<>();
+        f.isFavourited = isFavourited;
+        f.isHidden = isHidden;
+        f.importedAt = importedAt;
+        f.lastAccessedAt = lastAccessedAt;
+        f.originalCreatedAt = originalCreatedAt;
+        f.notes = notes;
+        return f;
+    }
+
     public static FileType fileTypeFromString(String s) {
         if (s == null) return FileType.OTHER;
         try { return FileType.valueOf(s); } catch (Exception e) { return FileType.OTHER; }
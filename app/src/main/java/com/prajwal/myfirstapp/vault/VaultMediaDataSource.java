@@ -0,0 +1,36 @@
+package com.prajwal.myfirstapp.vault;
+
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+/**
+ * Feeds a segmented vault file straight into MediaPlayer.
+ *
+ * MediaPlayer asks for arbitrary byte ranges while probing and seeking;
+ * each request decrypts only the segments it touches, so playback never
+ * writes plaintext to disk and never holds the whole file in memory.
+ */
+public class VaultMediaDataSource extends MediaDataSource {
+
+    private final MediaVaultCrypto.SegmentReader reader;
+
+    public VaultMediaDataSource(MediaVaultCrypto.SegmentReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        return reader.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() {
+        return reader.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
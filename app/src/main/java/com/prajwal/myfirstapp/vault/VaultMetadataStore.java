@@ -0,0 +1,565 @@
+package com.prajwal.myfirstapp.vault;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Loaded-once, write-through store for vault file metadata.
+ *
+ * All items live in memory with secondary indexes by type, album, favourite,
+ * collection and expiry, so queries never reparse anything. Every mutation
+ * appends one encrypted record to a journal file instead of rewriting the
+ * whole list; the journal is compacted into a snapshot when dead records
+ * outnumber live ones.
+ *
+ * Journal format:
+ *   ["MVJ1"] then records of [4-byte length][12-byte IV][AES-GCM(json) + tag]
+ *   Record n is authenticated with n as AAD, so a record that was altered,
+ *   moved or swapped for another fails to open. On load such a record is
+ *   dropped and logged; the records after it keep their indexes and still
+ *   open, and the journal is rewritten without it. Whole records cut from
+ *   the end are not detected. A torn final record (crash mid-append) is
+ *   truncated. Only a broken length field loses more than one record:
+ *   nothing after it can be framed, so a copy of the journal is saved as
+ *   "*.corrupt" before the rest is cut off.
+ *   json: {"o":"p","item":{...}}            put item
+ *         {"o":"d","id":...}                delete item
+ *         {"o":"c","id":...,"ids":[...]}    set collection membership
+ *         {"o":"x","id":...,"at":ts}        set expiry (0 clears)
+ *
+ * Items are copied in and out, so callers can mutate what they get back
+ * without corrupting the indexes. A mutation changes memory only after its
+ * record is written, so memory never runs ahead of the journal. Thread-safe.
+ */
+public class VaultMetadataStore {
+
+    private static final String TAG = "VaultMetadataStore";
+    private static final byte[] MAGIC = {'M', 'V', 'J', '1'};
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final int MAX_RECORD_BYTES = 4 * 1024 * 1024;
+    private static final int COMPACT_MIN_DEAD = 256;
+
+    private final File journalFile;
+    private final SecretKey key;
+    private final SecureRandom random = new SecureRandom();
+    private Cipher cipher;
+    OutputStream appendStream;   // package-private: tests inject a failing stream
+    private long recordCount = 0;
+    private boolean isNew;
+
+    // Primary data
+    private final LinkedHashMap<String, VaultFileItem> items = new LinkedHashMap<>();
+    private final Map<String, List<String>> collectionsByFile = new HashMap<>();
+    private final Map<String, Long> expiryByFile = new HashMap<>();
+
+    // Secondary indexes (ids; iteration order follows insertion)
+    private final EnumMap<VaultFileItem.FileType, Set<String>> byType =
+            new EnumMap<>(VaultFileItem.FileType.class);
+    private final Map<String, Set<String>> byAlbum = new HashMap<>();
+    private final Map<String, Set<String>> byCollection = new HashMap<>();
+    private final Set<String> favourites = new LinkedHashSet<>();
+    private final TreeMap<Long, Set<String>> byExpiry = new TreeMap<>();
+    private long totalEncryptedSize = 0;
+
+    private VaultMetadataStore(File journalFile, SecretKey key) {
+        this.journalFile = journalFile;
+        this.key = key;
+    }
+
+    /**
+     * Open (or create) the journal and replay it into memory.
+     * Returns null if the journal cannot be read with this key.
+     */
+    public static VaultMetadataStore open(File journalFile, SecretKey key) {
+        VaultMetadataStore store = new VaultMetadataStore(journalFile, key);
+        try {
+            store.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            store.load();
+            return store;
+        } catch (Exception e) {
+            Log.e(TAG, "Open failed", e);
+            store.close();
+            return null;
+        }
+    }
+
+    /** True if no journal existed before open — the caller may import legacy data. */
+    public boolean isNew() {
+        return isNew;
+    }
+
+    // ─── Queries ─────────────────────────────────────────────────
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    public synchronized VaultFileItem get(String id) {
+        VaultFileItem item = items.get(id);
+        return item != null ? item.copy() : null;
+    }
+
+    public synchronized List<VaultFileItem> getAll() {
+        return copies(items.keySet());
+    }
+
+    public synchronized List<VaultFileItem> getByType(VaultFileItem.FileType type) {
+        return copies(byType.get(type));
+    }
+
+    public synchronized int countByType(VaultFileItem.FileType type) {
+        Set<String> ids = byType.get(type);
+        return ids != null ? ids.size() : 0;
+    }
+
+    public synchronized List<VaultFileItem> getByAlbum(String albumId) {
+        return copies(byAlbum.get(albumId));
+    }
+
+    public synchronized int countInAlbum(String albumId) {
+        Set<String> ids = byAlbum.get(albumId);
+        return ids != null ? ids.size() : 0;
+    }
+
+    public synchronized List<VaultFileItem> getFavourites() {
+        return copies(favourites);
+    }
+
+    public synchronized List<VaultFileItem> getInCollection(String collectionId) {
+        return copies(byCollection.get(collectionId));
+    }
+
+    public synchronized List<String> getCollectionIds(String fileId) {
+        List<String> ids = collectionsByFile.get(fileId);
+        return ids != null ? new ArrayList<>(ids) : new ArrayList<>();
+    }
+
+    public synchronized long getExpiry(String fileId) {
+        Long at = expiryByFile.get(fileId);
+        return at != null ? at : 0L;
+    }
+
+    /** Items whose expiry is in [fromInclusive, toInclusive], soonest first. */
+    public synchronized List<VaultFileItem> getExpiringBetween(long fromInclusive, long toInclusive) {
+        List<String> ids = new ArrayList<>();
+        for (Set<String> set : byExpiry.subMap(fromInclusive, true, toInclusive, true).values()) {
+            ids.addAll(set);
+        }
+        return copies(ids);
+    }
+
+    public synchronized long getTotalEncryptedSize() {
+        return totalEncryptedSize;
+    }
+
+    // ─── Mutations (write-through) ───────────────────────────────
+
+    // Each returns false, leaving the store unchanged, if the record could not
+    // be written.
+
+    /** Insert or replace an item. */
+    public synchronized boolean put(VaultFileItem item) {
+        JSONObject rec = new JSONObject();
+        try {
+            rec.put("o", "p");
+            rec.put("item", item.toJson());
+        } catch (Exception e) {
+            Log.e(TAG, "put: serialise failed", e);
+            return false;
+        }
+        if (!append(rec)) return false;
+        applyPut(item.copy());
+        maybeCompact();
+        return true;
+    }
+
+    /** Replace an existing item; returns false (and writes nothing) if it is unknown. */
+    public synchronized boolean update(VaultFileItem item) {
+        return items.containsKey(item.id) && put(item);
+    }
+
+    public synchronized boolean remove(String id) {
+        if (!items.containsKey(id)) return true;
+        JSONObject rec = new JSONObject();
+        try {
+            rec.put("o", "d");
+            rec.put("id", id);
+        } catch (Exception ignored) {}
+        if (!append(rec)) return false;
+        applyDelete(id);
+        maybeCompact();
+        return true;
+    }
+
+    public synchronized boolean setCollections(String fileId, List<String> collectionIds) {
+        JSONObject rec = new JSONObject();
+        try {
+            rec.put("o", "c");
+            rec.put("id", fileId);
+            rec.put("ids", new JSONArray(collectionIds));
+        } catch (Exception ignored) {}
+        if (!append(rec)) return false;
+        applyCollections(fileId, new ArrayList<>(collectionIds));
+        maybeCompact();
+        return true;
+    }
+
+    public synchronized boolean setExpiry(String fileId, long expiryTimestamp) {
+        JSONObject rec = new JSONObject();
+        try {
+            rec.put("o", "x");
+            rec.put("id", fileId);
+            rec.put("at", expiryTimestamp);
+        } catch (Exception ignored) {}
+        if (!append(rec)) return false;
+        applyExpiry(fileId, expiryTimestamp);
+        maybeCompact();
+        return true;
+    }
+
+    /**
+     * Bulk load used once when migrating from the old SharedPreferences blobs.
+     * Writes a single snapshot rather than one record per item.
+     */
+    public synchronized void importAll(List<VaultFileItem> files, Map<String, List<String>> collections,
+                                       Map<String, Long> expiries) {
+        for (VaultFileItem f : files) applyPut(f.copy());
+        for (Map.Entry<String, List<String>> e : collections.entrySet()) {
+            applyCollections(e.getKey(), new ArrayList<>(e.getValue()));
+        }
+        for (Map.Entry<String, Long> e : expiries.entrySet()) applyExpiry(e.getKey(), e.getValue());
+        compact();
+    }
+
+    /** Remove every item and start a fresh, empty journal. */
+    public synchronized void clear() {
+        items.clear();
+        collectionsByFile.clear();
+        expiryByFile.clear();
+        byType.clear();
+        byAlbum.clear();
+        byCollection.clear();
+        favourites.clear();
+        byExpiry.clear();
+        totalEncryptedSize = 0;
+        compact();
+    }
+
+    public synchronized void close() {
+        if (appendStream != null) {
+            try { appendStream.close(); } catch (IOException ignored) {}
+            appendStream = null;
+        }
+    }
+
+    // ─── In-memory apply ─────────────────────────────────────────
+
+    private void applyPut(VaultFileItem item) {
+        VaultFileItem old = items.get(item.id);
+        if (old != null) unindex(old);
+        items.put(item.id, item);
+        index(item);
+    }
+
+    private void applyDelete(String id) {
+        VaultFileItem old = items.remove(id);
+        if (old != null) unindex(old);
+        applyCollections(id, Collections.<String>emptyList());
+        applyExpiry(id, 0L);
+    }
+
+    private void applyCollections(String fileId, List<String> collectionIds) {
+        List<String> old = collectionsByFile.remove(fileId);
+        if (old != null) {
+            for (String c : old) removeFrom(byCollection, c, fileId);
+        }
+        if (collectionIds.isEmpty()) return;
+        collectionsByFile.put(fileId, collectionIds);
+        for (String c : collectionIds) addTo(byCollection, c, fileId);
+    }
+
+    private void applyExpiry(String fileId, long at) {
+        Long old = expiryByFile.remove(fileId);
+        if (old != null) removeFrom(byExpiry, old, fileId);
+        if (at <= 0) return;
+        expiryByFile.put(fileId, at);
+        addTo(byExpiry, at, fileId);
+    }
+
+    private void index(VaultFileItem f) {
+        VaultFileItem.FileType type = f.fileType != null ? f.fileType : VaultFileItem.FileType.OTHER;
+        addTo(byType, type, f.id);
+        if (f.albumId != null) addTo(byAlbum, f.albumId, f.id);
+        if (f.isFavourited) favourites.add(f.id);
+        totalEncryptedSize += f.encryptedSize;
+    }
+
+    private void unindex(VaultFileItem f) {
+        VaultFileItem.FileType type = f.fileType != null ? f.fileType : VaultFileItem.FileType.OTHER;
+        removeFrom(byType, type, f.id);
+        if (f.albumId != null) removeFrom(byAlbum, f.albumId, f.id);
+        favourites.remove(f.id);
+        totalEncryptedSize -= f.encryptedSize;
+    }
+
+    private static <K> void addTo(Map<K, Set<String>> index, K key, String id) {
+        Set<String> set = index.get(key);
+        if (set == null) {
+            set = new LinkedHashSet<>();
+            index.put(key, set);
+        }
+        set.add(id);
+    }
+
+    private static <K> void removeFrom(Map<K, Set<String>> index, K key, String id) {
+        Set<String> set = index.get(key);
+        if (set == null) return;
+        set.remove(id);
+        if (set.isEmpty()) index.remove(key);
+    }
+
+    private List<VaultFileItem> copies(Collection<String> ids) {
+        List<VaultFileItem> out = new ArrayList<>(ids != null ? ids.size() : 0);
+        if (ids == null) return out;
+        for (String id : ids) {
+            VaultFileItem item = items.get(id);
+            if (item != null) out.add(item.copy());
+        }
+        return out;
+    }
+
+    // ─── Journal ─────────────────────────────────────────────────
+
+    private void load() throws IOException {
+        isNew = !journalFile.exists() || journalFile.length() < MAGIC.length;
+        if (isNew) {
+            compact(); // writes the header
+            return;
+        }
+        long goodLength = MAGIC.length;
+        int opened = 0, skipped = 0;
+        boolean framingBroken = false;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile), 64 * 1024))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) throw new IOException("Bad journal header");
+            }
+            while (true) {
+                int len;
+                byte[] sealed;
+                try {
+                    len = in.readInt();
+                    if (len <= IV_LENGTH || len > MAX_RECORD_BYTES) {
+                        framingBroken = true;
+                        break;
+                    }
+                    sealed = new byte[len];
+                    in.readFully(sealed);
+                } catch (EOFException torn) {
+                    break;
+                }
+                // A complete record that fails to open is damaged in place; its
+                // index is still used up, so the records after it still verify
+                JSONObject rec = open(sealed, recordCount);
+                if (rec != null) {
+                    replay(rec);
+                    opened++;
+                } else {
+                    Log.e(TAG, "Skipping unreadable journal record " + recordCount);
+                    skipped++;
+                }
+                recordCount++;
+                goodLength += 4 + len;
+            }
+        }
+        if (opened == 0 && skipped > 0) throw new IOException("Journal key mismatch");
+        if (goodLength < journalFile.length()) {
+            if (framingBroken) {
+                Log.e(TAG, "Journal framing broken at " + goodLength + " of " + journalFile.length()
+                        + "; records after it are lost");
+                keepCorruptCopy();
+            } else {
+                Log.w(TAG, "Truncating journal tail at " + goodLength + " of " + journalFile.length());
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(goodLength);
+            }
+        }
+        if (skipped > 0) compact(); // drop the unreadable records from the file
+        else maybeCompact();
+    }
+
+    private void replay(JSONObject rec) {
+        String op = rec.optString("o");
+        String id = rec.optString("id");
+        switch (op) {
+            case "p":
+                VaultFileItem item = VaultFileItem.fromJson(rec.optJSONObject("item"));
+                if (item != null) applyPut(item);
+                break;
+            case "d":
+                applyDelete(id);
+                break;
+            case "c":
+                List<String> ids = new ArrayList<>();
+                JSONArray arr = rec.optJSONArray("ids");
+                if (arr != null) for (int i = 0; i < arr.length(); i++) ids.add(arr.optString(i));
+                applyCollections(id, ids);
+                break;
+            case "x":
+                applyExpiry(id, rec.optLong("at", 0L));
+                break;
+            default:
+                Log.w(TAG, "Unknown journal op: " + op);
+        }
+    }
+
+    /** Write one record; on failure cut off anything partly written so later appends stay framed. */
+    private boolean append(JSONObject rec) {
+        long before = journalFile.length();
+        try {
+            if (appendStream == null) appendStream = new FileOutputStream(journalFile, true);
+            writeRecord(appendStream, rec, recordCount);
+            recordCount++;
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Journal append failed", e);
+            close();
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                if (raf.length() > before) raf.setLength(before);
+            } catch (IOException re) {
+                Log.e(TAG, "Journal rollback failed", re);
+            }
+            return false;
+        }
+    }
+
+    /** Save the journal as it is before a destructive repair, for later recovery. */
+    private void keepCorruptCopy() {
+        File copy = new File(journalFile.getParentFile(), journalFile.getName() + ".corrupt");
+        try (FileInputStream in = new FileInputStream(journalFile);
+             FileOutputStream out = new FileOutputStream(copy)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save corrupt journal copy", e);
+        }
+    }
+
+    private void maybeCompact() {
+        long live = items.size() + collectionsByFile.size() + expiryByFile.size();
+        if (recordCount - live > Math.max(COMPACT_MIN_DEAD, live)) compact();
+    }
+
+    /** Rewrite the journal as a snapshot of the current state (write-then-rename). */
+    private void compact() {
+        close();
+        File tmp = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        long n = 0;
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(MAGIC);
+            BufferedOutputStream buf = new BufferedOutputStream(out, 64 * 1024);
+            for (VaultFileItem item : items.values()) {
+                JSONObject rec = new JSONObject();
+                rec.put("o", "p");
+                rec.put("item", item.toJson());
+                writeRecord(buf, rec, n++);
+            }
+            for (Map.Entry<String, List<String>> e : collectionsByFile.entrySet()) {
+                JSONObject rec = new JSONObject();
+                rec.put("o", "c");
+                rec.put("id", e.getKey());
+                rec.put("ids", new JSONArray(e.getValue()));
+                writeRecord(buf, rec, n++);
+            }
+            for (Map.Entry<String, Long> e : expiryByFile.entrySet()) {
+                JSONObject rec = new JSONObject();
+                rec.put("o", "x");
+                rec.put("id", e.getKey());
+                rec.put("at", e.getValue());
+                writeRecord(buf, rec, n++);
+            }
+            buf.flush();
+            out.getFD().sync();
+        } catch (Exception e) {
+            Log.e(TAG, "Compaction failed", e);
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(journalFile)) {
+            recordCount = n;
+        } else {
+            Log.e(TAG, "Compaction rename failed");
+            tmp.delete();
+        }
+    }
+
+    private void writeRecord(OutputStream out, JSONObject rec, long index) throws Exception {
+        byte[] plain = rec.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        cipher.updateAAD(indexAad(index));
+        byte[] ct = cipher.doFinal(plain);
+        int len = IV_LENGTH + ct.length;
+        byte[] frame = new byte[4 + len];
+        frame[0] = (byte) (len >>> 24);
+        frame[1] = (byte) (len >>> 16);
+        frame[2] = (byte) (len >>> 8);
+        frame[3] = (byte) len;
+        System.arraycopy(iv, 0, frame, 4, IV_LENGTH);
+        System.arraycopy(ct, 0, frame, 4 + IV_LENGTH, ct.length);
+        out.write(frame); // one write per record keeps a torn append to the tail
+    }
+
+    private JSONObject open(byte[] sealed, long index) {
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, sealed, 0, IV_LENGTH));
+            cipher.updateAAD(indexAad(index));
+            byte[] plain = cipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+            return new JSONObject(new String(plain, StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static byte[] indexAad(long index) {
+        byte[] aad = new byte[8];
+        for (int i = 0; i < 8; i++) aad[i] = (byte) (index >>> (56 - 8 * i));
+        return aad;
+    }
+}
@@ -5,7 +5,6 @@ import com.prajwal.myfirstapp.R;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -306,10 +305,7 @@ public class VaultSearchActivity extends Activity {
         thumb.setImageResource(android.R.drawable.ic_menu_gallery);
 
         if (file.thumbnailPath != null && !file.thumbnailPath.isEmpty()) {
-            new Thread(() -> {
-                Bitmap bm = repo.decryptThumbnail(file);
-                if (bm != null) runOnUiThread(() -> thumb.setImageBitmap(bm));
-            }).start();
+            repo.getThumbnailLoader().load(file, thumb, bm -> { if (bm != null) thumb.setImageBitmap(bm); });
         }
 
         // Info layout
@@ -0,0 +1,245 @@
+package com.prajwal.myfirstapp.vault;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decrypts vault thumbnails on a small fixed pool and keeps the decoded
+ * bitmaps in an in-memory LRU keyed by file id and sized by bitmap bytes.
+ *
+ * - Visible cells load newest-first (LIFO), so after a fling the cells that
+ *   are actually on screen decode before the ones scrolled past.
+ * - Each request has an owner (ViewHolder / ImageView). Binding the owner to
+ *   another file cancels its previous request; queued work is dropped.
+ * - Prefetch requests queue behind visible ones and are capped.
+ * - Plaintext never touches disk: the encrypted .thumb files are the disk tier.
+ * - {@link #clear()} runs on vault lock; in-flight results from before the
+ *   clear are discarded instead of repopulating the cache.
+ *
+ * load/cancel/prefetch must be called on the main thread; callbacks run there.
+ */
+public class VaultThumbnailLoader {
+
+    private static final String TAG = "VaultThumbLoader";
+    private static final int POOL_SIZE = 2;
+    private static final int MAX_QUEUED_PREFETCH = 24;
+    private static final int MAX_CACHE_BYTES = 32 * 1024 * 1024;
+
+    public interface Callback {
+        /** Main thread; not called if the request was cancelled. bitmap may be null. */
+        void onThumbnail(Bitmap bitmap);
+    }
+
+    private final MediaVaultRepository repo;
+    private final LruCache<String, Bitmap> cache;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Main thread only
+    private final Map<Object, Request> byOwner = new HashMap<>();
+    private final Map<String, Request> inFlight = new HashMap<>();
+
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicInteger queuedPrefetch = new AtomicInteger();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger decodeCount = new AtomicInteger();
+    private final AtomicInteger prefetchCount = new AtomicInteger();
+    private final AtomicInteger cancelCount = new AtomicInteger();
+
+    VaultThumbnailLoader(MediaVaultRepository repo) {
+        this.repo = repo;
+        int maxBytes = (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 8);
+        this.cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        this.executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new RequestQueue(), r -> {
+                    Thread t = new Thread(r, "VaultThumbLoader");
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // ─── Requests ────────────────────────────────────────────────
+
+    /** Cached thumbnail, or null. Counts towards the hit rate (prefetch checks do not). */
+    public Bitmap getCached(VaultFileItem item) {
+        Bitmap bitmap = item == null ? null : cache.get(item.id);
+        (bitmap != null ? hitCount : missCount).incrementAndGet();
+        return bitmap;
+    }
+
+    /**
+     * Load {@code item}'s thumbnail for {@code owner}. Cache hits are delivered
+     * synchronously; otherwise the owner's previous request is cancelled and a
+     * new one is queued. Returns true if the callback already ran.
+     */
+    public boolean load(VaultFileItem item, Object owner, Callback callback) {
+        Request previous = byOwner.remove(owner);
+        if (previous != null) {
+            if (previous.fileId.equals(item.id) && !previous.cancelled) {
+                // Rebound to the same file while still loading
+                previous.callback = callback;
+                byOwner.put(owner, previous);
+                return false;
+            }
+            cancel(previous);
+        }
+
+        Bitmap cached = getCached(item);
+        if (cached != null) {
+            callback.onThumbnail(cached);
+            return true;
+        }
+
+        Request request = inFlight.get(item.id);
+        if (request == null || request.cancelled || request.owner != null) {
+            // Nothing to adopt (another owner showing the same file gets its own request)
+            request = submit(item);
+        } else if (request.prefetch && executor.remove(request)) {
+            // Still queued behind visible work — move it to the front
+            queuedPrefetch.decrementAndGet();
+            request = submit(item);
+        }
+        request.owner = owner;
+        request.callback = callback;
+        byOwner.put(owner, request);
+        return false;
+    }
+
+    /** Stop delivering to {@code owner} (view recycled or detached). */
+    public void cancel(Object owner) {
+        Request request = byOwner.remove(owner);
+        if (request != null) cancel(request);
+    }
+
+    /** Warm the cache for items about to scroll into view. */
+    public void prefetch(List<VaultFileItem> items) {
+        for (VaultFileItem item : items) {
+            if (queuedPrefetch.get() >= MAX_QUEUED_PREFETCH) return;
+            if (item.thumbnailPath == null || item.thumbnailPath.isEmpty()) continue;
+            if (inFlight.containsKey(item.id) || cache.get(item.id) != null) continue; // not counted
+            Request request = new Request(item, true);
+            inFlight.put(item.id, request);
+            queuedPrefetch.incrementAndGet();
+            prefetchCount.incrementAndGet();
+            executor.execute(request);
+        }
+    }
+
+    private Request submit(VaultFileItem item) {
+        Request request = new Request(item, false);
+        inFlight.put(item.id, request);
+        executor.execute(request);
+        return request;
+    }
+
+    private void cancel(Request request) {
+        request.owner = null;
+        request.callback = null;
+        if (request.prefetch) return; // still useful as a cache warm-up
+        request.cancelled = true;
+        if (executor.remove(request)) {
+            inFlight.remove(request.fileId);
+            cancelCount.incrementAndGet();
+        }
+    }
+
+    /** Drop every cached bitmap and pending request. Called when the vault locks. */
+    public void clear() {
+        generation.incrementAndGet();
+        executor.getQueue().clear();
+        queuedPrefetch.set(0);
+        cache.evictAll();
+        mainHandler.post(() -> {
+            byOwner.clear();
+            inFlight.clear();
+        });
+    }
+
+    // ─── Stats ───────────────────────────────────────────────────
+
+    public int getHitCount() { return hitCount.get(); }
+    public int getMissCount() { return missCount.get(); }
+    public int getDecodeCount() { return decodeCount.get(); }
+    public int getPrefetchCount() { return prefetchCount.get(); }
+    public int getCancelCount() { return cancelCount.get(); }
+
+    public float getHitRate() {
+        int hits = hitCount.get(), total = hits + missCount.get();
+        return total == 0 ? 0f : (float) hits / total;
+    }
+
+    public String getStats() {
+        return String.format(java.util.Locale.US,
+                "hits=%d misses=%d rate=%.2f decodes=%d prefetched=%d cancelled=%d size=%dKB/%dKB",
+                getHitCount(), getMissCount(), getHitRate(), getDecodeCount(),
+                getPrefetchCount(), getCancelCount(), cache.size() / 1024, cache.maxSize() / 1024);
+    }
+
+    // ─── Worker ──────────────────────────────────────────────────
+
+    private final class Request implements Runnable {
+        final VaultFileItem item;
+        final String fileId;
+        final boolean prefetch;
+        final int gen = generation.get();
+        volatile boolean cancelled = false;
+        Object owner;        // main thread only
+        Callback callback;   // main thread only
+
+        Request(VaultFileItem item, boolean prefetch) {
+            this.item = item;
+            this.fileId = item.id;
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public void run() {
+            if (prefetch) queuedPrefetch.decrementAndGet();
+            if (cancelled || gen != generation.get()) return;
+            Bitmap bitmap = null;
+            try {
+                bitmap = repo.decryptThumbnail(item);
+                decodeCount.incrementAndGet();
+            } catch (Exception e) {
+                Log.w(TAG, "Thumbnail load failed", e);
+            }
+            final Bitmap result = bitmap;
+            if (result != null && gen == generation.get()) cache.put(fileId, result);
+            mainHandler.post(() -> {
+                if (inFlight.get(fileId) == this) inFlight.remove(fileId);
+                if (owner != null && byOwner.get(owner) == this) byOwner.remove(owner);
+                Callback cb = callback;
+                owner = null;
+                callback = null;
+                if (cb != null && gen == generation.get()) cb.onThumbnail(result);
+            });
+        }
+    }
+
+    /** Visible requests jump the queue (LIFO); prefetch requests wait at the back. */
+    private static final class RequestQueue extends LinkedBlockingDeque<Runnable> {
+        @Override
+        public boolean offer(Runnable r) {
+            if (r instanceof Request && ((Request) r).prefetch) return offerLast(r);
+            return offerFirst(r);
+        }
+    }
+}
@@ -12,7 +12,10 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.view.GestureDetector;
+import android.view.Gravity;
 import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
@@ -21,7 +24,6 @@ import android.widget.MediaController;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
-import android.widget.VideoView;
 
 import androidx.core.content.FileProvider;
 
@@ -34,6 +36,10 @@ import java.util.Locale;
 
 /**
  * Secure video player with custom controls overlay.
+ *
+ * Plays through a MediaPlayer on a SurfaceView so segmented vault files can be
+ * fed in via {@link VaultMediaDataSource} (decrypt-on-read, seekable). Legacy
+ * vault files still go through a temporary decrypted copy.
  */
 public class VaultVideoPlayerActivity extends Activity {
 
@@ -46,7 +52,12 @@ public class VaultVideoPlayerActivity extends Activity {
     private List<VaultFileItem> fileList = new ArrayList<>();
     private int currentIndex = 0;
 
-    private VideoView videoView;
+    private SurfaceView videoSurface;
+    private View rootLayout;
+    private MediaPlayer player;
+    private int videoWidth, videoHeight;
+    private boolean surfaceReady = false;
+    private VaultMediaDataSource dataSource; // closed by MediaPlayer.release()
     private FrameLayout controlsOverlay;
     private LinearLayout topBar, bottomControls;
     private TextView tvFileName, btnBack, btnMore, btnPlayPause;
@@ -85,7 +96,23 @@ public class VaultVideoPlayerActivity extends Activity {
         repo = MediaVaultRepository.getInstance(this);
         if (!repo.isUnlocked()) { finish(); return; }
 
-        videoView = findViewById(R.id.videoView);
+        rootLayout = findViewById(R.id.rootLayout);
+        videoSurface = findViewById(R.id.videoView);
+        // Rotation is handled in place (configChanges), so refit on every resize
+        rootLayout.addOnLayoutChangeListener((v, l, t, r, b, ol, ot, or, ob) -> {
+            if (r - l != or - ol || b - t != ob - ot) v.post(this::fitSurface);
+        });
+        videoSurface.getHolder().addCallback(new SurfaceHolder.Callback() {
+            @Override public void surfaceCreated(SurfaceHolder holder) {
+                surfaceReady = true;
+                if (player != null) player.setDisplay(holder);
+            }
+            @Override public void surfaceChanged(SurfaceHolder holder, int f, int w, int h) {}
+            @Override public void surfaceDestroyed(SurfaceHolder holder) {
+                surfaceReady = false;
+                if (player != null) player.setDisplay(null);
+            }
+        });
         controlsOverlay = findViewById(R.id.controlsOverlay);
         topBar = findViewById(R.id.topBar);
         bottomControls = findViewById(R.id.bottomControls);
@@ -144,11 +171,17 @@ public class VaultVideoPlayerActivity extends Activity {
         repo.logFileViewed(currentFile);
         deleteTempFile();
 
+        releasePlayer();
+
         new Thread(() -> {
             try {
-                tempFile = File.createTempFile("vault_vid_", ".tmp", getCacheDir());
-                boolean ok = repo.exportFile(currentFile, tempFile);
-                if (!ok) throw new Exception("export failed");
+                // Segmented files decrypt on demand; legacy files go through a temp copy
+                dataSource = repo.openMediaDataSource(currentFile);
+                if (dataSource == null) {
+                    tempFile = File.createTempFile("vault_vid_", ".tmp", getCacheDir());
+                    boolean ok = repo.exportFile(currentFile, tempFile);
+                    if (!ok) throw new Exception("export failed");
+                }
                 runOnUiThread(this::startPlayback);
             } catch (Exception e) {
                 runOnUiThread(() -> Toast.makeText(this, "Failed to load video", Toast.LENGTH_SHORT).show());
@@ -157,28 +190,106 @@ public class VaultVideoPlayerActivity extends Activity {
     }
 
     private void startPlayback() {
-        videoView.setVideoPath(tempFile.getAbsolutePath());
-        videoView.setOnPreparedListener(mp -> {
-            mp.setLooping(isLooping);
+        try {
+            player = new MediaPlayer();
+            if (dataSource != null) {
+                player.setDataSource(dataSource);
+            } else {
+                player.setDataSource(tempFile.getAbsolutePath());
+            }
+            if (surfaceReady) player.setDisplay(videoSurface.getHolder());
+            player.setScreenOnWhilePlaying(true);
+            player.setLooping(isLooping);
+            player.setOnVideoSizeChangedListener((mp, w, h) -> {
+                videoWidth = w;
+                videoHeight = h;
+                fitSurface();
+            });
+            player.setOnPreparedListener(mp -> {
+                videoWidth = mp.getVideoWidth();
+                videoHeight = mp.getVideoHeight();
+                fitSurface();
+                applyPlaybackSpeed();
+                int dur = mp.getDuration();
+                seekBar.setMax(dur > 0 ? dur : 100);
+                tvTotalTime.setText(formatTime(dur));
+                mp.start();
+                btnPlayPause.setText("⏸");
+                handler.post(seekUpdateRunnable);
+            });
+            player.setOnCompletionListener(mp -> {
+                btnPlayPause.setText("▶");
+                handler.removeCallbacks(seekUpdateRunnable);
+            });
+            player.prepareAsync();
+        } catch (Exception e) {
+            Toast.makeText(this, "Playback error", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Letterbox the surface to the video's aspect ratio inside the root layout;
+     * a full-screen surface would stretch the picture to the screen's ratio.
+     */
+    private void fitSurface() {
+        int boxW = rootLayout.getWidth(), boxH = rootLayout.getHeight();
+        if (videoWidth <= 0 || videoHeight <= 0 || boxW <= 0 || boxH <= 0) return;
+        int w = boxW, h = (int) ((long) boxW * videoHeight / videoWidth);
+        if (h > boxH) {
+            h = boxH;
+            w = (int) ((long) boxH * videoWidth / videoHeight);
+        }
+        FrameLayout.LayoutParams lp = (FrameLayout.LayoutParams) videoSurface.getLayoutParams();
+        if (lp.width == w && lp.height == h) return;
+        lp.width = w;
+        lp.height = h;
+        lp.gravity = Gravity.CENTER;
+        videoSurface.setLayoutParams(lp);
+    }
+
+    private void applyPlaybackSpeed() {
+        try {
+            if (player != null && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
+                android.media.PlaybackParams pp = new android.media.PlaybackParams();
+                pp.setSpeed(playbackSpeed);
+                player.setPlaybackParams(pp);
+            }
+        } catch (Exception ignored) {}
+    }
+
+    private boolean isPlaying() {
+        try {
+            return player != null && player.isPlaying();
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private int currentPosition() {
+        return player != null ? player.getCurrentPosition() : 0;
+    }
+
+    private int duration() {
+        return player != null ? player.getDuration() : 0;
+    }
+
+    private void seekTo(int ms) {
+        if (player != null) player.seekTo(ms);
+    }
+
+    private void releasePlayer() {
+        handler.removeCallbacks(seekUpdateRunnable);
+        if (player != null) {
             try {
-                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-                    android.media.PlaybackParams pp = new android.media.PlaybackParams();
-                    pp.setSpeed(playbackSpeed);
-                    mp.setPlaybackParams(pp);
-                }
+                player.release();
             } catch (Exception ignored) {}
-            int dur = videoView.getDuration();
-            seekBar.setMax(dur > 0 ? dur : 100);
-            tvTotalTime.setText(formatTime(dur));
-            videoView.start();
-            btnPlayPause.setText("⏸");
-            handler.post(seekUpdateRunnable);
-        });
-        videoView.setOnCompletionListener(mp -> {
-            btnPlayPause.setText("▶");
-            handler.removeCallbacks(seekUpdateRunnable);
-        });
-        videoView.requestFocus();
+            player = null;
+        }
+        videoWidth = videoHeight = 0;
+        if (dataSource != null) {
+            try { dataSource.close(); } catch (Exception ignored) {}
+            dataSource = null;
+        }
     }
 
     private void setupVolumeBar() {
@@ -202,7 +313,7 @@ public class VaultVideoPlayerActivity extends Activity {
 
         seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override public void onProgressChanged(SeekBar s, int p, boolean fromUser) {
-                if (fromUser) videoView.seekTo(p);
+                if (fromUser) seekTo(p);
             }
             @Override public void onStartTrackingTouch(SeekBar s) {
                 handler.removeCallbacks(hideControlsRunnable);
@@ -217,7 +328,7 @@ public class VaultVideoPlayerActivity extends Activity {
                 toggleControls();
             } else if (event.getActionMasked() == MotionEvent.ACTION_UP) {
                 float dy = event.getY() - touchStartY;
-                if (dy > 250 && !videoView.isPlaying()) {
+                if (dy > 250 && !isPlaying()) {
                     finish();
                 }
             }
@@ -232,12 +343,12 @@ public class VaultVideoPlayerActivity extends Activity {
             float mid = controlsOverlay.getWidth() / 2f;
             if (x < mid) {
                 // seek back 10s
-                videoView.seekTo(Math.max(0, videoView.getCurrentPosition() - 10000));
+                seekTo(Math.max(0, currentPosition() - 10000));
                 Toast.makeText(VaultVideoPlayerActivity.this, "−10s", Toast.LENGTH_SHORT).show();
             } else {
                 // seek forward 10s
-                int dur = videoView.getDuration();
-                videoView.seekTo(Math.min(dur, videoView.getCurrentPosition() + 10000));
+                int dur = duration();
+                seekTo(Math.min(dur, currentPosition() + 10000));
                 Toast.makeText(VaultVideoPlayerActivity.this, "+10s", Toast.LENGTH_SHORT).show();
             }
             return true;
@@ -245,12 +356,13 @@ public class VaultVideoPlayerActivity extends Activity {
     }
 
     private void togglePlayPause() {
-        if (videoView.isPlaying()) {
-            videoView.pause();
+        if (player == null) return;
+        if (isPlaying()) {
+            player.pause();
             btnPlayPause.setText("▶");
             handler.removeCallbacks(seekUpdateRunnable);
         } else {
-            videoView.start();
+            player.start();
             btnPlayPause.setText("⏸");
             handler.post(seekUpdateRunnable);
         }
@@ -258,8 +370,8 @@ public class VaultVideoPlayerActivity extends Activity {
     }
 
     private void updateSeekBar() {
-        if (videoView.isPlaying()) {
-            int pos = videoView.getCurrentPosition();
+        if (isPlaying()) {
+            int pos = currentPosition();
             seekBar.setProgress(pos);
             tvCurrentTime.setText(formatTime(pos));
         }
@@ -342,10 +454,9 @@ public class VaultVideoPlayerActivity extends Activity {
                 .setTitle("Playback Speed")
                 .setItems(speeds, (d, w) -> {
                     playbackSpeed = vals[w];
-                    // VideoView does not expose MediaPlayer directly; speed is stored and
-                    // applied when the video is next loaded (e.g., after rotation or file reload).
-                    Toast.makeText(this, "Speed " + speeds[w] + " applies on next load",
-                            Toast.LENGTH_SHORT).show();
+                    // Only applied while playing — setPlaybackParams on a paused player resumes it
+                    if (isPlaying()) applyPlaybackSpeed();
+                    Toast.makeText(this, "Speed " + speeds[w], Toast.LENGTH_SHORT).show();
                 }).show();
     }
 
@@ -431,14 +542,14 @@ public class VaultVideoPlayerActivity extends Activity {
     @Override
     protected void onPause() {
         super.onPause();
-        if (videoView.isPlaying()) videoView.pause();
+        if (isPlaying()) player.pause();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         handler.removeCallbacksAndMessages(null);
-        videoView.stopPlayback();
+        releasePlayer();
         deleteTempFile();
     }
 
@@ -0,0 +1,193 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip and golden-vector tests for the wire v2 binary framing.
+ * The same vectors file is used to validate the Python server's decoder.
+ */
+public class BinaryCommandCodecTest {
+
+    static final byte[] AES_KEY  = "my_secret_16byte".getBytes(StandardCharsets.UTF_8);
+    static final byte[] HMAC_KEY = "my_hmac_secret_key".getBytes(StandardCharsets.UTF_8);
+    static final int SESSION = 0x1234ABCD;
+    /** Clock of the golden vectors, Unix seconds. */
+    static final long NOW = 1_700_000_000L;
+    static final String GOLDEN = "/wire_v2_golden_vectors.txt";
+
+    static final String[] HOT_COMMANDS = {
+            "MOUSE_MOVE:3.0625,-12.5",
+            "MOUSE_MOVE:0.0,0.0",
+            "MOUSE_MOVE:-1024.0,2048.75",
+            "MOUSE_MOVE_RELATIVE:7:-3",
+            "MOUSE_SCROLL:-2",
+            "MOUSE_CLICK",
+            "MOUSE_RIGHT_CLICK",
+            "MOUSE_LEFT_DOWN",
+            "KEY:ENTER",
+            "KEY:a",
+            "KEY:é",
+            "MEDIA_PLAY_PAUSE",
+            "MEDIA_NEXT",
+            "MEDIA_PREV",
+            "VOL_UP",
+            "VOL_DOWN",
+            "MUTE_TOGGLE",
+    };
+
+    @Test
+    public void roundTrip_encrypted() throws Exception {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    public void roundTrip_plain() throws Exception {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void nonHotCommandsFallBackToText() throws Exception {
+        BinaryCommandCodec codec = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true);
+        byte[] out = new byte[BinaryCommandCodec.MAX_PACKET];
+        assertEquals(-1, codec.encode("TASK_ADD:Buy milk:high", out));
+        assertEquals(-1, codec.encode("GESTURE:1,2|3,4", out));
+    }
+
+    @Test
+    public void movePacketIsCompact() throws Exception {
+        BinaryCommandCodec codec = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true);
+        byte[] out = new byte[BinaryCommandCodec.MAX_PACKET];
+        assertTrue(codec.encode("MOUSE_MOVE:3.0,1.5", out) <= 24);
+    }
+
+    @Test
+    public void moveRoundingErrorCarriesOver() throws Exception {
+        BinaryCommandCodec tx = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true);
+        BinaryCommandCodec rx = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true);
+        byte[] out = new byte[BinaryCommandCodec.MAX_PACKET];
+        // 0.02 px is under half a 1/16 step: rounding each move alone would send nothing
+        float sumX = 0, sumY = 0;
+        for (int i = 0; i < 100; i++) {
+            int len = tx.encode("MOUSE_MOVE:0.02,-0.3", out);
+            String[] p = rx.decode(out, 0, len).substring(11).split(",");
+            sumX += Float.parseFloat(p[0]);
+            sumY += Float.parseFloat(p[1]);
+        }
+        assertEquals(2.0f, sumX, 1 / 16f);
+        assertEquals(-30.0f, sumY, 1 / 16f);
+    }
+
+    @Test
+    public void rejectsTamperingAndReplay() throws Exception {
+        BinaryCommandCodec tx = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true);
+        BinaryCommandCodec rx = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true);
+        byte[] out = new byte[BinaryCommandCodec.MAX_PACKET];
+        int len = tx.encode("MOUSE_SCROLL:1", out);
+
+        byte[] tampered = out.clone();
+        tampered[len - BinaryCommandCodec.MAC_LEN - 1] ^= 1;
+        try {
+            rx.decode(tampered, 0, len);
+            fail("tampered packet accepted");
+        } catch (IllegalArgumentException expected) { }
+
+        assertEquals("MOUSE_SCROLL:1", rx.decode(out, 0, len));
+        try {
+            rx.decode(out, 0, len);
+            fail("replayed packet accepted");
+        } catch (IllegalArgumentException expected) { }
+    }
+
+    @Test
+    public void rejectsStalePacketsAfterReceiverRestart() throws Exception {
+        BinaryCommandCodec tx = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true);
+        byte[] out = new byte[BinaryCommandCodec.MAX_PACKET];
+        int len = tx.encode("KEY:ENTER", out, NOW);
+        assertEquals("KEY:ENTER", new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true)
+                .decode(out, 0, len, NOW + BinaryCommandCodec.MAX_CLOCK_SKEW_SEC));
+
+        // A fresh receiver has no seq history: only the timestamp stops the replay
+        BinaryCommandCodec restarted = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, true);
+        try {
+            restarted.decode(out, 0, len, NOW + BinaryCommandCodec.MAX_CLOCK_SKEW_SEC + 1);
+            fail("stale packet accepted");
+        } catch (IllegalArgumentException expected) { }
+
+        // The timestamp is under the MAC: moving it forward breaks the packet
+        byte[] restamped = out.clone();
+        restamped[10] += BinaryCommandCodec.MAX_CLOCK_SKEW_SEC;
+        try {
+            restarted.decode(restamped, 0, len, NOW + BinaryCommandCodec.MAX_CLOCK_SKEW_SEC + 1);
+            fail("restamped packet accepted");
+        } catch (IllegalArgumentException expected) { }
+    }
+
+    @Test
+    public void matchesGoldenVectors() throws Exception {
+        List<String[]> vectors = readGolden();
+        assertFalse(vectors.isEmpty());
+        for (String[] v : vectors) {
+            boolean encrypt = v[0].equals("1");
+            long seq = Long.parseLong(v[1]);
+            BinaryCommandCodec codec = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, encrypt);
+            codec.setNextSeq(seq);
+            byte[] out = new byte[BinaryCommandCodec.MAX_PACKET];
+            int len = codec.encode(v[2], out, NOW);
+            assertEquals(v[2], v[3], toHex(out, len));
+        }
+    }
+
+    @Test
+    public void goldenFileIsWhatTheGeneratorWrites() throws Exception {
+        StringBuilder file = new StringBuilder();
+        InputStream in = BinaryCommandCodecTest.class.getResourceAsStream(GOLDEN);
+        assertNotNull("missing " + GOLDEN, in);
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) file.append(line).append('\n');
+        }
+        assertEquals("regenerate with WireGoldenVectors", WireGoldenVectors.render(), file.toString());
+    }
+
+    // ─── Helpers ─────────────────────────────────────────────────
+
+    private static void assertRoundTrip(boolean encrypt) throws Exception {
+        BinaryCommandCodec tx = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, encrypt);
+        BinaryCommandCodec rx = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, encrypt);
+        byte[] out = new byte[BinaryCommandCodec.MAX_PACKET];
+        for (String cmd : HOT_COMMANDS) {
+            int len = tx.encode(cmd, out);
+            assertTrue(cmd, len > 0);
+            assertEquals(cmd, rx.decode(out, 0, len));
+        }
+    }
+
+    private static List<String[]> readGolden() throws Exception {
+        List<String[]> out = new ArrayList<>();
+        InputStream in = BinaryCommandCodecTest.class.getResourceAsStream(GOLDEN);
+        assertNotNull("missing " + GOLDEN, in);
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                out.add(line.split("\t"));
+            }
+        }
+        return out;
+    }
+
+    static String toHex(byte[] b, int len) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < len; i++) sb.append(String.format("%02x", b[i]));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,128 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Routing by command name, argument offsets, execution modes and the
+ * per-route counters of {@link CommandRouter}.
+ */
+public class CommandRouterTest {
+
+    private final List<Runnable> mainQueue = new ArrayList<>();
+    private final List<Runnable> workerQueue = new ArrayList<>();
+    private final List<String> seen = new ArrayList<>();
+    private CommandRouter router;
+
+    @Before
+    public void setUp() {
+        router = new CommandRouter(mainQueue::add, workerQueue::add);
+    }
+
+    private CommandRouter.Handler record(String tag) {
+        return (c, a) -> seen.add(tag + "[" + c.substring(a) + "]");
+    }
+
+    @Test
+    public void routesByNameBeforeColon() {
+        router.register("VIBRATE", CommandRouter.Mode.INLINE, record("v"))
+              .register("VIBRATE_PATTERN", CommandRouter.Mode.INLINE, record("vp"))
+              .register("RING_STOP", CommandRouter.Mode.INLINE, record("rs"));
+
+        assertTrue(router.dispatch("VIBRATE:200"));
+        assertTrue(router.dispatch("VIBRATE_PATTERN:0,100,50"));
+        assertTrue(router.dispatch("RING_STOP"));
+        assertTrue(router.dispatch("VIBRATE:"));
+        assertFalse(router.dispatch("VIBRATEX:1"));
+        assertFalse(router.dispatch("RING"));
+        assertFalse(router.dispatch(""));
+
+        assertEquals("[v[200], vp[0,100,50], rs[], v[]]", seen.toString());
+        assertEquals(3, router.getUnknownCount());
+    }
+
+    @Test
+    public void argumentsKeepLaterColons() {
+        router.register("VOLUME", CommandRouter.Mode.INLINE, record("vol"));
+        router.dispatch("VOLUME:music:10");
+        assertEquals("[vol[music:10]]", seen.toString());
+    }
+
+    @Test
+    public void modesUseTheirExecutors() {
+        router.register("A", CommandRouter.Mode.INLINE, record("a"))
+              .register("M", CommandRouter.Mode.MAIN, record("m"))
+              .register("W", CommandRouter.Mode.WORKER, record("w"));
+
+        router.dispatch("W:1");
+        router.dispatch("M:2");
+        router.dispatch("A:3");
+        assertEquals("[a[3]]", seen.toString());
+        assertEquals(1, mainQueue.size());
+        assertEquals(1, workerQueue.size());
+
+        workerQueue.get(0).run();
+        mainQueue.get(0).run();
+        assertEquals("[a[3], w[1], m[2]]", seen.toString());
+    }
+
+    @Test
+    public void growsPastInitialTable() {
+        for (int i = 0; i < 500; i++) {
+            router.register("CMD_" + i, CommandRouter.Mode.INLINE, record(Integer.toString(i)));
+        }
+        for (int i = 0; i < 500; i += 7) assertTrue(router.dispatch("CMD_" + i + ":x"));
+        assertFalse(router.dispatch("CMD_500"));
+        assertEquals(500, router.getRoutes().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateRoutes() {
+        router.register("TOAST", CommandRouter.Mode.INLINE, record("a"));
+        router.register("TOAST", CommandRouter.Mode.WORKER, record("b"));
+    }
+
+    @Test
+    public void countsCallsErrorsAndRejections() {
+        List<String> errors = new ArrayList<>();
+        Executor full = r -> { throw new RejectedExecutionException(); };
+        router = new CommandRouter(mainQueue::add, full);
+        router.setErrorListener((c, e) -> errors.add(c));
+        router.register("NUM", CommandRouter.Mode.INLINE, (c, a) -> Integer.parseInt(c.substring(a)))
+              .register("SLOW", CommandRouter.Mode.WORKER, record("s"));
+
+        router.dispatch("NUM:12");
+        router.dispatch("NUM:oops");
+        router.dispatch("SLOW:1");
+
+        CommandRouter.Route num = router.getRoute("NUM");
+        assertEquals(2, num.getCalls());
+        assertEquals(1, num.getErrors());
+        assertEquals("[NUM:oops]", errors.toString());
+        long bucketed = 0;
+        for (int i = 0; i < CommandRouter.HISTOGRAM_BUCKETS; i++) bucketed += num.getBucket(i);
+        assertEquals(2, bucketed);
+
+        CommandRouter.Route slow = router.getRoute("SLOW");
+        assertEquals(0, slow.getCalls());
+        assertEquals(1, slow.getRejected());
+        assertTrue(router.dumpStats().contains("NUM"));
+    }
+
+    @Test
+    public void histogramBuckets() {
+        assertEquals(0, CommandRouter.bucket(0));
+        assertEquals(0, CommandRouter.bucket(1));
+        assertEquals(1, CommandRouter.bucket(2));
+        assertEquals(1, CommandRouter.bucket(3));
+        assertEquals(10, CommandRouter.bucket(1024));
+        assertEquals(CommandRouter.HISTOGRAM_BUCKETS - 1, CommandRouter.bucket(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,74 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lookup, mtime tagging and entry-bounded LRU eviction of {@link DirectoryCache}.
+ */
+public class DirectoryCacheTest {
+
+    private static List<String> entries(int n) {
+        List<String> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) list.add("f" + i);
+        return list;
+    }
+
+    @Test
+    public void storesListingWithMtime() {
+        DirectoryCache<String> cache = new DirectoryCache<>(100);
+        cache.put("D:/a", 42, Arrays.asList("x", "y"));
+
+        DirectoryCache.Snapshot<String> s = cache.get("D:/a");
+        assertEquals(42, s.mtime);
+        assertEquals(Arrays.asList("x", "y"), s.entries);
+        assertNull(cache.get("D:/b"));
+    }
+
+    @Test
+    public void snapshotIsACopy() {
+        DirectoryCache<String> cache = new DirectoryCache<>(100);
+        List<String> list = entries(3);
+        cache.put("p", 1, list);
+        list.clear();
+        assertEquals(3, cache.get("p").entries.size());
+    }
+
+    @Test
+    public void replacingKeepsEntryCountExact() {
+        DirectoryCache<String> cache = new DirectoryCache<>(100);
+        cache.put("p", 1, entries(30));
+        cache.put("p", 2, entries(10));
+        assertEquals(10, cache.getEntryCount());
+        assertEquals(2, cache.get("p").mtime);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        DirectoryCache<String> cache = new DirectoryCache<>(100);
+        cache.put("a", 1, entries(40));
+        cache.put("b", 1, entries(40));
+        cache.get("a");                       // b is now the oldest
+        cache.put("c", 1, entries(40));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(80, cache.getEntryCount());
+        assertEquals(2, cache.getDirectoryCount());
+    }
+
+    @Test
+    public void skipsListingsLargerThanTheCache() {
+        DirectoryCache<String> cache = new DirectoryCache<>(100);
+        cache.put("small", 1, entries(10));
+        cache.put("huge", 1, entries(10_000));
+        assertNull(cache.get("huge"));
+        assertNotNull(cache.get("small"));
+    }
+}
@@ -0,0 +1,214 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Paging, retries, restarts and cache revalidation of {@link DirectoryListing},
+ * driven through a fake transport that answers requests by hand.
+ */
+public class DirectoryListingTest {
+
+    private static final String PATH = "D:/photos";
+
+    /** Requests in the order they were sent. */
+    private static final class Request {
+        final int offset;
+        final long ifMtime;
+        final DirectoryListing.PageCallback callback;
+
+        Request(String command, DirectoryListing.PageCallback callback) {
+            String[] f = command.substring("LIST_DIR:".length()).split("\\|", 4);
+            this.offset = Integer.parseInt(f[0]);
+            this.ifMtime = Long.parseLong(f[2]);
+            this.callback = callback;
+        }
+
+        int page() {
+            return offset / DirectoryListing.PAGE_ENTRIES;
+        }
+    }
+
+    private static final class Recorder implements DirectoryListing.Listener {
+        final List<String> events = new ArrayList<>();
+        final List<DirectoryListing.Entry> entries = new ArrayList<>();
+
+        @Override public void onCached(String path, List<DirectoryListing.Entry> cached) {
+            events.add("cached:" + cached.size());
+        }
+        @Override public void onStart(String path, String displayPath, int total) {
+            events.add("start:" + total);
+            entries.clear();
+        }
+        @Override public void onEntries(String path, List<DirectoryListing.Entry> chunk, int loaded, int total) {
+            entries.addAll(chunk);
+            events.add("entries:" + loaded);
+        }
+        @Override public void onComplete(String path, boolean unchanged) {
+            events.add("complete:" + unchanged);
+        }
+        @Override public void onError(String path) {
+            events.add("error");
+        }
+    }
+
+    private final List<Request> requests = new ArrayList<>();
+    private final Recorder recorder = new Recorder();
+    private DirectoryListing listing;
+
+    @Before
+    public void setUp() {
+        DirectoryListing.clearCache();
+        listing = new DirectoryListing((command, callback) -> requests.add(new Request(command, callback)), Runnable::run);
+    }
+
+    private static DirectoryListing.Page page(long mtime, int total, int page) {
+        int offset = page * DirectoryListing.PAGE_ENTRIES;
+        List<DirectoryListing.Entry> entries = new ArrayList<>();
+        for (int i = offset; i < Math.min(total, offset + DirectoryListing.PAGE_ENTRIES); i++) {
+            entries.add(new DirectoryListing.Entry("f" + i + "@" + mtime, "FILE", PATH + "/f" + i, i, mtime));
+        }
+        return new DirectoryListing.Page(PATH, mtime, total, offset, false, entries);
+    }
+
+    private Request last() {
+        return requests.get(requests.size() - 1);
+    }
+
+    private Request pending(int page) {
+        for (int i = requests.size() - 1; i >= 0; i--) {
+            if (requests.get(i).page() == page) return requests.get(i);
+        }
+        throw new AssertionError("page " + page + " was never requested");
+    }
+
+    private void assertEntriesInOrder(int total, long mtime) {
+        assertEquals(total, recorder.entries.size());
+        for (int i = 0; i < total; i++) assertEquals("f" + i + "@" + mtime, recorder.entries.get(i).name);
+    }
+
+    @Test
+    public void firstPageOpensAWindowAndPagesArriveInOrder() {
+        int total = 4 * DirectoryListing.PAGE_ENTRIES - 10;    // 4 pages, last one short
+        listing.load(PATH, recorder);
+        assertEquals(1, requests.size());
+        assertEquals(-1, last().ifMtime);
+
+        last().callback.onPage(page(7, total, 0));
+        assertEquals(4, requests.size());                    // pages 1..3, all inside the window
+
+        pending(3).callback.onPage(page(7, total, 3));
+        pending(1).callback.onPage(page(7, total, 1));
+        assertFalse(recorder.events.contains("complete:false"));
+        pending(2).callback.onPage(page(7, total, 2));
+
+        assertEntriesInOrder(total, 7);
+        assertEquals("complete:false", recorder.events.get(recorder.events.size() - 1));
+    }
+
+    @Test
+    public void windowLimitsPagesInFlight() {
+        int pages = DirectoryListing.WINDOW * 3;
+        int total = pages * DirectoryListing.PAGE_ENTRIES;
+        listing.load(PATH, recorder);
+        last().callback.onPage(page(1, total, 0));
+        assertEquals(1 + DirectoryListing.WINDOW, requests.size());
+
+        for (int p = 1; p < pages; p++) pending(p).callback.onPage(page(1, total, p));
+        assertEquals(pages, requests.size());
+        assertEntriesInOrder(total, 1);
+    }
+
+    @Test
+    public void lostPageIsRequestedAgain() {
+        int total = 2 * DirectoryListing.PAGE_ENTRIES;
+        listing.load(PATH, recorder);
+        last().callback.onPage(page(3, total, 0));
+
+        for (int attempt = 0; attempt < DirectoryListing.MAX_RETRIES; attempt++) {
+            int before = requests.size();
+            pending(1).callback.onLost();
+            assertEquals(before + 1, requests.size());
+            assertEquals(1, last().page());
+        }
+        pending(1).callback.onPage(page(3, total, 1));
+        assertFalse(recorder.events.contains("error"));
+        assertEntriesInOrder(total, 3);
+    }
+
+    @Test
+    public void firstPageLostPastRetriesReportsError() {
+        listing.load(PATH, recorder);
+        for (int attempt = 0; attempt < DirectoryListing.MAX_RETRIES; attempt++) {
+            last().callback.onLost();
+            assertEquals(0, last().page());
+        }
+        assertFalse(recorder.events.contains("error"));
+        last().callback.onLost();
+        assertEquals(DirectoryListing.MAX_RETRIES + 1, requests.size());
+        assertEquals("error", recorder.events.get(recorder.events.size() - 1));
+    }
+
+    @Test
+    public void pageLostPastRetriesReportsError() {
+        int total = 2 * DirectoryListing.PAGE_ENTRIES;
+        listing.load(PATH, recorder);
+        last().callback.onPage(page(3, total, 0));
+        for (int attempt = 0; attempt <= DirectoryListing.MAX_RETRIES; attempt++) pending(1).callback.onLost();
+        assertEquals("error", recorder.events.get(recorder.events.size() - 1));
+        int sent = requests.size();
+        pending(1).callback.onLost();
+        assertEquals(sent, requests.size());
+    }
+
+    @Test
+    public void changedDirectoryRestartsAndIgnoresLateOldPages() {
+        int total = 3 * DirectoryListing.PAGE_ENTRIES;
+        listing.load(PATH, recorder);
+        last().callback.onPage(page(1, total, 0));
+        Request oldPage1 = pending(1), oldPage2 = pending(2);
+
+        // Page 1 comes back from the changed directory: start over
+        oldPage1.callback.onPage(page(2, total, 1));
+        Request first = last();
+        assertEquals(0, first.page());
+        assertEquals(-1, first.ifMtime);
+
+        // A late reply to the old generation's request is dropped outright
+        oldPage2.callback.onPage(page(1, total, 2));
+        assertSame(first, last());
+
+        // An old-mtime page that crossed with the new first-page request is
+        // not taken as the new first page; page 0 is asked for again
+        first.callback.onPage(page(1, total, 2));
+        Request again = last();
+        assertNotSame(first, again);
+        assertEquals(0, again.page());
+
+        again.callback.onPage(page(2, total, 0));
+        pending(1).callback.onPage(page(2, total, 1));
+        pending(2).callback.onPage(page(2, total, 2));
+        assertEntriesInOrder(total, 2);
+        assertEquals("complete:false", recorder.events.get(recorder.events.size() - 1));
+    }
+
+    @Test
+    public void revisitRevalidatesCachedListing() {
+        int total = 10;
+        listing.load(PATH, recorder);
+        last().callback.onPage(page(5, total, 0));
+        assertEquals("complete:false", recorder.events.get(recorder.events.size() - 1));
+
+        Recorder revisit = new Recorder();
+        listing.load(PATH, revisit);
+        assertEquals("cached:" + total, revisit.events.get(0));
+        assertEquals(5, last().ifMtime);
+        last().callback.onPage(new DirectoryListing.Page(PATH, 5, 0, 0, true, new ArrayList<>()));
+        assertEquals("complete:true", revisit.events.get(revisit.events.size() - 1));
+    }
+}
@@ -0,0 +1,336 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loopback tests for file transfer v2: parallel streams, resume after a
+ * dropped connection and a receiver restart, chunk and whole-file checksum
+ * rejection, and the legacy v1 header path.
+ */
+public class FileTransferTest {
+
+    static final int CHUNK = FileTransferProtocol.MIN_CHUNK_SIZE;
+
+    private File root;
+    private File inbox;
+    private FileTransferReceiver receiver;
+    private final BlockingQueue<File> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("ftv2").toFile();
+        inbox = new File(root, "inbox");
+        receiver = startReceiver();
+    }
+
+    @After
+    public void tearDown() {
+        receiver.stop();
+        deleteRecursively(root);
+    }
+
+    @Test
+    public void multiStreamTransferArrivesIntact() throws Exception {
+        File src = randomFile("big.bin", 40 * CHUNK + 1234, 1);
+        long sent = send(src, "id-multi", 4);
+
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertEquals("big.bin", out.getName());
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(out.toPath()));
+        assertEquals(41, sent);
+    }
+
+    @Test
+    public void maxSizeChunksStreamThrough() throws Exception {
+        int chunk = FileTransferProtocol.MAX_CHUNK_SIZE;
+        File src = randomFile("wide.bin", 2 * chunk + 999, 8);
+        assertEquals(3, send(src, "id-wide", 2, chunk));
+
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(out.toPath()));
+    }
+
+    @Test
+    public void emptyFileCompletes() throws Exception {
+        File src = randomFile("empty.txt", 0, 2);
+        assertEquals(0, send(src, "id-empty", 2));
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertEquals(0, out.length());
+    }
+
+    @Test
+    public void resumesAfterDroppedConnectionAndReceiverRestart() throws Exception {
+        File src = randomFile("resume.bin", 20 * CHUNK, 3);
+        byte[] data = Files.readAllBytes(src.toPath());
+
+        // First attempt delivers 7 chunks, then the connection drops
+        try (Socket s = new Socket("127.0.0.1", receiver.getLocalPort())) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            byte[] resume = open(out, in, "id-resume", "resume.bin", data.length);
+            for (byte b : resume) assertEquals(0, b);
+            for (int i = 0; i < 7; i++) {
+                sendChunk(out, i, data, sha(data, i * CHUNK, CHUNK));
+                assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+                assertEquals(i, in.readInt());
+            }
+        }
+
+        // Phone app restarts: a new receiver on the same directory
+        Thread.sleep(100);
+        receiver.stop();
+        receiver = startReceiver();
+
+        long sent = send(src, "id-resume", 2);
+        assertEquals("only the missing chunks are re-sent", 13, sent);
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertArrayEquals(data, Files.readAllBytes(out.toPath()));
+    }
+
+    @Test
+    public void corruptChunkIsRejectedThenAccepted() throws Exception {
+        byte[] data = new byte[CHUNK];
+        new Random(4).nextBytes(data);
+        try (Socket s = new Socket("127.0.0.1", receiver.getLocalPort())) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            open(out, in, "id-corrupt", "one.bin", data.length);
+
+            byte[] good = sha(data, 0, CHUNK);
+            byte[] bad = good.clone();
+            bad[0] ^= 1;
+            sendChunk(out, 0, data, bad);
+            assertEquals(FileTransferProtocol.STATUS_BAD_CHECKSUM, in.readUnsignedByte());
+            assertEquals(0, in.readInt());
+
+            finish(out, sha(data, 0, CHUNK));
+            assertEquals(FileTransferProtocol.STATUS_INCOMPLETE, in.readUnsignedByte());
+            assertEquals(1, in.readInt());
+        }
+        try (Socket s = new Socket("127.0.0.1", receiver.getLocalPort())) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            open(out, in, "id-corrupt", "one.bin", data.length);
+            sendChunk(out, 0, data, sha(data, 0, CHUNK));
+            assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+            assertEquals(0, in.readInt());
+            finish(out, sha(data, 0, CHUNK));
+            assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+            assertEquals(0, in.readInt());
+        }
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertArrayEquals(data, Files.readAllBytes(out.toPath()));
+    }
+
+    @Test
+    public void badResendDoesNotOverwriteAcceptedChunk() throws Exception {
+        byte[] data = new byte[2 * CHUNK];
+        new Random(7).nextBytes(data);
+        byte[] garbled = data.clone();
+        garbled[CHUNK / 2] ^= 1;
+        try (Socket s = new Socket("127.0.0.1", receiver.getLocalPort())) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            open(out, in, "id-resend", "two.bin", data.length);
+
+            sendChunk(out, 0, data, sha(data, 0, CHUNK));
+            assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+            assertEquals(0, in.readInt());
+
+            // The same chunk again, damaged in transit
+            sendChunk(out, 0, garbled, sha(data, 0, CHUNK));
+            assertEquals(FileTransferProtocol.STATUS_BAD_CHECKSUM, in.readUnsignedByte());
+            assertEquals(0, in.readInt());
+
+            sendChunk(out, 1, data, sha(data, CHUNK, CHUNK));
+            assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+            assertEquals(1, in.readInt());
+            finish(out, sha(data, 0, data.length));
+            assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+            assertEquals(0, in.readInt());
+        }
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertArrayEquals(data, Files.readAllBytes(out.toPath()));
+    }
+
+    @Test
+    public void wholeFileMismatchDiscardsPartialAndSenderResends() throws Exception {
+        File src = randomFile("stale.bin", 3 * CHUNK, 5);
+        byte[] stale = Files.readAllBytes(src.toPath());
+        stale[CHUNK + 7] ^= 1; // resumed partial holds other content than the source now has
+
+        try (Socket s = new Socket("127.0.0.1", receiver.getLocalPort())) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            open(out, in, "id-stale", "stale.bin", stale.length);
+            for (int i = 0; i < 3; i++) {
+                sendChunk(out, i, stale, sha(stale, i * CHUNK, CHUNK));
+                assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+                assertEquals(i, in.readInt());
+            }
+            finish(out, sha(Files.readAllBytes(src.toPath()), 0, 3 * CHUNK));
+            assertEquals(FileTransferProtocol.STATUS_BAD_CHECKSUM, in.readUnsignedByte());
+            assertEquals(3, in.readInt());
+        }
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+
+        long sent = send(src, "id-stale", 2);
+        assertEquals("the discarded partial is sent again in full", 3, sent);
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(out.toPath()));
+    }
+
+    @Test
+    public void senderResendsWhenPartialMismatchesAtFinish() throws Exception {
+        File src = randomFile("swap.bin", 2 * CHUNK, 6);
+        byte[] other = new byte[2 * CHUNK];
+        new Random(7).nextBytes(other);
+
+        // Another source with the same id left a complete, different partial
+        try (Socket s = new Socket("127.0.0.1", receiver.getLocalPort())) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            open(out, in, "id-swap", "swap.bin", other.length);
+            for (int i = 0; i < 2; i++) {
+                sendChunk(out, i, other, sha(other, i * CHUNK, CHUNK));
+                assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+                assertEquals(i, in.readInt());
+            }
+        }
+        Thread.sleep(100);
+
+        // The sender sees every chunk acknowledged, is refused at FINISH, and starts over
+        long sent = send(src, "id-swap", 1);
+        assertEquals(2, sent);
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(out.toPath()));
+    }
+
+    @Test
+    public void legacyHeaderStillAccepted() throws Exception {
+        byte[] body = "hello from v1".getBytes(StandardCharsets.UTF_8);
+        try (Socket s = new Socket("127.0.0.1", receiver.getLocalPort())) {
+            OutputStream out = s.getOutputStream();
+            out.write(("../notes-1.txt|" + body.length + "\n").getBytes(StandardCharsets.UTF_8));
+            out.write(body);
+            out.flush();
+        }
+        File out = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(out);
+        assertEquals("notes-1.txt", out.getName());
+        assertEquals(inbox, out.getParentFile());
+        assertArrayEquals(body, Files.readAllBytes(out.toPath()));
+    }
+
+    @Test
+    public void safeFileNameStripsPaths() {
+        assertEquals("a.txt", FileTransferProtocol.safeFileName("/etc/x/../a.txt"));
+        assertEquals("b.txt", FileTransferProtocol.safeFileName("C:\\tmp\\b.txt"));
+        assertEquals("file", FileTransferProtocol.safeFileName(".."));
+        assertEquals("file", FileTransferProtocol.safeFileName(null));
+    }
+
+    // ─── Helpers ─────────────────────────────────────────────────
+
+    private FileTransferReceiver startReceiver() throws IOException {
+        FileTransferReceiver r = new FileTransferReceiver(0, inbox, new FileTransferReceiver.Listener() {
+            @Override public void onFileReceived(File file) { received.add(file); }
+            @Override public void onError(String message, Exception e) { }
+        });
+        r.start();
+        return r;
+    }
+
+    private long send(File src, String id, int streams) throws IOException {
+        return send(src, id, streams, CHUNK);
+    }
+
+    private long send(File src, String id, int streams, int chunkSize) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(src, "r")) {
+            FileChannel channel = raf.getChannel();
+            FileTransferSender sender = new FileTransferSender("127.0.0.1", receiver.getLocalPort(),
+                    channel, id, src.getName(), src.length(), chunkSize, streams, null);
+            sender.run();
+            return sender.getChunksSent();
+        }
+    }
+
+    private static byte[] open(DataOutputStream out, DataInputStream in, String id, String name,
+                               long size) throws IOException {
+        new FileTransferProtocol.Open(id, name, size, CHUNK, 0).write(out);
+        out.flush();
+        assertEquals(FileTransferProtocol.STATUS_OK, in.readUnsignedByte());
+        int chunks = in.readInt();
+        assertEquals(FileTransferProtocol.chunkCount(size, CHUNK), chunks);
+        byte[] bitmap = FileTransferProtocol.newBitmap(chunks);
+        in.readFully(bitmap);
+        return bitmap;
+    }
+
+    private static void sendChunk(DataOutputStream out, int index, byte[] data, byte[] sha)
+            throws IOException {
+        out.writeByte(FileTransferProtocol.FRAME_CHUNK);
+        out.writeInt(index);
+        out.writeInt(CHUNK);
+        out.write(sha);
+        out.write(data, index * CHUNK, CHUNK);
+        out.flush();
+    }
+
+    private static void finish(DataOutputStream out, byte[] fileSha) throws IOException {
+        out.writeByte(FileTransferProtocol.FRAME_FINISH);
+        out.write(fileSha);
+        out.flush();
+    }
+
+    private static byte[] sha(byte[] data, int off, int len) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(data, off, len);
+        return md.digest();
+    }
+
+    private File randomFile(String name, int size, long seed) throws IOException {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        File f = new File(root, name);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(data);
+        }
+        return f;
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteRecursively(c);
+        f.delete();
+    }
+}
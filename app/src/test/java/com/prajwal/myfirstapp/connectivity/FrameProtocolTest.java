@@ -0,0 +1,147 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Camera stream v2: fragmenting and reassembling frames under reordering,
+ * loss and junk. The quality controller is in {@link StreamQualityControllerTest}.
+ */
+public class FrameProtocolTest {
+
+    private final List<byte[]> delivered = new ArrayList<>();
+    private final List<Integer> deliveredIds = new ArrayList<>();
+    private FrameReassembler reassembler;
+
+    @Before
+    public void setUp() {
+        reassembler = new FrameReassembler(1 << 20, 3, (type, frameId, timestamp, data, length) -> {
+            delivered.add(Arrays.copyOf(data, length));
+            deliveredIds.add(frameId);
+        });
+    }
+
+    private static byte[] frame(int size, long seed) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static List<byte[]> fragments(int frameId, byte[] frame) throws Exception {
+        List<byte[]> out = new ArrayList<>();
+        byte[] scratch = new byte[FrameProtocol.MAX_DATAGRAM];
+        FrameProtocol.fragment(FrameProtocol.TYPE_JPEG, frameId, 1234, frame, frame.length, scratch,
+                (buf, len) -> out.add(Arrays.copyOf(buf, len)));
+        return out;
+    }
+
+    private void feed(List<byte[]> datagrams) {
+        for (byte[] d : datagrams) reassembler.accept(d, 0, d.length);
+    }
+
+    @Test
+    public void fragmentsStayWithinDatagramAndReassemble() throws Exception {
+        byte[] f = frame(100_000, 1);
+        List<byte[]> parts = fragments(7, f);
+        assertEquals(FrameProtocol.fragmentCount(f.length), parts.size());
+        for (byte[] p : parts) assertTrue(p.length <= FrameProtocol.MAX_DATAGRAM);
+
+        feed(parts);
+        assertEquals(1, delivered.size());
+        assertArrayEquals(f, delivered.get(0));
+    }
+
+    @Test
+    public void reassemblesOutOfOrderWithDuplicates() throws Exception {
+        byte[] f = frame(20_000, 2);
+        List<byte[]> parts = fragments(1, f);
+        parts.add(parts.get(3));
+        Collections.shuffle(parts, new Random(5));
+
+        feed(parts);
+        assertEquals(1, delivered.size());
+        assertArrayEquals(f, delivered.get(0));
+    }
+
+    @Test
+    public void emptyAndSingleFragmentFrames() throws Exception {
+        feed(fragments(1, new byte[0]));
+        byte[] small = frame(500, 3);
+        feed(fragments(2, small));
+        assertEquals(Arrays.asList(1, 2), deliveredIds);
+        assertEquals(0, delivered.get(0).length);
+        assertArrayEquals(small, delivered.get(1));
+    }
+
+    @Test
+    public void lostFragmentDropsOnlyThatFrame() throws Exception {
+        List<byte[]> a = fragments(1, frame(5000, 4));
+        List<byte[]> b = fragments(2, frame(5000, 5));
+        List<byte[]> c = fragments(3, frame(5000, 6));
+        b.remove(1);
+
+        feed(a);
+        feed(b);
+        feed(c);
+        assertEquals(Arrays.asList(1, 3), deliveredIds);
+        assertEquals(1, reassembler.getFramesLost());
+    }
+
+    @Test
+    public void lateFragmentsAfterNewerFrameAreIgnored() throws Exception {
+        List<byte[]> older = fragments(1, frame(5000, 7));
+        List<byte[]> newer = fragments(2, frame(3000, 8));
+
+        feed(older.subList(0, 2));
+        feed(newer);
+        feed(older.subList(2, older.size()));
+        assertEquals(Collections.singletonList(2), deliveredIds);
+        assertEquals(older.size() - 2, reassembler.getFragmentsLate());
+    }
+
+    @Test
+    public void newerFrameCompletingFirstAbandonsOlder() throws Exception {
+        List<byte[]> a = fragments(10, frame(4000, 9));
+        List<byte[]> b = fragments(11, frame(4000, 10));
+        for (int i = 0; i < a.size(); i++) {
+            if (i < b.size()) reassembler.accept(b.get(i), 0, b.get(i).length);
+            if (i < a.size() - 1) reassembler.accept(a.get(i), 0, a.get(i).length);
+        }
+        // 11 completed first, so the rest of 10 is late
+        feed(a.subList(a.size() - 1, a.size()));
+        assertEquals(Collections.singletonList(11), deliveredIds);
+    }
+
+    @Test
+    public void rejectsInvalidDatagrams() throws Exception {
+        byte[] junk = "hello camera".getBytes("UTF-8");
+        reassembler.accept(junk, 0, junk.length);
+
+        byte[] good = fragments(1, frame(3000, 11)).get(0);
+        byte[] truncated = Arrays.copyOf(good, good.length - 1);
+        reassembler.accept(truncated, 0, truncated.length);
+
+        byte[] badCount = good.clone();
+        badCount[11] = 9; // count no longer matches frameLength
+        reassembler.accept(badCount, 0, badCount.length);
+
+        assertEquals(3, reassembler.getFragmentsInvalid());
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void frameIdsWrapAround() throws Exception {
+        feed(fragments(Integer.MAX_VALUE, frame(100, 12)));
+        feed(fragments(Integer.MIN_VALUE, frame(100, 13)));
+        assertEquals(Arrays.asList(Integer.MAX_VALUE, Integer.MIN_VALUE), deliveredIds);
+        assertEquals(0, reassembler.getFramesLost());
+    }
+}
@@ -0,0 +1,158 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Debouncing, de-duplication, batching, icon caching and backpressure in
+ * {@link NotificationPipeline}, driven by a manual clock.
+ */
+public class NotificationPipelineTest {
+
+    private final List<String> sent = new ArrayList<>();
+    private final List<String> iconLoads = new ArrayList<>();
+    private boolean reachable = true;
+    private int probes;
+    private long clock = 10_000;
+    private NotificationPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        NotificationPipeline.Transport transport = new NotificationPipeline.Transport() {
+            @Override public boolean isReachable() { return reachable; }
+            @Override public void probe() { probes++; }
+            @Override public void send(String packet) { sent.add(packet); }
+        };
+        pipeline = new NotificationPipeline(transport, pkg -> {
+            iconLoads.add(pkg);
+            return pkg.getBytes();
+        }, null) {
+            @Override long now() { return clock; }
+        };
+    }
+
+    private long advance(long ms) {
+        clock += ms;
+        return pipeline.drain(clock);
+    }
+
+    @Test
+    public void debouncesUpdatesPerKey() {
+        for (int i = 0; i < 10; i++) {
+            pipeline.post("k", "app", "Download", i * 10 + "%", i);
+            advance(100);
+        }
+        // Continuous updates are flushed MAX_DELAY_MS after the first one
+        assertEquals(1, sent.size());
+        assertTrue(sent.get(0), sent.get(0).contains("90%"));
+        assertTrue(sent.get(0).startsWith("NOTIF_MIRROR:{\"key\":\"k\""));
+    }
+
+    @Test
+    public void sendsAfterQuietPeriod() {
+        pipeline.post("k", "app", "Hi", "there", 1);
+        assertEquals(NotificationPipeline.DEBOUNCE_MS - 100, advance(100));
+        advance(NotificationPipeline.DEBOUNCE_MS);
+        assertEquals(1, sent.size());
+        assertEquals(-1, pipeline.drain(clock));
+    }
+
+    @Test
+    public void dropsDuplicateContent() {
+        pipeline.post("k", "app", "Hi", "there", 1);
+        advance(1000);
+        pipeline.post("k", "app", "Hi", "there", 2);    // same content, new timestamp
+        advance(1000);
+        pipeline.post("k", "app", "Hi", "again", 3);
+        pipeline.post("k", "app", "Hi", "there", 4);    // changed and changed back before sending
+        advance(1000);
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void removeBeforeSendCancels() {
+        pipeline.post("k", "app", "Hi", "there", 1);
+        pipeline.remove("k");
+        advance(1000);
+        assertTrue(sent.isEmpty());
+
+        pipeline.post("k", "app", "Hi", "there", 1);
+        advance(1000);
+        pipeline.remove("k");
+        advance(0);
+        assertEquals("NOTIF_DISMISSED:k", sent.get(1));
+    }
+
+    @Test
+    public void batchesBurstAndSendsIconsOnce() {
+        pipeline.setProtocolVersion(2);
+        for (int i = 0; i < 10; i++) pipeline.post("k" + i, i < 5 ? "chat" : "mail", "t" + i, "b", i);
+        advance(1000);
+
+        assertEquals(3, sent.size());                    // two icons, one batch
+        assertTrue(sent.get(0).startsWith("NOTIF_ICON:"));
+        assertTrue(sent.get(0).contains("|chat|"));
+        assertTrue(sent.get(2).startsWith("NOTIF_BATCH:[{\"op\":\"post\""));
+        assertTrue(sent.get(2).endsWith("}]"));
+        assertTrue(sent.get(2).contains("\"key\":\"k9\""));
+
+        pipeline.post("k20", "chat", "later", "b", 20);
+        advance(1000);
+        assertEquals(4, sent.size());                    // icon already on the PC
+        assertEquals(2, iconLoads.size());
+
+        pipeline.setProtocolVersion(2);                  // new handshake: icons go again, from cache
+        pipeline.post("k21", "chat", "again", "b", 21);
+        advance(1000);
+        assertTrue(sent.get(4).startsWith("NOTIF_ICON:"));
+        assertEquals(2, iconLoads.size());
+    }
+
+    @Test
+    public void splitsLargeBatches() {
+        pipeline.setProtocolVersion(2);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 1000; i++) big.append('x');
+        for (int i = 0; i < 20; i++) pipeline.post("k" + i, "app", "t", big.toString() + i, i);
+        advance(1000);
+        int batches = 0;
+        for (String p : sent) {
+            if (!p.startsWith("NOTIF_BATCH:")) continue;
+            batches++;
+            assertTrue(p.length() <= NotificationPipeline.MAX_BATCH_BYTES + 20);
+        }
+        assertTrue(batches > 1);
+    }
+
+    @Test
+    public void holdsWhileUnreachableAndBoundsQueue() {
+        reachable = false;
+        for (int i = 0; i < NotificationPipeline.MAX_PENDING + 10; i++) pipeline.post("k" + i, "app", "t", "b" + i, i);
+        advance(1000);
+        assertTrue(sent.isEmpty());
+        assertEquals(1, probes);
+        advance(500);
+        assertEquals(1, probes);                         // probe interval
+        advance(NotificationPipeline.PROBE_INTERVAL_MS);
+        assertEquals(2, probes);
+        assertTrue(pipeline.getStats().contains("dropped=10"));
+
+        reachable = true;
+        advance(0);
+        assertEquals(NotificationPipeline.MAX_PENDING, sent.size());
+        assertTrue(sent.get(0).contains("\"key\":\"k10\""));   // oldest ten were dropped
+    }
+
+    @Test
+    public void escapesJson() {
+        pipeline.post("k", "app", "say \"hi\"", "line1\nline2\\", 1);
+        advance(1000);
+        assertTrue(sent.get(0).contains("\"title\":\"say \\\"hi\\\"\""));
+        assertTrue(sent.get(0).contains("\"body\":\"line1\\nline2\\\\\""));
+    }
+}
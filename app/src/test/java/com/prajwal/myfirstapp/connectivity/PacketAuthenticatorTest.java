@@ -0,0 +1,79 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import com.prajwal.myfirstapp.core.SecurityUtils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Which inbound reverse-command packets {@link PacketAuthenticator} accepts:
+ * signed, unsigned, tampered, stale and replayed.
+ */
+public class PacketAuthenticatorTest {
+
+    private static final long NOW = 1_700_000_000L;
+
+    private static byte[] signed(String command, long timestamp) throws Exception {
+        ByteBuffer buf = SecurityUtils.encodePacket(command, timestamp);
+        byte[] out = new byte[buf.limit()];
+        System.arraycopy(buf.array(), 0, out, 0, out.length);
+        return out;
+    }
+
+    private static String accept(PacketAuthenticator auth, byte[] packet) {
+        return auth.accept(packet, 0, packet.length, NOW);
+    }
+
+    private static byte[] plain(String command) {
+        return command.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void pairedRejectsUnsignedFromTheStart() throws Exception {
+        PacketAuthenticator auth = new PacketAuthenticator(true);
+        assertNull(accept(auth, plain("LOCK")));
+        assertEquals(1, auth.getRejected());
+        assertEquals("LOCK", accept(auth, signed("LOCK", NOW)));
+    }
+
+    @Test
+    public void unpairedAcceptsUnsignedUntilASignedPacketArrives() throws Exception {
+        PacketAuthenticator auth = new PacketAuthenticator(false);
+        assertFalse(auth.isRequired());
+        assertEquals("VIBRATE:200", accept(auth, plain("VIBRATE:200")));
+
+        assertEquals("VIBRATE:300", accept(auth, signed("VIBRATE:300", NOW)));
+        assertTrue(auth.isRequired());
+        assertNull(accept(auth, plain("VIBRATE:200")));
+        assertEquals(1, auth.getRejected());
+    }
+
+    @Test
+    public void requiringAuthLaterRejectsUnsigned() {
+        PacketAuthenticator auth = new PacketAuthenticator(false);
+        assertNotNull(accept(auth, plain("PING")));
+        auth.setRequireAuth(true);
+        assertNull(accept(auth, plain("PING")));
+    }
+
+    @Test
+    public void rejectsTamperedStaleAndReplayedPackets() throws Exception {
+        PacketAuthenticator auth = new PacketAuthenticator(true);
+
+        byte[] tampered = signed("TTS:hello", NOW);
+        tampered[3] = (byte) (tampered[3] == 'A' ? 'B' : 'A');
+        assertNull(accept(auth, tampered));
+
+        byte[] stale = signed("TTS:hello", NOW - PacketAuthenticator.MAX_CLOCK_SKEW_SEC - 1);
+        assertNull(accept(auth, stale));
+
+        byte[] packet = signed("TTS:hello", NOW);
+        assertEquals("TTS:hello", accept(auth, packet));
+        assertNull(accept(auth, packet.clone()));
+        assertEquals(3, auth.getRejected());
+    }
+}
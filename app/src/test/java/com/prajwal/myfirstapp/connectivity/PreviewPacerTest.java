@@ -0,0 +1,131 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Preview frames dropped when the UI is behind or the picture cannot be
+ * repaired, and the keyframe request rate limit, of {@link PreviewPacer}.
+ */
+public class PreviewPacerTest {
+
+    private static final long WAIT = PreviewReceiver.PRESENT_WAIT_MS;
+    private static final long INTERVAL = PreviewReceiver.KEYFRAME_REQUEST_INTERVAL_MS;
+
+    private long now;
+    private long tick;                 // added to the clock on every read
+    private int keyframes;
+    private PreviewPacer pacer;
+
+    @Before
+    public void setUp() {
+        pacer = new PreviewPacer(WAIT, INTERVAL, () -> keyframes++, () -> now += tick);
+    }
+
+    @Test
+    public void nothingInFlightDoesNotWait() {
+        assertTrue(pacer.awaitPresented());
+        pacer.posted();
+        pacer.presented();
+        assertTrue(pacer.awaitPresented());
+        assertEquals(0, pacer.getFramesDropped());
+        assertEquals(0, keyframes);
+    }
+
+    @Test
+    public void frameIsDroppedWhenTheUiStaysBehind() {
+        tick = WAIT / 2;
+        pacer.posted();
+        assertFalse(pacer.awaitPresented());
+        assertEquals(1, pacer.getFramesDropped());
+        assertEquals(1, keyframes);
+    }
+
+    @Test
+    public void frameGoesAheadWhenTheUiCatchesUpInTime() throws Exception {
+        PreviewPacer real = new PreviewPacer(5_000, INTERVAL, () -> keyframes++,
+                () -> System.nanoTime() / 1_000_000);
+        real.posted();
+        Thread ui = new Thread(() -> {
+            try { Thread.sleep(20); } catch (InterruptedException ignored) { }
+            real.presented();
+        });
+        ui.start();
+        assertTrue(real.awaitPresented());
+        ui.join();
+        assertEquals(0, real.getFramesDropped());
+        assertEquals(0, keyframes);
+    }
+
+    @Test
+    public void closeReleasesAWaitingFrameWithoutDropping() throws Exception {
+        PreviewPacer real = new PreviewPacer(60_000, INTERVAL, () -> keyframes++,
+                () -> System.nanoTime() / 1_000_000);
+        real.posted();
+        AtomicBoolean result = new AtomicBoolean(true);
+        Thread receiver = new Thread(() -> result.set(real.awaitPresented()));
+        receiver.start();
+        Thread.sleep(20);
+        real.close();
+        receiver.join(5_000);
+        assertFalse(receiver.isAlive());
+        assertFalse(result.get());
+        assertEquals(0, real.getFramesDropped());
+        assertEquals(0, keyframes);
+
+        real.open();
+        assertTrue(real.awaitPresented());
+    }
+
+    @Test
+    public void keyframeRequestsAreRateLimited() {
+        now = 10_000;
+        pacer.drop();                  // e.g. dirty rects with no picture under them
+        assertEquals(1, keyframes);
+
+        now += INTERVAL - 1;
+        pacer.drop();
+        pacer.onLostCount(1);
+        assertEquals(2, pacer.getFramesDropped());
+        assertEquals(1, keyframes);
+
+        now += 1;
+        pacer.drop();
+        assertEquals(3, pacer.getFramesDropped());
+        assertEquals(2, keyframes);
+    }
+
+    @Test
+    public void onlyANewLossAsksForAKeyframe() {
+        pacer.onLostCount(0);
+        assertEquals(0, keyframes);
+        pacer.onLostCount(2);
+        assertEquals(1, keyframes);
+
+        now += INTERVAL;
+        pacer.onLostCount(2);
+        assertEquals(1, keyframes);
+        pacer.onLostCount(3);
+        assertEquals(2, keyframes);
+
+        // After a reassembler reset the count starts over
+        now += INTERVAL;
+        pacer.resetLostCount();
+        pacer.onLostCount(0);
+        assertEquals(2, keyframes);
+        pacer.onLostCount(1);
+        assertEquals(3, keyframes);
+    }
+
+    @Test
+    public void noKeyframeCallbackIsFine() {
+        PreviewPacer quiet = new PreviewPacer(WAIT, INTERVAL, null, () -> now += tick);
+        quiet.drop();
+        quiet.onLostCount(4);
+        assertEquals(1, quiet.getFramesDropped());
+    }
+}
@@ -0,0 +1,80 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Smoothed RTT, retransmission timeout and reachability of {@link RttTracker}.
+ */
+public class RttTrackerTest {
+
+    @Test
+    public void startsUnreachableWithInitialTimeout() {
+        RttTracker t = new RttTracker();
+        assertFalse(t.isReachable());
+        assertEquals(RttTracker.INITIAL_RTO_MS, t.getTimeoutMs());
+        assertEquals(-1, t.getSmoothedRttMs());
+        assertEquals(-1, t.getMinRttMs());
+    }
+
+    @Test
+    public void firstSampleSeedsEstimate() {
+        RttTracker t = new RttTracker();
+        t.onSample(100, 5_000);
+        assertTrue(t.isReachable());
+        assertEquals(100, t.getSmoothedRttMs());
+        assertEquals(50, t.getRttVarianceMs());
+        assertEquals(300, t.getTimeoutMs());          // 100 + 4 * 50
+        assertEquals(5_000, t.getLastSuccessMs());
+    }
+
+    @Test
+    public void smoothsLaterSamples() {
+        RttTracker t = new RttTracker();
+        t.onSample(100, 0);
+        t.onSample(200, 0);
+        // rttvar = 0.75 * 50 + 0.25 * 100, srtt = 0.875 * 100 + 0.125 * 200
+        assertEquals(63, t.getRttVarianceMs());
+        assertEquals(113, t.getSmoothedRttMs());
+        assertEquals(100, t.getMinRttMs());
+        assertEquals(200, t.getLastRttMs());
+        assertEquals(2, t.getSampleCount());
+    }
+
+    @Test
+    public void timeoutIsClamped() {
+        RttTracker fast = new RttTracker();
+        for (int i = 0; i < 50; i++) fast.onSample(2, 0);
+        assertEquals(RttTracker.MIN_RTO_MS, fast.getTimeoutMs());
+
+        RttTracker slow = new RttTracker();
+        slow.onSample(5_000, 0);
+        assertEquals(RttTracker.MAX_RTO_MS, slow.getTimeoutMs());
+    }
+
+    @Test
+    public void consecutiveLossesMarkUnreachable() {
+        RttTracker t = new RttTracker();
+        t.onSample(20, 0);
+        t.onLoss();
+        assertTrue(t.isReachable());
+        t.onLoss();
+        assertFalse(t.isReachable());
+        assertTrue(t.getLossRate() > 0.15);
+
+        t.onSample(20, 0);
+        assertTrue(t.isReachable());
+    }
+
+    @Test
+    public void resetForgetsServer() {
+        RttTracker t = new RttTracker();
+        t.onSample(40, 1_000);
+        t.reset();
+        assertFalse(t.isReachable());
+        assertEquals(0, t.getSampleCount());
+        assertEquals(0, t.getLastSuccessMs());
+        assertEquals(RttTracker.INITIAL_RTO_MS, t.getTimeoutMs());
+    }
+}
@@ -0,0 +1,237 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streaming results, the quiet-period and deadline ends, re-broadcasts,
+ * the last known server probe and reconnect of {@link ServerDiscovery},
+ * driven step by step on a fake clock and transport.
+ */
+public class ServerDiscoveryTest {
+
+    private static final String LAST = "10.0.0.9";
+
+    private long now;
+    private String lastServer;
+    private final List<String> sent = new ArrayList<>();
+    private final List<String> pinged = new ArrayList<>();
+    private final List<Runnable> pongs = new ArrayList<>();
+    private ServerDiscovery discovery;
+
+    /** Records what a listener was told. */
+    private static final class Recorder implements ServerDiscovery.Listener {
+        final List<String> found = new ArrayList<>();
+        List<String> finished;
+        int finishedCalls;
+
+        @Override public void onServerFound(String ip) { found.add(ip); }
+        @Override public void onFinished(List<String> servers) {
+            finished = servers;
+            finishedCalls++;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        discovery = new ServerDiscovery(new ServerDiscovery.Transport() {
+            @Override public List<InetAddress> broadcastAddresses() {
+                try {
+                    return Arrays.asList(InetAddress.getByName("192.168.1.255"),
+                            InetAddress.getByName("255.255.255.255"));
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+            @Override public void send(InetAddress addr, int port) {
+                sent.add(addr.getHostAddress() + ":" + port);
+            }
+            @Override public void ping(String ip, Runnable answered) {
+                pinged.add(ip);
+                pongs.add(answered);
+            }
+            @Override public String lastServer(Context context) {
+                return lastServer;
+            }
+        }, () -> now);
+    }
+
+    private int broadcastsSent() {
+        return Collections.frequency(sent, "255.255.255.255:5007");
+    }
+
+    @Test
+    public void serversAreReportedAsTheyAnswerOnce() {
+        Recorder r = new Recorder();
+        discovery.scan(null, r);
+        discovery.step();
+        assertEquals(Arrays.asList("192.168.1.255:5007", "255.255.255.255:5007"), sent);
+
+        now = 20;
+        discovery.onAnswer("10.0.0.2");
+        assertEquals(Collections.singletonList("10.0.0.2"), r.found);
+        now = 30;
+        discovery.onAnswer("10.0.0.3");
+        discovery.onAnswer("10.0.0.2");             // a second reply or announcement
+        assertEquals(Arrays.asList("10.0.0.2", "10.0.0.3"), r.found);
+        assertEquals(0, r.finishedCalls);
+    }
+
+    @Test
+    public void scanEndsAQuietPeriodAfterTheLastNewServer() {
+        Recorder r = new Recorder();
+        discovery.scan(null, r);
+        discovery.step();
+        now = 100;
+        discovery.onAnswer("10.0.0.2");
+        now = 300;
+        discovery.onAnswer("10.0.0.3");
+        discovery.step();
+
+        now = 300 + ServerDiscovery.QUIET_MS - 1;
+        discovery.onAnswer("10.0.0.2");             // repeats do not extend the scan
+        assertEquals(1, discovery.step());
+        assertEquals(0, r.finishedCalls);
+
+        now = 300 + ServerDiscovery.QUIET_MS;
+        discovery.step();
+        assertEquals(1, r.finishedCalls);
+        assertEquals(Arrays.asList("10.0.0.2", "10.0.0.3"), r.finished);
+
+        discovery.onAnswer("10.0.0.4");
+        discovery.step();
+        assertEquals(2, r.found.size());
+        assertEquals(1, r.finishedCalls);
+    }
+
+    @Test
+    public void silentScanRebroadcastsThenEndsAtTheDeadline() {
+        Recorder r = new Recorder();
+        discovery.scan(null, r);
+        long[] at = {0, 249, 250, 749, 750, 1749, 1750, ServerDiscovery.SCAN_MS - 1};
+        int[] expected = {1, 1, 2, 2, 3, 3, 4, 4};
+        for (int i = 0; i < at.length; i++) {
+            now = at[i];
+            discovery.step();
+            assertEquals("at " + at[i] + " ms", expected[i], broadcastsSent());
+        }
+        assertEquals(0, r.finishedCalls);
+
+        now = ServerDiscovery.SCAN_MS;
+        discovery.step();
+        assertEquals(1, r.finishedCalls);
+        assertTrue(r.finished.isEmpty());
+    }
+
+    @Test
+    public void scanProbesTheLastKnownServerDirectly() {
+        lastServer = LAST;
+        Recorder r = new Recorder();
+        discovery.scan(null, r);
+        discovery.step();
+        assertEquals(LAST + ":5007", sent.get(0));
+        assertEquals(Collections.singletonList(LAST), pinged);
+        assertEquals(1, broadcastsSent());
+
+        pongs.get(0).run();
+        discovery.step();
+        assertEquals(Collections.singletonList(LAST), r.found);
+    }
+
+    @Test
+    public void reconnectTriesTheLastKnownServerBeforeBroadcasting() {
+        lastServer = LAST;
+        Recorder r = new Recorder();
+        discovery.startReconnect(null, r);
+        discovery.step();
+        assertEquals(Collections.singletonList(LAST + ":5007"), sent);
+        assertEquals(Collections.singletonList(LAST), pinged);
+
+        now = ServerDiscovery.PROBE_MS - 1;
+        discovery.step();
+        assertEquals(0, broadcastsSent());
+
+        now = ServerDiscovery.PROBE_MS;
+        discovery.step();
+        assertEquals(1, broadcastsSent());
+    }
+
+    @Test
+    public void reconnectStopsAtTheFirstServer() {
+        lastServer = LAST;
+        Recorder r = new Recorder();
+        discovery.startReconnect(null, r);
+        discovery.step();
+
+        now = 5;
+        pongs.get(0).run();
+        discovery.step();
+        assertEquals(Collections.singletonList(LAST), r.found);
+        assertEquals(Collections.singletonList(LAST), r.finished);
+        assertEquals(0, broadcastsSent());
+
+        // Finished: no further answers, attempts or broadcasts
+        discovery.onAnswer("10.0.0.2");
+        now = ServerDiscovery.SCAN_MS * 10;
+        discovery.step();
+        assertEquals(1, r.found.size());
+        assertEquals(1, r.finishedCalls);
+        assertEquals(1, pinged.size());
+        assertEquals(0, broadcastsSent());
+    }
+
+    @Test
+    public void reconnectRetriesAfterBackoffWhileNothingAnswers() {
+        Recorder r = new Recorder();
+        discovery.startReconnect(null, r);
+        discovery.step();
+        assertEquals(1, broadcastsSent());
+
+        now = ServerDiscovery.SCAN_MS;
+        discovery.step();                           // attempt 1 ends empty
+        int afterFirst = broadcastsSent();
+        assertEquals(0, r.finishedCalls);
+
+        now = ServerDiscovery.SCAN_MS + ServerDiscovery.backoffMs(1) - 1;
+        discovery.step();
+        assertEquals(afterFirst, broadcastsSent());
+
+        now = ServerDiscovery.SCAN_MS + ServerDiscovery.backoffMs(1);
+        discovery.step();
+        assertEquals(afterFirst + 1, broadcastsSent());
+
+        now += 10;
+        discovery.onAnswer("10.0.0.2");
+        discovery.step();
+        assertEquals(Collections.singletonList("10.0.0.2"), r.found);
+        assertEquals(1, r.finishedCalls);
+    }
+
+    @Test
+    public void backoffDoublesUpToTheCap() {
+        assertEquals(0, ServerDiscovery.backoffMs(0));
+        assertEquals(1000, ServerDiscovery.backoffMs(1));
+        assertEquals(2000, ServerDiscovery.backoffMs(2));
+        assertEquals(16_000, ServerDiscovery.backoffMs(5));
+        assertEquals(ServerDiscovery.MAX_BACKOFF_MS, ServerDiscovery.backoffMs(6));
+        assertEquals(ServerDiscovery.MAX_BACKOFF_MS, ServerDiscovery.backoffMs(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void broadcastTargetsEndWithLimitedBroadcast() throws Exception {
+        List<InetAddress> targets = ServerDiscovery.broadcastAddresses();
+        assertFalse(targets.isEmpty());
+        assertEquals(InetAddress.getByName("255.255.255.255"), targets.get(targets.size() - 1));
+        assertEquals(targets.size(), new java.util.HashSet<>(targets).size());
+    }
+}
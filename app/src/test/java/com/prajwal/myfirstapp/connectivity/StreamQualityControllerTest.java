@@ -0,0 +1,180 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The resolution / quality / frame rate ladder of
+ * {@link StreamQualityController}: stepping down on loss or latency,
+ * climbing after clean runs and trimming JPEG quality for oversized frames.
+ */
+public class StreamQualityControllerTest {
+
+    private static final int BUDGET = 60_000;
+    private static final int OVERSIZE = 70_000;
+    private static final int SMALL = 10_000;
+
+    private static StreamQualityController.Level rung(int i) {
+        return StreamQualityController.LADDER[i];
+    }
+
+    /** Feeds clean reports 100 ms apart; returns the clock after the last one. */
+    private static long clean(StreamQualityController c, int reports, long now) {
+        for (int i = 0; i < reports; i++) assertFalse(c.onReport(0, 30, now += 100));
+        return now;
+    }
+
+    @Test
+    public void startAndMaxLevelAreClampedToTheLadder() {
+        int top = StreamQualityController.LADDER.length - 1;
+        assertEquals(rung(top), new StreamQualityController(99, 99, BUDGET).getLevel());
+        assertEquals(rung(1), new StreamQualityController(3, 1, BUDGET).getLevel());
+        assertEquals(rung(0), new StreamQualityController(-1, 4, BUDGET).getLevel());
+    }
+
+    // ─── Stepping down ──────────────────────────────────────────
+
+    @Test
+    public void lossStepsDownOncePerHold() {
+        StreamQualityController c = new StreamQualityController(
+                StreamQualityController.DEFAULT_LEVEL, 4, BUDGET);
+        assertTrue(c.onReport(0.2, 50, 10_000));
+        assertEquals(rung(1), c.getLevel());
+        // Still inside the hold window
+        assertFalse(c.onReport(0.2, 50, 10_500));
+        assertTrue(c.onReport(0.2, 50, 10_000 + StreamQualityController.HOLD_MS));
+        assertEquals(rung(0), c.getLevel());
+        assertFalse(c.onReport(0.5, 900, 60_000)); // already at the bottom
+    }
+
+    @Test
+    public void latencyAloneStepsDown() {
+        StreamQualityController c = new StreamQualityController(2, 4, BUDGET);
+        assertFalse(c.onReport(StreamQualityController.LOSS_HIGH,
+                StreamQualityController.LATENCY_HIGH_MS, 10_000));
+        assertEquals(rung(2), c.getLevel());
+
+        assertTrue(c.onReport(0, StreamQualityController.LATENCY_HIGH_MS + 1, 10_100));
+        assertEquals(rung(1), c.getLevel());
+    }
+
+    @Test
+    public void steppingDownLowersResolutionAndFrameRate() {
+        StreamQualityController c = new StreamQualityController(4, 4, BUDGET);
+        long before = c.getFrameIntervalNs();
+        assertTrue(c.onReport(0.2, 50, 10_000));
+        StreamQualityController.Level l = c.getLevel();
+        assertTrue(l.width * l.height < rung(4).width * rung(4).height);
+        assertEquals(1_000_000_000L / l.fps, c.getFrameIntervalNs());
+        assertTrue(c.getFrameIntervalNs() > before);
+    }
+
+    @Test
+    public void steppingDownDropsTheQualityTrim() {
+        StreamQualityController c = new StreamQualityController(2, 4, BUDGET);
+        c.onFrameEncoded(OVERSIZE);
+        c.onFrameEncoded(OVERSIZE);
+        assertEquals(rung(2).quality - 20, c.getQuality());
+
+        assertTrue(c.onReport(0.2, 50, 10_000));
+        assertEquals(rung(1).quality, c.getQuality());
+    }
+
+    // ─── Climbing ───────────────────────────────────────────────
+
+    @Test
+    public void climbsAfterACleanRunUpToMaxLevel() {
+        StreamQualityController c = new StreamQualityController(0, 1, BUDGET);
+        long now = clean(c, StreamQualityController.GOOD_REPORTS_TO_CLIMB - 1, 100_000);
+        assertTrue(c.onReport(0, 30, now += 100));
+        assertEquals(rung(1), c.getLevel());
+        // Capped at maxLevel
+        for (int i = 0; i < 20; i++) assertFalse(c.onReport(0, 30, now += 5000));
+        assertEquals(rung(1), c.getLevel());
+    }
+
+    @Test
+    public void middlingReportRestartsTheCleanRun() {
+        StreamQualityController c = new StreamQualityController(0, 4, BUDGET);
+        long now = clean(c, StreamQualityController.GOOD_REPORTS_TO_CLIMB - 1, 100_000);
+        // Neither congested nor clean
+        assertFalse(c.onReport(0.02, 50, now += 100));
+        now = clean(c, StreamQualityController.GOOD_REPORTS_TO_CLIMB - 1, now);
+        // No echoed latency is not clean either
+        assertFalse(c.onReport(0, -1, now += 100));
+        now = clean(c, StreamQualityController.GOOD_REPORTS_TO_CLIMB - 1, now);
+        assertEquals(rung(0), c.getLevel());
+
+        assertTrue(c.onReport(0, 30, now + 100));
+        assertEquals(rung(1), c.getLevel());
+    }
+
+    @Test
+    public void noClimbWithinTheHoldAfterAStepDown() {
+        StreamQualityController c = new StreamQualityController(2, 4, BUDGET);
+        assertTrue(c.onReport(0.2, 50, 10_000));
+        clean(c, StreamQualityController.GOOD_REPORTS_TO_CLIMB + 3, 10_000);
+        assertEquals(rung(1), c.getLevel());
+
+        assertTrue(c.onReport(0, 30, 10_000 + StreamQualityController.HOLD_MS));
+        assertEquals(rung(2), c.getLevel());
+    }
+
+    @Test
+    public void cleanReportsRestoreQualityBeforeClimbing() {
+        StreamQualityController c = new StreamQualityController(2, 4, BUDGET);
+        int base = c.getQuality();
+        c.onFrameEncoded(OVERSIZE);
+        c.onFrameEncoded(OVERSIZE);
+
+        // Each clean report gives back one step and does not count toward a climb
+        long now = clean(c, 4, 100_000);
+        assertEquals(base, c.getQuality());
+        assertEquals(rung(2), c.getLevel());
+
+        now = clean(c, StreamQualityController.GOOD_REPORTS_TO_CLIMB - 1, now);
+        assertTrue(c.onReport(0, 30, now + 100));
+        assertEquals(rung(3), c.getLevel());
+    }
+
+    // ─── Quality trim ───────────────────────────────────────────
+
+    @Test
+    public void oversizeFramesLowerQualityAndSmallFramesRestoreIt() {
+        StreamQualityController c = new StreamQualityController(2, 4, BUDGET);
+        int base = c.getQuality();
+        c.onFrameEncoded(OVERSIZE);
+        c.onFrameEncoded(OVERSIZE);
+        assertEquals(base - 20, c.getQuality());
+        for (int i = 0; i < 60; i++) c.onFrameEncoded(SMALL);
+        assertEquals(base - 10, c.getQuality());
+        // Frames near the budget neither trim nor restore
+        for (int i = 0; i < 60; i++) c.onFrameEncoded(BUDGET);
+        assertEquals(base - 10, c.getQuality());
+    }
+
+    @Test
+    public void qualityTrimStopsAtTheFloor() {
+        StreamQualityController c = new StreamQualityController(0, 4, BUDGET);
+        for (int i = 0; i < 100; i++) c.onFrameEncoded(OVERSIZE);
+        assertEquals(25, c.getQuality());
+        assertEquals(rung(0), c.getLevel());
+
+        for (int i = 0; i < 30; i++) c.onFrameEncoded(SMALL);
+        assertEquals(30, c.getQuality());
+    }
+
+    @Test
+    public void aRunOfSmallFramesMustBeUnbroken() {
+        StreamQualityController c = new StreamQualityController(2, 4, BUDGET);
+        int base = c.getQuality();
+        c.onFrameEncoded(OVERSIZE);
+        for (int i = 0; i < 29; i++) c.onFrameEncoded(SMALL);
+        c.onFrameEncoded(BUDGET);
+        for (int i = 0; i < 29; i++) c.onFrameEncoded(SMALL);
+        assertEquals(base - 10, c.getQuality());
+        c.onFrameEncoded(SMALL);
+        assertEquals(base - 5, c.getQuality());
+    }
+}
@@ -0,0 +1,137 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Journal replay, coalescing, acknowledged (pipelined) flushes with
+ * re-sends, and retry limits of {@link SyncOutbox}, against a journal in a
+ * temp directory and an in-memory transport.
+ */
+public class SyncOutboxTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("outbox").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] children = dir.listFiles();
+        if (children != null) for (File c : children) c.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void journalReplayRestoresQueueWithoutRemovedEntries() throws IOException {
+        SyncOutbox outbox = new SyncOutbox(dir);
+        outbox.enqueue("TASK_ADD:Buy milk:normal");
+        outbox.enqueue("TASK_ADD:Call mum:high");
+        outbox.enqueue("CAL_ADD:{\"id\":\"9\",\"title\":\"Dentist\"}");
+        outbox.onAck("2");
+        assertEquals(2, outbox.getPendingCount());
+
+        // A torn append at the tail is dropped; everything before it survives
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "outbox.log"), true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2});
+        }
+        SyncOutbox reopened = new SyncOutbox(dir);
+        assertEquals(2, reopened.getPendingCount());
+
+        reopened.enqueue("NOTE_DELETE:7");
+        assertEquals(3, new SyncOutbox(dir).getPendingCount());
+    }
+
+    @Test
+    public void newerCommandsReplaceOlderOnesForTheSameObject() {
+        SyncOutbox outbox = new SyncOutbox(dir);
+        outbox.enqueue("NOTE_UPDATE:{\"id\":\"7\",\"title\":\"a\"}");
+        outbox.enqueue("NOTE_UPDATE:{\"id\":\"7\",\"title\":\"b\"}");
+        outbox.enqueue("NOTE_UPDATE:{\"id\":\"8\",\"title\":\"c\"}");
+        assertEquals(2, outbox.getPendingCount());
+        outbox.enqueue("NOTE_DELETE:7");
+        assertEquals(2, outbox.getPendingCount());
+        outbox.enqueue("TASKS_SYNC");
+        outbox.enqueue("TASKS_SYNC");
+        assertEquals(3, outbox.getPendingCount());
+        assertEquals(3, new SyncOutbox(dir).getPendingCount());
+    }
+
+    @Test
+    public void ackedFlushRemovesAckedEntriesAndResendsTheRest() throws Exception {
+        SyncOutbox outbox = new SyncOutbox(dir);
+        outbox.enqueue("TASK_ADD:one");
+        outbox.enqueue("TASK_ADD:two");
+        outbox.enqueue("TASK_ADD:three");
+        outbox.setAcksEnabled(true);
+
+        BlockingQueue<String> wire = new LinkedBlockingQueue<>();
+        CountDownLatch done = new CountDownLatch(1);
+        outbox.flush(packet -> wire.add(packet), done::countDown);
+
+        // All three go out in one batch; the server applies only 1 and 3
+        String first = wire.poll(2, TimeUnit.SECONDS);
+        assertEquals("OUTBOX_BATCH:1|TASK_ADD:one\n2|TASK_ADD:two\n3|TASK_ADD:three", first);
+        outbox.onAck("1,3");
+
+        // 2 is re-sent once its ack times out, and removed when acknowledged
+        String second = wire.poll(SyncOutbox.ACK_TIMEOUT_MS * 3, TimeUnit.MILLISECONDS);
+        assertEquals("OUTBOX_BATCH:2|TASK_ADD:two", second);
+        outbox.onAck("2");
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, outbox.getPendingCount());
+        assertEquals(0, new SyncOutbox(dir).getPendingCount());
+    }
+
+    @Test
+    public void unackedFlushRetriesThenDropsUndeliverableCommands() throws Exception {
+        SyncOutbox outbox = new SyncOutbox(dir);
+        outbox.enqueue("TASK_ADD:stuck");
+        outbox.enqueue("TASK_ADD:fine");
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+        for (int flush = 1; flush <= 5; flush++) {
+            final boolean online = flush > 1;
+            CountDownLatch done = new CountDownLatch(1);
+            outbox.flush(packet -> {
+                sent.add(packet);
+                return online && !packet.contains("stuck");
+            }, done::countDown);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            if (flush == 1) assertEquals(2, outbox.getPendingCount());
+            if (flush == 2) assertEquals(1, outbox.getPendingCount());
+        }
+        // Five failed flushes use up the retries of the undeliverable one
+        assertEquals(0, outbox.getPendingCount());
+        assertEquals(Arrays.asList("TASK_ADD:stuck", "TASK_ADD:fine", "TASK_ADD:stuck", "TASK_ADD:fine"),
+                sent.subList(0, 4));
+    }
+
+    @Test
+    public void coalesceTargetFindsTheObject() {
+        assertEquals("CAL:42", SyncOutbox.coalesceTarget("CAL_UPDATE:{\"id\":\"42\",\"t\":1}"));
+        assertEquals("NOTE:7", SyncOutbox.coalesceTarget("NOTE_DELETE:7"));
+        assertEquals("TASK:5", SyncOutbox.coalesceTarget("TASK_COMPLETE:5|x"));
+        assertEquals("TASKS_SYNC", SyncOutbox.coalesceTarget("TASKS_SYNC"));
+        assertNull(SyncOutbox.coalesceTarget("PING"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.prajwal.myfirstapp.connectivity;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import static com.prajwal.myfirstapp.connectivity.BinaryCommandCodecTest.AES_KEY;
+import static com.prajwal.myfirstapp.connectivity.BinaryCommandCodecTest.HMAC_KEY;
+import static com.prajwal.myfirstapp.connectivity.BinaryCommandCodecTest.HOT_COMMANDS;
+import static com.prajwal.myfirstapp.connectivity.BinaryCommandCodecTest.NOW;
+import static com.prajwal.myfirstapp.connectivity.BinaryCommandCodecTest.SESSION;
+import static com.prajwal.myfirstapp.connectivity.BinaryCommandCodecTest.toHex;
+
+/**
+ * Generator for {@code wire_v2_golden_vectors.txt}. Not a test: run it by
+ * hand after a deliberate change to the wire format, then check the file
+ * in together with the matching server decoder change.
+ *
+ *   java ... com.prajwal.myfirstapp.connectivity.WireGoldenVectors [output file]
+ *
+ * Without an argument it rewrites app/src/test/resources/wire_v2_golden_vectors.txt
+ * (relative to the project root). {@link BinaryCommandCodecTest} checks that
+ * the checked-in file is exactly what {@link #render()} produces.
+ */
+public final class WireGoldenVectors {
+
+    static final String DEFAULT_OUTPUT = "app/src/test/resources" + BinaryCommandCodecTest.GOLDEN;
+
+    private WireGoldenVectors() {}
+
+    /** The whole vectors file: header, then encrypted and plain packets of every hot command. */
+    static String render() throws Exception {
+        StringBuilder sb = new StringBuilder()
+                .append("# Wire v2 (BinaryCommandCodec) golden vectors.\n")
+                .append("# aes_key=").append(new String(AES_KEY, StandardCharsets.UTF_8))
+                .append("  hmac_key=").append(new String(HMAC_KEY, StandardCharsets.UTF_8))
+                .append("  session=0x").append(Integer.toHexString(SESSION).toUpperCase())
+                .append("  timestamp=").append(NOW).append('\n')
+                .append("# Columns (tab-separated): encrypt  seq  text_command  packet_hex\n")
+                .append("# A conforming decoder must turn packet_hex back into text_command;\n")
+                .append("# a conforming encoder must produce packet_hex byte-for-byte.\n");
+        long seq = 1;
+        for (int encrypt = 1; encrypt >= 0; encrypt--) {
+            for (String cmd : HOT_COMMANDS) {
+                BinaryCommandCodec codec = new BinaryCommandCodec(AES_KEY, HMAC_KEY, SESSION, encrypt == 1);
+                codec.setNextSeq(seq);
+                byte[] out = new byte[BinaryCommandCodec.MAX_PACKET];
+                int len = codec.encode(cmd, out, NOW);
+                sb.append(encrypt).append('\t').append(seq).append('\t').append(cmd)
+                        .append('\t').append(toHex(out, len)).append('\n');
+                seq += 37;
+            }
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File file = new File(args.length > 0 ? args[0] : DEFAULT_OUTPUT);
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            w.write(render());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.prajwal.myfirstapp.core;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Formatter;
+
+import static org.junit.Assert.*;
+
+/**
+ * JMH-style microbenchmark for the per-packet cost of the command path.
+ *
+ * "legacy" reproduces the original String-based packet build
+ * (Cipher/Mac/SecureRandom per call, Formatter hex, String concatenation);
+ * "encodePacket" is the cached-context, reusable-buffer path.
+ * Each run does warmup iterations, then measured iterations, alternating
+ * the two a few times so JIT and GC settle on both.
+ *
+ * Timings are not meaningful in a normal test run, so the class is ignored;
+ * remove the {@code @Ignore} to measure. The result is the assertion: the
+ * new path must beat the legacy one, and the failure message carries the
+ * ns/op of both.
+ */
+@Ignore("Microbenchmark: run by hand, not part of the unit test run")
+public class SecurityUtilsBenchmark {
+
+    private static final String COMMAND = "MOUSE_MOVE:12.5,-3.25";
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURE_ITERATIONS = 50_000;
+    private static final int ROUNDS = 3;
+
+    private static long sink; // keeps results live, like a JMH Blackhole
+
+    @Test
+    public void perPacketCost() throws Exception {
+        double legacy = Double.MAX_VALUE, cached = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            legacy = Math.min(legacy, measure(() -> sink += legacyPacket(COMMAND).length));
+            cached = Math.min(cached, measure(() -> sink += SecurityUtils.encodePacket(COMMAND).limit()));
+        }
+        String report = String.format("legacy: %.0f ns/op, encodePacket: %.0f ns/op (%.1fx)",
+                legacy, cached, legacy / cached);
+        assertTrue(sink > 0);
+        assertTrue("encodePacket is not faster — " + report, cached < legacy);
+    }
+
+    // ─── Harness ─────────────────────────────────────────────────
+
+    private interface Op { void run() throws Exception; }
+
+    /** Average ns/op after warmup; the test keeps the best round. */
+    private static double measure(Op op) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) op.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) op.run();
+        return (System.nanoTime() - start) / (double) MEASURE_ITERATIONS;
+    }
+
+    // ─── Original implementation (baseline) ─────────────────────
+
+    private static byte[] legacyPacket(String command) throws Exception {
+        String timestamp = String.valueOf(System.currentTimeMillis() / 1000L);
+        String processed = legacyEncrypt(command);
+        String msgToSign = processed + "|" + timestamp;
+        String signature = legacyHmac(msgToSign);
+        return (msgToSign + "|" + signature).getBytes();
+    }
+
+    private static String legacyEncrypt(String plainText) throws Exception {
+        SecretKeySpec keySpec = new SecretKeySpec(SecurityUtils.AES_KEY.getBytes("UTF-8"), "AES");
+        byte[] iv = new byte[16];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+        byte[] encrypted = cipher.doFinal(plainText.getBytes("UTF-8"));
+        byte[] combined = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, combined, 0, iv.length);
+        System.arraycopy(encrypted, 0, combined, iv.length, encrypted.length);
+        return Base64.getEncoder().encodeToString(combined);
+    }
+
+    private static String legacyHmac(String data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SecurityUtils.HMAC_KEY.getBytes("UTF-8"), "HmacSHA256"));
+        byte[] rawHmac = mac.doFinal(data.getBytes("UTF-8"));
+        Formatter formatter = new Formatter();
+        for (byte b : rawHmac) { formatter.format("%02x", b); }
+        return formatter.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.prajwal.myfirstapp.core;
+
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Formatter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packets built by the cached-context, reusable-buffer command path must
+ * match what the original String-based code produced: same AES-CBC
+ * payload, same hex HMAC, same Base64.
+ */
+public class SecurityUtilsTest {
+
+    private static final String COMMAND = "MOUSE_MOVE:12.5,-3.25";
+
+    @Test
+    public void encodePacket_decryptsAndVerifies() throws Exception {
+        ByteBuffer buf = SecurityUtils.encodePacket(COMMAND, 1_700_000_000L);
+        String packet = new String(buf.array(), 0, buf.limit(), StandardCharsets.US_ASCII);
+        String[] parts = packet.split("\\|");
+        assertEquals(3, parts.length);
+        assertEquals("1700000000", parts[1]);
+        assertEquals(legacyHmac(parts[0] + "|" + parts[1]), parts[2]);
+
+        byte[] combined = Base64.getDecoder().decode(parts[0]);
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE,
+                new SecretKeySpec(SecurityUtils.AES_KEY.getBytes(StandardCharsets.UTF_8), "AES"),
+                new IvParameterSpec(combined, 0, 16));
+        byte[] plain = cipher.doFinal(combined, 16, combined.length - 16);
+        assertEquals(COMMAND, new String(plain, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void encodePacket_rebuildsKeysAfterPairing() throws Exception {
+        String oldKey = SecurityUtils.HMAC_KEY;
+        try {
+            SecurityUtils.HMAC_KEY = "re_paired_hmac_key";
+            assertEquals(legacyHmac("abc"), SecurityUtils.calculateHMAC("abc"));
+        } finally {
+            SecurityUtils.HMAC_KEY = oldKey;
+        }
+    }
+
+    @Test
+    public void base64MatchesJdk() {
+        for (int n = 0; n < 40; n++) {
+            byte[] src = new byte[n];
+            new SecureRandom().nextBytes(src);
+            byte[] dst = new byte[SecurityUtils.base64Length(n)];
+            int len = SecurityUtils.base64Encode(src, 0, n, dst, 0);
+            assertEquals(Base64.getEncoder().encodeToString(src),
+                    new String(dst, 0, len, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void decodePacket_roundTripsAndRejectsTampering() throws Exception {
+        long now = 1_700_000_000L;
+        for (String cmd : new String[]{COMMAND, "NOTIFY:Title|Body with | pipes", "TTS:héllo ✓", "X"}) {
+            byte[] packet = copy(SecurityUtils.encodePacket(cmd, now));
+            assertTrue(SecurityUtils.isSignedPacket(packet, 0, packet.length));
+            assertEquals(cmd, SecurityUtils.decodePacket(packet, 0, packet.length, now + 5, 30));
+        }
+
+        byte[] packet = copy(SecurityUtils.encodePacket(COMMAND, now));
+        // Stale
+        assertNull(SecurityUtils.decodePacket(packet, 0, packet.length, now + 31, 30));
+        // Flipped payload byte
+        byte[] tampered = packet.clone();
+        tampered[3] = (byte) (tampered[3] == 'A' ? 'B' : 'A');
+        assertNull(SecurityUtils.decodePacket(tampered, 0, tampered.length, now, 30));
+        // Wrong key
+        String oldKey = SecurityUtils.HMAC_KEY;
+        try {
+            SecurityUtils.HMAC_KEY = "some_other_key";
+            assertNull(SecurityUtils.decodePacket(packet, 0, packet.length, now, 30));
+        } finally {
+            SecurityUtils.HMAC_KEY = oldKey;
+        }
+        // Plain commands are not signed packets
+        byte[] plain = "VIBRATE:200".getBytes(StandardCharsets.UTF_8);
+        assertFalse(SecurityUtils.isSignedPacket(plain, 0, plain.length));
+    }
+
+    private static byte[] copy(ByteBuffer buf) {
+        byte[] out = new byte[buf.limit()];
+        System.arraycopy(buf.array(), 0, out, 0, out.length);
+        return out;
+    }
+
+    // ─── Original implementation (reference) ────────────────────
+
+    private static String legacyHmac(String data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SecurityUtils.HMAC_KEY.getBytes("UTF-8"), "HmacSHA256"));
+        byte[] rawHmac = mac.doFinal(data.getBytes("UTF-8"));
+        Formatter formatter = new Formatter();
+        for (byte b : rawHmac) { formatter.format("%02x", b); }
+        return formatter.toString();
+    }
+}
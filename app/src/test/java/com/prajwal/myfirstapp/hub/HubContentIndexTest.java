@@ -0,0 +1,154 @@
+package com.prajwal.myfirstapp.hub;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Prefix and phrase queries, snapshot + journal replay and torn or
+ * CRC-damaged journal tails of {@link HubContentIndex}.
+ */
+public class HubContentIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private HubContentIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.newFolder("hub_index");
+        index = new HubContentIndex(dir);
+    }
+
+    private static Set<String> ids(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    private File journal() {
+        return new File(dir, "content.log");
+    }
+
+    @Test
+    public void singleWordMatchesAsPrefix() {
+        index.put("f1", "h1", "Invoice for March");
+        index.put("f2", "h2", "Investment report");
+        index.put("f3", "h3", "Receipt");
+        assertEquals(ids("f1", "f2"), index.search("inv"));
+        assertEquals(ids("f1"), index.search("INVO"));
+        assertEquals(Collections.emptySet(), index.search("voice"));
+    }
+
+    @Test
+    public void quotedPhraseNeedsEveryWordInSequence() {
+        index.put("f1", "h1", "the quick brown fox");
+        index.put("f2", "h2", "brown, quick fox");
+        assertEquals(ids("f1"), index.search("\"quick brown\""));
+        assertEquals(ids("f2"), index.search("\"quick fox\""));
+        // Inside quotes the last word is a whole word, not a prefix
+        assertEquals(Collections.emptySet(), index.search("\"quick bro\""));
+    }
+
+    @Test
+    public void unquotedPhraseTakesTheLastWordAsPrefix() {
+        index.put("f1", "h1", "the quick brown fox");
+        index.put("f2", "h2", "quick brownies");
+        index.put("f3", "h3", "brown quick");
+        assertEquals(ids("f1", "f2"), index.search("quick bro"));
+        assertEquals(ids("f1"), index.search("quick brown fo"));
+        // Only the last word is a prefix
+        assertEquals(Collections.emptySet(), index.search("qui brown"));
+    }
+
+    @Test
+    public void prefixExpansionKeepsTheMostCommonCompletions() {
+        for (int i = 0; i <= HubContentIndex.MAX_PREFIX_EXPANSION; i++) {
+            index.put("rare" + i, "h", String.format("tag%04d", i));
+        }
+        // "tagz" sorts after every rare completion but is the most common one
+        for (int i = 0; i < 3; i++) index.put("common" + i, "h", "alpha tagz");
+        assertEquals(ids("common0", "common1", "common2"), index.search("alpha tag"));
+    }
+
+    @Test
+    public void unchangedHashIsNotReindexed() {
+        assertTrue(index.put("f1", "h1", "alpha"));
+        assertFalse(index.put("f1", "h1", "beta"));
+        assertTrue(index.put("f1", "h2", "beta"));
+        assertEquals(Collections.emptySet(), index.search("alpha"));
+        assertEquals(ids("f1"), index.search("beta"));
+    }
+
+    @Test
+    public void snapshotAndJournalReplayOnReopen() {
+        // Enough text to push the journal past the compaction threshold
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 120_000; i++) big.append("word").append(i % 5000).append(' ');
+        index.put("big", "h1", big.toString());
+        index.put("old", "h2", "stale entry");
+        assertTrue(new File(dir, "content.idx").exists());
+
+        // These land in the journal on top of the snapshot
+        index.put("f1", "h3", "quarterly budget review");
+        index.remove("old");
+        index.put("big", "h4", "shrunk to one line");
+        assertTrue(journal().length() > 0);
+
+        HubContentIndex reopened = new HubContentIndex(dir);
+        assertEquals(2, reopened.getDocumentCount());
+        assertEquals("h4", reopened.getHash("big"));
+        assertFalse(reopened.contains("old"));
+        assertEquals(ids("f1"), reopened.search("budget rev"));
+        assertEquals(ids("big"), reopened.search("\"one line\""));
+        assertEquals(Collections.emptySet(), reopened.search("word42"));
+    }
+
+    @Test
+    public void tornJournalTailIsTruncated() throws Exception {
+        index.put("f1", "h1", "alpha");
+        long afterFirst = journal().length();
+        index.put("f2", "h2", "beta");
+        try (RandomAccessFile raf = new RandomAccessFile(journal(), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        HubContentIndex reopened = new HubContentIndex(dir);
+        assertTrue(reopened.contains("f1"));
+        assertFalse(reopened.contains("f2"));
+        assertEquals(afterFirst, journal().length());
+
+        // The repaired journal takes new records
+        reopened.put("f3", "h3", "gamma");
+        assertEquals(ids("f3"), new HubContentIndex(dir).search("gam"));
+    }
+
+    @Test
+    public void recordFailingItsCrcEndsReplay() throws Exception {
+        index.put("f1", "h1", "alpha");
+        long afterFirst = journal().length();
+        index.put("f2", "h2", "beta");
+        try (RandomAccessFile raf = new RandomAccessFile(journal(), "rw")) {
+            long pos = raf.length() - 2;               // inside f2's payload
+            raf.seek(pos);
+            int v = raf.read();
+            raf.seek(pos);
+            raf.write(v ^ 0xFF);
+        }
+
+        HubContentIndex reopened = new HubContentIndex(dir);
+        assertTrue(reopened.contains("f1"));
+        assertFalse(reopened.contains("f2"));
+        assertEquals(afterFirst, journal().length());
+    }
+}
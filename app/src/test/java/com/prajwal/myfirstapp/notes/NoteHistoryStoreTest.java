@@ -0,0 +1,143 @@
+package com.prajwal.myfirstapp.notes;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reverse-delta history files of {@link NoteHistoryStore}: every version
+ * rebuilds exactly, history stays small, and broken files are set aside.
+ */
+public class NoteHistoryStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.newFolder("versions");
+    }
+
+    private static NoteVersionManager.NoteVersion version(String title, String body, String blocksJson, long ts) {
+        NoteVersionManager.NoteVersion v = new NoteVersionManager.NoteVersion();
+        v.noteId = "n1";
+        v.title = title;
+        v.body = body;
+        v.blocksJson = blocksJson;
+        v.timestamp = ts;
+        v.wordCount = (int) ts;
+        return v;
+    }
+
+    private static void assertSame(NoteVersionManager.NoteVersion expected, NoteVersionManager.NoteVersion actual) {
+        assertEquals(expected.title, actual.title);
+        assertEquals(expected.body, actual.body);
+        assertEquals(expected.blocksJson, actual.blocksJson);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.wordCount, actual.wordCount);
+    }
+
+    @Test
+    public void everyVersionRebuildsExactly() {
+        NoteHistoryStore store = new NoteHistoryStore(dir);
+        List<NoteVersionManager.NoteVersion> pushed = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            body.append("line ").append(i).append('\n');
+            if (i % 5 == 0) body.insert(0, "top " + i + "\n");
+            String blocks = i % 3 == 0 ? null : "[{\"type\":\"text\",\"content\":\"v" + i + "\"},{\"type\":\"todo\"}]";
+            NoteVersionManager.NoteVersion v = version("T" + (i / 4), body.toString(), blocks, i + 1);
+            assertTrue(store.push(v, 50));
+            pushed.add(0, v);
+        }
+
+        NoteHistoryStore reopened = new NoteHistoryStore(dir);
+        List<NoteVersionManager.NoteVersion> all = reopened.readAll("n1");
+        assertEquals(pushed.size(), all.size());
+        for (int i = 0; i < pushed.size(); i++) {
+            assertSame(pushed.get(i), all.get(i));
+            assertSame(pushed.get(i), reopened.read("n1", i));
+        }
+        assertSame(pushed.get(0), reopened.readHead("n1"));
+        assertNull(reopened.read("n1", pushed.size()));
+    }
+
+    @Test
+    public void trimsToMaxVersions() {
+        NoteHistoryStore store = new NoteHistoryStore(dir);
+        for (int i = 0; i < 30; i++) store.push(version("t", "body " + i, null, i + 1), 10);
+        List<NoteVersionManager.NoteVersion> all = new NoteHistoryStore(dir).readAll("n1");
+        assertEquals(10, all.size());
+        assertEquals("body 29", all.get(0).body);
+        assertEquals("body 20", all.get(9).body);
+    }
+
+    @Test
+    public void storageGrowsWithEditsNotNoteSize() {
+        NoteHistoryStore store = new NoteHistoryStore(dir);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 2000; i++) body.append("a fairly long line of note text number ").append(i).append('\n');
+        store.push(version("t", body.toString(), null, 1), 50);
+        long one = store.getSizeBytes("n1");
+        for (int i = 0; i < 40; i++) {
+            body.append("edit ").append(i).append('\n');
+            store.push(version("t", body.toString(), null, i + 2), 50);
+        }
+        // 41 versions of an ~80 KB note: whole copies only at keyframes
+        assertTrue(store.getSizeBytes("n1") < one * 8);
+    }
+
+    @Test
+    public void writeAllReplacesHistory() {
+        NoteHistoryStore store = new NoteHistoryStore(dir);
+        store.push(version("old", "x", null, 1), 50);
+        List<NoteVersionManager.NoteVersion> versions = Arrays.asList(
+                version("c", "3", null, 3), version("b", "2", null, 2), version("a", "1", null, 1));
+        assertTrue(store.writeAll("n1", versions));
+        List<NoteVersionManager.NoteVersion> all = new NoteHistoryStore(dir).readAll("n1");
+        assertEquals(3, all.size());
+        for (int i = 0; i < 3; i++) assertSame(versions.get(i), all.get(i));
+        assertEquals(Arrays.asList("n1"), store.noteIds());
+
+        store.writeAll("n1", new ArrayList<NoteVersionManager.NoteVersion>());
+        assertEquals(0, store.count("n1"));
+    }
+
+    @Test
+    public void corruptFileIsSetAside() throws Exception {
+        NoteHistoryStore store = new NoteHistoryStore(dir);
+        store.push(version("t", "a", null, 1), 50);
+        store.push(version("t", "b", null, 2), 50);
+        File f = new File(dir, "n1.ver");
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(10);
+            raf.write(0x7f);
+        }
+        NoteHistoryStore reopened = new NoteHistoryStore(dir);
+        assertEquals(0, reopened.count("n1"));
+        assertTrue(new File(dir, "n1.ver.bad").exists());
+        assertTrue(reopened.push(version("t", "c", null, 3), 50));
+        assertEquals(1, reopened.count("n1"));
+    }
+
+    @Test
+    public void blockSplittingIsExact() {
+        for (String json : Arrays.asList("[]", "[{\"a\":\"x,]\\\"y\"},{\"b\":[1,2]}]", "[ {\"a\":1} , {\"b\":2} ]", "not json", "")) {
+            assertEquals(json, NoteHistoryStore.joinBlocks(NoteHistoryStore.splitBlocks(json)));
+        }
+        assertEquals(2, NoteHistoryStore.splitBlocks("[{\"a\":\"x,]\\\"y\"},{\"b\":[1,2]}]").size());
+        assertEquals(Arrays.asList("a\n", "b\n"), NoteHistoryStore.splitLines("a\nb\n"));
+        assertEquals(Arrays.asList(""), NoteHistoryStore.splitLines(""));
+    }
+}
@@ -0,0 +1,129 @@
+package com.prajwal.myfirstapp.notes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ranking, query matching, incremental updates and persistence of
+ * {@link NoteSearchIndex}.
+ */
+public class NoteSearchIndexTest {
+
+    private static List<String> ids(List<NoteSearchIndex.Hit> hits) {
+        List<String> out = new ArrayList<>();
+        for (NoteSearchIndex.Hit h : hits) out.add(h.noteId);
+        return out;
+    }
+
+    private static NoteSearchIndex sample() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.put("body", 1, "Weekly plan", Collections.<String>emptyList(), "Work",
+                "Remember to buy groceries after the meeting");
+        index.put("title", 2, "Groceries", Arrays.asList("shopping"), "Personal", "milk, eggs, bread");
+        index.put("other", 3, "Trip", Arrays.asList("travel"), "Personal", "Pack the passport");
+        return index;
+    }
+
+    @Test
+    public void titleMatchOutranksBodyMatch() {
+        List<NoteSearchIndex.Hit> hits = sample().search("groceries", 10);
+        assertEquals(Arrays.asList("title", "body"), ids(hits));
+        assertEquals(NoteSearchIndex.FIELD_TITLE, hits.get(0).field);
+        assertEquals(NoteSearchIndex.FIELD_BODY, hits.get(1).field);
+    }
+
+    @Test
+    public void allTokensMustMatch() {
+        NoteSearchIndex index = sample();
+        assertEquals(Collections.singletonList("title"), ids(index.search("groceries milk", 10)));
+        assertTrue(index.search("groceries passport", 10).isEmpty());
+    }
+
+    @Test
+    public void lastTokenMatchesAsPrefix() {
+        assertEquals(Collections.singletonList("other"), ids(sample().search("pass", 10)));
+    }
+
+    @Test
+    public void toleratesTypos() {
+        assertEquals(Collections.singletonList("other"), ids(sample().search("pasport trip", 10)));
+    }
+
+    @Test
+    public void matchesTagsAndCategory() {
+        NoteSearchIndex index = sample();
+        List<NoteSearchIndex.Hit> hits = index.search("shopping", 10);
+        assertEquals(Collections.singletonList("title"), ids(hits));
+        assertEquals(NoteSearchIndex.FIELD_TAGS, hits.get(0).field);
+        assertEquals(2, index.search("personal", 10).size());
+    }
+
+    @Test
+    public void updatesReplaceAndRemoveNotes() {
+        NoteSearchIndex index = sample();
+        index.put("other", 4, "Trip", Arrays.asList("travel"), "Personal", "Book the hotel");
+        assertTrue(index.search("passport", 10).isEmpty());
+        assertEquals(Collections.singletonList("other"), ids(index.search("hotel", 10)));
+        assertEquals(4, index.getSignature("other"));
+
+        index.remove("other");
+        assertTrue(index.search("hotel", 10).isEmpty());
+        assertEquals(0, index.getSignature("other"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void staysCorrectAcrossCompaction() {
+        String[] words = {"apple", "cherry", "mango", "kiwi", "lemon"};
+        NoteSearchIndex index = new NoteSearchIndex();
+        for (int round = 0; round < words.length; round++) {
+            for (int i = 0; i < 100; i++) {
+                index.put("n" + i, round + 1, "note " + i, null, null, words[round] + " text");
+            }
+        }
+        assertEquals(100, index.size());
+        assertTrue(index.search("kiwi", 200).isEmpty());
+        assertEquals(100, index.search("lemon", 200).size());
+        assertEquals(5, index.search("text", 5).size());
+    }
+
+    @Test
+    public void roundTripsThroughStream() throws Exception {
+        NoteSearchIndex index = sample();
+        index.remove("body");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+
+        NoteSearchIndex read = NoteSearchIndex.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(2, read.size());
+        assertEquals(2, read.getSignature("title"));
+        assertEquals(0, read.getSignature("body"));
+        assertEquals(ids(index.search("personal", 10)), ids(read.search("personal", 10)));
+        assertEquals(Collections.singletonList("title"), ids(read.search("groceries", 10)));
+    }
+
+    @Test
+    public void locatesTermForHighlighting() {
+        String text = "Pack the Passport tonight";
+        assertArrayEquals(new int[]{9, 17}, NoteSearchIndex.locate(text, "passport"));
+        assertNull(NoteSearchIndex.locate(text, "hotel"));
+    }
+
+    @Test
+    public void editDistance() {
+        assertTrue(NoteSearchIndex.withinEdits("passport", "pasport", 1));
+        assertTrue(NoteSearchIndex.withinEdits("form", "from", 1));   // transposition
+        assertFalse(NoteSearchIndex.withinEdits("hotel", "motels", 1));
+    }
+}
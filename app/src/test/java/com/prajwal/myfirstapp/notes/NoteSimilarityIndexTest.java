@@ -0,0 +1,107 @@
+package com.prajwal.myfirstapp.notes;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Title prefix, exact title and MinHash/LSH similarity lookups of
+ * {@link NoteSimilarityIndex}, including updates and removals.
+ */
+public class NoteSimilarityIndexTest {
+
+    private static NoteSimilarityIndex<String> index(String... titles) {
+        NoteSimilarityIndex<String> index = new NoteSimilarityIndex<>();
+        for (int i = 0; i < titles.length; i++) index.put("n" + i, "n" + i, titles[i], titles[i]);
+        return index;
+    }
+
+    @Test
+    public void prefixMatchesWordStartsTitleStartsFirst() {
+        NoteSimilarityIndex<String> index = index("Weekly plan", "Plans for June", "Airplane facts", "Groceries");
+        assertEquals(Arrays.asList("n1", "n0"), index.titlePrefixMatches("pla", 10));
+        assertEquals(Collections.singletonList("n0"), index.titlePrefixMatches("WEEKLY p", 10));
+        assertEquals(Collections.singletonList("n1"), index.titlePrefixMatches("pla", 1));
+        assertTrue(index.titlePrefixMatches("", 10).isEmpty());
+        assertTrue(index.titlePrefixMatches("xyz", 10).isEmpty());
+    }
+
+    @Test
+    public void exactTitleIgnoresCaseAndFollowsRenames() {
+        NoteSimilarityIndex<String> index = index("Meeting Notes", "Ideas");
+        assertEquals("n0", index.exactTitle("  meeting notes"));
+        assertNull(index.exactTitle("meeting"));
+
+        index.put("n0", "n0", "Standup", "");
+        assertNull(index.exactTitle("meeting notes"));
+        assertEquals("n0", index.exactTitle("standup"));
+        assertEquals(Collections.singletonList("n0"), index.titlePrefixMatches("stand", 10));
+        assertTrue(index.titlePrefixMatches("meet", 10).isEmpty());
+
+        index.remove("n0");
+        assertNull(index.exactTitle("standup"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void findsNearDuplicateTitles() {
+        NoteSimilarityIndex<String> index = index(
+                "Project kickoff meeting notes draft", "Shopping list", "Trip to the mountains");
+        assertEquals("n0", index.similarTitle("project kickoff meeting notes", null, 0.7));
+        assertNull(index.similarTitle("project kickoff meeting notes", "n0", 0.7));
+        assertNull(index.similarTitle("Quarterly budget review", null, 0.7));
+        assertNull(index.similarTitle("", null, 0.7));
+    }
+
+    @Test
+    public void titleLookupAgreesWithFullScan() {
+        String[] words = {"alpha", "beta", "gamma", "delta", "omega", "sigma", "kappa", "theta"};
+        Random random = new Random(3);
+        NoteSimilarityIndex<String> index = new NoteSimilarityIndex<>();
+        String[] titles = new String[300];
+        for (int i = 0; i < titles.length; i++) {
+            StringBuilder t = new StringBuilder();
+            for (int w = 0; w < 2 + random.nextInt(4); w++) t.append(words[random.nextInt(words.length)]).append(' ');
+            titles[i] = t.toString();
+            index.put("n" + i, "n" + i, titles[i], "");
+        }
+        for (int q = 0; q < 100; q++) {
+            String query = titles[random.nextInt(titles.length)] + words[random.nextInt(words.length)];
+            boolean anyScan = false;
+            for (String title : titles) {
+                if (jaccard(query, title) > 0.7) anyScan = true;
+            }
+            String found = index.similarTitle(query, null, 0.7);
+            assertEquals(query, anyScan, found != null);
+            if (found != null) assertTrue(jaccard(query, titles[Integer.parseInt(found.substring(1))]) > 0.7);
+        }
+    }
+
+    private static double jaccard(String a, String b) {
+        Set<String> x = SmartNotesHelper.titleWords(a), y = SmartNotesHelper.titleWords(b);
+        Set<String> common = new HashSet<>(x);
+        common.retainAll(y);
+        return (double) common.size() / (x.size() + y.size() - common.size());
+    }
+
+    @Test
+    public void similarByKeywordsRanksBySharedKeywords() {
+        NoteSimilarityIndex<String> index = new NoteSimilarityIndex<>();
+        index.put("a", "a", "Garden", "garden tomatoes watering compost seedlings");
+        index.put("b", "b", "Veg", "tomatoes compost");
+        index.put("c", "c", "Cars", "engine brakes tyres");
+        List<String> similar = index.similarByKeywords("garden tomatoes compost seedlings", null, 2, 5);
+        assertEquals(Arrays.asList("a", "b"), similar);
+        assertEquals(Collections.singletonList("b"), index.similarByKeywords("garden tomatoes compost seedlings", "a", 2, 5));
+
+        index.put("b", "b", "Veg", "nothing relevant here");
+        assertEquals(Collections.singletonList("a"), index.similarByKeywords("garden tomatoes compost", null, 2, 5));
+    }
+}
@@ -0,0 +1,139 @@
+package com.prajwal.myfirstapp.notes;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Summary journal replay, torn-tail recovery, compaction and per-note
+ * content files of {@link NoteStore}.
+ */
+public class NoteStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.newFolder("notes");
+    }
+
+    @Test
+    public void summariesSurviveReopen() {
+        NoteStore store = new NoteStore(dir);
+        store.putSummary("a", "{\"title\":\"A\"}");
+        store.putSummary("b", "{\"title\":\"B\"}");
+        store.putSummary("a", "{\"title\":\"A2\"}");
+        store.delete(Collections.singletonList("b"));
+
+        Map<String, String> s = new NoteStore(dir).readSummaries();
+        assertEquals(1, s.size());
+        assertEquals("{\"title\":\"A2\"}", s.get("a"));
+    }
+
+    @Test
+    public void keepsInsertionOrder() {
+        NoteStore store = new NoteStore(dir);
+        for (String id : Arrays.asList("c", "a", "b")) store.putSummary(id, id);
+        store.putSummary("c", "c2");
+        assertEquals(Arrays.asList("c", "a", "b"), Arrays.asList(new NoteStore(dir).readSummaries().keySet().toArray()));
+    }
+
+    @Test
+    public void tornTailIsDropped() throws Exception {
+        NoteStore store = new NoteStore(dir);
+        store.putSummary("a", "first");
+        store.putSummary("b", "second");
+        File index = new File(dir, "index.jnl");
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(raf.length() - 3);                 // crash mid-append
+        }
+
+        NoteStore reopened = new NoteStore(dir);
+        Map<String, String> s = reopened.readSummaries();
+        assertEquals(Collections.singletonMap("a", "first"), s);
+
+        // Appends after recovery land on a clean record boundary
+        reopened.putSummary("c", "third");
+        assertEquals(2, new NoteStore(dir).readSummaries().size());
+    }
+
+    @Test
+    public void corruptRecordStopsReplay() throws Exception {
+        NoteStore store = new NoteStore(dir);
+        store.putSummary("a", "first");
+        store.putSummary("b", "second");
+        File index = new File(dir, "index.jnl");
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write('X');                                  // payload no longer matches its CRC
+        }
+        assertEquals(Collections.singletonMap("a", "first"), new NoteStore(dir).readSummaries());
+    }
+
+    @Test
+    public void compactsWhenDeadRecordsDominate() {
+        NoteStore store = new NoteStore(dir);
+        for (int i = 0; i < 2000; i++) store.putSummary("a", "v" + i);
+        File index = new File(dir, "index.jnl");
+        assertTrue(index.length() < 10_000);
+        assertEquals("v1999", new NoteStore(dir).readSummaries().get("a"));
+    }
+
+    @Test
+    public void contentIsPerNote() {
+        NoteStore store = new NoteStore(dir);
+        assertNull(store.readContent("a"));
+        assertTrue(store.writeContent("a", "body a"));
+        assertTrue(store.writeContent("b", "body b"));
+        assertTrue(store.writeContent("a", "body a2"));
+        assertEquals("body a2", store.readContent("a"));
+        assertEquals("body b", store.readContent("b"));
+        assertFalse(new File(dir, "content/a.tmp").exists());
+    }
+
+    @Test
+    public void oddIdsGetSafeFileNames() {
+        NoteStore store = new NoteStore(dir);
+        assertTrue(store.writeContent("../x y", "odd"));
+        assertEquals("odd", store.readContent("../x y"));
+        assertFalse(new File(dir, "x y").exists());
+    }
+
+    @Test
+    public void deleteRemovesContent() {
+        NoteStore store = new NoteStore(dir);
+        store.putSummary("a", "s");
+        store.writeContent("a", "c");
+        store.delete(Collections.singletonList("a"));
+        assertNull(store.readContent("a"));
+        assertTrue(new NoteStore(dir).readSummaries().isEmpty());
+    }
+
+    @Test
+    public void replaceAllDropsOrphanedContent() {
+        NoteStore store = new NoteStore(dir);
+        store.putSummary("a", "s");
+        store.writeContent("a", "c");
+        store.writeContent("b", "c");
+        LinkedHashMap<String, String> all = new LinkedHashMap<>();
+        all.put("b", "sb");
+        store.replaceAll(all);
+
+        assertNull(store.readContent("a"));
+        assertEquals("c", store.readContent("b"));
+        assertEquals(all, new NoteStore(dir).readSummaries());
+    }
+}
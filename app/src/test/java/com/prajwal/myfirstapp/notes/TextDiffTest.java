@@ -0,0 +1,98 @@
+package com.prajwal.myfirstapp.notes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Span output of {@link TextDiff}, and that the spans always account for
+ * both sequences exactly.
+ */
+public class TextDiffTest {
+
+    private static List<String> units(String s) {
+        return s.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(s.split(""));
+    }
+
+    /** Rebuild b from a and the spans, checking every EQUAL span really is equal. */
+    private static List<String> rebuild(List<String> a, List<String> b, List<TextDiff.Span> spans) {
+        List<String> out = new ArrayList<>();
+        int i = 0, j = 0;
+        for (TextDiff.Span s : spans) {
+            assertEquals(i, s.oldStart);
+            assertEquals(j, s.newStart);
+            if (s.type == TextDiff.EQUAL) {
+                assertEquals(a.subList(s.oldStart, s.oldStart + s.oldCount), b.subList(s.newStart, s.newStart + s.newCount));
+            }
+            out.addAll(b.subList(s.newStart, s.newStart + s.newCount));
+            i += s.oldCount;
+            j += s.newCount;
+        }
+        assertEquals(a.size(), i);
+        return out;
+    }
+
+    @Test
+    public void identicalIsOneEqualSpan() {
+        List<TextDiff.Span> spans = TextDiff.diff(units("abc"), units("abc"));
+        assertEquals(1, spans.size());
+        assertEquals(TextDiff.EQUAL, spans.get(0).type);
+        assertTrue(TextDiff.diff(units(""), units("")).isEmpty());
+    }
+
+    @Test
+    public void reportsInsertRemoveAndChange() {
+        List<TextDiff.Span> spans = TextDiff.diff(units("abcde"), units("aXcdeF"));
+        assertEquals(4, spans.size());
+        assertEquals(TextDiff.EQUAL, spans.get(0).type);
+        assertEquals(TextDiff.CHANGED, spans.get(1).type);      // b -> X
+        assertEquals(1, spans.get(1).oldCount);
+        assertEquals(1, spans.get(1).newCount);
+        assertEquals(TextDiff.EQUAL, spans.get(2).type);
+        assertEquals(TextDiff.INSERTED, spans.get(3).type);     // F
+
+        spans = TextDiff.diff(units("abc"), units("ac"));
+        assertEquals(TextDiff.REMOVED, spans.get(1).type);
+        assertEquals(1, spans.get(1).oldStart);
+    }
+
+    @Test
+    public void findsShortestScript() {
+        // Moving one unit from the end to the front is one removal plus one insertion
+        List<TextDiff.Span> spans = TextDiff.diff(units("abcdefg"), units("gabcdef"));
+        int edits = 0;
+        for (TextDiff.Span s : spans) if (s.type != TextDiff.EQUAL) edits += s.oldCount + s.newCount;
+        assertEquals(2, edits);
+    }
+
+    @Test
+    public void spansAlwaysRebuildTarget() {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            List<String> a = new ArrayList<>(), b = new ArrayList<>();
+            int n = random.nextInt(30), m = random.nextInt(30);
+            for (int i = 0; i < n; i++) a.add(String.valueOf((char) ('a' + random.nextInt(4))));
+            for (int i = 0; i < m; i++) b.add(String.valueOf((char) ('a' + random.nextInt(4))));
+            assertEquals(b, rebuild(a, b, TextDiff.diff(a, b)));
+        }
+    }
+
+    @Test
+    public void largeRewriteFallsBackToOneChange() {
+        List<String> a = new ArrayList<>(), b = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            a.add("old " + i);
+            b.add("new " + i);
+        }
+        List<TextDiff.Span> spans = TextDiff.diff(a, b);
+        assertEquals(1, spans.size());
+        assertEquals(TextDiff.CHANGED, spans.get(0).type);
+        assertEquals(b, rebuild(a, b, spans));
+    }
+}
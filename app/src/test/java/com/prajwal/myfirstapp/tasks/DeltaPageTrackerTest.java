@@ -0,0 +1,54 @@
+package com.prajwal.myfirstapp.tasks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Page bookkeeping of {@link DeltaPageTracker}: completion in any order,
+ * duplicates, independent deltas, and eviction of abandoned ones.
+ */
+public class DeltaPageTrackerTest {
+
+    @Test
+    public void completesOnceEveryPageArrivedInAnyOrder() {
+        DeltaPageTracker tracker = new DeltaPageTracker();
+        assertFalse(tracker.onPage("pc:9", 2, 3, 0));
+        assertFalse(tracker.onPage("pc:9", 0, 3, 1));
+        assertFalse(tracker.onPage("pc:9", 0, 3, 2)); // duplicate
+        assertTrue(tracker.onPage("pc:9", 1, 3, 3));
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void singlePageDeltaCompletesImmediately() {
+        DeltaPageTracker tracker = new DeltaPageTracker();
+        assertTrue(tracker.onPage("pc:1", 0, 1, 0));
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void deltasAreTrackedSeparatelyAndBadPagesIgnored() {
+        DeltaPageTracker tracker = new DeltaPageTracker();
+        assertFalse(tracker.onPage("pc:5", 0, 2, 0));
+        assertFalse(tracker.onPage("pc:6", 0, 2, 0));
+        assertFalse(tracker.onPage("pc:5", 2, 2, 0));
+        assertFalse(tracker.onPage("pc:5", -1, 2, 0));
+        assertEquals(2, tracker.size());
+        assertTrue(tracker.onPage("pc:6", 1, 2, 0));
+        assertEquals(1, tracker.size());
+    }
+
+    @Test
+    public void abandonedDeltasAreEvicted() {
+        DeltaPageTracker tracker = new DeltaPageTracker();
+        assertFalse(tracker.onPage("pc:5", 0, 2, 0));
+        assertFalse(tracker.onPage("pc:7", 0, 2, DeltaPageTracker.TIMEOUT_MS));
+        assertEquals(2, tracker.size());
+        // pc:5's missing page never came; it is dropped once it has gone quiet too long
+        assertFalse(tracker.onPage("pc:7", 0, 2, DeltaPageTracker.TIMEOUT_MS + 1));
+        assertEquals(1, tracker.size());
+        // and a late page for it starts over instead of completing a stale set
+        assertFalse(tracker.onPage("pc:5", 1, 2, DeltaPageTracker.TIMEOUT_MS + 2));
+    }
+}
@@ -0,0 +1,74 @@
+package com.prajwal.myfirstapp.tasks;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Merge rules of {@link TaskDeltaMerge}: remote changes to tasks the peer
+ * has seen, conflicting edits on both sides, remote deletes against local
+ * edits, and local deletes against remote edits.
+ */
+public class TaskDeltaMergeTest {
+
+    private static final long ACKED = 10;
+
+    private final Map<String, Task> local = new HashMap<>();
+    private final Map<String, Long> tombstones = new HashMap<>();
+
+    private static Task task(String id, long rev, long updatedAt) {
+        Task t = new Task("t-" + id, Task.PRIORITY_NORMAL);
+        t.id = id;
+        t.rev = rev;
+        t.updatedAt = updatedAt;
+        return t;
+    }
+
+    private TaskDeltaMerge plan(Task... incoming) {
+        return TaskDeltaMerge.plan(local, tombstones, Arrays.asList(incoming),
+                Collections.<String>emptyList(), ACKED);
+    }
+
+    @Test
+    public void newAndAlreadySeenTasksTakeTheRemoteVersion() {
+        local.put("seen", task("seen", ACKED, 5000));
+        Task remoteSeen = task("seen", 99, 1000); // older clock, but we have no unsent edit
+        Task remoteNew = task("new", 42, 1000);
+        TaskDeltaMerge merge = plan(remoteSeen, remoteNew);
+        assertEquals(Arrays.asList(remoteSeen, remoteNew), merge.accepted);
+        assertTrue(merge.removed.isEmpty());
+    }
+
+    @Test
+    public void conflictingEditsGoToTheLaterUpdate() {
+        local.put("a", task("a", ACKED + 1, 2000));
+        local.put("b", task("b", ACKED + 2, 2000));
+        Task remoteOlder = task("a", 7, 1999);
+        Task remoteNewer = task("b", 7, 2001);
+        TaskDeltaMerge merge = plan(remoteOlder, remoteNewer);
+        assertEquals(Collections.singletonList(remoteNewer), merge.accepted);
+    }
+
+    @Test
+    public void remoteDeleteRemovesOnlyTasksWithoutUnsentEdits() {
+        local.put("clean", task("clean", ACKED - 1, 1000));
+        local.put("edited", task("edited", ACKED + 1, 1000));
+        TaskDeltaMerge merge = TaskDeltaMerge.plan(local, tombstones, Collections.<Task>emptyList(),
+                Arrays.asList("clean", "edited", "unknown"), ACKED);
+        assertEquals(Collections.singleton("clean"), merge.removed);
+    }
+
+    @Test
+    public void localDeleteAfterThePeersMarkWins() {
+        tombstones.put("gone-late", ACKED + 3);
+        tombstones.put("gone-early", ACKED - 3);
+        Task late = task("gone-late", 7, 9999);
+        Task early = task("gone-early", 7, 9999);
+        assertEquals(Collections.singletonList(early), plan(late, early).accepted);
+    }
+}
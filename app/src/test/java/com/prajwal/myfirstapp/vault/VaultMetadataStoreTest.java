@@ -0,0 +1,194 @@
+package com.prajwal.myfirstapp.vault;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Journal replay, torn-tail truncation, damaged-record skipping, broken
+ * framing and append failures of {@link VaultMetadataStore}.
+ */
+public class VaultMetadataStoreTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(new byte[16], "AES");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        journal = new File(tmp.newFolder("vault"), "meta.jnl");
+    }
+
+    private static VaultFileItem item(String id, VaultFileItem.FileType type, long size) {
+        VaultFileItem f = new VaultFileItem();
+        f.id = id;
+        f.originalFileName = id + ".bin";
+        f.fileType = type;
+        f.encryptedSize = size;
+        return f;
+    }
+
+    private VaultMetadataStore open() {
+        VaultMetadataStore store = VaultMetadataStore.open(journal, KEY);
+        assertNotNull(store);
+        return store;
+    }
+
+    /** Byte offset of each record's length field. */
+    private List<Long> recordOffsets() throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journal))) {
+            long pos = in.skipBytes(4);
+            while (pos < journal.length()) {
+                offsets.add(pos);
+                int len = in.readInt();
+                in.skipBytes(len);
+                pos += 4 + len;
+            }
+        }
+        return offsets;
+    }
+
+    private void putABC() {
+        VaultMetadataStore store = open();
+        assertTrue(store.isNew());
+        store.put(item("a", VaultFileItem.FileType.IMAGE, 10));
+        store.put(item("b", VaultFileItem.FileType.VIDEO, 20));
+        store.put(item("c", VaultFileItem.FileType.IMAGE, 30));
+        store.close();
+    }
+
+    @Test
+    public void journalReplaysEveryMutation() {
+        VaultMetadataStore store = open();
+        store.put(item("a", VaultFileItem.FileType.IMAGE, 10));
+        store.put(item("b", VaultFileItem.FileType.VIDEO, 20));
+        VaultFileItem fav = item("a", VaultFileItem.FileType.IMAGE, 15);
+        fav.isFavourited = true;
+        store.update(fav);
+        store.setCollections("a", Arrays.asList("trip", "best"));
+        store.setExpiry("b", 5000L);
+        store.put(item("c", VaultFileItem.FileType.DOCUMENT, 1));
+        store.remove("c");
+        store.close();
+
+        VaultMetadataStore reopened = open();
+        assertFalse(reopened.isNew());
+        assertEquals(2, reopened.size());
+        assertNull(reopened.get("c"));
+        assertEquals(15, reopened.get("a").encryptedSize);
+        assertEquals(1, reopened.getFavourites().size());
+        assertEquals(1, reopened.countByType(VaultFileItem.FileType.IMAGE));
+        assertEquals(Arrays.asList("trip", "best"), reopened.getCollectionIds("a"));
+        assertEquals("a", reopened.getInCollection("best").get(0).id);
+        assertEquals(5000L, reopened.getExpiry("b"));
+        assertEquals(35, reopened.getTotalEncryptedSize());
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws Exception {
+        putABC();
+        long lastStart = recordOffsets().get(2);
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        VaultMetadataStore store = open();
+        assertEquals(2, store.size());
+        assertNull(store.get("c"));
+        assertEquals(lastStart, journal.length());
+
+        // Appends after the repair stay framed
+        store.put(item("d", VaultFileItem.FileType.AUDIO, 4));
+        store.close();
+        assertNotNull(open().get("d"));
+        assertFalse(new File(journal.getPath() + ".corrupt").exists());
+    }
+
+    @Test
+    public void damagedRecordIsSkippedAndCompactedAway() throws Exception {
+        putABC();
+        long b = recordOffsets().get(1);
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.seek(b + 4 + 12 + 2);              // inside b's ciphertext
+            int v = raf.read();
+            raf.seek(b + 4 + 12 + 2);
+            raf.write(v ^ 0xFF);
+        }
+
+        VaultMetadataStore store = open();
+        assertNotNull(store.get("a"));
+        assertNull(store.get("b"));
+        assertNotNull(store.get("c"));
+        store.close();
+
+        // The rewrite holds only the records that opened
+        assertEquals(2, recordOffsets().size());
+        assertEquals(2, open().size());
+        assertFalse(new File(journal.getPath() + ".corrupt").exists());
+    }
+
+    @Test
+    public void brokenLengthKeepsACorruptCopy() throws Exception {
+        putABC();
+        long b = recordOffsets().get(1);
+        long original = journal.length();
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.seek(b);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+
+        VaultMetadataStore store = open();
+        assertEquals(1, store.size());
+        assertNotNull(store.get("a"));
+        assertEquals(b, journal.length());
+        File corrupt = new File(journal.getPath() + ".corrupt");
+        assertTrue(corrupt.exists());
+        assertEquals(original, corrupt.length());
+    }
+
+    @Test
+    public void failedAppendIsCutOffAndLeavesMemoryAlone() throws Exception {
+        VaultMetadataStore store = open();
+        store.put(item("a", VaultFileItem.FileType.IMAGE, 10));
+        long before = journal.length();
+
+        // Half the record reaches the file, then the write fails
+        store.appendStream = new FilterOutputStream(new FileOutputStream(journal, true)) {
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len / 2);
+                throw new IOException("disk full");
+            }
+        };
+        assertFalse(store.put(item("b", VaultFileItem.FileType.VIDEO, 20)));
+        assertEquals(before, journal.length());
+        assertNull(store.get("b"));
+        assertEquals(10, store.getTotalEncryptedSize());
+
+        assertTrue(store.put(item("c", VaultFileItem.FileType.IMAGE, 30)));
+        store.close();
+        VaultMetadataStore reopened = open();
+        assertEquals(2, reopened.size());
+        assertNotNull(reopened.get("c"));
+    }
+}